@@ -27,6 +27,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
@@ -39,10 +43,13 @@ public class JarResourceLocation extends AbstractURLResourceLocation {
 
     private byte content[];
 
+    private Set<String> packages;
+
     public JarResourceLocation(URL codeSource, File cacheFile) throws IOException {
         super(codeSource);
         try {
             jarFile = new JarFile(cacheFile);
+            packages = index(jarFile);
         } catch (ZipException ze) {
             // We get this exception on windows when the
             // path to the jar file gets too long (Bug ID: 6374379)
@@ -64,6 +71,43 @@ public class JarResourceLocation extends AbstractURLResourceLocation {
         }
     }
 
+    /**
+     * The packages of this jar, as '/'-separated directory names without trailing slash, including the
+     * parent directories of every entry and the empty name of the root directory.
+     *
+     * @return the packages, or null if the jar could not be indexed
+     */
+    public Set<String> getPackages() {
+        return packages;
+    }
+
+    /**
+     * The package of a resource name, that is the directory part without trailing slash
+     *
+     * @param resourceName the resource name
+     * @return the package, or the empty string for the root directory
+     */
+    public static String getPackage(String resourceName) {
+        int i = resourceName.lastIndexOf('/');
+        return i > 0 ? resourceName.substring(0, i) : "";
+    }
+
+    private static Set<String> index(JarFile jarFile) {
+        Set<String> packages = new HashSet<String>();
+        packages.add("");
+        Enumeration<JarEntry> entries = jarFile.entries();
+        while (entries.hasMoreElements()) {
+            String name = entries.nextElement().getName();
+            // add the directory of the entry and all of its parents
+            for (int i = name.lastIndexOf('/'); i > 0; i = name.lastIndexOf('/', i - 1)) {
+                if (!packages.add(name.substring(0, i))) {
+                    break;
+                }
+            }
+        }
+        return Collections.unmodifiableSet(packages);
+    }
+
     public ResourceHandle getResourceHandle(String resourceName) {
         if (jarFile != null) {
             JarEntry jarEntry = jarFile.getJarEntry(resourceName);
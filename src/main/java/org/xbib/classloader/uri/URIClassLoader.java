@@ -31,6 +31,7 @@ import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.security.cert.Certificate;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.jar.Attributes;
 import java.util.jar.Attributes.Name;
 import java.util.jar.Manifest;
@@ -59,9 +60,16 @@ import java.util.jar.Manifest;
  * search path (thus enforcing strict syntax conformance and defining precise
  * escaping semantics), and 2) using custom URLStreamHandler which ensures
  * per-classloader JAR caching policy.
+ * <p/>
+ * The class loader is registered as parallel capable, so classes are loaded
+ * under a lock per class name instead of a lock on the class loader.
  */
 public final class URIClassLoader extends URLClassLoader {
 
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
     private final URIResourceFinder finder = new URIResourceFinder();
 
     private final AccessControlContext acc;
@@ -93,6 +101,17 @@ public final class URIClassLoader extends URLClassLoader {
         return this;
     }
 
+    /**
+     * Add specified URIs at the end of the search path. The class path is rebuilt
+     * once for all URIs.
+     *
+     * @param uris the URIs to add
+     */
+    public URIClassLoader addURIs(List<URI> uris) {
+        finder.add(uris);
+        return this;
+    }
+
     public URI[] getURIs() {
         return finder.getURIs();
     }
@@ -296,10 +315,17 @@ public final class URIClassLoader extends URLClassLoader {
                     throw new SecurityException("sealing violation: " + name);
                 }
             } else { // package not yet defined
-                if (man != null) {
-                    definePackage(pkgname, man, url);
-                } else {
-                    definePackage(pkgname, null, null, null, null, null, null, null);
+                try {
+                    if (man != null) {
+                        definePackage(pkgname, man, url);
+                    } else {
+                        definePackage(pkgname, null, null, null, null, null, null, null);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // another thread has defined the package in the meantime
+                    if (getPackage(pkgname) == null) {
+                        throw e;
+                    }
                 }
             }
         }
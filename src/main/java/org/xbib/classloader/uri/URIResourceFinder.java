@@ -31,7 +31,10 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -42,6 +45,13 @@ import java.util.StringTokenizer;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
+/**
+ * A resource finder over a list of URIs.
+ *
+ * The class path is indexed by package when it is built, so a lookup only asks the jars that contain
+ * the package of the resource, in class path order. Lookups read an immutable snapshot of the index
+ * and do not take the lock, so threads loading classes in parallel do not wait for each other.
+ */
 public class URIResourceFinder implements ResourceFinder {
 
     private final Object lock = new Object();
@@ -52,7 +62,11 @@ public class URIResourceFinder implements ResourceFinder {
 
     private final Set<File> watchedFiles = new LinkedHashSet<File>();
 
-    private boolean destroyed = false;
+    private volatile ClassPathIndex index = new ClassPathIndex(Collections.<ResourceLocation>emptyList());
+
+    private volatile boolean watching = false;
+
+    private volatile boolean destroyed = false;
 
     public URIResourceFinder() {
     }
@@ -68,46 +82,43 @@ public class URIResourceFinder implements ResourceFinder {
                 resourceLocation.close();
             }
             classPath.clear();
+            index = new ClassPathIndex(Collections.<ResourceLocation>emptyList());
         }
     }
 
     public ResourceHandle getResource(String resourceName) {
-        synchronized (lock) {
-            if (destroyed) {
-                return null;
-            }
-            Map<URI, ResourceLocation> path = getClassPath();
-            for (Map.Entry<URI, ResourceLocation> entry : path.entrySet()) {
-                ResourceLocation resourceLocation = entry.getValue();
-                ResourceHandle resourceHandle = resourceLocation.getResourceHandle(resourceName);
-                if (resourceHandle != null && !resourceHandle.isDirectory()) {
-                    return resourceHandle;
-                }
+        ClassPathIndex index = getIndex();
+        if (index == null) {
+            return null;
+        }
+        for (ResourceLocation resourceLocation : index.getLocations(resourceName)) {
+            ResourceHandle resourceHandle = resourceLocation.getResourceHandle(resourceName);
+            if (resourceHandle != null && !resourceHandle.isDirectory()) {
+                return resourceHandle;
             }
         }
         return null;
     }
 
     public URL findResource(String resourceName) {
-        synchronized (lock) {
-            if (destroyed) {
-                return null;
-            }
-            for (Map.Entry<URI, ResourceLocation> entry : getClassPath().entrySet()) {
-                ResourceLocation resourceLocation = entry.getValue();
-                ResourceHandle resourceHandle = resourceLocation.getResourceHandle(resourceName);
-                if (resourceHandle != null) {
-                    return resourceHandle.getUrl();
-                }
+        ClassPathIndex index = getIndex();
+        if (index == null) {
+            return null;
+        }
+        for (ResourceLocation resourceLocation : index.getLocations(resourceName)) {
+            ResourceHandle resourceHandle = resourceLocation.getResourceHandle(resourceName);
+            if (resourceHandle != null) {
+                return resourceHandle.getUrl();
             }
         }
         return null;
     }
 
     public Enumeration<URL> findResources(String resourceName) {
-        synchronized (lock) {
-            return new ResourceEnumeration(new ArrayList<ResourceLocation>(getClassPath().values()), resourceName);
-        }
+        ClassPathIndex index = getIndex();
+        List<ResourceLocation> locations = index != null ?
+                index.getLocations(resourceName) : Collections.<ResourceLocation>emptyList();
+        return new ResourceEnumeration(locations, resourceName);
     }
 
     public void addURI(URI uri) {
@@ -137,15 +148,27 @@ public class URIResourceFinder implements ResourceFinder {
         }
     }
 
-    private Map<URI, ResourceLocation> getClassPath() {
-        assert Thread.holdsLock(lock) : "This method can only be called while holding the lock";
-        for (File file : watchedFiles) {
-            if (file.canRead()) {
-                rebuildClassPath();
-                break;
+    /**
+     * The current index of the class path. The lock is only taken if files are watched that may
+     * have appeared since the last rebuild.
+     *
+     * @return the index, or null if this finder has been destroyed
+     */
+    private ClassPathIndex getIndex() {
+        if (watching) {
+            synchronized (lock) {
+                if (destroyed) {
+                    return null;
+                }
+                for (File file : watchedFiles) {
+                    if (file.canRead()) {
+                        rebuildClassPath();
+                        break;
+                    }
+                }
             }
         }
-        return classPath;
+        return destroyed ? null : index;
     }
 
     /**
@@ -160,6 +183,8 @@ public class URIResourceFinder implements ResourceFinder {
         // copy all of the existing locations into a temp map and clear the class path
         Map<URI, ResourceLocation> existingJarFiles = new LinkedHashMap<URI, ResourceLocation>(classPath);
         classPath.clear();
+        // files that still do not exist are watched again below
+        watchedFiles.clear();
         LinkedList<URI> locationStack = new LinkedList<URI>(uris);
         try {
             while (!locationStack.isEmpty()) {
@@ -208,6 +233,8 @@ public class URIResourceFinder implements ResourceFinder {
             destroy();
             throw e;
         }
+        index = new ClassPathIndex(classPath.values());
+        watching = !watchedFiles.isEmpty();
         for (ResourceLocation resourceLocation : existingJarFiles.values()) {
             resourceLocation.close();
         }
@@ -277,4 +304,45 @@ public class URIResourceFinder implements ResourceFinder {
             return classPathUrls;
         }
     }
+
+    /**
+     * An immutable index of the class path, from package names to the locations containing the
+     * package. Locations that can not be indexed, like directories, are asked for every resource.
+     */
+    private static class ClassPathIndex {
+
+        private final Map<String, List<ResourceLocation>> packages = new HashMap<String, List<ResourceLocation>>();
+
+        private final List<ResourceLocation> unindexed = new ArrayList<ResourceLocation>();
+
+        ClassPathIndex(Collection<ResourceLocation> locations) {
+            for (ResourceLocation resourceLocation : locations) {
+                Set<String> names = getPackages(resourceLocation);
+                if (names != null) {
+                    for (String name : names) {
+                        if (!packages.containsKey(name)) {
+                            // unindexed locations before this one come first
+                            packages.put(name, new ArrayList<ResourceLocation>(unindexed));
+                        }
+                        packages.get(name).add(resourceLocation);
+                    }
+                } else {
+                    for (List<ResourceLocation> list : packages.values()) {
+                        list.add(resourceLocation);
+                    }
+                    unindexed.add(resourceLocation);
+                }
+            }
+        }
+
+        List<ResourceLocation> getLocations(String resourceName) {
+            List<ResourceLocation> list = packages.get(JarResourceLocation.getPackage(resourceName));
+            return list != null ? list : unindexed;
+        }
+
+        private static Set<String> getPackages(ResourceLocation resourceLocation) {
+            return resourceLocation instanceof JarResourceLocation ?
+                    ((JarResourceLocation) resourceLocation).getPackages() : null;
+        }
+    }
 }
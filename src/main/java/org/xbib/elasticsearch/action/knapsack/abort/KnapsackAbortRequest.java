@@ -23,13 +23,26 @@ import java.io.IOException;
 
 public class KnapsackAbortRequest extends SingleCustomOperationRequest<KnapsackAbortRequest> {
 
+    private String id;
+
+    public KnapsackAbortRequest setId(String id) {
+        this.id = id;
+        return this;
+    }
+
+    public String getId() {
+        return id;
+    }
+
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
+        out.writeOptionalString(id);
     }
 
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
+        id = in.readOptionalString();
     }
 }
@@ -25,6 +25,11 @@ public class KnapsackAbortRequestBuilder extends SingleCustomOperationRequestBui
         super(client, new KnapsackAbortRequest());
     }
 
+    public KnapsackAbortRequestBuilder setId(String id) {
+        request.setId(id);
+        return this;
+    }
+
     @Override
     protected void doExecute(ActionListener<KnapsackAbortResponse> listener) {
         client.execute(KnapsackAbortAction.INSTANCE, request, listener);
@@ -40,18 +40,21 @@ public class KnapsackAbortResponse extends ActionResponse implements ToXContent
 
     @Override
     public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
-        builder.field("aborted", abortedTasks > 0);
+        builder.field("aborted", abortedTasks > 0)
+                .field("count", abortedTasks);
         return builder;
     }
 
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
+        abortedTasks = in.readInt();
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
+        out.writeInt(abortedTasks);
     }
 
     @Override
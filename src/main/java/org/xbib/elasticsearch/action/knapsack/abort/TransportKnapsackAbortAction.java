@@ -17,6 +17,7 @@ package org.xbib.elasticsearch.action.knapsack.abort;
 
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.support.TransportAction;
+import org.elasticsearch.client.Client;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.ESLoggerFactory;
@@ -28,11 +29,14 @@ public class TransportKnapsackAbortAction extends TransportAction<KnapsackAbortR
 
     private final static ESLogger logger = ESLoggerFactory.getLogger(KnapsackAbortAction.class.getSimpleName());
 
+    private final Client client;
+
     private final KnapsackService knapsack;
 
     @Inject
-    public TransportKnapsackAbortAction(Settings settings, ThreadPool threadPool, KnapsackService knapsack) {
+    public TransportKnapsackAbortAction(Settings settings, ThreadPool threadPool, Client client, KnapsackService knapsack) {
         super(settings, KnapsackAbortAction.NAME, threadPool);
+        this.client = client;
         this.knapsack = knapsack;
     }
 
@@ -40,7 +44,12 @@ public class TransportKnapsackAbortAction extends TransportAction<KnapsackAbortR
     protected void doExecute(final KnapsackAbortRequest request, ActionListener<KnapsackAbortResponse> listener) {
         final KnapsackAbortResponse response = new KnapsackAbortResponse();
         try {
-            int aborted = knapsack.abort();
+            int aborted;
+            if (request.getId() != null) {
+                aborted = knapsack.abort(client, request.getId()) ? 1 : 0;
+            } else {
+                aborted = knapsack.abort(client);
+            }
             response.setAbortedTasks(aborted);
             listener.onResponse(response);
         } catch (Throwable e) {
@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.knapsack.exp;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.xbib.elasticsearch.knapsack.SidecarFile;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Maps.newLinkedHashMap;
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * The checkpoint of an export, kept in a sidecar file next to the archive.
+ *
+ * The manifest records the work units of the export. A sliced export has a unit for each
+ * shard slice, and the index metadata are a unit of their own. An export without slices is
+ * a single unit. For each unit, the manifest holds the number of exported documents and the
+ * archive parts written so far, including the parts finished by splitting the archive.
+ * A resumed export skips the completed units and redoes the others.
+ *
+ * An incremental export also records the timestamp field and the watermark of each index, that is
+ * the maximum value of the field when the export started. A delta export names the archive it is
+ * based on, and exports only the documents above the watermarks of the base, so a base archive and
+ * its deltas form a chain.
+ *
+ * A partitioned export records the partition field and the bounds of the value ranges, so a resumed
+ * export cuts the same partitions and the completed partitions stay valid.
+ */
+public class ExportManifest {
+
+    /**
+     * The name of the unit of an export without slices
+     */
+    public final static String EXPORT_UNIT = "export";
+
+    private final static String SUFFIX = ".manifest";
+
+    private final Path file;
+
+    private final int slices;
+
+    private boolean metadataCompleted;
+
+    private boolean completed;
+
+    private Path base;
+
+    private String timestampField;
+
+    private final Map<String, Long> watermarks = newLinkedHashMap();
+
+    private String partitionField;
+
+    private List<Double> partitionBounds;
+
+    private final Map<String, Unit> units = newLinkedHashMap();
+
+    public ExportManifest(Path file, int slices) {
+        this.file = file;
+        this.slices = slices;
+    }
+
+    /**
+     * The sidecar manifest file of an archive
+     *
+     * @param path the archive path
+     * @return the manifest path
+     */
+    public static Path manifestPath(Path path) {
+        return SidecarFile.path(path, SUFFIX);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * The archive of this manifest
+     *
+     * @return the archive path
+     */
+    public Path getArchive() {
+        return SidecarFile.archive(file, SUFFIX);
+    }
+
+    public int getSlices() {
+        return slices;
+    }
+
+    public synchronized ExportManifest setMetadataCompleted(boolean metadataCompleted) {
+        this.metadataCompleted = metadataCompleted;
+        return this;
+    }
+
+    public synchronized boolean isMetadataCompleted() {
+        return metadataCompleted;
+    }
+
+    public synchronized ExportManifest setCompleted(boolean completed) {
+        this.completed = completed;
+        return this;
+    }
+
+    public synchronized boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * Set the archive a delta export is based on
+     *
+     * @param base the base archive, or null for a full export
+     * @return this manifest
+     */
+    public synchronized ExportManifest setBase(Path base) {
+        this.base = base;
+        return this;
+    }
+
+    public synchronized Path getBase() {
+        return base;
+    }
+
+    public synchronized ExportManifest setTimestampField(String timestampField) {
+        this.timestampField = timestampField;
+        return this;
+    }
+
+    public synchronized String getTimestampField() {
+        return timestampField;
+    }
+
+    public synchronized ExportManifest setWatermark(String index, long watermark) {
+        watermarks.put(index, watermark);
+        return this;
+    }
+
+    public synchronized Map<String, Long> getWatermarks() {
+        return newLinkedHashMap(watermarks);
+    }
+
+    /**
+     * Set the partitions of the export
+     *
+     * @param partitionField the field whose value range is partitioned
+     * @param partitionBounds the ascending bounds between the partitions
+     * @return this manifest
+     */
+    public synchronized ExportManifest setPartitions(String partitionField, List<Double> partitionBounds) {
+        this.partitionField = partitionField;
+        this.partitionBounds = newArrayList(partitionBounds);
+        return this;
+    }
+
+    public synchronized String getPartitionField() {
+        return partitionField;
+    }
+
+    /**
+     * The bounds between the partitions of the export
+     *
+     * @return the bounds, or null if the partitions are not cut yet
+     */
+    public synchronized List<Double> getPartitionBounds() {
+        return partitionBounds != null ? newArrayList(partitionBounds) : null;
+    }
+
+    /**
+     * All archive files of the export, the archive itself and the parts of the units
+     *
+     * @return the existing archive files
+     */
+    public synchronized List<Path> getArchives() {
+        Set<Path> archives = new LinkedHashSet<Path>();
+        Path archive = getArchive();
+        if (Files.exists(archive)) {
+            archives.add(archive);
+        }
+        for (Unit unit : units.values()) {
+            for (Path part : unit.parts) {
+                if (Files.exists(part)) {
+                    archives.add(part);
+                }
+            }
+        }
+        return newArrayList(archives);
+    }
+
+    public synchronized Unit getUnit(String name) {
+        return units.get(name);
+    }
+
+    public synchronized boolean isCompleted(String name) {
+        Unit unit = units.get(name);
+        return unit != null && unit.completed;
+    }
+
+    /**
+     * Record the progress of a unit
+     *
+     * @param name the unit name
+     * @param count the number of exported documents
+     * @param parts the archive parts of the unit
+     * @param completed true if the unit is complete
+     * @return this manifest
+     */
+    public synchronized ExportManifest update(String name, long count, List<Path> parts, boolean completed) {
+        units.put(name, new Unit(count, parts, completed));
+        return this;
+    }
+
+    /**
+     * Write the manifest atomically, see {@link SidecarFile}
+     *
+     * @throws IOException if the manifest can not be written
+     */
+    public synchronized void save() throws IOException {
+        XContentBuilder builder = jsonBuilder().prettyPrint();
+        builder.startObject()
+                .field("slices", slices)
+                .field("metadata_completed", metadataCompleted)
+                .field("completed", completed)
+                .field("base", base != null ? base.toUri().toString() : null)
+                .field("timestamp_field", timestampField)
+                .startObject("watermarks");
+        for (Map.Entry<String, Long> entry : watermarks.entrySet()) {
+            builder.field(entry.getKey(), entry.getValue());
+        }
+        builder.endObject()
+                .field("partition_field", partitionField);
+        if (partitionBounds != null) {
+            builder.startArray("partition_bounds");
+            for (Double bound : partitionBounds) {
+                builder.value(bound);
+            }
+            builder.endArray();
+        }
+        builder.startObject("units");
+        for (Map.Entry<String, Unit> entry : units.entrySet()) {
+            Unit unit = entry.getValue();
+            builder.startObject(entry.getKey())
+                    .field("count", unit.count)
+                    .field("completed", unit.completed)
+                    .startArray("parts");
+            for (Path part : unit.parts) {
+                builder.value(part.toUri().toString());
+            }
+            builder.endArray().endObject();
+        }
+        builder.endObject().endObject();
+        SidecarFile.write(file, builder);
+    }
+
+    /**
+     * Read a manifest
+     *
+     * @param file the manifest file
+     * @return the manifest, or null if the file does not exist
+     * @throws IOException if the manifest can not be read
+     */
+    @SuppressWarnings("unchecked")
+    public static ExportManifest load(Path file) throws IOException {
+        Map<String, Object> map = SidecarFile.read(file);
+        if (map == null) {
+            return null;
+        }
+        ExportManifest manifest = new ExportManifest(file, ((Number) map.get("slices")).intValue());
+        manifest.metadataCompleted = Boolean.TRUE.equals(map.get("metadata_completed"));
+        manifest.completed = Boolean.TRUE.equals(map.get("completed"));
+        Object base = map.get("base");
+        manifest.base = base != null ? Paths.get(URI.create(base.toString())) : null;
+        Object timestampField = map.get("timestamp_field");
+        manifest.timestampField = timestampField != null ? timestampField.toString() : null;
+        Map<String, Object> watermarks = (Map<String, Object>) map.get("watermarks");
+        if (watermarks != null) {
+            for (Map.Entry<String, Object> entry : watermarks.entrySet()) {
+                manifest.watermarks.put(entry.getKey(), ((Number) entry.getValue()).longValue());
+            }
+        }
+        Object partitionField = map.get("partition_field");
+        manifest.partitionField = partitionField != null ? partitionField.toString() : null;
+        List<Object> partitionBounds = (List<Object>) map.get("partition_bounds");
+        if (partitionBounds != null) {
+            manifest.partitionBounds = newArrayList();
+            for (Object bound : partitionBounds) {
+                manifest.partitionBounds.add(((Number) bound).doubleValue());
+            }
+        }
+        Map<String, Object> units = (Map<String, Object>) map.get("units");
+        if (units != null) {
+            for (Map.Entry<String, Object> entry : units.entrySet()) {
+                Map<String, Object> unit = (Map<String, Object>) entry.getValue();
+                List<Path> parts = newArrayList();
+                List<Object> list = (List<Object>) unit.get("parts");
+                if (list != null) {
+                    for (Object part : list) {
+                        parts.add(Paths.get(URI.create(part.toString())));
+                    }
+                }
+                manifest.units.put(entry.getKey(), new Unit(((Number) unit.get("count")).longValue(), parts,
+                        Boolean.TRUE.equals(unit.get("completed"))));
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * The chain of an archive, from the full export at the beginning to the given archive at the end,
+     * found by following the base of each manifest
+     *
+     * @param path the archive path
+     * @return the manifests of the chain, the full export first
+     * @throws IOException if a manifest of the chain is missing or can not be read
+     */
+    public static List<ExportManifest> chain(Path path) throws IOException {
+        List<ExportManifest> chain = newArrayList();
+        Set<Path> seen = new LinkedHashSet<Path>();
+        Path archive = path;
+        while (archive != null) {
+            if (!seen.add(archive.toAbsolutePath().normalize())) {
+                throw new IOException("archive chain has a cycle at " + archive);
+            }
+            ExportManifest manifest = load(manifestPath(archive));
+            if (manifest == null) {
+                throw new IOException("no export manifest found for archive " + archive);
+            }
+            chain.add(manifest);
+            archive = manifest.getBase();
+        }
+        Collections.reverse(chain);
+        return chain;
+    }
+
+    /**
+     * A work unit of the export
+     */
+    public static class Unit {
+
+        private final long count;
+
+        private final List<Path> parts;
+
+        private final boolean completed;
+
+        Unit(long count, List<Path> parts, boolean completed) {
+            this.count = count;
+            this.parts = parts;
+            this.completed = completed;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public List<Path> getParts() {
+            return parts;
+        }
+
+        public boolean isCompleted() {
+            return completed;
+        }
+    }
+}
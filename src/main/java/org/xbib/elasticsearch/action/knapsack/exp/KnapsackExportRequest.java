@@ -56,6 +56,22 @@ public class KnapsackExportRequest extends SingleCustomOperationRequest<Knapsack
 
     private ByteSizeValue bytesToTransfer = ByteSizeValue.parseBytesSizeValue("0");
 
+    private int slices = 1;
+
+    private boolean compact;
+
+    private int compressThreads = 1;
+
+    private ByteSizeValue compressBlockSize = ByteSizeValue.parseBytesSizeValue("0");
+
+    private boolean resume;
+
+    private Path base;
+
+    private String timestampField;
+
+    private String partitionField;
+
     public String getCluster() {
         return null;
     }
@@ -166,6 +182,99 @@ public class KnapsackExportRequest extends SingleCustomOperationRequest<Knapsack
         return bytesToTransfer;
     }
 
+    public KnapsackExportRequest setSlices(int slices) {
+        this.slices = slices;
+        return this;
+    }
+
+    public int getSlices() {
+        return slices;
+    }
+
+    public KnapsackExportRequest setCompact(boolean compact) {
+        this.compact = compact;
+        return this;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public KnapsackExportRequest setCompressThreads(int compressThreads) {
+        this.compressThreads = compressThreads;
+        return this;
+    }
+
+    public int getCompressThreads() {
+        return compressThreads;
+    }
+
+    public KnapsackExportRequest setCompressBlockSize(ByteSizeValue compressBlockSize) {
+        this.compressBlockSize = compressBlockSize;
+        return this;
+    }
+
+    public ByteSizeValue getCompressBlockSize() {
+        return compressBlockSize;
+    }
+
+    public KnapsackExportRequest setResume(boolean resume) {
+        this.resume = resume;
+        return this;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * Set the archive of a previous export. The export is a delta export, with the documents whose
+     * timestamp is above the watermarks of the base.
+     *
+     * @param base the base archive, or null for a full export
+     * @return this request
+     */
+    public KnapsackExportRequest setBase(Path base) {
+        this.base = base;
+        return this;
+    }
+
+    public Path getBase() {
+        return base;
+    }
+
+    /**
+     * Set the date field for the watermarks. A full export with a timestamp field records the
+     * watermarks, so it can be the base of a delta export.
+     *
+     * @param timestampField the field, for example _timestamp
+     * @return this request
+     */
+    public KnapsackExportRequest setTimestampField(String timestampField) {
+        this.timestampField = timestampField;
+        return this;
+    }
+
+    public String getTimestampField() {
+        return timestampField;
+    }
+
+    /**
+     * Set the numeric or date field for partitioning the export. The slices of the export are ranges
+     * of the field values with about the same number of documents, instead of shard slices.
+     *
+     * @param partitionField the field, or null for shard slices
+     * @return this request
+     */
+    public KnapsackExportRequest setPartitionField(String partitionField) {
+        this.partitionField = partitionField;
+        return this;
+    }
+
+    public String getPartitionField() {
+        return partitionField;
+    }
+
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
@@ -190,6 +299,14 @@ public class KnapsackExportRequest extends SingleCustomOperationRequest<Knapsack
             out.writeBoolean(false);
         }
         bytesToTransfer.writeTo(out);
+        out.writeInt(slices);
+        out.writeBoolean(compact);
+        out.writeInt(compressThreads);
+        out.writeBoolean(resume);
+        out.writeOptionalString(base != null ? base.toUri().toString() : null);
+        out.writeOptionalString(timestampField);
+        out.writeOptionalString(partitionField);
+        compressBlockSize.writeTo(out);
     }
 
     @Override
@@ -211,5 +328,14 @@ public class KnapsackExportRequest extends SingleCustomOperationRequest<Knapsack
             searchRequest.readFrom(in);
         }
         bytesToTransfer.readFrom(in);
+        slices = in.readInt();
+        compact = in.readBoolean();
+        compressThreads = in.readInt();
+        resume = in.readBoolean();
+        String baseUri = in.readOptionalString();
+        base = baseUri != null ? Paths.get(URI.create(baseUri)) : null;
+        timestampField = in.readOptionalString();
+        partitionField = in.readOptionalString();
+        compressBlockSize = ByteSizeValue.readBytesSizeValue(in);
     }
 }
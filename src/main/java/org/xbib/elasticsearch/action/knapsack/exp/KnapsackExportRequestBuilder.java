@@ -83,6 +83,46 @@ public class KnapsackExportRequestBuilder extends SingleCustomOperationRequestBu
         return this;
     }
 
+    public KnapsackExportRequestBuilder setSlices(int slices) {
+        request.setSlices(slices);
+        return this;
+    }
+
+    public KnapsackExportRequestBuilder setCompact(boolean compact) {
+        request.setCompact(compact);
+        return this;
+    }
+
+    public KnapsackExportRequestBuilder setCompressThreads(int compressThreads) {
+        request.setCompressThreads(compressThreads);
+        return this;
+    }
+
+    public KnapsackExportRequestBuilder setCompressBlockSize(ByteSizeValue compressBlockSize) {
+        request.setCompressBlockSize(compressBlockSize);
+        return this;
+    }
+
+    public KnapsackExportRequestBuilder setResume(boolean resume) {
+        request.setResume(resume);
+        return this;
+    }
+
+    public KnapsackExportRequestBuilder setBase(Path base) {
+        request.setBase(base);
+        return this;
+    }
+
+    public KnapsackExportRequestBuilder setTimestampField(String timestampField) {
+        request.setTimestampField(timestampField);
+        return this;
+    }
+
+    public KnapsackExportRequestBuilder setPartitionField(String partitionField) {
+        request.setPartitionField(partitionField);
+        return this;
+    }
+
     @Override
     protected void doExecute(ActionListener<KnapsackExportResponse> listener) {
         client.execute(KnapsackExportAction.INSTANCE, request, listener);
@@ -24,7 +24,10 @@ import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.action.support.TransportAction;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.collect.ImmutableSet;
+import org.elasticsearch.common.collect.Maps;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.joda.time.DateTime;
 import org.elasticsearch.common.logging.ESLogger;
@@ -32,13 +35,25 @@ import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsFilter;
 import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.index.query.BoolFilterBuilder;
+import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.RangeFilterBuilder;
 import org.elasticsearch.node.service.NodeService;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.metrics.max.Max;
+import org.elasticsearch.search.aggregations.metrics.percentiles.Percentiles;
+import org.elasticsearch.search.aggregations.metrics.valuecount.ValueCount;
 import org.elasticsearch.threadpool.ThreadPool;
+import org.xbib.elasticsearch.knapsack.KnapsackMetrics;
 import org.xbib.elasticsearch.knapsack.KnapsackService;
 import org.xbib.elasticsearch.knapsack.KnapsackState;
 import org.xbib.io.Session;
+import org.xbib.io.archive.ArchiveDocument;
 import org.xbib.io.archive.ArchivePacket;
 import org.xbib.io.archive.ArchiveService;
 import org.xbib.io.archive.ArchiveSession;
@@ -47,16 +62,32 @@ import org.xbib.io.BytesProgressWatcher;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.elasticsearch.client.Requests.createIndexRequest;
+import static org.elasticsearch.common.collect.Lists.newArrayList;
 import static org.elasticsearch.common.collect.Maps.newHashMap;
+import static org.elasticsearch.common.collect.Maps.newLinkedHashMap;
 import static org.elasticsearch.common.collect.Sets.newHashSet;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getAliases;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getMapping;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.copySearchRequest;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getMaxNumberOfShards;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getPreference;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getSettings;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.mapIndex;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.mapType;
@@ -65,6 +96,10 @@ public class TransportKnapsackExportAction extends TransportAction<KnapsackExpor
 
     private final static ESLogger logger = ESLoggerFactory.getLogger(KnapsackExportAction.class.getSimpleName());
 
+    private final static long STATE_UPDATE_INTERVAL_MILLIS = 5000L;
+
+    private final static String SHARD_SLICE_PREFIX = "slice";
+
     private final SettingsFilter settingsFilter;
 
     private final Client client;
@@ -96,23 +131,102 @@ public class TransportKnapsackExportAction extends TransportAction<KnapsackExpor
             if (path == null) {
                 path = new File("_all.tar.gz").toPath();
             }
+            ExportManifest checkpoint = request.isResume() ? ExportManifest.load(ExportManifest.manifestPath(path)) : null;
+            if (checkpoint != null && checkpoint.isCompleted()) {
+                response.setRunning(false).setReason("export is already complete: " + path);
+                listener.onResponse(response);
+                return;
+            }
+            if (checkpoint != null && checkpoint.getSlices() != request.getSlices()) {
+                response.setRunning(false).setReason("can not resume export with " + request.getSlices()
+                        + " slices, the checkpoint has " + checkpoint.getSlices() + " slices");
+                listener.onResponse(response);
+                return;
+            }
+            if (checkpoint != null && checkpoint.getPartitionField() != null
+                    && !checkpoint.getPartitionField().equals(request.getPartitionField())) {
+                response.setRunning(false).setReason("can not resume export partitioned by " + request.getPartitionField()
+                        + ", the checkpoint is partitioned by " + checkpoint.getPartitionField());
+                listener.onResponse(response);
+                return;
+            }
+            if (checkpoint != null && checkpoint.getPartitionField() == null && request.getPartitionField() != null
+                    && checkpoint.getUnit(SHARD_SLICE_PREFIX + 0) != null) {
+                response.setRunning(false).setReason("can not resume export partitioned by " + request.getPartitionField()
+                        + ", the checkpoint is sliced by shards");
+                listener.onResponse(response);
+                return;
+            }
+            if (request.getPartitionField() != null && request.getSlices() <= 1) {
+                response.setRunning(false).setReason("a partitioned export needs more than one slice");
+                listener.onResponse(response);
+                return;
+            }
+            if (request.getPartitionField() != null && (checkpoint == null || checkpoint.getPartitionBounds() == null)
+                    && isMultiValued(request, request.getPartitionField())) {
+                response.setRunning(false).setReason("can not partition by " + request.getPartitionField()
+                        + ", documents with more than one value would be exported more than once");
+                listener.onResponse(response);
+                return;
+            }
+            // only the archives of a run recorded in a checkpoint are written over when resuming
+            final boolean resumed = checkpoint != null;
+            if (checkpoint == null) {
+                if (request.isResume()) {
+                    logger.info("no checkpoint found for {}, starting a new export", path);
+                }
+                checkpoint = new ExportManifest(ExportManifest.manifestPath(path), request.getSlices());
+            }
+            final Map<String, Long> baseWatermarks;
+            if (request.getBase() != null) {
+                ExportManifest base = ExportManifest.load(ExportManifest.manifestPath(request.getBase()));
+                String reason = null;
+                if (base == null || !base.isCompleted()) {
+                    reason = "base export is not complete: " + request.getBase();
+                } else if (base.getTimestampField() == null) {
+                    reason = "base export has no watermarks, export it with a timestamp field: " + request.getBase();
+                } else if (request.getTimestampField() != null && !request.getTimestampField().equals(base.getTimestampField())) {
+                    reason = "timestamp field " + request.getTimestampField() + " differs from the timestamp field "
+                            + base.getTimestampField() + " of the base export";
+                }
+                if (reason != null) {
+                    response.setRunning(false).setReason(reason);
+                    listener.onResponse(response);
+                    return;
+                }
+                checkpoint.setBase(request.getBase()).setTimestampField(base.getTimestampField());
+                baseWatermarks = base.getWatermarks();
+            } else {
+                checkpoint.setTimestampField(request.getTimestampField());
+                baseWatermarks = null;
+            }
+            final ExportManifest manifest = checkpoint;
             ByteSizeValue bytesToTransfer = request.getBytesToTransfer();
             BytesProgressWatcher watcher = new BytesProgressWatcher(bytesToTransfer.bytes());
             final ArchiveSession session = ArchiveService.newSession(path, watcher);
-            EnumSet<Session.Mode> mode = EnumSet.of(request.isOverwriteAllowed() ?
-                            Session.Mode.OVERWRITE : Session.Mode.WRITE,
-                    request.isEncodeEntry() ? Session.Mode.URI_ENCODED : Session.Mode.NONE);
-            session.open(mode, path, path.toFile());
-            if (session.isOpen()) {
+            session.setCompressThreads(request.getCompressThreads());
+            session.setCompressBlockSize((int) Math.min(Integer.MAX_VALUE, request.getCompressBlockSize().bytes()));
+            EnumSet<Session.Mode> mode = getMode(request, resumed);
+            // the archive of a sliced export holds the metadata only, it is not written again when resuming
+            if (!manifest.isMetadataCompleted()) {
+                session.open(mode, path, path.toFile());
+            }
+            if (manifest.isMetadataCompleted() || session.isOpen()) {
                 state.setPath(path).setTimestamp(new DateTime());
                 response.setRunning(true);
-                knapsack.submit(new Thread() {
-                    public void run() {
-                        performExport(request, state, session);
-                    }
-                });
-                // ensure to add export to state before response is sent
+                final KnapsackMetrics metrics = new KnapsackMetrics().addSession(session);
+                // ensure to add export to state before the job runs and before response is sent
                 knapsack.addExport(client, state);
+                try {
+                    knapsack.submit(state, metrics, new Thread() {
+                        public void run() {
+                            performExport(request, state, metrics, session, manifest, baseWatermarks);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    knapsack.removeExport(client, state);
+                    throw e;
+                }
             } else {
                 response.setRunning(false).setReason("session can not be opened: mode=" + mode + " path=" + path);
             }
@@ -128,13 +242,22 @@ public class TransportKnapsackExportAction extends TransportAction<KnapsackExpor
      *
      * @param request request
      * @param state state
+     * @param metrics the live metrics of the export
      * @param session session
+     * @param manifest the checkpoint of the export
+     * @param baseWatermarks the watermarks of the base of a delta export, or null
      */
     final void performExport(final KnapsackExportRequest request,
                             final KnapsackState state,
-                            final ArchiveSession session) {
+                            final KnapsackMetrics metrics,
+                            final ArchiveSession session,
+                            final ExportManifest manifest,
+                            final Map<String, Long> baseWatermarks) {
         try {
             logger.info("start of export: {}", state);
+            if (request.getSlices() <= 1) {
+                manifest.update(ExportManifest.EXPORT_UNIT, 0L, session.getArchiveParts(), false).save();
+            }
             Map<String,Set<String>> indices = newHashMap();
             for (String s : Strings.commaDelimitedListToSet(request.getIndex())) {
                 indices.put(s, Strings.commaDelimitedListToSet(request.getType()));
@@ -161,46 +284,48 @@ public class TransportKnapsackExportAction extends TransportAction<KnapsackExpor
                         }
                     }
                 }
-                // get settings for all indices
-                logger.info("getting settings for indices {}", indices.keySet());
-                Set<String> settingsIndices = newHashSet(indices.keySet());
-                settingsIndices.remove("_all");
-                Map<String, String> settings = getSettings(client, settingsFilter, settingsIndices.toArray(new String[settingsIndices.size()]));
-                logger.info("found indices: {}", settings.keySet());
-                // we resolved the specs in indices to the real indices in the settings
-                // get mapping and alias per index and create index if copy mode is enabled
-                for (String index : settings.keySet()) {
-                    CreateIndexRequest createIndexRequest = createIndexRequest(mapIndex(request, index));
-                    ArchivePacket packet = new ArchivePacket();
-                    packet.meta("index", mapIndex(request, index));
-                    packet.meta("type", "_settings");
-                    packet.payload(settings.get(index));
-                    session.write(packet);
-                    Set<String> types = indices.get(index);
-                    createIndexRequest.settings(settings.get(index));
-                    logger.info("getting mappings for index {} and types {}", index, types);
-                    Map<String, String> mappings = getMapping(client, index, types != null ? ImmutableSet.copyOf(types) : null);
-                    logger.info("found mappings: {}", mappings.keySet());
-                    for (String type : mappings.keySet()) {
-                        packet = new ArchivePacket();
-                        packet.meta("index", mapIndex(request, index));
-                        packet.meta("type", mapType(request, index, type));
-                        packet.meta("id",  "_mapping");
-                        packet.payload(mappings.get(type));
-                        session.write(packet);
-                        logger.info("adding mapping: {}", mapType(request, index, type));
-                        createIndexRequest.mapping(mapType(request, index, type), mappings.get(type));
-                    }
-                    logger.info("getting aliases for index {}", index);
-                    Map<String,String> aliases = getAliases(client, index);
-                    logger.info("found {} aliases", aliases.size());
-                    for (String alias : aliases.keySet()) {
-                        packet = new ArchivePacket();
+                if (!manifest.isMetadataCompleted()) {
+                    // get settings for all indices
+                    logger.info("getting settings for indices {}", indices.keySet());
+                    Set<String> settingsIndices = newHashSet(indices.keySet());
+                    settingsIndices.remove("_all");
+                    Map<String, String> settings = getSettings(client, settingsFilter, settingsIndices.toArray(new String[settingsIndices.size()]));
+                    logger.info("found indices: {}", settings.keySet());
+                    // we resolved the specs in indices to the real indices in the settings
+                    // get mapping and alias per index and create index if copy mode is enabled
+                    for (String index : settings.keySet()) {
+                        CreateIndexRequest createIndexRequest = createIndexRequest(mapIndex(request, index));
+                        ArchivePacket packet = new ArchivePacket();
                         packet.meta("index", mapIndex(request, index));
-                        packet.meta("type", alias);
-                        packet.meta("id",  "_alias");
-                        packet.payload(aliases.get(alias));
+                        packet.meta("type", "_settings");
+                        packet.payload(settings.get(index));
                         session.write(packet);
+                        Set<String> types = indices.get(index);
+                        createIndexRequest.settings(settings.get(index));
+                        logger.info("getting mappings for index {} and types {}", index, types);
+                        Map<String, String> mappings = getMapping(client, index, types != null ? ImmutableSet.copyOf(types) : null);
+                        logger.info("found mappings: {}", mappings.keySet());
+                        for (String type : mappings.keySet()) {
+                            packet = new ArchivePacket();
+                            packet.meta("index", mapIndex(request, index));
+                            packet.meta("type", mapType(request, index, type));
+                            packet.meta("id",  "_mapping");
+                            packet.payload(mappings.get(type));
+                            session.write(packet);
+                            logger.info("adding mapping: {}", mapType(request, index, type));
+                            createIndexRequest.mapping(mapType(request, index, type), mappings.get(type));
+                        }
+                        logger.info("getting aliases for index {}", index);
+                        Map<String,String> aliases = getAliases(client, index);
+                        logger.info("found {} aliases", aliases.size());
+                        for (String alias : aliases.keySet()) {
+                            packet = new ArchivePacket();
+                            packet.meta("index", mapIndex(request, index));
+                            packet.meta("type", alias);
+                            packet.meta("id",  "_alias");
+                            packet.payload(aliases.get(alias));
+                            session.write(packet);
+                        }
                     }
                 }
             }
@@ -208,65 +333,500 @@ public class TransportKnapsackExportAction extends TransportAction<KnapsackExpor
             if (searchRequest == null) {
                 searchRequest = new SearchRequestBuilder(client).setQuery(QueryBuilders.matchAllQuery()).request();
             }
+            if (manifest.getTimestampField() != null) {
+                applyWatermarks(manifest, indices, searchRequest, baseWatermarks);
+            }
+            if (request.getSlices() > 1) {
+                // the metadata archive is complete, only the slices have to be redone when resuming
+                session.close();
+                manifest.setMetadataCompleted(true).save();
+                boolean completed = performSlicedExport(request, state, metrics, manifest, indices, searchRequest);
+                manifest.setCompleted(completed).save();
+            } else {
+                for (String index : indices.keySet()) {
+                    searchRequest.searchType(SearchType.SCAN).scroll(request.getTimeout());
+                    if (!"_all".equals(index)) {
+                        searchRequest.indices(index);
+                    }
+                    Set<String> types = indices.get(index);
+                    if (types != null) {
+                        searchRequest.types(types.toArray(new String[types.size()]));
+                    }
+                    // use local node client here
+                    SearchResponse searchResponse = client.search(searchRequest).actionGet();
+                    metrics.addTotalDocs(searchResponse.getHits().getTotalHits());
+                    long total = 0L;
+                    while (searchResponse.getScrollId() != null && !Thread.currentThread().isInterrupted()) {
+                        long t0 = System.nanoTime();
+                        searchResponse = client.prepareSearchScroll(searchResponse.getScrollId())
+                                .setScroll(request.getTimeout())
+                                .execute()
+                                .actionGet();
+                        metrics.getScrollLatency().record((System.nanoTime() - t0) / 1000000L);
+                        long hits = searchResponse.getHits().getHits().length;
+                        if (hits == 0) {
+                            break;
+                        }
+                        total += hits;
+                        metrics.addDocs(hits);
+                        logger.debug("total={} hits={} took={}", total, hits, searchResponse.getTookInMillis());
+                        for (SearchHit hit : searchResponse.getHits()) {
+                            writeSearchHit(request, session, hit);
+                        }
+                    }
+                }
+                session.close();
+                boolean completed = !Thread.currentThread().isInterrupted();
+                manifest.update(ExportManifest.EXPORT_UNIT, session.getPacketCounter(), session.getArchiveParts(),
+                        completed)
+                        .setCompleted(completed)
+                        .save();
+            }
+            logger.info("end of export: {}, packets = {}, total bytes transferred = {}, rate = {}",
+                    state, session.getPacketCounter(),
+                    session.getWatcher().getTotalBytesInAllTransfers(),
+                    String.format("%f", session.getWatcher().getRecentByteRatePerSecond()));
+        } catch (Throwable e) {
+            logger.error(e.getMessage(), e);
+        } finally {
+            try {
+                knapsack.removeExport(client, state);
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Record the watermark of each index, the maximum value of the timestamp field before the export
+     * begins. For a delta export, add a filter to the search request, so only documents above the
+     * watermarks of the base are exported. Indices without a watermark in the base are exported
+     * completely. Documents written while the export runs may be exported again by the next delta.
+     *
+     * @param manifest the manifest of the export
+     * @param indices the indices and types to export
+     * @param searchRequest the search request
+     * @param baseWatermarks the watermarks of the base, or null for a full export
+     * @throws IOException if the indices can not be resolved
+     */
+    private void applyWatermarks(ExportManifest manifest,
+                                 Map<String,Set<String>> indices,
+                                 SearchRequest searchRequest,
+                                 Map<String, Long> baseWatermarks) throws IOException {
+        String field = manifest.getTimestampField();
+        Set<String> watermarkIndices = newHashSet(indices.keySet());
+        watermarkIndices.remove("_all");
+        // resolve the concrete indices
+        Set<String> concreteIndices = getSettings(client, settingsFilter,
+                watermarkIndices.toArray(new String[watermarkIndices.size()])).keySet();
+        BoolFilterBuilder filter = null;
+        for (String index : concreteIndices) {
+            SearchResponse searchResponse = client.prepareSearch(index)
+                    .setSize(0)
+                    .addAggregation(AggregationBuilders.max("watermark").field(field))
+                    .execute().actionGet();
+            Max max = searchResponse.getAggregations().get("watermark");
+            Long previous = baseWatermarks != null ? baseWatermarks.get(index) : null;
+            double value = max.getValue();
+            if (!Double.isInfinite(value) && !Double.isNaN(value)) {
+                manifest.setWatermark(index, previous != null ? Math.max(previous, (long) value) : (long) value);
+            } else if (previous != null) {
+                manifest.setWatermark(index, previous);
+            }
+            if (previous != null) {
+                // documents at the watermark may have been written after the base took its watermark,
+                // they are exported again, importing them twice does no harm
+                if (filter == null) {
+                    filter = FilterBuilders.boolFilter();
+                }
+                filter.must(FilterBuilders.indicesFilter(FilterBuilders.rangeFilter(field).gte(previous), index)
+                        .noMatchFilter("all"));
+            }
+        }
+        logger.info("watermarks of field {}: {}", field, manifest.getWatermarks());
+        if (filter != null) {
+            addPostFilter(searchRequest, filter);
+            logger.info("delta export above the watermarks of the base: {}", baseWatermarks);
+        }
+    }
+
+    /**
+     * Add a filter to the post filter of a search request. The extra source from the request parameters,
+     * like the scroll size, is kept, and a post filter already in the extra source must match, too.
+     *
+     * @param searchRequest the search request
+     * @param filter the filter
+     */
+    private static void addPostFilter(SearchRequest searchRequest, FilterBuilder filter) {
+        // a copied search request has an empty extra source instead of none
+        Map<String, Object> extraSource = searchRequest.extraSource() != null && searchRequest.extraSource().length() > 0 ?
+                XContentHelper.convertToMap(searchRequest.extraSource(), true).v2() : Maps.<String, Object>newHashMap();
+        Map<String, Object> postFilter = XContentHelper.convertToMap(filter.buildAsBytes(), true).v2();
+        Object previous = extraSource.get("post_filter");
+        if (previous != null) {
+            Map<String, Object> bool = newHashMap();
+            bool.put("must", Arrays.asList(previous, postFilter));
+            postFilter = newHashMap();
+            postFilter.put("bool", bool);
+        }
+        extraSource.put("post_filter", postFilter);
+        searchRequest.extraSource(extraSource);
+    }
+
+    /**
+     * Export slices in parallel. Each slice scrolls over a disjoint subset of the documents and
+     * writes to its own archive file. Shard slices select a subset of shards by a search preference.
+     * With a partition field, the slices are ranges of the field values instead. Slices which are complete
+     * in the checkpoint are skipped, the archive parts of unfinished slices are removed and the
+     * slices are exported again.
+     *
+     * @param request request
+     * @param state state
+     * @param metrics the live metrics of the export
+     * @param manifest the checkpoint of the export
+     * @param indices the indices and types to export
+     * @param searchRequest the search request template
+     * @return true if all slices are complete
+     * @throws IOException if slice archives can not be opened, or if a slice fails
+     * @throws InterruptedException if the export was interrupted
+     */
+    private boolean performSlicedExport(final KnapsackExportRequest request,
+                                        final KnapsackState state,
+                                        final KnapsackMetrics metrics,
+                                        final ExportManifest manifest,
+                                        final Map<String,Set<String>> indices,
+                                        final SearchRequest searchRequest) throws IOException, InterruptedException {
+        final List<Slice> slices = request.getPartitionField() != null ?
+                getPartitions(request, manifest, indices) : getShardSlices(request, indices);
+        if (slices.isEmpty()) {
+            return true;
+        }
+        final AtomicLong lastStateUpdate = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(slices.size(),
+                EsExecutors.daemonThreadFactory("knapsack-export-slice"));
+        try {
+            CompletionService<Long> completionService = new ExecutorCompletionService<Long>(executor);
+            List<Future<Long>> futures = newArrayList();
+            for (final Slice slice : slices) {
+                final String name = slice.name;
+                ExportManifest.Unit unit = manifest.getUnit(name);
+                if (unit != null && unit.isCompleted()) {
+                    logger.info("slice {} is complete in the checkpoint, skipping", name);
+                    state.setProgress(name, unit.getCount());
+                    continue;
+                }
+                if (unit != null) {
+                    // remove the parts of the interrupted run, the slice may be split differently this time
+                    for (Path part : unit.getParts()) {
+                        Files.deleteIfExists(part);
+                    }
+                }
+                final Path slicePath = state.getPath().resolveSibling(name + "." + state.getPath().getFileName());
+                final ArchiveSession sliceSession = ArchiveService.newSession(slicePath,
+                        new BytesProgressWatcher(request.getBytesToTransfer().bytes()));
+                sliceSession.setCompressThreads(request.getCompressThreads());
+                sliceSession.setCompressBlockSize((int) Math.min(Integer.MAX_VALUE, request.getCompressBlockSize().bytes()));
+                sliceSession.open(getMode(request, unit != null), slicePath, slicePath.toFile());
+                metrics.addSession(sliceSession);
+                state.setProgress(name, 0L);
+                manifest.update(name, 0L, sliceSession.getArchiveParts(), false);
+                futures.add(completionService.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return exportSlice(request, state, metrics, manifest, sliceSession, indices, searchRequest,
+                                slice, lastStateUpdate);
+                    }
+                }));
+            }
+            manifest.save();
+            // the first failed slice stops the export, the other slices are cancelled
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException e) {
+                    for (Future<Long> future : futures) {
+                        future.cancel(true);
+                    }
+                    throw new IOException("export slice failed", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        for (Slice slice : slices) {
+            if (!manifest.isCompleted(slice.name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Distribute the shards of the indices over the slices
+     *
+     * @param request request
+     * @param indices the indices and types to export
+     * @return the shard slices
+     */
+    private List<Slice> getShardSlices(KnapsackExportRequest request, Map<String,Set<String>> indices) {
+        List<Slice> list = newArrayList();
+        Set<String> shardIndices = newHashSet(indices.keySet());
+        shardIndices.remove("_all");
+        int shards = getMaxNumberOfShards(client, shardIndices.toArray(new String[shardIndices.size()]));
+        if (shards == 0) {
+            logger.warn("no shards found for indices {}, nothing to export", indices.keySet());
+            return list;
+        }
+        int slices = Math.min(request.getSlices(), shards);
+        logger.info("exporting {} shards in {} slices", shards, slices);
+        for (int i = 0; i < slices; i++) {
+            list.add(new Slice(SHARD_SLICE_PREFIX + i, getPreference(i, slices, shards), null));
+        }
+        return list;
+    }
+
+    /**
+     * Cut the value range of the partition field into partitions with about the same number of documents.
+     * The bounds are the percentiles of the field values, so a single aggregation request finds them.
+     * Documents without a value in the field are exported in a partition of their own. A resumed export
+     * takes the bounds from the checkpoint.
+     *
+     * @param request request
+     * @param manifest the checkpoint of the export
+     * @param indices the indices and types to export
+     * @return the partitions
+     */
+    private List<Slice> getPartitions(KnapsackExportRequest request,
+                                      ExportManifest manifest,
+                                      Map<String,Set<String>> indices) {
+        String field = request.getPartitionField();
+        List<Double> bounds = manifest.getPartitionBounds();
+        if (bounds == null) {
+            int partitions = request.getSlices();
+            double[] percents = new double[partitions - 1];
+            for (int i = 1; i < partitions; i++) {
+                percents[i - 1] = 100.0 * i / partitions;
+            }
+            Set<String> partitionIndices = newHashSet(indices.keySet());
+            partitionIndices.remove("_all");
+            SearchResponse searchResponse = client.prepareSearch(partitionIndices.toArray(new String[partitionIndices.size()]))
+                    .setSize(0)
+                    .addAggregation(AggregationBuilders.percentiles("partitions").field(field).percentiles(percents))
+                    .execute().actionGet();
+            Percentiles percentiles = searchResponse.getAggregations().get("partitions");
+            bounds = newArrayList();
+            for (double percent : percents) {
+                double value = percentiles.percentile(percent);
+                // many documents with the same value make fewer partitions
+                if (!Double.isNaN(value) && !Double.isInfinite(value)
+                        && (bounds.isEmpty() || value > bounds.get(bounds.size() - 1))) {
+                    bounds.add(value);
+                }
+            }
+            manifest.setPartitions(field, bounds);
+        }
+        logger.info("exporting {} partitions of field {} with bounds {}", bounds.size() + 1, field, bounds);
+        List<Slice> list = newArrayList();
+        for (int i = 0; i <= bounds.size(); i++) {
+            RangeFilterBuilder range = FilterBuilders.rangeFilter(field);
+            if (i > 0) {
+                range.gte(bounds.get(i - 1));
+            }
+            if (i < bounds.size()) {
+                range.lt(bounds.get(i));
+            }
+            list.add(new Slice("partition" + i, null, range));
+        }
+        list.add(new Slice("partition_missing", null, FilterBuilders.missingFilter(field)));
+        return list;
+    }
+
+    /**
+     * Check if documents have more than one value in a field. Such a document would fall into more than one
+     * value range and would be exported by more than one partition.
+     *
+     * @param request request
+     * @param field the field
+     * @return true if there are more values of the field than documents with a value in the field
+     */
+    private boolean isMultiValued(KnapsackExportRequest request, String field) {
+        Set<String> indices = Strings.commaDelimitedListToSet(request.getIndex());
+        indices.remove("_all");
+        SearchResponse searchResponse = client.prepareSearch(indices.toArray(new String[indices.size()]))
+                .setSize(0)
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), FilterBuilders.existsFilter(field)))
+                .addAggregation(AggregationBuilders.count("values").field(field))
+                .execute().actionGet();
+        ValueCount values = searchResponse.getAggregations().get("values");
+        return values.getValue() > searchResponse.getHits().getTotalHits();
+    }
+
+    /**
+     * Slice export thread
+     *
+     * @param request request
+     * @param state state
+     * @param metrics the live metrics of the export
+     * @param manifest the checkpoint of the export
+     * @param session the archive session of the slice
+     * @param indices the indices and types to export
+     * @param searchRequest the search request template
+     * @param slice the slice
+     * @param lastStateUpdate the time of the last state update, shared by all slices
+     * @return the number of exported hits
+     * @throws IOException if export fails
+     */
+    private long exportSlice(final KnapsackExportRequest request,
+                             final KnapsackState state,
+                             final KnapsackMetrics metrics,
+                             final ExportManifest manifest,
+                             final ArchiveSession session,
+                             final Map<String,Set<String>> indices,
+                             final SearchRequest searchRequest,
+                             final Slice slice,
+                             final AtomicLong lastStateUpdate) throws IOException {
+        final String name = slice.name;
+        long total = 0L;
+        try {
+            logger.info("start of export slice {}", name);
             for (String index : indices.keySet()) {
-                searchRequest.searchType(SearchType.SCAN).scroll(request.getTimeout());
+                SearchRequest sliceRequest = copySearchRequest(searchRequest);
+                sliceRequest.searchType(SearchType.SCAN)
+                        .scroll(request.getTimeout());
+                if (slice.preference != null) {
+                    sliceRequest.preference(slice.preference);
+                }
+                if (slice.filter != null) {
+                    addPostFilter(sliceRequest, slice.filter);
+                }
                 if (!"_all".equals(index)) {
-                    searchRequest.indices(index);
+                    sliceRequest.indices(index);
                 }
                 Set<String> types = indices.get(index);
                 if (types != null) {
-                    searchRequest.types(types.toArray(new String[types.size()]));
+                    sliceRequest.types(types.toArray(new String[types.size()]));
                 }
-                // use local node client here
-                SearchResponse searchResponse = client.search(searchRequest).actionGet();
-                long total = 0L;
-                while (searchResponse.getScrollId() != null && !Thread.interrupted()) {
+                SearchResponse searchResponse = client.search(sliceRequest).actionGet();
+                metrics.addTotalDocs(searchResponse.getHits().getTotalHits());
+                while (searchResponse.getScrollId() != null && !Thread.currentThread().isInterrupted()) {
+                    long t0 = System.nanoTime();
                     searchResponse = client.prepareSearchScroll(searchResponse.getScrollId())
                             .setScroll(request.getTimeout())
                             .execute()
                             .actionGet();
+                    metrics.getScrollLatency().record((System.nanoTime() - t0) / 1000000L);
                     long hits = searchResponse.getHits().getHits().length;
                     if (hits == 0) {
                         break;
                     }
                     total += hits;
-                    logger.debug("total={} hits={} took={}", total, hits, searchResponse.getTookInMillis());
+                    metrics.addDocs(hits);
+                    logger.debug("slice={} total={} hits={} took={}", name, total, hits, searchResponse.getTookInMillis());
                     for (SearchHit hit : searchResponse.getHits()) {
-                        for (String f : hit.getFields().keySet()) {
-                            ArchivePacket packet = new ArchivePacket();
-                            packet.meta("index", mapIndex(request, hit.getIndex()));
-                            packet.meta("type", mapType(request, hit.getIndex(), hit.getType()));
-                            packet.meta("id", hit.getId());
-                            packet.meta("field", f);
-                            packet.payload(hit.getFields().get(f).getValue().toString());
-                            session.write(packet);
-                        }
-                        if (!hit.getFields().keySet().contains("_source")) {
-                            ArchivePacket packet = new ArchivePacket();
-                            packet.meta("index", mapIndex(request, hit.getIndex()));
-                            packet.meta("type", mapType(request, hit.getIndex(), hit.getType()));
-                            packet.meta("id", hit.getId());
-                            packet.meta("field", "_source");
-                            packet.payload(hit.getSourceAsString());
-                            session.write(packet);
-                        }
+                        writeSearchHit(request, session, hit);
                     }
+                    state.setProgress(name, total);
+                    manifest.update(name, total, session.getArchiveParts(), false);
+                    updateState(state, manifest, lastStateUpdate);
                 }
             }
-            session.close();
-            logger.info("end of export: {}, packets = {}, total bytes transferred = {}, rate = {}",
-                    state, session.getPacketCounter(),
-                    session.getWatcher().getTotalBytesInAllTransfers(),
-                    String.format("%f", session.getWatcher().getRecentByteRatePerSecond()));
-        } catch (Throwable e) {
-            logger.error(e.getMessage(), e);
+            logger.info("end of export slice {}: packets = {}, total bytes transferred = {}",
+                    name, session.getPacketCounter(), session.getWatcher().getTotalBytesInAllTransfers());
         } finally {
+            session.close();
+        }
+        // a slice which was interrupted is not complete
+        if (!Thread.currentThread().isInterrupted()) {
+            manifest.update(name, total, session.getArchiveParts(), true).save();
+        }
+        return total;
+    }
+
+    private void updateState(KnapsackState state, ExportManifest manifest, AtomicLong lastStateUpdate) {
+        long now = System.currentTimeMillis();
+        long last = lastStateUpdate.get();
+        if (now - last >= STATE_UPDATE_INTERVAL_MILLIS && lastStateUpdate.compareAndSet(last, now)) {
             try {
-                knapsack.removeExport(client, state);
+                manifest.save();
+                knapsack.updateExport(client, state);
             } catch (IOException e) {
-                logger.error(e.getMessage(), e);
+                logger.warn("can not save export checkpoint: " + e.getMessage(), e);
             }
         }
     }
 
+    private void writeSearchHit(KnapsackExportRequest request, ArchiveSession session, SearchHit hit)
+            throws IOException {
+        // the bulk format has one entry per document already
+        if (request.isCompact() && !(session instanceof EsBulkSession)) {
+            writeCompactSearchHit(request, session, hit);
+            return;
+        }
+        for (String f : hit.getFields().keySet()) {
+            ArchivePacket packet = new ArchivePacket();
+            packet.meta("index", mapIndex(request, hit.getIndex()));
+            packet.meta("type", mapType(request, hit.getIndex(), hit.getType()));
+            packet.meta("id", hit.getId());
+            packet.meta("field", f);
+            packet.payload(hit.getFields().get(f).getValue().toString());
+            session.write(packet);
+        }
+        if (!hit.getFields().keySet().contains("_source")) {
+            ArchivePacket packet = new ArchivePacket();
+            packet.meta("index", mapIndex(request, hit.getIndex()));
+            packet.meta("type", mapType(request, hit.getIndex(), hit.getType()));
+            packet.meta("id", hit.getId());
+            packet.meta("field", "_source");
+            packet.payload(hit.sourceRef());
+            session.write(packet);
+        }
+    }
+
+    /**
+     * Write the hit in the compact layout, as a single entry with the fields in the entry header.
+     */
+    private void writeCompactSearchHit(KnapsackExportRequest request, ArchiveSession session, SearchHit hit)
+            throws IOException {
+        Map<String, String> fields = newLinkedHashMap();
+        BytesReference source = hit.sourceRef();
+        for (String f : hit.getFields().keySet()) {
+            if ("_source".equals(f)) {
+                source = new BytesArray(hit.getFields().get(f).getValue().toString());
+            } else {
+                fields.put(f, hit.getFields().get(f).getValue().toString());
+            }
+        }
+        ArchivePacket packet = new ArchivePacket();
+        packet.meta("index", mapIndex(request, hit.getIndex()));
+        packet.meta("type", mapType(request, hit.getIndex(), hit.getType()));
+        packet.meta("id", hit.getId());
+        packet.meta("field", ArchiveDocument.FIELD);
+        packet.payload(new ArchiveDocument(fields, source).encode());
+        session.write(packet);
+    }
+
+    private static EnumSet<Session.Mode> getMode(KnapsackExportRequest request, boolean resumed) {
+        // a resumed export writes over the archives of the interrupted run, but not over other archives
+        return EnumSet.of(request.isOverwriteAllowed() || resumed ? Session.Mode.OVERWRITE : Session.Mode.WRITE,
+                request.isEncodeEntry() ? Session.Mode.URI_ENCODED : Session.Mode.NONE);
+    }
+
+    /**
+     * A slice of an export, selected by a shard preference or by a filter
+     */
+    private static class Slice {
+
+        final String name;
+
+        final String preference;
+
+        final FilterBuilder filter;
+
+        Slice(String name, String preference, FilterBuilder filter) {
+            this.name = name;
+            this.preference = preference;
+            this.filter = filter;
+        }
+    }
+
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.knapsack.imp;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.xbib.elasticsearch.knapsack.SidecarFile;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import static org.elasticsearch.common.collect.Maps.newLinkedHashMap;
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * The checkpoint of an import, kept in a sidecar file next to the archive.
+ *
+ * A checkpoint is written when all documents of the archive entries before it have been indexed.
+ * It records the archive part, the number of archive entries to skip, and the indices created by the
+ * import with their original number of replicas, so a resumed import can restore the index settings
+ * at the end.
+ */
+public class ImportCheckpoint {
+
+    private final static String SUFFIX = ".checkpoint";
+
+    private final Path file;
+
+    private Path part;
+
+    private long entries;
+
+    private long documents;
+
+    private boolean completed;
+
+    private final Map<String, String> indices = newLinkedHashMap();
+
+    public ImportCheckpoint(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * The sidecar checkpoint file of an archive
+     *
+     * @param path the archive path
+     * @return the checkpoint path
+     */
+    public static Path checkpointPath(Path path) {
+        return SidecarFile.path(path, SUFFIX);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public synchronized ImportCheckpoint setPart(Path part) {
+        this.part = part;
+        return this;
+    }
+
+    public synchronized Path getPart() {
+        return part;
+    }
+
+    /**
+     * Set the number of archive entries that are completely indexed
+     *
+     * @param entries the number of entries, counted from the start of the archive part
+     * @return this checkpoint
+     */
+    public synchronized ImportCheckpoint setEntries(long entries) {
+        this.entries = entries;
+        return this;
+    }
+
+    public synchronized long getEntries() {
+        return entries;
+    }
+
+    public synchronized ImportCheckpoint setDocuments(long documents) {
+        this.documents = documents;
+        return this;
+    }
+
+    public synchronized long getDocuments() {
+        return documents;
+    }
+
+    public synchronized ImportCheckpoint setCompleted(boolean completed) {
+        this.completed = completed;
+        return this;
+    }
+
+    public synchronized boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * Set the indices created by the import
+     *
+     * @param indices the index names with their original number of replicas, or null if unknown
+     * @return this checkpoint
+     */
+    public synchronized ImportCheckpoint setIndices(Map<String, String> indices) {
+        this.indices.clear();
+        this.indices.putAll(indices);
+        return this;
+    }
+
+    public synchronized Map<String, String> getIndices() {
+        return newLinkedHashMap(indices);
+    }
+
+    /**
+     * Write the checkpoint atomically, see {@link SidecarFile}
+     *
+     * @throws IOException if the checkpoint can not be written
+     */
+    public synchronized void save() throws IOException {
+        XContentBuilder builder = jsonBuilder().prettyPrint();
+        builder.startObject()
+                .field("part", part != null ? part.toUri().toString() : null)
+                .field("entries", entries)
+                .field("documents", documents)
+                .field("completed", completed)
+                .startObject("indices");
+        for (Map.Entry<String, String> entry : indices.entrySet()) {
+            builder.field(entry.getKey(), entry.getValue());
+        }
+        builder.endObject().endObject();
+        SidecarFile.write(file, builder);
+    }
+
+    /**
+     * Read a checkpoint
+     *
+     * @param file the checkpoint file
+     * @return the checkpoint, or null if the file does not exist
+     * @throws IOException if the checkpoint can not be read
+     */
+    @SuppressWarnings("unchecked")
+    public static ImportCheckpoint load(Path file) throws IOException {
+        Map<String, Object> map = SidecarFile.read(file);
+        if (map == null) {
+            return null;
+        }
+        ImportCheckpoint checkpoint = new ImportCheckpoint(file);
+        Object part = map.get("part");
+        checkpoint.part = part != null ? Paths.get(URI.create(part.toString())) : null;
+        checkpoint.entries = ((Number) map.get("entries")).longValue();
+        checkpoint.documents = ((Number) map.get("documents")).longValue();
+        checkpoint.completed = Boolean.TRUE.equals(map.get("completed"));
+        Map<String, Object> indices = (Map<String, Object>) map.get("indices");
+        if (indices != null) {
+            for (Map.Entry<String, Object> entry : indices.entrySet()) {
+                checkpoint.indices.put(entry.getKey(), entry.getValue() != null ? entry.getValue().toString() : null);
+            }
+        }
+        return checkpoint;
+    }
+}
@@ -22,6 +22,7 @@ import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
 import org.xbib.elasticsearch.knapsack.KnapsackRequest;
+import org.xbib.io.archive.ArchiveSession;
 
 import java.io.IOException;
 import java.net.URI;
@@ -50,6 +51,22 @@ public class KnapsackImportRequest extends SingleCustomOperationRequest<Knapsack
 
     private int maxBulkConcurrency = 2 * Runtime.getRuntime().availableProcessors();
 
+    private boolean adaptiveBulk;
+
+    private int minActionsPerBulkRequest = 10;
+
+    private int minBulkConcurrency = 1;
+
+    private TimeValue targetBulkLatency = TimeValue.timeValueSeconds(1);
+
+    private int bulkRetries = 3;
+
+    private TimeValue bulkRetryBackoff = TimeValue.timeValueMillis(500);
+
+    private int bulkRetryQueueSize = 10000;
+
+    private Path deadLetterPath;
+
     private Map indexTypeNames = newHashMap();
 
     private Map indexTypeDefinitions = newHashMap();
@@ -66,6 +83,26 @@ public class KnapsackImportRequest extends SingleCustomOperationRequest<Knapsack
 
     private ByteSizeValue bytesToTransfer = ByteSizeValue.parseBytesSizeValue("0");
 
+    private int buildThreads = 1;
+
+    private int queueSize = 1000;
+
+    private ByteSizeValue maxEntryMemory = new ByteSizeValue(ArchiveSession.DEFAULT_MAX_ENTRY_MEMORY);
+
+    private int decompressThreads = 1;
+
+    private int readAheadWindow = 0;
+
+    private int checkpointInterval = 0;
+
+    private boolean resume;
+
+    private boolean parts;
+
+    private boolean chain;
+
+    private String bulkGrouping;
+
     public KnapsackImportRequest setHost(String host) {
         this.host = host;
         return this;
@@ -147,6 +184,78 @@ public class KnapsackImportRequest extends SingleCustomOperationRequest<Knapsack
         return maxBulkConcurrency;
     }
 
+    public KnapsackImportRequest setAdaptiveBulk(boolean adaptiveBulk) {
+        this.adaptiveBulk = adaptiveBulk;
+        return this;
+    }
+
+    public boolean isAdaptiveBulk() {
+        return adaptiveBulk;
+    }
+
+    public KnapsackImportRequest setMinActionsPerBulkRequest(int minActionsPerBulkRequest) {
+        this.minActionsPerBulkRequest = minActionsPerBulkRequest;
+        return this;
+    }
+
+    public int getMinActionsPerBulkRequest() {
+        return minActionsPerBulkRequest;
+    }
+
+    public KnapsackImportRequest setMinBulkConcurrency(int minBulkConcurrency) {
+        this.minBulkConcurrency = minBulkConcurrency;
+        return this;
+    }
+
+    public int getMinBulkConcurrency() {
+        return minBulkConcurrency;
+    }
+
+    public KnapsackImportRequest setTargetBulkLatency(TimeValue targetBulkLatency) {
+        this.targetBulkLatency = targetBulkLatency;
+        return this;
+    }
+
+    public TimeValue getTargetBulkLatency() {
+        return targetBulkLatency;
+    }
+
+    public KnapsackImportRequest setBulkRetries(int bulkRetries) {
+        this.bulkRetries = bulkRetries;
+        return this;
+    }
+
+    public int getBulkRetries() {
+        return bulkRetries;
+    }
+
+    public KnapsackImportRequest setBulkRetryBackoff(TimeValue bulkRetryBackoff) {
+        this.bulkRetryBackoff = bulkRetryBackoff;
+        return this;
+    }
+
+    public TimeValue getBulkRetryBackoff() {
+        return bulkRetryBackoff;
+    }
+
+    public KnapsackImportRequest setBulkRetryQueueSize(int bulkRetryQueueSize) {
+        this.bulkRetryQueueSize = bulkRetryQueueSize;
+        return this;
+    }
+
+    public int getBulkRetryQueueSize() {
+        return bulkRetryQueueSize;
+    }
+
+    public KnapsackImportRequest setDeadLetterPath(Path deadLetterPath) {
+        this.deadLetterPath = deadLetterPath;
+        return this;
+    }
+
+    public Path getDeadLetterPath() {
+        return deadLetterPath;
+    }
+
     public KnapsackImportRequest setIndexTypeNames(Map indexTypeNames) {
         this.indexTypeNames = indexTypeNames;
         return this;
@@ -227,6 +336,110 @@ public class KnapsackImportRequest extends SingleCustomOperationRequest<Knapsack
         return bytesToTransfer;
     }
 
+    public KnapsackImportRequest setBuildThreads(int buildThreads) {
+        this.buildThreads = buildThreads;
+        return this;
+    }
+
+    public int getBuildThreads() {
+        return buildThreads;
+    }
+
+    public KnapsackImportRequest setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+        return this;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public KnapsackImportRequest setMaxEntryMemory(ByteSizeValue maxEntryMemory) {
+        this.maxEntryMemory = maxEntryMemory;
+        return this;
+    }
+
+    public ByteSizeValue getMaxEntryMemory() {
+        return maxEntryMemory;
+    }
+
+    public KnapsackImportRequest setDecompressThreads(int decompressThreads) {
+        this.decompressThreads = decompressThreads;
+        return this;
+    }
+
+    public int getDecompressThreads() {
+        return decompressThreads;
+    }
+
+    public KnapsackImportRequest setReadAheadWindow(int readAheadWindow) {
+        this.readAheadWindow = readAheadWindow;
+        return this;
+    }
+
+    public int getReadAheadWindow() {
+        return readAheadWindow;
+    }
+
+    public KnapsackImportRequest setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+        return this;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public KnapsackImportRequest setResume(boolean resume) {
+        this.resume = resume;
+        return this;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    public KnapsackImportRequest setParts(boolean parts) {
+        this.parts = parts;
+        return this;
+    }
+
+    public boolean isParts() {
+        return parts;
+    }
+
+    /**
+     * Import the chain of a delta archive. The full export and the deltas are imported one after
+     * another, the full export first, so later documents overwrite earlier ones.
+     *
+     * @param chain true if the chain should be imported
+     * @return this request
+     */
+    public KnapsackImportRequest setChain(boolean chain) {
+        this.chain = chain;
+        return this;
+    }
+
+    public boolean isChain() {
+        return chain;
+    }
+
+    /**
+     * Group the bulk actions by target shard or by the node of the primary shard, so each bulk
+     * request only goes to a few shards
+     *
+     * @param bulkGrouping shard, node, or null for bulk requests in the order of the documents
+     * @return this request
+     */
+    public KnapsackImportRequest setBulkGrouping(String bulkGrouping) {
+        this.bulkGrouping = bulkGrouping;
+        return this;
+    }
+
+    public String getBulkGrouping() {
+        return bulkGrouping;
+    }
+
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
@@ -256,6 +469,24 @@ public class KnapsackImportRequest extends SingleCustomOperationRequest<Knapsack
             out.writeBoolean(false);
         }
         bytesToTransfer.writeTo(out);
+        out.writeInt(buildThreads);
+        out.writeInt(queueSize);
+        maxEntryMemory.writeTo(out);
+        out.writeInt(decompressThreads);
+        out.writeInt(readAheadWindow);
+        out.writeBoolean(adaptiveBulk);
+        out.writeInt(minActionsPerBulkRequest);
+        out.writeInt(minBulkConcurrency);
+        targetBulkLatency.writeTo(out);
+        out.writeInt(bulkRetries);
+        bulkRetryBackoff.writeTo(out);
+        out.writeInt(bulkRetryQueueSize);
+        out.writeOptionalString(deadLetterPath != null ? deadLetterPath.toUri().toString() : null);
+        out.writeInt(checkpointInterval);
+        out.writeBoolean(resume);
+        out.writeBoolean(parts);
+        out.writeBoolean(chain);
+        out.writeOptionalString(bulkGrouping);
     }
 
     @Override
@@ -282,6 +513,25 @@ public class KnapsackImportRequest extends SingleCustomOperationRequest<Knapsack
             searchRequest.readFrom(in);
         }
         bytesToTransfer.readFrom(in);
+        buildThreads = in.readInt();
+        queueSize = in.readInt();
+        maxEntryMemory = ByteSizeValue.readBytesSizeValue(in);
+        decompressThreads = in.readInt();
+        readAheadWindow = in.readInt();
+        adaptiveBulk = in.readBoolean();
+        minActionsPerBulkRequest = in.readInt();
+        minBulkConcurrency = in.readInt();
+        targetBulkLatency = TimeValue.readTimeValue(in);
+        bulkRetries = in.readInt();
+        bulkRetryBackoff = TimeValue.readTimeValue(in);
+        bulkRetryQueueSize = in.readInt();
+        String deadLetterUri = in.readOptionalString();
+        deadLetterPath = deadLetterUri != null ? Paths.get(URI.create(deadLetterUri)) : null;
+        checkpointInterval = in.readInt();
+        resume = in.readBoolean();
+        parts = in.readBoolean();
+        chain = in.readBoolean();
+        bulkGrouping = in.readOptionalString();
     }
 
 }
@@ -81,6 +81,46 @@ public class KnapsackImportRequestBuilder extends SingleCustomOperationRequestBu
         return this;
     }
 
+    public KnapsackImportRequestBuilder setAdaptiveBulk(boolean adaptiveBulk) {
+        request.setAdaptiveBulk(adaptiveBulk);
+        return this;
+    }
+
+    public KnapsackImportRequestBuilder setMinActionsPerBulkRequest(int minActionsPerBulkRequest) {
+        request.setMinActionsPerBulkRequest(minActionsPerBulkRequest);
+        return this;
+    }
+
+    public KnapsackImportRequestBuilder setMinBulkConcurrency(int minBulkConcurrency) {
+        request.setMinBulkConcurrency(minBulkConcurrency);
+        return this;
+    }
+
+    public KnapsackImportRequestBuilder setTargetBulkLatency(TimeValue targetBulkLatency) {
+        request.setTargetBulkLatency(targetBulkLatency);
+        return this;
+    }
+
+    public KnapsackImportRequestBuilder setBulkRetries(int bulkRetries) {
+        request.setBulkRetries(bulkRetries);
+        return this;
+    }
+
+    public KnapsackImportRequestBuilder setBulkRetryBackoff(TimeValue bulkRetryBackoff) {
+        request.setBulkRetryBackoff(bulkRetryBackoff);
+        return this;
+    }
+
+    public KnapsackImportRequestBuilder setBulkRetryQueueSize(int bulkRetryQueueSize) {
+        request.setBulkRetryQueueSize(bulkRetryQueueSize);
+        return this;
+    }
+
+    public KnapsackImportRequestBuilder setDeadLetterPath(Path deadLetterPath) {
+        request.setDeadLetterPath(deadLetterPath);
+        return this;
+    }
+
     public KnapsackImportRequestBuilder setIndexTypeNames(Map indexTypeNames) {
         request.setIndexTypeNames(indexTypeNames);
         return this;
@@ -106,6 +146,56 @@ public class KnapsackImportRequestBuilder extends SingleCustomOperationRequestBu
         return this;
     }
 
+    public KnapsackImportRequestBuilder setBuildThreads(int buildThreads) {
+        request.setBuildThreads(buildThreads);
+        return this;
+    }
+
+    public KnapsackImportRequestBuilder setQueueSize(int queueSize) {
+        request.setQueueSize(queueSize);
+        return this;
+    }
+
+    public KnapsackImportRequestBuilder setMaxEntryMemory(ByteSizeValue maxEntryMemory) {
+        request.setMaxEntryMemory(maxEntryMemory);
+        return this;
+    }
+
+    public KnapsackImportRequestBuilder setDecompressThreads(int decompressThreads) {
+        request.setDecompressThreads(decompressThreads);
+        return this;
+    }
+
+    public KnapsackImportRequestBuilder setReadAheadWindow(int readAheadWindow) {
+        request.setReadAheadWindow(readAheadWindow);
+        return this;
+    }
+
+    public KnapsackImportRequestBuilder setCheckpointInterval(int checkpointInterval) {
+        request.setCheckpointInterval(checkpointInterval);
+        return this;
+    }
+
+    public KnapsackImportRequestBuilder setResume(boolean resume) {
+        request.setResume(resume);
+        return this;
+    }
+
+    public KnapsackImportRequestBuilder setParts(boolean parts) {
+        request.setParts(parts);
+        return this;
+    }
+
+    public KnapsackImportRequestBuilder setChain(boolean chain) {
+        request.setChain(chain);
+        return this;
+    }
+
+    public KnapsackImportRequestBuilder setBulkGrouping(String bulkGrouping) {
+        request.setBulkGrouping(bulkGrouping);
+        return this;
+    }
+
     public KnapsackImportRequestBuilder addIndexSettings(String index, String settingsSpec) {
         request.addIndexSettings(index, settingsSpec);
         return this;
@@ -22,6 +22,8 @@ import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.support.TransportAction;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.io.Streams;
 import org.elasticsearch.common.joda.time.DateTime;
@@ -29,43 +31,79 @@ import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
-import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.index.VersionType;
 import org.elasticsearch.indices.IndexAlreadyExistsException;
 import org.elasticsearch.node.service.NodeService;
 import org.elasticsearch.threadpool.ThreadPool;
+import org.xbib.elasticsearch.action.knapsack.exp.ExportManifest;
+import org.xbib.elasticsearch.knapsack.KnapsackMetrics;
 import org.xbib.elasticsearch.knapsack.KnapsackService;
 import org.xbib.elasticsearch.knapsack.KnapsackState;
+import org.xbib.elasticsearch.support.client.BulkGrouping;
 import org.xbib.elasticsearch.support.client.Ingest;
 import org.xbib.elasticsearch.support.client.node.BulkNodeClient;
 import org.xbib.io.Session;
+import org.xbib.io.archive.ArchiveDocument;
 import org.xbib.io.archive.ArchivePacket;
 import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.ArchiveSession;
 import org.xbib.io.BytesProgressWatcher;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.elasticsearch.client.Requests.createIndexRequest;
+import static org.elasticsearch.common.collect.Lists.newArrayList;
 import static org.elasticsearch.common.collect.Maps.newHashMap;
 import static org.elasticsearch.common.collect.Maps.newLinkedHashMap;
 import static org.elasticsearch.common.collect.Sets.newHashSet;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.findArchiveParts;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.mapIndex;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.mapType;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.openDeadLetters;
 
 public class TransportKnapsackImportAction extends TransportAction<KnapsackImportRequest, KnapsackImportResponse> {
 
     private final static ESLogger logger = ESLoggerFactory.getLogger(KnapsackImportAction.class.getSimpleName());
 
+    private final static ArchivePacket END_OF_PACKETS = new ArchivePacket();
+
+    private final static Map<String, ArchivePacket> END_OF_DOCUMENTS = Collections.emptyMap();
+
+    private final static Map<String, ArchivePacket> CHECKPOINT =
+            Collections.unmodifiableMap(new HashMap<String, ArchivePacket>());
+
+    private final static long QUEUE_WAIT_MILLIS = 100L;
+
     private final Client client;
 
+    private final ClusterService clusterService;
+
     private final NodeService nodeService;
 
     private final KnapsackService knapsack;
@@ -73,9 +111,11 @@ public class TransportKnapsackImportAction extends TransportAction<KnapsackImpor
     @Inject
     public TransportKnapsackImportAction(Settings settings,
                                          ThreadPool threadPool,
-                                         Client client, NodeService nodeService, KnapsackService knapsack) {
+                                         Client client, ClusterService clusterService, NodeService nodeService,
+                                         KnapsackService knapsack) {
         super(settings, KnapsackImportAction.NAME, threadPool);
         this.client = client;
+        this.clusterService = clusterService;
         this.nodeService = nodeService;
         this.knapsack = knapsack;
     }
@@ -87,72 +127,419 @@ public class TransportKnapsackImportAction extends TransportAction<KnapsackImpor
                 .setNodeName(nodeService.nodeName());
         final KnapsackImportResponse response = new KnapsackImportResponse()
                 .setState(state);
+        final List<ImportPart> parts = newArrayList();
         try {
             Path path = request.getPath();
             if (path == null) {
                 path = new File("_all.tar.gz").toPath();
             }
-            ByteSizeValue bytesToTransfer = request.getBytesToTransfer();
-            BytesProgressWatcher watcher = new BytesProgressWatcher(bytesToTransfer.bytes());
-            final Session<ArchivePacket> session = ArchiveService.newSession(path, watcher);
+            // a chain is imported generation by generation, the full export first, then the deltas in order
+            List<List<Path>> generations = newArrayList();
+            if (request.isChain()) {
+                for (ExportManifest manifest : ExportManifest.chain(path)) {
+                    generations.add(manifest.getArchives());
+                }
+            } else {
+                generations.add(findArchiveParts(path, request.isParts()));
+            }
+            List<Path> paths = newArrayList();
+            for (List<Path> generation : generations) {
+                paths.addAll(generation);
+            }
+            if (paths.isEmpty()) {
+                response.setRunning(false).setReason("no archive found: path=" + path);
+                listener.onResponse(response);
+                return;
+            }
             EnumSet<Session.Mode> mode = EnumSet.of(Session.Mode.READ,
                     request.isDecodeEntry() ? Session.Mode.URI_ENCODED : Session.Mode.NONE
             );
-            session.open(mode, path, path.toFile());
-            if (session.isOpen()) {
-                final BulkNodeClient bulkClient = new BulkNodeClient();
-                bulkClient.flushIngestInterval(TimeValue.timeValueSeconds(5))
-                        .maxActionsPerBulkRequest(request.getMaxActionsPerBulkRequest())
-                        .maxConcurrentBulkRequests(request.getMaxBulkConcurrency())
-                        .newClient(client);
-                state.setTimestamp(new DateTime())
-                        .setPath(path);
-                response.setRunning(true);
-                knapsack.submit(new Thread() {
+            for (int generation = 0; generation < generations.size(); generation++) {
+                for (Path partPath : generations.get(generation)) {
+                    ImportCheckpoint checkpoint = null;
+                    if (request.isResume()) {
+                        checkpoint = ImportCheckpoint.load(ImportCheckpoint.checkpointPath(partPath));
+                        if (checkpoint != null && checkpoint.isCompleted()) {
+                            logger.info("archive part {} is already imported", partPath);
+                            continue;
+                        }
+                    }
+                    if (checkpoint == null && (request.isResume() || request.getCheckpointInterval() > 0)) {
+                        checkpoint = new ImportCheckpoint(ImportCheckpoint.checkpointPath(partPath)).setPart(partPath);
+                    }
+                    BytesProgressWatcher watcher = new BytesProgressWatcher(request.getBytesToTransfer().bytes());
+                    ArchiveSession<?, ?> session = ArchiveService.newSession(partPath, watcher);
+                    session.setMaxEntryMemory(request.getMaxEntryMemory().bytes());
+                    session.setDecompressThreads(request.getDecompressThreads());
+                    session.setReadAheadWindow(request.getReadAheadWindow());
+                    session.open(mode, partPath, partPath.toFile());
+                    if (!session.isOpen()) {
+                        closeParts(parts);
+                        response.setRunning(false).setReason("session can not be opened: mode=" + mode + " path=" + partPath);
+                        listener.onResponse(response);
+                        return;
+                    }
+                    parts.add(new ImportPart(partPath, session, checkpoint, generation));
+                }
+            }
+            if (parts.isEmpty()) {
+                response.setRunning(false).setReason("import is already complete: path=" + path);
+                listener.onResponse(response);
+                return;
+            }
+            final BulkNodeClient bulkClient = new BulkNodeClient();
+            bulkClient.flushIngestInterval(TimeValue.timeValueSeconds(5))
+                    .maxActionsPerBulkRequest(request.getMaxActionsPerBulkRequest())
+                    .maxConcurrentBulkRequests(request.getMaxBulkConcurrency());
+            if (request.isAdaptiveBulk()) {
+                bulkClient.adaptiveBulk(request.getMinActionsPerBulkRequest(), null,
+                        request.getMinBulkConcurrency(), request.getTargetBulkLatency());
+            }
+            if (request.getBulkRetries() > 1 || request.getDeadLetterPath() != null) {
+                bulkClient.retryBulkItems(request.getBulkRetries(), request.getBulkRetryBackoff(),
+                        request.getBulkRetryQueueSize(), openDeadLetters(request.getDeadLetterPath()));
+            }
+            if (request.getBulkGrouping() != null) {
+                bulkClient.bulkGrouping(new BulkGrouping(clusterService, request.getBulkGrouping(),
+                        TimeValue.timeValueSeconds(5).millis()));
+            }
+            bulkClient.newClient(client);
+            state.setTimestamp(new DateTime())
+                    .setPath(path);
+            final KnapsackMetrics metrics = new KnapsackMetrics().setIngest(bulkClient);
+            long archiveBytes = 0L;
+            for (ImportPart part : parts) {
+                metrics.addSession(part.session);
+                archiveBytes += Files.size(part.path);
+            }
+            metrics.setTotalArchiveBytes(archiveBytes);
+            response.setRunning(true);
+            // ensure to add import to state before the job runs and before response is sent
+            knapsack.addImport(client, state);
+            try {
+                knapsack.submit(state, metrics, new Thread() {
                     public void run() {
-                        performImport(request, state, session, bulkClient);
+                        performImport(request, state, metrics, parts, bulkClient);
                     }
                 });
-                knapsack.addImport(client, state);
-            } else {
-                response.setRunning(false).setReason("session can not be opened: mode=" + mode + " path=" + path);
+            } catch (RuntimeException e) {
+                knapsack.removeImport(client, state);
+                throw e;
             }
             listener.onResponse(response);
         } catch (Throwable e) {
             logger.error(e.getMessage(), e);
+            closeParts(parts);
             listener.onFailure(e);
         }
     }
 
     /**
-     * Import thread
+     * Import thread. The archive parts are imported at the same time, each on its own thread,
+     * and all parts submit their documents to the same bulk client. The generations of a chain
+     * are imported one after another, so the documents of a delta replace the documents before.
      *
      * @param request request
      * @param state state
-     * @param session session
+     * @param metrics the live metrics of the import
+     * @param parts the archive parts
+     * @param bulkClient bulk client
      */
     final void performImport(final KnapsackImportRequest request,
                             final KnapsackState state,
-                            final Session<ArchivePacket> session,
+                            final KnapsackMetrics metrics,
+                            final List<ImportPart> parts,
                             final Ingest bulkClient) {
         try {
-            logger.info("start of import: {}", state);
-            final Map<String, CreateIndexRequest> indexRequestMap = newHashMap();
-            final Set<String> indexCreated = newHashSet();
-            final Map<String, String> indexReplicaMap = newHashMap();
-            final Map<String, Map<String,String>> aliasRequestMap = newHashMap();
-            // per field
-            Map<String, ArchivePacket> packets = newLinkedHashMap();
-            ArchivePacket packet;
-            String lastCoord = null;
+            logger.info("start of import: {}, archive parts = {}", state, parts.size());
+            List<ImportPart> generation = newArrayList();
+            for (ImportPart part : parts) {
+                if (!generation.isEmpty() && generation.get(0).generation != part.generation) {
+                    importParts(request, metrics, generation, bulkClient);
+                    // the documents of the next generation must not overtake the documents of this generation
+                    bulkClient.flushIngest();
+                    bulkClient.waitForResponses(TimeValue.timeValueSeconds(60));
+                    generation = newArrayList();
+                }
+                generation.add(part);
+            }
+            importParts(request, metrics, generation, bulkClient);
+            bulkClient.flushIngest();
+            bulkClient.waitForResponses(TimeValue.timeValueSeconds(60));
+            Set<String> indexCreated = newHashSet();
+            Map<String, String> indexReplicaMap = newHashMap();
             long count = 0L;
-            while ((packet = session.read()) != null && !Thread.interrupted()) {
+            long docs = 0L;
+            long indexed = 0L;
+            for (ImportPart part : parts) {
+                indexCreated.addAll(part.indexCreated);
+                indexReplicaMap.putAll(part.indexReplicaMap);
+                count += part.count;
+                docs += part.docs;
+                indexed += part.indexed;
+            }
+            for (String index : indexReplicaMap.keySet()) {
+                try {
+                    logger.info("resetting refresh rate for index {}", index);
+                    bulkClient.stopBulk(index);
+                    Integer replica = Integer.parseInt(indexReplicaMap.get(index));
+                    logger.info("resetting replica level {} for index {}", replica, index);
+                    bulkClient.updateReplicaLevel(index, replica);
+                } catch (Exception e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+            for (String index : indexCreated) {
+                bulkClient.refresh(index);
+            }
+            bulkClient.shutdown();
+            if (!Thread.currentThread().isInterrupted()) {
+                for (ImportPart part : parts) {
+                    if (part.checkpoint != null) {
+                        part.checkpoint.setDocuments(part.docs).setCompleted(true).save();
+                    }
+                }
+            }
+            logger.info("end of import: {}, count = {}, documents = {}, indexed = {}", state, count, docs, indexed);
+        } catch (Throwable e) {
+            logger.error(e.getMessage(), e);
+        } finally {
+            try {
+                knapsack.removeImport(client, state);
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+            closeParts(parts);
+        }
+    }
+
+    /**
+     * Import archive parts at the same time, each on its own thread
+     *
+     * @param request request
+     * @param metrics the live metrics of the import
+     * @param parts the archive parts
+     * @param bulkClient bulk client
+     * @throws Exception if a part fails
+     */
+    private void importParts(final KnapsackImportRequest request,
+                             final KnapsackMetrics metrics,
+                             final List<ImportPart> parts,
+                             final Ingest bulkClient) throws Exception {
+        final MetadataGate gate = new MetadataGate(parts.size());
+        if (parts.size() == 1) {
+            importPart(request, metrics, parts.get(0), bulkClient, gate);
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(parts.size(),
+                EsExecutors.daemonThreadFactory("knapsack-import-part"));
+        try {
+            CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+            List<Future<Void>> futures = newArrayList();
+            for (final ImportPart part : parts) {
+                futures.add(completionService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        importPart(request, metrics, part, bulkClient, gate);
+                        return null;
+                    }
+                }));
+            }
+            // the first failed part stops the import, the other parts are cancelled
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException e) {
+                    for (Future<Void> future : futures) {
+                        future.cancel(true);
+                    }
+                    throw new IOException("import of archive part failed", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Import an archive part. The import is a pipeline of three stages connected by bounded queues.
+     * The archive is read on this thread, a single assembler thread groups the packets into documents
+     * and creates the indices, and a number of builder threads create the index requests and submit them
+     * to the bulk client. The builders wait while the bulk client has the maximum number of bulk
+     * requests in flight.
+     *
+     * If there is a checkpoint, the archive entries before the checkpoint are skipped, and the assembler
+     * writes a new checkpoint after each interval of bulk responses.
+     *
+     * @param request request
+     * @param metrics the live metrics of the import
+     * @param part the archive part
+     * @param bulkClient bulk client
+     * @param gate the gate that holds back documents until the metadata of all parts are applied
+     * @throws Exception if the import of the part fails
+     */
+    private void importPart(final KnapsackImportRequest request,
+                            final KnapsackMetrics metrics,
+                            final ImportPart part,
+                            final Ingest bulkClient,
+                            final MetadataGate gate) throws Exception {
+        ExecutorService executor = null;
+        BlockingQueue<ArchivePacket> packetQueue = null;
+        BlockingQueue<Map<String, ArchivePacket>> documentQueue = null;
+        final String name = part.path.getFileName().toString();
+        try {
+            ImportCheckpoint checkpoint = part.checkpoint;
+            if (checkpoint != null && checkpoint.getEntries() > 0) {
+                // the indices were created before the checkpoint, their settings are restored at the end
+                for (Map.Entry<String, String> entry : checkpoint.getIndices().entrySet()) {
+                    part.indexCreated.add(entry.getKey());
+                    if (entry.getValue() != null) {
+                        part.indexReplicaMap.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                long skipped = part.session.skipEntries(checkpoint.getEntries());
+                logger.info("resuming import from checkpoint {}: skipped {} archive entries, {} documents",
+                        checkpoint.getFile(), skipped, checkpoint.getDocuments());
+            }
+            final CheckpointBarrier barrier = new CheckpointBarrier();
+            packetQueue = new ArrayBlockingQueue<ArchivePacket>(request.getQueueSize());
+            documentQueue = new ArrayBlockingQueue<Map<String, ArchivePacket>>(request.getQueueSize());
+            metrics.addQueue(name + ".packets", packetQueue)
+                    .addQueue(name + ".documents", documentQueue);
+            final BlockingQueue<ArchivePacket> packets = packetQueue;
+            final BlockingQueue<Map<String, ArchivePacket>> documents = documentQueue;
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            final int buildThreads = Math.max(1, request.getBuildThreads());
+            executor = Executors.newFixedThreadPool(1 + buildThreads,
+                    EsExecutors.daemonThreadFactory("knapsack-import"));
+            Future<Long> assembler = executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    try {
+                        return assembleDocuments(request, part, packets, documents, buildThreads,
+                                bulkClient, gate, barrier, failure);
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                        throw t;
+                    }
+                }
+            });
+            List<Future<Long>> builders = newArrayList();
+            for (int i = 0; i < buildThreads; i++) {
+                builders.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        try {
+                            return buildIndexRequests(request, metrics, documents, bulkClient, barrier, failure);
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                            throw t;
+                        }
+                    }
+                }));
+            }
+            ArchivePacket packet;
+            while ((packet = part.session.read()) != null && !Thread.currentThread().isInterrupted()) {
+                part.count++;
+                try {
+                    put(packetQueue, packet, failure);
+                } catch (IOException e) {
+                    packet.release();
+                    throw e;
+                }
+            }
+            put(packetQueue, END_OF_PACKETS, failure);
+            part.docs = assembler.get();
+            for (Future<Long> builder : builders) {
+                part.indexed += builder.get();
+            }
+            logger.info("end of archive part {}: count = {}, documents = {}, indexed = {}",
+                    part.path, part.count, part.docs, part.indexed);
+        } finally {
+            metrics.removeQueue(name + ".packets").removeQueue(name + ".documents");
+            // never keep the other parts waiting
+            gate.arrive(part);
+            if (executor != null) {
+                executor.shutdownNow();
+                if (!executor.awaitTermination(QUEUE_WAIT_MILLIS * 10, TimeUnit.MILLISECONDS)) {
+                    logger.warn("import threads of archive part {} did not stop", part.path);
+                }
+            }
+            // remove the spill files of the packets the stopped pipeline left behind
+            if (packetQueue != null) {
+                for (ArchivePacket packet : drain(packetQueue)) {
+                    packet.release();
+                }
+            }
+            if (documentQueue != null) {
+                for (Map<String, ArchivePacket> document : drain(documentQueue)) {
+                    release(document);
+                }
+            }
+        }
+    }
+
+    private static <T> List<T> drain(BlockingQueue<T> queue) {
+        List<T> list = newArrayList();
+        queue.drainTo(list);
+        return list;
+    }
+
+    private static void release(Map<String, ArchivePacket> packets) {
+        for (ArchivePacket packet : packets.values()) {
+            packet.release();
+        }
+    }
+
+    private static void closeParts(List<ImportPart> parts) {
+        for (ImportPart part : parts) {
+            try {
+                part.session.close();
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Assembler stage. Applies settings, mappings, and aliases, and groups the fields of a document.
+     * The packets must be processed in archive order, so there is only one assembler thread.
+     * The assembler counts the archive entries, so it knows the entry where a checkpoint begins.
+     * Before the first document, the assembler applies the metadata found so far and waits
+     * at the gate until all other archive parts have done the same.
+     */
+    private long assembleDocuments(KnapsackImportRequest request,
+                                   ImportPart part,
+                                   BlockingQueue<ArchivePacket> packetQueue,
+                                   BlockingQueue<Map<String, ArchivePacket>> documentQueue,
+                                   int buildThreads,
+                                   Ingest bulkClient,
+                                   MetadataGate gate,
+                                   CheckpointBarrier barrier,
+                                   AtomicReference<Throwable> failure) throws IOException, InterruptedException {
+        final ImportCheckpoint checkpoint = part.checkpoint;
+        final Set<String> indexCreated = part.indexCreated;
+        final Map<String, String> indexReplicaMap = part.indexReplicaMap;
+        final Map<String, CreateIndexRequest> indexRequestMap = newHashMap();
+        final Map<String, Map<String,String>> aliasRequestMap = newHashMap();
+        final int checkpointInterval = checkpoint != null ? request.getCheckpointInterval() : 0;
+        // per field
+        Map<String, ArchivePacket> packets = newLinkedHashMap();
+        String lastCoord = null;
+        long docs = checkpoint != null ? checkpoint.getDocuments() : 0L;
+        long entries = checkpoint != null ? checkpoint.getEntries() : 0L;
+        // the first entry of the document which is not complete yet
+        long documentEntry = entries;
+        long lastCheckpointBulks = bulkClient.getState().getTotalIngest().count();
+        ArchivePacket packet;
+        boolean done = false;
+        try {
+            while ((packet = take(packetQueue, failure)) != END_OF_PACKETS) {
+                long entry = entries++;
                 //ignore directory entries
-                String payload = (String)packet.payload();
-                if (payload == null || payload.length() == 0) {
-                	continue;
+                if (packet.payloadLength() == 0) {
+                    continue;
                 }
-                count++;
                 String index = (String)packet.meta().get("index");
                 String type = (String)packet.meta().get("type");
                 String id =  (String)packet.meta().get("id");
@@ -170,7 +557,7 @@ public class TransportKnapsackImportAction extends TransportAction<KnapsackImpor
                         settingsStr = Streams.copyToString(reader);
                         reader.close();
                     } else {
-                        settingsStr = packet.payload().toString();
+                        settingsStr = packet.payloadAsString();
                     }
                     if (!"_all".equals(index)) {
                         logger.info("index {}: found settings {}", index, settingsStr);
@@ -190,6 +577,7 @@ public class TransportKnapsackImportAction extends TransportAction<KnapsackImpor
                         logger.info("switching index {} for bulk indexing: {}", index, indexSettings.getAsMap());
                         createIndexRequest.settings(indexSettings);
                     }
+                    packet.release();
                 } else if ("_mapping".equals(id)) {
                     // first map type, then index
                     type = mapType(request, index, type);
@@ -202,7 +590,7 @@ public class TransportKnapsackImportAction extends TransportAction<KnapsackImpor
                         mapping = Streams.copyToString(reader);
                         reader.close();
                     } else {
-                        mapping = packet.payload().toString();
+                        mapping = packet.payloadAsString();
                     }
                     if (!"_all".equals(index)) {
                         logger.info("index {}: found mapping {}", index, mapping);
@@ -213,64 +601,201 @@ public class TransportKnapsackImportAction extends TransportAction<KnapsackImpor
                         }
                         createIndexRequest.mapping(type, mapping);
                     }
+                    packet.release();
                 } else if ("_alias".equals(id)) {
                     Map<String,String> aliases = newHashMap();
                     if (aliasRequestMap.containsKey(index)) {
                         aliases = aliasRequestMap.get(index);
                     }
-                    aliases.put(type, (String)packet.payload());
+                    aliases.put(type, packet.payloadAsString());
                     aliasRequestMap.put(index, aliases);
+                    packet.release();
+                } else if (ArchiveDocument.FIELD.equals(field)) {
+                    if (!part.metadataApplied.get()) {
+                        applyMetadata(bulkClient, indexRequestMap, indexCreated, aliasRequestMap, request);
+                        gate.arrive(part);
+                        gate.await(failure);
+                    }
+                    // compact layout, the entry is the whole document
+                    if (!packets.isEmpty()) {
+                        prepareIndex(bulkClient, indexRequestMap, indexCreated, aliasRequestMap, request, packets);
+                        put(documentQueue, packets, failure);
+                        docs++;
+                        packets = newLinkedHashMap();
+                    }
+                    Map<String, ArchivePacket> document = Collections.singletonMap(field, packet);
+                    prepareIndex(bulkClient, indexRequestMap, indexCreated, aliasRequestMap, request, document);
+                    put(documentQueue, document, failure);
+                    docs++;
+                    lastCoord = null;
                 } else {
+                    if (!part.metadataApplied.get()) {
+                        applyMetadata(bulkClient, indexRequestMap, indexCreated, aliasRequestMap, request);
+                        gate.arrive(part);
+                        gate.await(failure);
+                    }
                     // normal document fields
                     String coord = index + File.separator + type + File.separator + id;
                     if (!coord.equals(lastCoord) && !packets.isEmpty()) {
-                        indexPackets(bulkClient, indexRequestMap, indexCreated, aliasRequestMap, request, packets);
-                        packets.clear();
+                        prepareIndex(bulkClient, indexRequestMap, indexCreated, aliasRequestMap, request, packets);
+                        put(documentQueue, packets, failure);
+                        docs++;
+                        packets = newLinkedHashMap();
+                    }
+                    if (packets.isEmpty()) {
+                        documentEntry = entry;
                     }
                     packets.put(field, packet);
                     lastCoord = coord;
                 }
+                // do not checkpoint while index creation is pending, the metadata entries would be skipped
+                if (checkpointInterval > 0 && indexRequestMap.isEmpty() && aliasRequestMap.isEmpty()) {
+                    long bulks = bulkClient.getState().getTotalIngest().count();
+                    if (bulks - lastCheckpointBulks >= checkpointInterval) {
+                        lastCheckpointBulks = bulks;
+                        writeCheckpoint(checkpoint, packets.isEmpty() ? entries : documentEntry, docs,
+                                indexCreated, indexReplicaMap, documentQueue, buildThreads, barrier, bulkClient, failure);
+                    }
+                }
             }
             if (!packets.isEmpty()) {
-                indexPackets(bulkClient, indexRequestMap, indexCreated, aliasRequestMap, request, packets);
+                prepareIndex(bulkClient, indexRequestMap, indexCreated, aliasRequestMap, request, packets);
+                put(documentQueue, packets, failure);
+                docs++;
+            }
+            if (!part.metadataApplied.get()) {
+                // a part without documents
+                applyMetadata(bulkClient, indexRequestMap, indexCreated, aliasRequestMap, request);
+                gate.arrive(part);
+            }
+            for (int i = 0; i < buildThreads; i++) {
+                put(documentQueue, END_OF_DOCUMENTS, failure);
             }
+            done = true;
+            return docs;
+        } finally {
+            if (!done) {
+                // the fields of the incomplete document
+                release(packets);
+            }
+        }
+    }
+
+    /**
+     * Write a checkpoint. The builders are stopped at a checkpoint marker, so all documents before
+     * the checkpoint are in the bulk client, and the checkpoint is saved when the bulk client
+     * has received all responses.
+     */
+    private void writeCheckpoint(ImportCheckpoint checkpoint,
+                                 long entries,
+                                 long docs,
+                                 Set<String> indexCreated,
+                                 Map<String, String> indexReplicaMap,
+                                 BlockingQueue<Map<String, ArchivePacket>> documentQueue,
+                                 int buildThreads,
+                                 CheckpointBarrier barrier,
+                                 Ingest bulkClient,
+                                 AtomicReference<Throwable> failure) throws IOException, InterruptedException {
+        barrier.reset(buildThreads);
+        for (int i = 0; i < buildThreads; i++) {
+            put(documentQueue, CHECKPOINT, failure);
+        }
+        barrier.awaitArrival(failure);
+        try {
             bulkClient.flushIngest();
             bulkClient.waitForResponses(TimeValue.timeValueSeconds(60));
-            for (String index : indexReplicaMap.keySet()) {
-                try {
-                    logger.info("resetting refresh rate for index {}", index);
-                    bulkClient.stopBulk(index);
-                    Integer replica = Integer.parseInt(indexReplicaMap.get(index));
-                    logger.info("resetting replica level {} for index {}", replica, index);
-                    bulkClient.updateReplicaLevel(index, replica);
-                } catch (Exception e) {
-                    logger.error(e.getMessage(), e);
-                }
+            if (bulkClient.getPendingBulkRequests() > 0) {
+                // other archive parts may keep the bulk client busy
+                logger.debug("checkpoint skipped, bulk responses are pending");
+                return;
             }
+            Map<String, String> indices = newLinkedHashMap();
             for (String index : indexCreated) {
-                bulkClient.refresh(index);
+                indices.put(index, indexReplicaMap.get(index));
             }
-            bulkClient.shutdown();
-            logger.info("end of import: {}, count = {}", state, count);
-        } catch (Throwable e) {
-            logger.error(e.getMessage(), e);
+            for (Map.Entry<String, String> entry : indexReplicaMap.entrySet()) {
+                indices.put(entry.getKey(), entry.getValue());
+            }
+            checkpoint.setEntries(entries).setDocuments(docs).setIndices(indices).save();
+            logger.debug("checkpoint: entries = {}, documents = {}", entries, docs);
         } finally {
-            try {
-                knapsack.removeImport(client, state);
-                session.close();
-            } catch (IOException e) {
-                logger.error(e.getMessage(), e);
+            barrier.release();
+        }
+    }
+
+    /**
+     * Builder stage. Creates index requests and submits them to the bulk client.
+     */
+    private long buildIndexRequests(KnapsackImportRequest request,
+                                    KnapsackMetrics metrics,
+                                    BlockingQueue<Map<String, ArchivePacket>> documentQueue,
+                                    Ingest bulkClient,
+                                    CheckpointBarrier barrier,
+                                    AtomicReference<Throwable> failure) throws IOException, InterruptedException {
+        long count = 0L;
+        int maxPendingBulkRequests = Math.max(1, request.getMaxBulkConcurrency());
+        Map<String, ArchivePacket> packets;
+        while ((packets = take(documentQueue, failure)) != END_OF_DOCUMENTS) {
+            if (packets == CHECKPOINT) {
+                barrier.arrive(failure);
+                continue;
             }
+            IndexRequest indexRequest = buildIndexRequest(request, packets);
+            // back pressure: do not build up more bulk requests while the bulk client is busy
+            bulkClient.waitForPendingBulkRequests(maxPendingBulkRequests);
+            bulkClient.bulkIndex(indexRequest);
+            metrics.addDocs(1L);
+            count++;
+        }
+        return count;
+    }
+
+    private static <T> void put(BlockingQueue<T> queue, T element, AtomicReference<Throwable> failure)
+            throws IOException, InterruptedException {
+        while (!queue.offer(element, QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkFailure(failure);
         }
     }
 
-    private void indexPackets(Ingest bulkClient, Map<String, CreateIndexRequest> indexRequestMap, Set<String> indexCreated,
+    private static <T> T take(BlockingQueue<T> queue, AtomicReference<Throwable> failure)
+            throws IOException, InterruptedException {
+        T element;
+        while ((element = queue.poll(QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+            checkFailure(failure);
+        }
+        return element;
+    }
+
+    private static void checkFailure(AtomicReference<Throwable> failure) throws IOException {
+        if (failure.get() != null) {
+            throw new IOException("import pipeline failed", failure.get());
+        }
+    }
+
+    /**
+     * Create the indices and aliases of the settings, mappings, and aliases found so far
+     */
+    private void applyMetadata(Ingest bulkClient, Map<String, CreateIndexRequest> indexRequestMap, Set<String> indexCreated,
+                               Map<String,Map<String,String>> aliasRequestMap,
+                               KnapsackImportRequest request) {
+        Set<String> indices = newHashSet(indexRequestMap.keySet());
+        indices.addAll(aliasRequestMap.keySet());
+        for (String index : indices) {
+            createIndex(bulkClient, indexRequestMap, indexCreated, aliasRequestMap, request, index);
+        }
+    }
+
+    private void prepareIndex(Ingest bulkClient, Map<String, CreateIndexRequest> indexRequestMap, Set<String> indexCreated,
                               Map<String,Map<String,String>> aliasRequestMap,
                               KnapsackImportRequest request, Map<String, ArchivePacket> packets)  {
         ArchivePacket packet = packets.values().iterator().next(); // first packet
         String index = (String)packet.meta().get("index");
-        String type = (String)packet.meta().get("type");
-        String id = (String)packet.meta().get("id");
+        createIndex(bulkClient, indexRequestMap, indexCreated, aliasRequestMap, request, index);
+    }
+
+    private void createIndex(Ingest bulkClient, Map<String, CreateIndexRequest> indexRequestMap, Set<String> indexCreated,
+                             Map<String,Map<String,String>> aliasRequestMap,
+                             KnapsackImportRequest request, String index)  {
         // check if index must be created
         if (indexRequestMap.containsKey(index)) {
             CreateIndexRequest createIndexRequest = indexRequestMap.remove(index);
@@ -303,41 +828,156 @@ public class TransportKnapsackImportAction extends TransportAction<KnapsackImpor
                 requestBuilder.execute().actionGet();
             }
         }
+    }
+
+    private IndexRequest buildIndexRequest(KnapsackImportRequest request, Map<String, ArchivePacket> packets)
+            throws IOException {
+        ArchivePacket packet = packets.values().iterator().next(); // first packet
+        String index = (String)packet.meta().get("index");
+        String type = (String)packet.meta().get("type");
+        String id = (String)packet.meta().get("id");
         // index document begins here
         IndexRequest indexRequest = new IndexRequest(mapIndex(request, index), mapType(request, index, type), id);
         for (String f : packets.keySet()) {
             if (f == null) {
                 continue;
             }
-            Object o = packets.get(f).payload();
-            if (o == null) {
+            ArchivePacket fieldPacket = packets.get(f);
+            if (fieldPacket.payload() == null) {
                 logger.error("empty payload detected");
                 continue;
             }
-            String payload = o.toString();
-            switch (f) {
-                case "_parent":
-                    indexRequest.parent(payload);
-                    break;
-                case "_routing":
-                    indexRequest.routing(payload);
-                    break;
-                case "_timestamp":
-                    indexRequest.timestamp(payload);
-                    break;
-                case "_version":
-                    indexRequest.versionType(VersionType.EXTERNAL)
-                            .version(Long.parseLong(payload));
-                    break;
-                case "_source":
-                    indexRequest.source(payload);
-                    break;
-                default:
-                    indexRequest.source(f, payload);
-                    break;
+            try {
+                BytesReference bytes = fieldPacket.payloadAsBytes();
+                if (ArchiveDocument.FIELD.equals(f) && ArchiveDocument.isDocument(bytes)) {
+                    ArchiveDocument document = ArchiveDocument.decode(bytes);
+                    for (Map.Entry<String, String> field : document.getFields().entrySet()) {
+                        setField(indexRequest, field.getKey(), field.getValue());
+                    }
+                    indexRequest.source(document.getSource(), false);
+                } else if ("_source".equals(f)) {
+                    indexRequest.source(bytes, false);
+                } else {
+                    setField(indexRequest, f, bytes.toUtf8());
+                }
+            } finally {
+                fieldPacket.release();
             }
         }
-        bulkClient.bulkIndex(indexRequest);
+        return indexRequest;
+    }
+
+    /**
+     * An archive part of an import, with the indices created by the part and the counters of the part
+     */
+    static class ImportPart {
+
+        final Path path;
+
+        final ArchiveSession<?, ?> session;
+
+        final ImportCheckpoint checkpoint;
+
+        final int generation;
+
+        final Set<String> indexCreated = newHashSet();
+
+        final Map<String, String> indexReplicaMap = newHashMap();
+
+        final AtomicBoolean metadataApplied = new AtomicBoolean();
+
+        long count;
+
+        long docs;
+
+        long indexed;
+
+        ImportPart(Path path, ArchiveSession<?, ?> session, ImportCheckpoint checkpoint, int generation) {
+            this.path = path;
+            this.session = session;
+            this.checkpoint = checkpoint;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Holds back the documents of all archive parts until each part has applied the settings,
+     * mappings, and aliases at its beginning, so no document creates an index with default settings
+     */
+    private static class MetadataGate {
+
+        private final CountDownLatch latch;
+
+        MetadataGate(int parts) {
+            this.latch = new CountDownLatch(parts);
+        }
+
+        void arrive(ImportPart part) {
+            if (part.metadataApplied.compareAndSet(false, true)) {
+                latch.countDown();
+            }
+        }
+
+        void await(AtomicReference<Throwable> failure) throws IOException, InterruptedException {
+            while (!latch.await(QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure(failure);
+            }
+        }
+    }
+
+    /**
+     * Stops the builders at a checkpoint until the checkpoint is written
+     */
+    private static class CheckpointBarrier {
+
+        private volatile CountDownLatch arrived;
+
+        private volatile CountDownLatch released;
+
+        void reset(int parties) {
+            arrived = new CountDownLatch(parties);
+            released = new CountDownLatch(1);
+        }
+
+        void arrive(AtomicReference<Throwable> failure) throws IOException, InterruptedException {
+            // take the latch before arriving, it may be replaced right after the last arrival
+            CountDownLatch latch = released;
+            arrived.countDown();
+            while (!latch.await(QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure(failure);
+            }
+        }
+
+        void awaitArrival(AtomicReference<Throwable> failure) throws IOException, InterruptedException {
+            while (!arrived.await(QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure(failure);
+            }
+        }
+
+        void release() {
+            released.countDown();
+        }
+    }
+
+    private void setField(IndexRequest indexRequest, String field, String value) {
+        switch (field) {
+            case "_parent":
+                indexRequest.parent(value);
+                break;
+            case "_routing":
+                indexRequest.routing(value);
+                break;
+            case "_timestamp":
+                indexRequest.timestamp(value);
+                break;
+            case "_version":
+                indexRequest.versionType(VersionType.EXTERNAL)
+                        .version(Long.parseLong(value));
+                break;
+            default:
+                indexRequest.source(field, value);
+                break;
+        }
     }
 
 }
@@ -50,6 +50,26 @@ public class KnapsackPullRequest extends SingleCustomOperationRequest<KnapsackPu
 
     private int maxBulkConcurrency = 2 * Runtime.getRuntime().availableProcessors();
 
+    private boolean adaptiveBulk;
+
+    private int minActionsPerBulkRequest = 10;
+
+    private int minBulkConcurrency = 1;
+
+    private TimeValue targetBulkLatency = TimeValue.timeValueSeconds(1);
+
+    private int bulkRetries = 3;
+
+    private TimeValue bulkRetryBackoff = TimeValue.timeValueMillis(500);
+
+    private int bulkRetryQueueSize = 10000;
+
+    private Path deadLetterPath;
+
+    private int parallelism = 1;
+
+    private String bulkGrouping;
+
     private Map indexTypeNames = newHashMap();
 
     private Map indexTypeDefinitions = newHashMap();
@@ -147,6 +167,103 @@ public class KnapsackPullRequest extends SingleCustomOperationRequest<KnapsackPu
         return maxBulkConcurrency;
     }
 
+    public KnapsackPullRequest setAdaptiveBulk(boolean adaptiveBulk) {
+        this.adaptiveBulk = adaptiveBulk;
+        return this;
+    }
+
+    public boolean isAdaptiveBulk() {
+        return adaptiveBulk;
+    }
+
+    public KnapsackPullRequest setMinActionsPerBulkRequest(int minActionsPerBulkRequest) {
+        this.minActionsPerBulkRequest = minActionsPerBulkRequest;
+        return this;
+    }
+
+    public int getMinActionsPerBulkRequest() {
+        return minActionsPerBulkRequest;
+    }
+
+    public KnapsackPullRequest setMinBulkConcurrency(int minBulkConcurrency) {
+        this.minBulkConcurrency = minBulkConcurrency;
+        return this;
+    }
+
+    public int getMinBulkConcurrency() {
+        return minBulkConcurrency;
+    }
+
+    public KnapsackPullRequest setTargetBulkLatency(TimeValue targetBulkLatency) {
+        this.targetBulkLatency = targetBulkLatency;
+        return this;
+    }
+
+    public TimeValue getTargetBulkLatency() {
+        return targetBulkLatency;
+    }
+
+    public KnapsackPullRequest setBulkRetries(int bulkRetries) {
+        this.bulkRetries = bulkRetries;
+        return this;
+    }
+
+    public int getBulkRetries() {
+        return bulkRetries;
+    }
+
+    public KnapsackPullRequest setBulkRetryBackoff(TimeValue bulkRetryBackoff) {
+        this.bulkRetryBackoff = bulkRetryBackoff;
+        return this;
+    }
+
+    public TimeValue getBulkRetryBackoff() {
+        return bulkRetryBackoff;
+    }
+
+    public KnapsackPullRequest setBulkRetryQueueSize(int bulkRetryQueueSize) {
+        this.bulkRetryQueueSize = bulkRetryQueueSize;
+        return this;
+    }
+
+    public int getBulkRetryQueueSize() {
+        return bulkRetryQueueSize;
+    }
+
+    public KnapsackPullRequest setDeadLetterPath(Path deadLetterPath) {
+        this.deadLetterPath = deadLetterPath;
+        return this;
+    }
+
+    public Path getDeadLetterPath() {
+        return deadLetterPath;
+    }
+
+    public KnapsackPullRequest setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Group the bulk actions by target shard or by the node of the primary shard, so each bulk
+     * request only goes to a few shards
+     *
+     * @param bulkGrouping shard, node, or null for bulk requests in the order of the documents
+     * @return this request
+     */
+    public KnapsackPullRequest setBulkGrouping(String bulkGrouping) {
+        this.bulkGrouping = bulkGrouping;
+        return this;
+    }
+
+    public String getBulkGrouping() {
+        return bulkGrouping;
+    }
+
     public KnapsackPullRequest setIndexTypeNames(Map indexTypeNames) {
         this.indexTypeNames = indexTypeNames;
         return this;
@@ -256,6 +373,16 @@ public class KnapsackPullRequest extends SingleCustomOperationRequest<KnapsackPu
             out.writeBoolean(false);
         }
         bytesToTransfer.writeTo(out);
+        out.writeBoolean(adaptiveBulk);
+        out.writeInt(minActionsPerBulkRequest);
+        out.writeInt(minBulkConcurrency);
+        targetBulkLatency.writeTo(out);
+        out.writeInt(bulkRetries);
+        bulkRetryBackoff.writeTo(out);
+        out.writeInt(bulkRetryQueueSize);
+        out.writeOptionalString(deadLetterPath != null ? deadLetterPath.toUri().toString() : null);
+        out.writeInt(parallelism);
+        out.writeOptionalString(bulkGrouping);
     }
 
     @Override
@@ -282,6 +409,17 @@ public class KnapsackPullRequest extends SingleCustomOperationRequest<KnapsackPu
             searchRequest.readFrom(in);
         }
         bytesToTransfer.readFrom(in);
+        adaptiveBulk = in.readBoolean();
+        minActionsPerBulkRequest = in.readInt();
+        minBulkConcurrency = in.readInt();
+        targetBulkLatency = TimeValue.readTimeValue(in);
+        bulkRetries = in.readInt();
+        bulkRetryBackoff = TimeValue.readTimeValue(in);
+        bulkRetryQueueSize = in.readInt();
+        String deadLetterUri = in.readOptionalString();
+        deadLetterPath = deadLetterUri != null ? Paths.get(URI.create(deadLetterUri)) : null;
+        parallelism = in.readInt();
+        bulkGrouping = in.readOptionalString();
     }
 
 }
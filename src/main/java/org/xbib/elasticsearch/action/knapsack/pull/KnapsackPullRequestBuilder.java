@@ -81,6 +81,56 @@ public class KnapsackPullRequestBuilder extends SingleCustomOperationRequestBuil
         return this;
     }
 
+    public KnapsackPullRequestBuilder setAdaptiveBulk(boolean adaptiveBulk) {
+        request.setAdaptiveBulk(adaptiveBulk);
+        return this;
+    }
+
+    public KnapsackPullRequestBuilder setMinActionsPerBulkRequest(int minActionsPerBulkRequest) {
+        request.setMinActionsPerBulkRequest(minActionsPerBulkRequest);
+        return this;
+    }
+
+    public KnapsackPullRequestBuilder setMinBulkConcurrency(int minBulkConcurrency) {
+        request.setMinBulkConcurrency(minBulkConcurrency);
+        return this;
+    }
+
+    public KnapsackPullRequestBuilder setTargetBulkLatency(TimeValue targetBulkLatency) {
+        request.setTargetBulkLatency(targetBulkLatency);
+        return this;
+    }
+
+    public KnapsackPullRequestBuilder setBulkRetries(int bulkRetries) {
+        request.setBulkRetries(bulkRetries);
+        return this;
+    }
+
+    public KnapsackPullRequestBuilder setBulkRetryBackoff(TimeValue bulkRetryBackoff) {
+        request.setBulkRetryBackoff(bulkRetryBackoff);
+        return this;
+    }
+
+    public KnapsackPullRequestBuilder setBulkRetryQueueSize(int bulkRetryQueueSize) {
+        request.setBulkRetryQueueSize(bulkRetryQueueSize);
+        return this;
+    }
+
+    public KnapsackPullRequestBuilder setDeadLetterPath(Path deadLetterPath) {
+        request.setDeadLetterPath(deadLetterPath);
+        return this;
+    }
+
+    public KnapsackPullRequestBuilder setParallelism(int parallelism) {
+        request.setParallelism(parallelism);
+        return this;
+    }
+
+    public KnapsackPullRequestBuilder setBulkGrouping(String bulkGrouping) {
+        request.setBulkGrouping(bulkGrouping);
+        return this;
+    }
+
     public KnapsackPullRequestBuilder setIndexTypeNames(Map indexTypeNames) {
         request.setIndexTypeNames(indexTypeNames);
         return this;
@@ -25,6 +25,7 @@ import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.action.support.TransportAction;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.collect.ImmutableSet;
 import org.elasticsearch.common.inject.Inject;
@@ -34,42 +35,63 @@ import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsFilter;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.VersionType;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.node.service.NodeService;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.threadpool.ThreadPool;
+import org.xbib.elasticsearch.knapsack.KnapsackMetrics;
 import org.xbib.elasticsearch.knapsack.KnapsackService;
 import org.xbib.elasticsearch.knapsack.KnapsackState;
+import org.xbib.elasticsearch.support.client.BulkGrouping;
 import org.xbib.elasticsearch.support.client.Ingest;
 import org.xbib.elasticsearch.support.client.bulk.BulkTransportClient;
 import org.xbib.elasticsearch.support.client.node.BulkNodeClient;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.elasticsearch.client.Requests.createIndexRequest;
+import static org.elasticsearch.common.collect.Lists.newArrayList;
 import static org.elasticsearch.common.collect.Maps.newHashMap;
 import static org.elasticsearch.common.collect.Sets.newHashSet;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.clientSettings;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.copySearchRequest;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getAliases;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getMapping;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getMaxNumberOfShards;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getPreference;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getSettings;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.mapIndex;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.mapType;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.openDeadLetters;
 
 public class TransportKnapsackPullAction extends TransportAction<KnapsackPullRequest, KnapsackPullResponse> {
 
     private final static ESLogger logger = ESLoggerFactory.getLogger(KnapsackPullAction.class.getSimpleName());
 
+    private final static long STATE_UPDATE_INTERVAL_MILLIS = 5000L;
+
     private final Environment environment;
 
     private final SettingsFilter settingsFilter;
 
     private final Client client;
 
+    private final ClusterService clusterService;
+
     private final NodeService nodeService;
 
     private final KnapsackService knapsack;
@@ -77,11 +99,13 @@ public class TransportKnapsackPullAction extends TransportAction<KnapsackPullReq
     @Inject
     public TransportKnapsackPullAction(Settings settings, Environment environment, SettingsFilter settingsFilter,
                                        ThreadPool threadPool,
-                                       Client client, NodeService nodeService, KnapsackService knapsack) {
+                                       Client client, ClusterService clusterService, NodeService nodeService,
+                                       KnapsackService knapsack) {
         super(settings, KnapsackPullAction.NAME, threadPool);
         this.environment = environment;
         this.settingsFilter = settingsFilter;
         this.client = client;
+        this.clusterService = clusterService;
         this.nodeService = nodeService;
         this.knapsack = knapsack;
     }
@@ -98,7 +122,7 @@ public class TransportKnapsackPullAction extends TransportAction<KnapsackPullReq
             transportClient.flushIngestInterval(TimeValue.timeValueSeconds(5))
                     .maxActionsPerBulkRequest(request.getMaxActionsPerBulkRequest())
                     .maxConcurrentBulkRequests(request.getMaxBulkConcurrency())
-                    .newClient(clientSettings(client, environment, request));
+                    .newClient(knapsack.getConnections().acquire(clientSettings(client, knapsack.getClassLoader(environment), request)));
             if (transportClient.getConnectedNodes().isEmpty()) {
                 response.setRunning(false);
                 transportClient.shutdown();
@@ -106,15 +130,35 @@ public class TransportKnapsackPullAction extends TransportAction<KnapsackPullReq
                 final BulkNodeClient nodeClient = new BulkNodeClient();
                 nodeClient.flushIngestInterval(TimeValue.timeValueSeconds(5))
                         .maxActionsPerBulkRequest(request.getMaxActionsPerBulkRequest())
-                        .maxConcurrentBulkRequests(request.getMaxBulkConcurrency())
-                        .newClient(client);
+                        .maxConcurrentBulkRequests(request.getMaxBulkConcurrency());
+                if (request.isAdaptiveBulk()) {
+                    nodeClient.adaptiveBulk(request.getMinActionsPerBulkRequest(), null,
+                            request.getMinBulkConcurrency(), request.getTargetBulkLatency());
+                }
+                if (request.getBulkRetries() > 1 || request.getDeadLetterPath() != null) {
+                    nodeClient.retryBulkItems(request.getBulkRetries(), request.getBulkRetryBackoff(),
+                            request.getBulkRetryQueueSize(), openDeadLetters(request.getDeadLetterPath()));
+                }
+                if (request.getBulkGrouping() != null) {
+                    nodeClient.bulkGrouping(new BulkGrouping(clusterService, request.getBulkGrouping(),
+                            TimeValue.timeValueSeconds(5).millis()));
+                }
+                nodeClient.newClient(client);
                 state.setTimestamp(new DateTime());
                 response.setRunning(true);
-                knapsack.submit(new Thread() {
-                    public void run() {
-                        performPull(request, state, transportClient, nodeClient);
-                    }
-                });
+                final KnapsackMetrics metrics = new KnapsackMetrics().setIngest(nodeClient);
+                // ensure to add import to state before the job runs and before response is sent
+                knapsack.addImport(client, state);
+                try {
+                    knapsack.submit(state, metrics, new Thread() {
+                        public void run() {
+                            performPull(request, state, metrics, transportClient, nodeClient);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    knapsack.removeImport(client, state);
+                    throw e;
+                }
             }
             listener.onResponse(response);
         } catch (Throwable e) {
@@ -128,11 +172,13 @@ public class TransportKnapsackPullAction extends TransportAction<KnapsackPullReq
      *
      * @param request request
      * @param state state
+     * @param metrics the live metrics of the pull
      * @param transportClient bulk client for remote cluster access
      * @param nodeClient bulk client for local cluster access
      */
     final void performPull(final KnapsackPullRequest request,
                             final KnapsackState state,
+                            final KnapsackMetrics metrics,
                             final Ingest transportClient,
                             final Ingest nodeClient) {
         try {
@@ -211,30 +257,38 @@ public class TransportKnapsackPullAction extends TransportAction<KnapsackPullReq
                 searchRequest = new SearchRequestBuilder(transportClient.client())
                         .setQuery(QueryBuilders.matchAllQuery()).request();
             }
-            for (String index : indices.keySet()) {
-                searchRequest.searchType(SearchType.SCAN).scroll(request.getTimeout());
-                if (!"_all".equals(index)) {
-                    searchRequest.indices(index);
-                }
-                Set<String> types = indices.get(index);
-                if (types != null) {
-                    searchRequest.types(types.toArray(new String[types.size()]));
-                }
-                SearchResponse searchResponse = transportClient.client().search(searchRequest).actionGet();
-                long total = 0L;
-                while (searchResponse.getScrollId() != null && !Thread.interrupted()) {
-                    searchResponse = transportClient.client().prepareSearchScroll(searchResponse.getScrollId())
-                            .setScroll(request.getTimeout())
-                            .execute().actionGet();
-                    long hits = searchResponse.getHits().getHits().length;
-                    if (hits == 0) {
-                        break;
+            if (request.getParallelism() > 1) {
+                count = pullShards(request, state, metrics, transportClient, nodeClient, indices, searchRequest);
+            } else {
+                for (String index : indices.keySet()) {
+                    searchRequest.searchType(SearchType.SCAN).scroll(request.getTimeout());
+                    if (!"_all".equals(index)) {
+                        searchRequest.indices(index);
                     }
-                    total += hits;
-                    logger.debug("total={} hits={} took={}", total, hits, searchResponse.getTookInMillis());
-                    for (SearchHit hit : searchResponse.getHits()) {
-                        indexSearchHit(nodeClient, request, hit);
-                        count++;
+                    Set<String> types = indices.get(index);
+                    if (types != null) {
+                        searchRequest.types(types.toArray(new String[types.size()]));
+                    }
+                    SearchResponse searchResponse = transportClient.client().search(searchRequest).actionGet();
+                    metrics.addTotalDocs(searchResponse.getHits().getTotalHits());
+                    long total = 0L;
+                    while (searchResponse.getScrollId() != null && !Thread.interrupted()) {
+                        long t0 = System.nanoTime();
+                        searchResponse = transportClient.client().prepareSearchScroll(searchResponse.getScrollId())
+                                .setScroll(request.getTimeout())
+                                .execute().actionGet();
+                        metrics.getScrollLatency().record((System.nanoTime() - t0) / 1000000L);
+                        long hits = searchResponse.getHits().getHits().length;
+                        if (hits == 0) {
+                            break;
+                        }
+                        total += hits;
+                        metrics.addDocs(hits);
+                        logger.debug("total={} hits={} took={}", total, hits, searchResponse.getTookInMillis());
+                        for (SearchHit hit : searchResponse.getHits()) {
+                            indexSearchHit(nodeClient, request, hit);
+                            count++;
+                        }
                     }
                 }
             }
@@ -249,6 +303,14 @@ public class TransportKnapsackPullAction extends TransportAction<KnapsackPullReq
         } catch (Throwable e) {
             logger.error(e.getMessage(), e);
         } finally {
+            if (transportClient.client() != null) {
+                // give the connection back to the pool
+                try {
+                    transportClient.shutdown();
+                } catch (Exception e) {
+                    logger.warn(e.getMessage(), e);
+                }
+            }
             try {
                 knapsack.removeImport(client, state);
             } catch (IOException e) {
@@ -257,6 +319,151 @@ public class TransportKnapsackPullAction extends TransportAction<KnapsackPullReq
         }
     }
 
+    /**
+     * Pull the shards of the remote cluster in parallel, with one scroll per shard. At most
+     * the given parallelism of shard scrolls run at the same time, the others wait for a free thread.
+     * All scrolls index into the local bulk client.
+     *
+     * @param request the request
+     * @param state the state
+     * @param metrics the live metrics of the pull
+     * @param transportClient bulk client for remote cluster access
+     * @param nodeClient bulk client for local cluster access
+     * @param indices the indices and types to pull
+     * @param searchRequest the search request template
+     * @return the number of pulled documents
+     * @throws Exception if pull fails
+     */
+    private long pullShards(final KnapsackPullRequest request,
+                            final KnapsackState state,
+                            final KnapsackMetrics metrics,
+                            final Ingest transportClient,
+                            final Ingest nodeClient,
+                            final Map<String,Set<String>> indices,
+                            final SearchRequest searchRequest) throws Exception {
+        Set<String> shardIndices = newHashSet(indices.keySet());
+        shardIndices.remove("_all");
+        int shards = getMaxNumberOfShards(transportClient.client(),
+                shardIndices.toArray(new String[shardIndices.size()]));
+        if (shards == 0) {
+            logger.warn("no shards found for remote indices {}, nothing to pull", indices.keySet());
+            return 0L;
+        }
+        int threads = Math.min(request.getParallelism(), shards);
+        logger.info("pulling {} remote shards with {} parallel scrolls", shards, threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                EsExecutors.daemonThreadFactory("knapsack-pull-shard"));
+        long count = 0L;
+        final AtomicLong lastStateUpdate = new AtomicLong();
+        try {
+            CompletionService<Long> completionService = new ExecutorCompletionService<Long>(executor);
+            List<Future<Long>> futures = newArrayList();
+            for (int shard = 0; shard < shards; shard++) {
+                final String name = "shard" + shard;
+                final String preference = getPreference(shard, shards, shards);
+                state.setProgress(name, 0L);
+                futures.add(completionService.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return pullShard(request, state, metrics, transportClient, nodeClient, indices, searchRequest,
+                                name, preference, lastStateUpdate);
+                    }
+                }));
+            }
+            // the first failed shard stops the pull, the other shards are cancelled
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    count += completionService.take().get();
+                } catch (ExecutionException e) {
+                    for (Future<Long> future : futures) {
+                        future.cancel(true);
+                    }
+                    throw new IOException("pull of shard failed", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return count;
+    }
+
+    /**
+     * Shard pull thread
+     *
+     * @param request the request
+     * @param state the state
+     * @param metrics the live metrics of the pull
+     * @param transportClient bulk client for remote cluster access
+     * @param nodeClient bulk client for local cluster access
+     * @param indices the indices and types to pull
+     * @param searchRequest the search request template
+     * @param name the name of the shard scroll
+     * @param preference the shard preference
+     * @param lastStateUpdate the time of the last state update, shared by all shards
+     * @return the number of pulled documents
+     * @throws IOException if the search request can not be copied
+     */
+    private long pullShard(final KnapsackPullRequest request,
+                           final KnapsackState state,
+                           final KnapsackMetrics metrics,
+                           final Ingest transportClient,
+                           final Ingest nodeClient,
+                           final Map<String,Set<String>> indices,
+                           final SearchRequest searchRequest,
+                           final String name,
+                           final String preference,
+                           final AtomicLong lastStateUpdate) throws IOException {
+        logger.info("start of pull {} with preference {}", name, preference);
+        long start = System.currentTimeMillis();
+        long total = 0L;
+        for (String index : indices.keySet()) {
+            SearchRequest shardRequest = copySearchRequest(searchRequest);
+            shardRequest.searchType(SearchType.SCAN)
+                    .scroll(request.getTimeout())
+                    .preference(preference);
+            if (!"_all".equals(index)) {
+                shardRequest.indices(index);
+            }
+            Set<String> types = indices.get(index);
+            if (types != null) {
+                shardRequest.types(types.toArray(new String[types.size()]));
+            }
+            SearchResponse searchResponse = transportClient.client().search(shardRequest).actionGet();
+            metrics.addTotalDocs(searchResponse.getHits().getTotalHits());
+            while (searchResponse.getScrollId() != null && !Thread.interrupted()) {
+                long t0 = System.nanoTime();
+                searchResponse = transportClient.client().prepareSearchScroll(searchResponse.getScrollId())
+                        .setScroll(request.getTimeout())
+                        .execute().actionGet();
+                metrics.getScrollLatency().record((System.nanoTime() - t0) / 1000000L);
+                long hits = searchResponse.getHits().getHits().length;
+                if (hits == 0) {
+                    break;
+                }
+                total += hits;
+                metrics.addDocs(hits);
+                logger.debug("{} total={} hits={} took={}", name, total, hits, searchResponse.getTookInMillis());
+                for (SearchHit hit : searchResponse.getHits()) {
+                    indexSearchHit(nodeClient, request, hit);
+                }
+                long millis = Math.max(1L, System.currentTimeMillis() - start);
+                state.setProgress(name, total)
+                        .setThroughput(name, total * 1000.0 / millis);
+                updateState(state, lastStateUpdate);
+            }
+        }
+        logger.info("end of pull {}: {} documents", name, total);
+        return total;
+    }
+
+    private void updateState(KnapsackState state, AtomicLong lastStateUpdate) {
+        long now = System.currentTimeMillis();
+        long last = lastStateUpdate.get();
+        if (now - last >= STATE_UPDATE_INTERVAL_MILLIS && lastStateUpdate.compareAndSet(last, now)) {
+            knapsack.updateImport(client, state);
+        }
+    }
+
     private void indexSearchHit(Ingest nodeBulkClient,  KnapsackPullRequest request, SearchHit hit)
             throws IOException {
         IndexRequest indexRequest = new IndexRequest(mapIndex(request, hit.getIndex()),
@@ -277,7 +484,7 @@ public class TransportKnapsackPullAction extends TransportAction<KnapsackPullReq
                             .version(Long.parseLong(hit.getFields().get(f).getValue().toString()));
                     break;
                 case "_source":
-                    indexRequest.source(hit.getSourceAsString());
+                    indexRequest.source(hit.sourceRef(), false);
                     break;
                 default:
                     indexRequest.source(f, hit.getFields().get(f).getValue().toString());
@@ -285,10 +492,9 @@ public class TransportKnapsackPullAction extends TransportAction<KnapsackPullReq
             }
         }
         if (!hit.getFields().keySet().contains("_source")) {
-            indexRequest.source(hit.getSourceAsString());
+            indexRequest.source(hit.sourceRef(), false);
         }
         nodeBulkClient.bulkIndex(indexRequest);
     }
 
-
 }
@@ -23,6 +23,9 @@ import org.elasticsearch.common.unit.TimeValue;
 import org.xbib.elasticsearch.knapsack.KnapsackRequest;
 
 import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Map;
 
 import static org.elasticsearch.common.collect.Maps.newHashMap;
@@ -46,6 +49,26 @@ public class KnapsackPushRequest extends SingleCustomOperationRequest<KnapsackPu
 
     private int maxBulkConcurrency = 2 * Runtime.getRuntime().availableProcessors();
 
+    private boolean adaptiveBulk;
+
+    private int minActionsPerBulkRequest = 10;
+
+    private int minBulkConcurrency = 1;
+
+    private TimeValue targetBulkLatency = TimeValue.timeValueSeconds(1);
+
+    private int bulkRetries = 3;
+
+    private TimeValue bulkRetryBackoff = TimeValue.timeValueMillis(500);
+
+    private int bulkRetryQueueSize = 10000;
+
+    private Path deadLetterPath;
+
+    private int slices = 1;
+
+    private int queueSize = 1000;
+
     private Map<String, Object> indexTypeNames = newHashMap();
 
     private boolean withMetadata;
@@ -147,6 +170,96 @@ public class KnapsackPushRequest extends SingleCustomOperationRequest<KnapsackPu
         return maxBulkConcurrency;
     }
 
+    public KnapsackPushRequest setAdaptiveBulk(boolean adaptiveBulk) {
+        this.adaptiveBulk = adaptiveBulk;
+        return this;
+    }
+
+    public boolean isAdaptiveBulk() {
+        return adaptiveBulk;
+    }
+
+    public KnapsackPushRequest setMinActionsPerBulkRequest(int minActionsPerBulkRequest) {
+        this.minActionsPerBulkRequest = minActionsPerBulkRequest;
+        return this;
+    }
+
+    public int getMinActionsPerBulkRequest() {
+        return minActionsPerBulkRequest;
+    }
+
+    public KnapsackPushRequest setMinBulkConcurrency(int minBulkConcurrency) {
+        this.minBulkConcurrency = minBulkConcurrency;
+        return this;
+    }
+
+    public int getMinBulkConcurrency() {
+        return minBulkConcurrency;
+    }
+
+    public KnapsackPushRequest setTargetBulkLatency(TimeValue targetBulkLatency) {
+        this.targetBulkLatency = targetBulkLatency;
+        return this;
+    }
+
+    public TimeValue getTargetBulkLatency() {
+        return targetBulkLatency;
+    }
+
+    public KnapsackPushRequest setBulkRetries(int bulkRetries) {
+        this.bulkRetries = bulkRetries;
+        return this;
+    }
+
+    public int getBulkRetries() {
+        return bulkRetries;
+    }
+
+    public KnapsackPushRequest setBulkRetryBackoff(TimeValue bulkRetryBackoff) {
+        this.bulkRetryBackoff = bulkRetryBackoff;
+        return this;
+    }
+
+    public TimeValue getBulkRetryBackoff() {
+        return bulkRetryBackoff;
+    }
+
+    public KnapsackPushRequest setBulkRetryQueueSize(int bulkRetryQueueSize) {
+        this.bulkRetryQueueSize = bulkRetryQueueSize;
+        return this;
+    }
+
+    public int getBulkRetryQueueSize() {
+        return bulkRetryQueueSize;
+    }
+
+    public KnapsackPushRequest setDeadLetterPath(Path deadLetterPath) {
+        this.deadLetterPath = deadLetterPath;
+        return this;
+    }
+
+    public Path getDeadLetterPath() {
+        return deadLetterPath;
+    }
+
+    public KnapsackPushRequest setSlices(int slices) {
+        this.slices = slices;
+        return this;
+    }
+
+    public int getSlices() {
+        return slices;
+    }
+
+    public KnapsackPushRequest setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+        return this;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
     public KnapsackPushRequest setIndexTypeNames(Map<String,Object> indexTypeNames) {
         this.indexTypeNames = indexTypeNames;
         return this;
@@ -200,6 +313,16 @@ public class KnapsackPushRequest extends SingleCustomOperationRequest<KnapsackPu
         } else {
             out.writeBoolean(false);
         }
+        out.writeBoolean(adaptiveBulk);
+        out.writeInt(minActionsPerBulkRequest);
+        out.writeInt(minBulkConcurrency);
+        targetBulkLatency.writeTo(out);
+        out.writeInt(bulkRetries);
+        bulkRetryBackoff.writeTo(out);
+        out.writeInt(bulkRetryQueueSize);
+        out.writeOptionalString(deadLetterPath != null ? deadLetterPath.toUri().toString() : null);
+        out.writeInt(slices);
+        out.writeInt(queueSize);
     }
 
     @Override
@@ -223,5 +346,16 @@ public class KnapsackPushRequest extends SingleCustomOperationRequest<KnapsackPu
             searchRequest = new SearchRequest();
             searchRequest.readFrom(in);
         }
+        adaptiveBulk = in.readBoolean();
+        minActionsPerBulkRequest = in.readInt();
+        minBulkConcurrency = in.readInt();
+        targetBulkLatency = TimeValue.readTimeValue(in);
+        bulkRetries = in.readInt();
+        bulkRetryBackoff = TimeValue.readTimeValue(in);
+        bulkRetryQueueSize = in.readInt();
+        String deadLetterUri = in.readOptionalString();
+        deadLetterPath = deadLetterUri != null ? Paths.get(URI.create(deadLetterUri)) : null;
+        slices = in.readInt();
+        queueSize = in.readInt();
     }
 }
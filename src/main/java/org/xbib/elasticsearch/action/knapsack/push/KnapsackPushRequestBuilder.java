@@ -21,6 +21,7 @@ import org.elasticsearch.action.support.single.custom.SingleCustomOperationReque
 import org.elasticsearch.client.IndicesAdminClient;
 import org.elasticsearch.common.unit.TimeValue;
 
+import java.nio.file.Path;
 import java.util.Map;
 
 /**
@@ -82,6 +83,56 @@ public class KnapsackPushRequestBuilder extends SingleCustomOperationRequestBuil
         return this;
     }
 
+    public KnapsackPushRequestBuilder setAdaptiveBulk(boolean adaptiveBulk) {
+        request.setAdaptiveBulk(adaptiveBulk);
+        return this;
+    }
+
+    public KnapsackPushRequestBuilder setMinActionsPerBulkRequest(int minActionsPerBulkRequest) {
+        request.setMinActionsPerBulkRequest(minActionsPerBulkRequest);
+        return this;
+    }
+
+    public KnapsackPushRequestBuilder setMinBulkConcurrency(int minBulkConcurrency) {
+        request.setMinBulkConcurrency(minBulkConcurrency);
+        return this;
+    }
+
+    public KnapsackPushRequestBuilder setTargetBulkLatency(TimeValue targetBulkLatency) {
+        request.setTargetBulkLatency(targetBulkLatency);
+        return this;
+    }
+
+    public KnapsackPushRequestBuilder setBulkRetries(int bulkRetries) {
+        request.setBulkRetries(bulkRetries);
+        return this;
+    }
+
+    public KnapsackPushRequestBuilder setBulkRetryBackoff(TimeValue bulkRetryBackoff) {
+        request.setBulkRetryBackoff(bulkRetryBackoff);
+        return this;
+    }
+
+    public KnapsackPushRequestBuilder setBulkRetryQueueSize(int bulkRetryQueueSize) {
+        request.setBulkRetryQueueSize(bulkRetryQueueSize);
+        return this;
+    }
+
+    public KnapsackPushRequestBuilder setDeadLetterPath(Path deadLetterPath) {
+        request.setDeadLetterPath(deadLetterPath);
+        return this;
+    }
+
+    public KnapsackPushRequestBuilder setSlices(int slices) {
+        request.setSlices(slices);
+        return this;
+    }
+
+    public KnapsackPushRequestBuilder setQueueSize(int queueSize) {
+        request.setQueueSize(queueSize);
+        return this;
+    }
+
     public KnapsackPushRequestBuilder setIndexTypeNames(Map<String, Object> indexTypeNames) {
         request.setIndexTypeNames(indexTypeNames);
         return this;
@@ -34,12 +34,14 @@ import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsFilter;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.VersionType;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.node.service.NodeService;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.threadpool.ThreadPool;
+import org.xbib.elasticsearch.knapsack.KnapsackMetrics;
 import org.xbib.elasticsearch.knapsack.KnapsackService;
 import org.xbib.elasticsearch.knapsack.KnapsackState;
 import org.xbib.elasticsearch.support.client.bulk.BulkTransportClient;
@@ -47,21 +49,35 @@ import org.xbib.elasticsearch.support.client.bulk.BulkTransportClient;
 import java.io.IOException;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.elasticsearch.client.Requests.createIndexRequest;
 import static org.elasticsearch.common.collect.Maps.newHashMap;
 import static org.elasticsearch.common.collect.Sets.newHashSet;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.clientSettings;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.copySearchRequest;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getAliases;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getMapping;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getMaxNumberOfShards;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getPreference;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getSettings;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.mapIndex;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.mapType;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.openDeadLetters;
 
 public class TransportKnapsackPushAction extends TransportAction<KnapsackPushRequest, KnapsackPushResponse> {
 
     private final static ESLogger logger = ESLoggerFactory.getLogger(KnapsackPushAction.class.getSimpleName());
 
+    private final static long STATE_UPDATE_INTERVAL_MILLIS = 5000L;
+
     private final Environment environment;
 
     private final SettingsFilter settingsFilter;
@@ -95,22 +111,36 @@ public class TransportKnapsackPushAction extends TransportAction<KnapsackPushReq
             final BulkTransportClient bulkClient = new BulkTransportClient();
             bulkClient.flushIngestInterval(TimeValue.timeValueSeconds(5))
                     .maxActionsPerBulkRequest(request.getMaxActionsPerBulkRequest())
-                    .maxConcurrentBulkRequests(request.getMaxBulkConcurrency())
-                    .newClient(clientSettings(client, environment, request));
+                    .maxConcurrentBulkRequests(request.getMaxBulkConcurrency());
+            if (request.isAdaptiveBulk()) {
+                bulkClient.adaptiveBulk(request.getMinActionsPerBulkRequest(), null,
+                        request.getMinBulkConcurrency(), request.getTargetBulkLatency());
+            }
+            if (request.getBulkRetries() > 1 || request.getDeadLetterPath() != null) {
+                bulkClient.retryBulkItems(request.getBulkRetries(), request.getBulkRetryBackoff(),
+                        request.getBulkRetryQueueSize(), openDeadLetters(request.getDeadLetterPath()));
+            }
+            bulkClient.newClient(knapsack.getConnections().acquire(clientSettings(client, knapsack.getClassLoader(environment), request)));
             if (bulkClient.getConnectedNodes().isEmpty()) {
                 response.setRunning(false);
                 bulkClient.shutdown();
             } else {
                 state.setTimestamp(new DateTime());
                 response.setRunning(true);
-                knapsack.submit(new Thread() {
-                    public void run() {
-                        performPush(request, state, bulkClient);
-                    }
-                });
+                final KnapsackMetrics metrics = new KnapsackMetrics().setIngest(bulkClient);
+                // ensure to add export to state before the job runs and before response is sent
+                knapsack.addExport(client, state);
+                try {
+                    knapsack.submit(state, metrics, new Thread() {
+                        public void run() {
+                            performPush(request, state, metrics, bulkClient);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    knapsack.removeExport(client, state);
+                    throw e;
+                }
             }
-            // ensure to add export to state before response is sent
-            knapsack.addExport(client, state);
             listener.onResponse(response);
         } catch (Throwable e) {
             logger.error(e.getMessage(), e);
@@ -122,10 +152,12 @@ public class TransportKnapsackPushAction extends TransportAction<KnapsackPushReq
      * Push action thread
      * @param request the request
      * @param state the state
+     * @param metrics the live metrics of the push
      * @param bulkClient the bulk client
      */
     final void performPush(final KnapsackPushRequest request,
                             final KnapsackState state,
+                            final KnapsackMetrics metrics,
                             final BulkTransportClient bulkClient) {
         try {
             logger.info("start of push: {}", state);
@@ -202,61 +234,40 @@ public class TransportKnapsackPushAction extends TransportAction<KnapsackPushReq
             if (searchRequest == null) {
                 searchRequest = new SearchRequestBuilder(client).setQuery(QueryBuilders.matchAllQuery()).request();
             }
-            for (String index : indices.keySet()) {
-                searchRequest.searchType(SearchType.SCAN).scroll(request.getTimeout());
-                if (!"_all".equals(index)) {
-                    searchRequest.indices(index);
-                }
-                Set<String> types = indices.get(index);
-                if (types != null) {
-                    searchRequest.types(types.toArray(new String[types.size()]));
-                }
-                // use local node client here
-                SearchResponse searchResponse = client.search(searchRequest).actionGet();
-                long total = 0L;
-                while (searchResponse.getScrollId() != null && !Thread.interrupted()) {
-                    searchResponse = client.prepareSearchScroll(searchResponse.getScrollId())
-                            .setScroll(request.getTimeout())
-                            .execute()
-                            .actionGet();
-                    long hits = searchResponse.getHits().getHits().length;
-                    if (hits == 0) {
-                        break;
+            if (request.getSlices() > 1) {
+                count = pushSlices(request, state, metrics, bulkClient, indices, searchRequest);
+            } else {
+                for (String index : indices.keySet()) {
+                    searchRequest.searchType(SearchType.SCAN).scroll(request.getTimeout());
+                    if (!"_all".equals(index)) {
+                        searchRequest.indices(index);
                     }
-                    total += hits;
-                    logger.debug("total={} hits={} took={}", total, hits, searchResponse.getTookInMillis());
-                    for (SearchHit hit : searchResponse.getHits()) {
-                        IndexRequest indexRequest = new IndexRequest(mapIndex(request, hit.getIndex()),
-                                mapType(request, hit.getIndex(), hit.getType()), hit.getId());
-                        for (String f : hit.getFields().keySet()) {
-                            switch (f) {
-                                case "_parent":
-                                    indexRequest.parent(hit.getFields().get(f).getValue().toString());
-                                    break;
-                                case "_routing":
-                                    indexRequest.routing(hit.getFields().get(f).getValue().toString());
-                                    break;
-                                case "_timestamp":
-                                    indexRequest.timestamp(hit.getFields().get(f).getValue().toString());
-                                    break;
-                                case "_version":
-                                    indexRequest.versionType(VersionType.EXTERNAL)
-                                            .version(Long.parseLong(hit.getFields().get(f).getValue().toString()));
-                                    break;
-                                case "_source":
-                                    indexRequest.source(hit.getSourceAsString());
-                                    break;
-                                default:
-                                    indexRequest.source(f, hit.getFields().get(f).getValue().toString());
-                                    break;
-                            }
-                            count++;
+                    Set<String> types = indices.get(index);
+                    if (types != null) {
+                        searchRequest.types(types.toArray(new String[types.size()]));
+                    }
+                    // use local node client here
+                    SearchResponse searchResponse = client.search(searchRequest).actionGet();
+                    metrics.addTotalDocs(searchResponse.getHits().getTotalHits());
+                    long total = 0L;
+                    while (searchResponse.getScrollId() != null && !Thread.interrupted()) {
+                        long t0 = System.nanoTime();
+                        searchResponse = client.prepareSearchScroll(searchResponse.getScrollId())
+                                .setScroll(request.getTimeout())
+                                .execute()
+                                .actionGet();
+                        metrics.getScrollLatency().record((System.nanoTime() - t0) / 1000000L);
+                        long hits = searchResponse.getHits().getHits().length;
+                        if (hits == 0) {
+                            break;
                         }
-                        if (!hit.getFields().keySet().contains("_source")) {
-                            indexRequest.source(hit.getSourceAsString());
+                        total += hits;
+                        metrics.addDocs(hits);
+                        logger.debug("total={} hits={} took={}", total, hits, searchResponse.getTookInMillis());
+                        for (SearchHit hit : searchResponse.getHits()) {
+                            bulkClient.bulkIndex(toIndexRequest(request, hit));
                             count++;
                         }
-                        bulkClient.bulkIndex(indexRequest);
                     }
                 }
             }
@@ -270,6 +281,14 @@ public class TransportKnapsackPushAction extends TransportAction<KnapsackPushReq
         } catch (Throwable e) {
             logger.error(e.getMessage(), e);
         } finally {
+            if (bulkClient.client() != null) {
+                // give the connection back to the pool
+                try {
+                    bulkClient.shutdown();
+                } catch (Exception e) {
+                    logger.warn(e.getMessage(), e);
+                }
+            }
             try {
                 knapsack.removeExport(client, state);
             } catch (IOException e) {
@@ -278,4 +297,189 @@ public class TransportKnapsackPushAction extends TransportAction<KnapsackPushReq
         }
     }
 
+    /**
+     * Push the shard slices in parallel. Each slice is read by its own scroll reader thread, the readers
+     * hand the index requests over to this thread through a bounded queue, and this thread submits them
+     * to the bulk client. So the readers keep scrolling while bulk requests are in flight, and wait
+     * only when the queue is full.
+     *
+     * @param request the request
+     * @param state the state
+     * @param metrics the live metrics of the push
+     * @param bulkClient the bulk client
+     * @param indices the indices and types to push
+     * @param searchRequest the search request template
+     * @return the number of pushed documents
+     * @throws Exception if push fails
+     */
+    private long pushSlices(final KnapsackPushRequest request,
+                            final KnapsackState state,
+                            final KnapsackMetrics metrics,
+                            final BulkTransportClient bulkClient,
+                            final Map<String,Set<String>> indices,
+                            final SearchRequest searchRequest) throws Exception {
+        Set<String> shardIndices = newHashSet(indices.keySet());
+        shardIndices.remove("_all");
+        int shards = getMaxNumberOfShards(client, shardIndices.toArray(new String[shardIndices.size()]));
+        if (shards == 0) {
+            logger.warn("no shards found for indices {}, nothing to push", indices.keySet());
+            return 0L;
+        }
+        final int slices = Math.min(request.getSlices(), shards);
+        logger.info("pushing {} shards in {} slices", shards, slices);
+        final BlockingQueue<IndexRequest> queue = new ArrayBlockingQueue<IndexRequest>(request.getQueueSize());
+        metrics.addQueue("requests", queue);
+        final AtomicInteger running = new AtomicInteger(slices);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicLong lastStateUpdate = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(slices,
+                EsExecutors.daemonThreadFactory("knapsack-push-reader"));
+        long count = 0L;
+        try {
+            for (int i = 0; i < slices; i++) {
+                final String name = "reader" + i;
+                final String preference = getPreference(i, slices, shards);
+                state.setProgress(name, 0L);
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            readSlice(request, state, metrics, queue, indices, searchRequest, name, preference,
+                                    lastStateUpdate);
+                        } catch (Throwable t) {
+                            logger.error("push reader {} failed: {}", t, name, t.getMessage());
+                            failure.compareAndSet(null, t);
+                        } finally {
+                            running.decrementAndGet();
+                        }
+                    }
+                });
+            }
+            // the readers put their last request before they count down
+            while (running.get() > 0 || !queue.isEmpty()) {
+                if (failure.get() != null) {
+                    throw new IOException("push reader failed", failure.get());
+                }
+                IndexRequest indexRequest = queue.poll(100L, TimeUnit.MILLISECONDS);
+                if (indexRequest != null) {
+                    bulkClient.bulkIndex(indexRequest);
+                    count++;
+                }
+            }
+            if (failure.get() != null) {
+                throw new IOException("push reader failed", failure.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return count;
+    }
+
+    /**
+     * Scroll reader thread of a slice
+     *
+     * @param request the request
+     * @param state the state
+     * @param metrics the live metrics of the push
+     * @param queue the queue to the bulk client
+     * @param indices the indices and types to push
+     * @param searchRequest the search request template
+     * @param name the reader name
+     * @param preference the shard preference of the slice
+     * @param lastStateUpdate the time of the last state update, shared by all readers
+     * @throws IOException if the search request can not be copied
+     * @throws InterruptedException if interrupted while waiting for the queue
+     */
+    private void readSlice(final KnapsackPushRequest request,
+                           final KnapsackState state,
+                           final KnapsackMetrics metrics,
+                           final BlockingQueue<IndexRequest> queue,
+                           final Map<String,Set<String>> indices,
+                           final SearchRequest searchRequest,
+                           final String name,
+                           final String preference,
+                           final AtomicLong lastStateUpdate) throws IOException, InterruptedException {
+        logger.info("start of push reader {} with preference {}", name, preference);
+        long start = System.currentTimeMillis();
+        long total = 0L;
+        for (String index : indices.keySet()) {
+            SearchRequest sliceRequest = copySearchRequest(searchRequest);
+            sliceRequest.searchType(SearchType.SCAN)
+                    .scroll(request.getTimeout())
+                    .preference(preference);
+            if (!"_all".equals(index)) {
+                sliceRequest.indices(index);
+            }
+            Set<String> types = indices.get(index);
+            if (types != null) {
+                sliceRequest.types(types.toArray(new String[types.size()]));
+            }
+            SearchResponse searchResponse = client.search(sliceRequest).actionGet();
+            metrics.addTotalDocs(searchResponse.getHits().getTotalHits());
+            while (searchResponse.getScrollId() != null) {
+                long t0 = System.nanoTime();
+                searchResponse = client.prepareSearchScroll(searchResponse.getScrollId())
+                        .setScroll(request.getTimeout())
+                        .execute()
+                        .actionGet();
+                metrics.getScrollLatency().record((System.nanoTime() - t0) / 1000000L);
+                long hits = searchResponse.getHits().getHits().length;
+                if (hits == 0) {
+                    break;
+                }
+                total += hits;
+                metrics.addDocs(hits);
+                logger.debug("reader={} total={} hits={} took={}", name, total, hits, searchResponse.getTookInMillis());
+                for (SearchHit hit : searchResponse.getHits()) {
+                    queue.put(toIndexRequest(request, hit));
+                }
+                long millis = Math.max(1L, System.currentTimeMillis() - start);
+                state.setProgress(name, total)
+                        .setThroughput(name, total * 1000.0 / millis);
+                updateState(state, lastStateUpdate);
+            }
+        }
+        logger.info("end of push reader {}: {} documents", name, total);
+    }
+
+    private void updateState(KnapsackState state, AtomicLong lastStateUpdate) {
+        long now = System.currentTimeMillis();
+        long last = lastStateUpdate.get();
+        if (now - last >= STATE_UPDATE_INTERVAL_MILLIS && lastStateUpdate.compareAndSet(last, now)) {
+            knapsack.updateExport(client, state);
+        }
+    }
+
+    private IndexRequest toIndexRequest(KnapsackPushRequest request, SearchHit hit) {
+        IndexRequest indexRequest = new IndexRequest(mapIndex(request, hit.getIndex()),
+                mapType(request, hit.getIndex(), hit.getType()), hit.getId());
+        for (String f : hit.getFields().keySet()) {
+            switch (f) {
+                case "_parent":
+                    indexRequest.parent(hit.getFields().get(f).getValue().toString());
+                    break;
+                case "_routing":
+                    indexRequest.routing(hit.getFields().get(f).getValue().toString());
+                    break;
+                case "_timestamp":
+                    indexRequest.timestamp(hit.getFields().get(f).getValue().toString());
+                    break;
+                case "_version":
+                    indexRequest.versionType(VersionType.EXTERNAL)
+                            .version(Long.parseLong(hit.getFields().get(f).getValue().toString()));
+                    break;
+                case "_source":
+                    indexRequest.source(hit.sourceRef(), false);
+                    break;
+                default:
+                    indexRequest.source(f, hit.getFields().get(f).getValue().toString());
+                    break;
+            }
+        }
+        if (!hit.getFields().keySet().contains("_source")) {
+            indexRequest.source(hit.sourceRef(), false);
+        }
+        return indexRequest;
+    }
+
 }
@@ -18,6 +18,7 @@ package org.xbib.elasticsearch.action.knapsack.state;
 import org.elasticsearch.action.support.single.custom.SingleCustomOperationRequest;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
 
 import java.io.IOException;
 import java.net.URI;
@@ -28,6 +29,8 @@ public class KnapsackStateRequest extends SingleCustomOperationRequest<KnapsackS
 
     private Path path;
 
+    private TimeValue timeout = TimeValue.timeValueSeconds(30);
+
     public KnapsackStateRequest setPath(Path path) {
         this.path = path;
         return this;
@@ -37,16 +40,27 @@ public class KnapsackStateRequest extends SingleCustomOperationRequest<KnapsackS
         return path;
     }
 
+    public KnapsackStateRequest setTimeout(TimeValue timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public TimeValue getTimeout() {
+        return timeout;
+    }
+
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
         out.writeString(path != null ? path.toUri().toString() : "");
+        timeout.writeTo(out);
     }
 
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
-        path = Paths.get(URI.create(in.readString()));
-
+        String s = in.readString();
+        path = s.isEmpty() ? null : Paths.get(URI.create(s));
+        timeout = TimeValue.readTimeValue(in);
     }
 }
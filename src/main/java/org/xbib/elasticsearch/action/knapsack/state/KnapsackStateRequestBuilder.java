@@ -18,6 +18,7 @@ package org.xbib.elasticsearch.action.knapsack.state;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.support.single.custom.SingleCustomOperationRequestBuilder;
 import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.common.unit.TimeValue;
 
 import java.nio.file.Path;
 
@@ -32,6 +33,11 @@ public class KnapsackStateRequestBuilder extends SingleCustomOperationRequestBui
         return this;
     }
 
+    public KnapsackStateRequestBuilder setTimeout(TimeValue timeout) {
+        request.setTimeout(timeout);
+        return this;
+    }
+
     @Override
     protected void doExecute(ActionListener<KnapsackStateResponse> listener) {
         client.execute(KnapsackStateAction.INSTANCE, request, listener);
@@ -33,6 +33,10 @@ public class KnapsackStateResponse extends ActionResponse implements ToXContent
 
     private List<KnapsackState> states = newLinkedList();
 
+    private int runningJobs;
+
+    private int queuedJobs;
+
     public KnapsackStateResponse addState(KnapsackState state) {
         this.states.add(state);
         return this;
@@ -42,6 +46,24 @@ public class KnapsackStateResponse extends ActionResponse implements ToXContent
         return states;
     }
 
+    public KnapsackStateResponse setRunningJobs(int runningJobs) {
+        this.runningJobs = runningJobs;
+        return this;
+    }
+
+    public int getRunningJobs() {
+        return runningJobs;
+    }
+
+    public KnapsackStateResponse setQueuedJobs(int queuedJobs) {
+        this.queuedJobs = queuedJobs;
+        return this;
+    }
+
+    public int getQueuedJobs() {
+        return queuedJobs;
+    }
+
     public boolean isExportActive(Path path) {
         if (states != null && path != null) {
             for (KnapsackState ks : states) {
@@ -89,6 +111,8 @@ public class KnapsackStateResponse extends ActionResponse implements ToXContent
     @Override
     public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
         builder.field("count", states.size())
+                .field("running_jobs", runningJobs)
+                .field("queued_jobs", queuedJobs)
                 .startArray("states");
         for (KnapsackState ks : states) {
             ks.toXContent(builder, params);
@@ -107,6 +131,8 @@ public class KnapsackStateResponse extends ActionResponse implements ToXContent
             ks.readFrom(in);
             states.add(ks);
         }
+        runningJobs = in.readInt();
+        queuedJobs = in.readInt();
     }
 
     @Override
@@ -118,6 +144,8 @@ public class KnapsackStateResponse extends ActionResponse implements ToXContent
                 state.writeTo(out);
             }
         }
+        out.writeInt(runningJobs);
+        out.writeInt(queuedJobs);
     }
 
     @Override
@@ -18,44 +18,163 @@ package org.xbib.elasticsearch.action.knapsack.state;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.support.TransportAction;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.BaseTransportRequestHandler;
+import org.elasticsearch.transport.BaseTransportResponseHandler;
+import org.elasticsearch.transport.TransportChannel;
+import org.elasticsearch.transport.TransportException;
+import org.elasticsearch.transport.TransportRequestOptions;
+import org.elasticsearch.transport.TransportService;
+import org.xbib.elasticsearch.knapsack.KnapsackMetrics;
 import org.xbib.elasticsearch.knapsack.KnapsackService;
 import org.xbib.elasticsearch.knapsack.KnapsackState;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Maps.newHashMap;
+import static org.elasticsearch.common.collect.Sets.newHashSet;
+
+/**
+ * Gathers the state of the knapsack jobs from all nodes. Each node answers with the jobs it executes,
+ * from memory, including the live metrics. Jobs that are registered in the cluster settings, but whose
+ * node did not answer, are added from the cluster settings without progress.
+ */
 public class TransportKnapsackStateAction extends TransportAction<KnapsackStateRequest, KnapsackStateResponse> {
 
     private final static ESLogger logger = ESLoggerFactory.getLogger(KnapsackStateAction.class.getSimpleName());
 
+    private final static String NODE_ACTION_NAME = KnapsackStateAction.NAME + "[n]";
+
     private final Client client;
 
+    private final ClusterService clusterService;
+
+    private final TransportService transportService;
+
     private final KnapsackService knapsack;
 
     @Inject
-    public TransportKnapsackStateAction(Settings settings, ThreadPool threadPool, Client client, KnapsackService knapsack) {
+    public TransportKnapsackStateAction(Settings settings, ThreadPool threadPool, Client client,
+                                        ClusterService clusterService, TransportService transportService,
+                                        KnapsackService knapsack) {
         super(settings, KnapsackStateAction.NAME, threadPool);
         this.client = client;
+        this.clusterService = clusterService;
+        this.transportService = transportService;
         this.knapsack = knapsack;
+        transportService.registerHandler(NODE_ACTION_NAME, new NodeStateHandler());
     }
 
     @Override
-    protected void doExecute(final KnapsackStateRequest request, ActionListener<KnapsackStateResponse> listener) {
-        final KnapsackStateResponse response = new KnapsackStateResponse();
+    protected void doExecute(final KnapsackStateRequest request, final ActionListener<KnapsackStateResponse> listener) {
+        DiscoveryNodes nodes = clusterService.state().nodes();
+        final Map<String, KnapsackStateResponse> nodeResponses = newHashMap();
+        final AtomicInteger counter = new AtomicInteger(nodes.size());
+        // a node which does not answer in time is reported from the cluster settings
+        TransportRequestOptions options = TransportRequestOptions.options().withTimeout(request.getTimeout());
+        for (final DiscoveryNode node : nodes) {
+            transportService.sendRequest(node, NODE_ACTION_NAME, new KnapsackStateRequest(), options,
+                    new BaseTransportResponseHandler<KnapsackStateResponse>() {
+                        @Override
+                        public KnapsackStateResponse newInstance() {
+                            return new KnapsackStateResponse();
+                        }
+
+                        @Override
+                        public void handleResponse(KnapsackStateResponse response) {
+                            synchronized (nodeResponses) {
+                                // node names need not be unique
+                                nodeResponses.put(node.id(), response);
+                            }
+                            if (counter.decrementAndGet() == 0) {
+                                finish(nodeResponses, listener);
+                            }
+                        }
+
+                        @Override
+                        public void handleException(TransportException e) {
+                            logger.warn("no knapsack state from node {}: {}", node, e.getMessage());
+                            if (counter.decrementAndGet() == 0) {
+                                finish(nodeResponses, listener);
+                            }
+                        }
+
+                        @Override
+                        public String executor() {
+                            return ThreadPool.Names.SAME;
+                        }
+                    });
+        }
+    }
+
+    private void finish(Map<String, KnapsackStateResponse> nodeResponses, ActionListener<KnapsackStateResponse> listener) {
         try {
-            for (KnapsackState state : knapsack.getExports(client)) {
-                response.addState(state);
+            KnapsackStateResponse response = new KnapsackStateResponse();
+            Set<String> nodeIds;
+            int runningJobs = 0;
+            int queuedJobs = 0;
+            synchronized (nodeResponses) {
+                nodeIds = newHashSet(nodeResponses.keySet());
+                for (KnapsackStateResponse nodeResponse : nodeResponses.values()) {
+                    for (KnapsackState state : nodeResponse.getStates()) {
+                        response.addState(state);
+                    }
+                    runningJobs += nodeResponse.getRunningJobs();
+                    queuedJobs += nodeResponse.getQueuedJobs();
+                }
             }
-            for (KnapsackState state : knapsack.getImports(client)) {
-                response.addState(state);
+            // jobs of nodes that did not answer are only known from the cluster settings
+            List<KnapsackState> registered = newArrayList(knapsack.getExports(client));
+            registered.addAll(knapsack.getImports(client));
+            for (KnapsackState state : registered) {
+                if (!nodeIds.contains(state.getNodeId())) {
+                    response.addState(state);
+                }
             }
-            listener.onResponse(response);
+            listener.onResponse(response.setRunningJobs(runningJobs).setQueuedJobs(queuedJobs));
         } catch (Throwable e) {
             logger.error(e.getMessage(), e);
             listener.onFailure(e);
         }
     }
 
+    /**
+     * Answers with the jobs of this node and their live metrics
+     */
+    private class NodeStateHandler extends BaseTransportRequestHandler<KnapsackStateRequest> {
+
+        @Override
+        public KnapsackStateRequest newInstance() {
+            return new KnapsackStateRequest();
+        }
+
+        @Override
+        public void messageReceived(KnapsackStateRequest request, TransportChannel channel) throws Exception {
+            KnapsackStateResponse response = new KnapsackStateResponse()
+                    .setRunningJobs(knapsack.getRunningJobs())
+                    .setQueuedJobs(knapsack.getQueuedJobs());
+            for (KnapsackState state : knapsack.getLocalStates()) {
+                KnapsackMetrics metrics = knapsack.getMetrics(state.id());
+                response.addState(metrics != null ? state.setMetrics(metrics.snapshot()) : state);
+            }
+            channel.sendResponse(response);
+        }
+
+        @Override
+        public String executor() {
+            return ThreadPool.Names.MANAGEMENT;
+        }
+    }
+
 }
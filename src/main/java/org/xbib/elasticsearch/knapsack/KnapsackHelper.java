@@ -19,12 +19,16 @@ import org.elasticsearch.action.admin.cluster.node.info.NodesInfoRequest;
 import org.elasticsearch.action.admin.cluster.node.info.NodesInfoResponse;
 import org.elasticsearch.action.admin.cluster.state.ClusterStateRequestBuilder;
 import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
+import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.metadata.AliasMetaData;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.metadata.MappingMetaData;
 import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.hppc.cursors.ObjectCursor;
+import org.elasticsearch.common.io.stream.BytesStreamInput;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsFilter;
@@ -32,15 +36,24 @@ import org.elasticsearch.common.transport.InetSocketTransportAddress;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentType;
-import org.elasticsearch.env.Environment;
-import org.xbib.classloader.uri.URIClassLoader;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.ArchiveSession;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static org.elasticsearch.common.collect.Lists.newArrayList;
 import static org.elasticsearch.common.collect.Maps.newHashMap;
 import static org.elasticsearch.common.settings.ImmutableSettings.settingsBuilder;
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
@@ -131,6 +144,50 @@ public class KnapsackHelper {
         return aliases;
     }
 
+    public static int getMaxNumberOfShards(Client client, String... index) {
+        int shards = 0;
+        ClusterStateRequestBuilder request = client.admin().cluster().prepareState()
+                .setIndices(index);
+        ClusterStateResponse response = request.execute().actionGet();
+        MetaData metaData = response.getState().getMetaData();
+        for (IndexMetaData indexMetaData : metaData) {
+            shards = Math.max(shards, indexMetaData.getNumberOfShards());
+        }
+        return shards;
+    }
+
+    /**
+     * Distribute shard numbers round robin over the slices, e.g. for 5 shards and 2 slices,
+     * slice 0 gets "_shards:0,2,4" and slice 1 gets "_shards:1,3".
+     *
+     * @param slice the slice
+     * @param slices the number of slices
+     * @param shards the number of shards
+     * @return the search preference for the slice
+     */
+    public static String getPreference(int slice, int slices, int shards) {
+        StringBuilder sb = new StringBuilder("_shards:");
+        for (int shard = slice; shard < shards; shard += slices) {
+            if (shard > slice) {
+                sb.append(',');
+            }
+            sb.append(shard);
+        }
+        return sb.toString();
+    }
+
+    public static SearchRequest copySearchRequest(SearchRequest searchRequest) throws IOException {
+        // a search request without indices can not be serialized
+        if (searchRequest.indices() == null) {
+            searchRequest.indices(Strings.EMPTY_ARRAY);
+        }
+        BytesStreamOutput out = new BytesStreamOutput();
+        searchRequest.writeTo(out);
+        SearchRequest copy = new SearchRequest();
+        copy.readFrom(new BytesStreamInput(out.bytes()));
+        return copy;
+    }
+
     public static String mapIndex(KnapsackRequest request, String index) {
         return request.getIndexTypeNames().containsKey(index) ? request.getIndexTypeNames().get(index).toString() : index;
     }
@@ -140,13 +197,13 @@ public class KnapsackHelper {
         return request.getIndexTypeNames().containsKey(s) ? request.getIndexTypeNames().get(s).toString() : type;
     }
 
-    public static Settings clientSettings(Client client, Environment environment, KnapsackRequest request) {
+    public static Settings clientSettings(Client client, ClassLoader classLoader, KnapsackRequest request) {
         String cluster = request.getCluster();
         String host = request.getHost();
         int port = request.getPort();
         if (host == null) {
             NodesInfoResponse response = client.admin().cluster()
-                    .nodesInfo(new NodesInfoRequest().transport(true)).actionGet();
+                    .nodesInfo(new NodesInfoRequest("_local").transport(true)).actionGet();
             InetSocketTransportAddress address = (InetSocketTransportAddress)response.iterator().next()
                     .getTransport().getAddress().publishAddress();
             host = address.address().getAddress().getHostAddress();
@@ -157,7 +214,7 @@ public class KnapsackHelper {
         }
         if (cluster == null) {
             NodesInfoResponse response = client.admin().cluster()
-                    .nodesInfo(new NodesInfoRequest().transport(true)).actionGet();
+                    .nodesInfo(new NodesInfoRequest("_local").transport(true)).actionGet();
             cluster = response.getClusterName().value();
         }
         return settingsBuilder()
@@ -169,27 +226,101 @@ public class KnapsackHelper {
                 .put("client.transport.ping_timeout", request.getTimeout()) // timeout for the transport connection
                 .put("client.transport.ignore_cluster_name", true) // we want to connect to other clusters, not ours
                 .put("path.plugins", ".dontexist") // this disables site plugins when instantiating TransportClient
-                .classLoader(getClassLoader(environment)) // this disables all jvm plugins when instantiating TransportClient
+                .classLoader(classLoader) // this disables all jvm plugins when instantiating TransportClient
                 .build();
     }
 
     /**
-     * We have to add Elasticsearch to our classpath, but not the jvm plugins
-     * for starting our TransportClient.
+     * Open an archive session for bulk items that could not be indexed.
+     *
+     * @param path the path of the dead letter archive, or null
+     * @return the open session, or null if there is no path
+     * @throws IOException if the session can not be opened
+     */
+    public static ArchiveSession openDeadLetters(Path path) throws IOException {
+        if (path == null) {
+            return null;
+        }
+        ArchiveSession session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+        session.open(EnumSet.of(Session.Mode.OVERWRITE, Session.Mode.NONE), path, path.toFile());
+        if (!session.isOpen()) {
+            throw new IOException("dead letter archive can not be opened: " + path);
+        }
+        return session;
+    }
+
+    /**
+     * Find the archive files of an import. A file name with the glob characters <code>*?[{</code>
+     * selects the matching archives in the directory. Otherwise, the path is the first part of an archive,
+     * and with parts, the parts which were split off during export are added, named
+     * <code>1.name</code>, <code>2.name</code>, and so on.
      *
-     * @param environment the environment
-     * @return a custom class loader with our dependencies
+     * @param path the path, the first part, or a glob pattern
+     * @param parts true if split parts should be added
+     * @return the archive files, the first part first
+     * @throws IOException if the directory can not be read
      */
-    private static ClassLoader getClassLoader(Environment environment) {
-        URIClassLoader classLoader = new URIClassLoader();
-        File[] libs = new File(environment.homeFile() + "/lib").listFiles();
-        if (libs != null) {
-            for (File file : libs) {
-                if (file.getName().toLowerCase().endsWith(".jar")) {
-                    classLoader.addURI(file.toURI());
+    public static List<Path> findArchiveParts(Path path, boolean parts) throws IOException {
+        List<Path> list = newArrayList();
+        String name = path.getFileName().toString();
+        if (isGlob(name)) {
+            DirectoryStream<Path> stream = Files.newDirectoryStream(path.toAbsolutePath().getParent(), name);
+            try {
+                for (Path p : stream) {
+                    // skip sidecar files like checkpoints
+                    if (Files.isRegularFile(p) && ArchiveService.isArchive(p)) {
+                        list.add(p);
+                    }
                 }
+            } finally {
+                stream.close();
+            }
+        } else {
+            list.add(path);
+            if (parts) {
+                for (int i = 1; ; i++) {
+                    Path part = path.resolveSibling(i + "." + name);
+                    if (!Files.exists(part)) {
+                        break;
+                    }
+                    list.add(part);
+                }
+            }
+        }
+        Collections.sort(list, new Comparator<Path>() {
+            @Override
+            public int compare(Path p1, Path p2) {
+                long n1 = partNumber(p1);
+                long n2 = partNumber(p2);
+                return n1 < n2 ? -1 : n1 > n2 ? 1 : p1.compareTo(p2);
+            }
+        });
+        return list;
+    }
+
+    private static boolean isGlob(String name) {
+        for (char ch : "*?[{".toCharArray()) {
+            if (name.indexOf(ch) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The number of a split part, from the prefix of the file name, zero for the first part
+     */
+    private static long partNumber(Path path) {
+        String name = path.getFileName().toString();
+        int pos = name.indexOf('.');
+        if (pos > 0) {
+            try {
+                return Long.parseLong(name.substring(0, pos));
+            } catch (NumberFormatException e) {
+                // not a split part
             }
         }
-        return classLoader;
+        return 0L;
     }
+
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.knapsack;
+
+import org.elasticsearch.common.util.concurrent.jsr166e.LongAdder;
+import org.xbib.elasticsearch.support.client.Ingest;
+import org.xbib.elasticsearch.support.client.LatencyHistogram;
+import org.xbib.elasticsearch.support.client.State;
+import org.xbib.io.archive.ArchiveSession;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.elasticsearch.common.collect.Maps.newLinkedHashMap;
+import static org.elasticsearch.common.util.concurrent.ConcurrentCollections.newConcurrentMap;
+
+/**
+ * The live metrics of a running knapsack job, kept in the memory of the node that executes the job.
+ *
+ * The job threads update the counters without locking. The archive sessions, the bulk client, and the
+ * queues of the job are registered here and read when a snapshot is taken. Rates are computed between
+ * the snapshot and an earlier snapshot at least a second before, so they follow the recent progress.
+ */
+public class KnapsackMetrics {
+
+    private final static long MIN_SAMPLE_MILLIS = 1000L;
+
+    private final static double[] PERCENTILES = new double[] { 50.0, 90.0, 99.0 };
+
+    private final long startTime;
+
+    private final LongAdder docs = new LongAdder();
+
+    private final LongAdder totalDocs = new LongAdder();
+
+    private volatile long totalArchiveBytes;
+
+    private final LatencyHistogram scrollLatency = new LatencyHistogram();
+
+    private final List<ArchiveSession<?, ?>> sessions = new CopyOnWriteArrayList<ArchiveSession<?, ?>>();
+
+    private final ConcurrentMap<String, Collection<?>> queues = newConcurrentMap();
+
+    private volatile Ingest ingest;
+
+    private Sample previous;
+
+    private Sample last;
+
+    public KnapsackMetrics() {
+        this.startTime = System.currentTimeMillis();
+        this.previous = new Sample(startTime, 0L, 0L, 0L);
+        this.last = previous;
+    }
+
+    /**
+     * Count documents read from the source of the job
+     *
+     * @param n the number of documents
+     * @return this metrics
+     */
+    public KnapsackMetrics addDocs(long n) {
+        docs.add(n);
+        return this;
+    }
+
+    /**
+     * Count documents expected by the job, for example the total hits of a scroll
+     *
+     * @param n the number of documents
+     * @return this metrics
+     */
+    public KnapsackMetrics addTotalDocs(long n) {
+        totalDocs.add(n);
+        return this;
+    }
+
+    /**
+     * Set the size of the archive files to read, for the estimated time of arrival if the
+     * number of documents is not known in advance
+     *
+     * @param totalArchiveBytes the size of the archive files
+     * @return this metrics
+     */
+    public KnapsackMetrics setTotalArchiveBytes(long totalArchiveBytes) {
+        this.totalArchiveBytes = totalArchiveBytes;
+        return this;
+    }
+
+    public LatencyHistogram getScrollLatency() {
+        return scrollLatency;
+    }
+
+    public KnapsackMetrics addSession(ArchiveSession<?, ?> session) {
+        sessions.add(session);
+        return this;
+    }
+
+    public KnapsackMetrics setIngest(Ingest ingest) {
+        this.ingest = ingest;
+        return this;
+    }
+
+    public KnapsackMetrics addQueue(String name, Collection<?> queue) {
+        queues.put(name, queue);
+        return this;
+    }
+
+    public KnapsackMetrics removeQueue(String name) {
+        queues.remove(name);
+        return this;
+    }
+
+    /**
+     * Take a snapshot of the metrics
+     *
+     * @return the metrics as a map
+     */
+    public synchronized Map<String, Object> snapshot() {
+        long now = System.currentTimeMillis();
+        long bytes = 0L;
+        long archiveBytes = 0L;
+        for (ArchiveSession<?, ?> session : sessions) {
+            bytes += session.getWatcher().getTotalBytesInAllTransfers();
+            long n = session.getArchiveBytes();
+            archiveBytes = n < 0L || archiveBytes < 0L ? -1L : archiveBytes + n;
+        }
+        Sample sample = new Sample(now, docs.sum(), bytes, archiveBytes);
+        Sample base = now - last.time >= MIN_SAMPLE_MILLIS ? last : previous;
+        if (now - last.time >= MIN_SAMPLE_MILLIS) {
+            previous = last;
+            last = sample;
+        }
+        double seconds = Math.max(1L, now - base.time) / 1000.0;
+        double docsPerSecond = (sample.docs - base.docs) / seconds;
+        Map<String, Object> map = newLinkedHashMap();
+        map.put("elapsed_millis", now - startTime);
+        map.put("docs", sample.docs);
+        map.put("docs_per_second", docsPerSecond);
+        long expected = totalDocs.sum();
+        if (expected > 0L) {
+            map.put("total_docs", expected);
+        }
+        if (!sessions.isEmpty()) {
+            map.put("bytes", sample.bytes);
+            map.put("bytes_per_second", (sample.bytes - base.bytes) / seconds);
+            if (sample.archiveBytes >= 0L) {
+                map.put("archive_bytes", sample.archiveBytes);
+                if (base.archiveBytes >= 0L) {
+                    map.put("archive_bytes_per_second", (sample.archiveBytes - base.archiveBytes) / seconds);
+                }
+            }
+        }
+        long eta = eta(sample, base, seconds, expected);
+        if (eta >= 0L) {
+            map.put("eta_millis", eta);
+        }
+        if (scrollLatency.count() > 0L) {
+            Map<String, Object> scroll = newLinkedHashMap();
+            scroll.put("requests", scrollLatency.count());
+            scroll.put("latency_millis", latency(scrollLatency));
+            map.put("scroll", scroll);
+        }
+        Ingest ingest = this.ingest;
+        if (ingest != null && ingest.getState() != null) {
+            State state = ingest.getState();
+            Map<String, Object> bulk = newLinkedHashMap();
+            bulk.put("requests", state.getTotalIngest().count());
+            bulk.put("pending_requests", ingest.getPendingBulkRequests());
+            bulk.put("submitted", state.getSubmitted().count());
+            bulk.put("succeeded", state.getSucceeded().count());
+            bulk.put("failed", state.getFailed().count());
+            bulk.put("latency_millis", latency(state.getBulkLatency()));
+            map.put("bulk", bulk);
+        }
+        if (!queues.isEmpty()) {
+            Map<String, Object> depths = newLinkedHashMap();
+            for (Map.Entry<String, Collection<?>> entry : queues.entrySet()) {
+                depths.put(entry.getKey(), entry.getValue().size());
+            }
+            map.put("queues", depths);
+        }
+        return map;
+    }
+
+    /**
+     * The estimated time of arrival, from the documents expected, or from the archive bytes to read
+     */
+    private long eta(Sample sample, Sample base, double seconds, long expected) {
+        if (expected > 0L) {
+            double rate = (sample.docs - base.docs) / seconds;
+            return rate > 0.0 ? (long) (Math.max(0L, expected - sample.docs) / rate * 1000.0) : -1L;
+        }
+        if (totalArchiveBytes > 0L && sample.archiveBytes >= 0L && base.archiveBytes >= 0L) {
+            double rate = (sample.archiveBytes - base.archiveBytes) / seconds;
+            return rate > 0.0 ? (long) (Math.max(0L, totalArchiveBytes - sample.archiveBytes) / rate * 1000.0) : -1L;
+        }
+        return -1L;
+    }
+
+    private static Map<String, Object> latency(LatencyHistogram histogram) {
+        Map<String, Object> map = newLinkedHashMap();
+        for (double p : PERCENTILES) {
+            map.put("p" + (int) p, histogram.percentile(p));
+        }
+        map.put("max", histogram.max());
+        map.put("mean", histogram.mean());
+        return map;
+    }
+
+    private static class Sample {
+
+        final long time;
+
+        final long docs;
+
+        final long bytes;
+
+        final long archiveBytes;
+
+        Sample(long time, long docs, long bytes, long archiveBytes) {
+            this.time = time;
+            this.docs = docs;
+            this.bytes = bytes;
+            this.archiveBytes = archiveBytes;
+        }
+    }
+}
@@ -77,6 +77,26 @@ public interface KnapsackParameter {
      */
     String MAX_BULK_CONCURRENCY_PARAM = "max_bulk_concurrency";
 
+    /**
+     * Bulk indexing setting, adapt the bulk limits to the bulk latency and to rejected executions
+     */
+    String ADAPTIVE_BULK_PARAM = "adaptive_bulk";
+
+    /**
+     * Bulk indexing setting, minimum actions per bulk request if the bulk limits are adaptive
+     */
+    String MIN_BULK_ACTIONS_PER_REQUEST_PARAM = "min_bulk_actions_per_request";
+
+    /**
+     * Bulk indexing setting, minimum concurrency for bulk requests if the bulk limits are adaptive
+     */
+    String MIN_BULK_CONCURRENCY_PARAM = "min_bulk_concurrency";
+
+    /**
+     * Bulk indexing setting, bulk requests slower than this lower the bulk limits if the bulk limits are adaptive
+     */
+    String TARGET_BULK_LATENCY_PARAM = "target_bulk_latency";
+
     /**
      * A map for renaming indices/types
      */
@@ -94,4 +114,119 @@ public interface KnapsackParameter {
 
     String BYTES_PARAM = "bytes";
 
+    /**
+     * The number of threads that build index requests from archive entries while importing
+     */
+    String BUILD_THREADS_PARAM = "build_threads";
+
+    /**
+     * The capacity of the queues between the import stages, or between the push scroll readers and the bulk client
+     */
+    String QUEUE_SIZE_PARAM = "queue_size";
+
+    /**
+     * The maximum size of an archive entry that is read into memory, larger entries are spilled to disk
+     */
+    String MAX_ENTRY_MEMORY_PARAM = "max_entry_memory";
+
+    /**
+     * The ID of a knapsack job
+     */
+    String ID_PARAM = "id";
+
+    /**
+     * The number of shard slices that are exported or pushed in parallel, each export slice into its own archive file
+     */
+    String SLICES_PARAM = "slices";
+
+    /**
+     * The maximum number of remote shard scrolls that are pulled at the same time
+     */
+    String PARALLELISM_PARAM = "parallelism";
+
+    /**
+     * Should Knapsack resume an interrupted job from its last checkpoint
+     */
+    String RESUME_PARAM = "resume";
+
+    /**
+     * Should Knapsack write each document as a single archive entry
+     */
+    String COMPACT_PARAM = "compact";
+
+    /**
+     * The number of threads for compressing an export archive, if the compression codec supports it
+     */
+    String COMPRESS_THREADS_PARAM = "compress_threads";
+
+    /**
+     * The number of uncompressed bytes a thread compresses at once, when compressing an export archive in parallel
+     */
+    String COMPRESS_BLOCK_SIZE_PARAM = "compress_block_size";
+
+    /**
+     * The number of threads for decompressing an import archive, if the compression codec supports it
+     */
+    String DECOMPRESS_THREADS_PARAM = "decompress_threads";
+
+    /**
+     * The maximum number of compressed blocks that are decoded ahead when decompressing in parallel
+     */
+    String READ_AHEAD_PARAM = "read_ahead";
+
+    /**
+     * The maximum number of attempts for a bulk item that was rejected by the cluster
+     */
+    String BULK_RETRIES_PARAM = "bulk_retries";
+
+    /**
+     * The delay before the first retry of rejected bulk items, doubled for each further retry
+     */
+    String BULK_RETRY_BACKOFF_PARAM = "bulk_retry_backoff";
+
+    /**
+     * The maximum number of bulk items waiting for a retry
+     */
+    String BULK_RETRY_QUEUE_SIZE_PARAM = "bulk_retry_queue_size";
+
+    /**
+     * The archive file for bulk items that could not be indexed
+     */
+    String DEAD_LETTER_PATH_PARAM = "dead_letter_path";
+
+    /**
+     * The number of bulk responses between two import checkpoints, zero disables checkpoints
+     */
+    String CHECKPOINT_INTERVAL_PARAM = "checkpoint_interval";
+
+    /**
+     * Should Knapsack import all parts of an archive which was split by byte size
+     */
+    String PARTS_PARAM = "parts";
+
+    /**
+     * The archive of a previous export, a delta export contains only the documents added after it
+     */
+    String BASE_PARAM = "base";
+
+    /**
+     * The date field for the watermark of an incremental export
+     */
+    String TIMESTAMP_FIELD_PARAM = "timestamp_field";
+
+    /**
+     * Should Knapsack import the chain of a delta archive, from the full export to the given delta
+     */
+    String CHAIN_PARAM = "chain";
+
+    /**
+     * The numeric or date field whose value range is cut into the slices of an export
+     */
+    String PARTITION_FIELD_PARAM = "partition_field";
+
+    /**
+     * Should Knapsack group the bulk actions by target shard or by primary node
+     */
+    String BULK_GROUPING_PARAM = "bulk_grouping";
+
 }
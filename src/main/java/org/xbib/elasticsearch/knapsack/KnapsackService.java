@@ -26,18 +26,32 @@ import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.xbib.classloader.uri.URIClassLoader;
+import org.xbib.elasticsearch.support.client.TransportClientPool;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URI;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.util.concurrent.ConcurrentCollections.newConcurrentMap;
 import static org.elasticsearch.common.xcontent.ToXContent.EMPTY_PARAMS;
 import static org.elasticsearch.common.xcontent.XContentFactory.xContent;
 import static org.elasticsearch.common.xcontent.XContentParser.Token.END_ARRAY;
@@ -51,18 +65,83 @@ public class KnapsackService extends AbstractLifecycleComponent<KnapsackService>
 
     public static final String IMPORT_STATE_SETTING_NAME = "plugin.knapsack.import.state";
 
+    /**
+     * The maximum number of knapsack jobs running at the same time on a node
+     */
+    public static final String JOBS_CONCURRENCY_SETTING_NAME = "plugin.knapsack.jobs.concurrency";
+
+    /**
+     * The maximum number of knapsack jobs waiting for execution on a node
+     */
+    public static final String JOBS_QUEUE_SIZE_SETTING_NAME = "plugin.knapsack.jobs.queue_size";
+
+    /**
+     * The prefix for job priorities by mode, lower values are executed first
+     */
+    public static final String JOBS_PRIORITY_SETTING_PREFIX = "plugin.knapsack.jobs.priority.";
+
+    /**
+     * The time an unused connection to a remote cluster is kept open for the next push or pull
+     */
+    public static final String CONNECTIONS_KEEP_ALIVE_SETTING_NAME = "plugin.knapsack.connections.keep_alive";
+
+    /**
+     * The interval for checking the connections to remote clusters
+     */
+    public static final String CONNECTIONS_CHECK_INTERVAL_SETTING_NAME = "plugin.knapsack.connections.check_interval";
+
     private final ClusterService clusterService;
 
-    private ExecutorService executor;
+    private final ThreadPool threadPool;
+
+    private final TransportClientPool connections;
+
+    /**
+     * The class loaders for transport clients, by lib directory
+     */
+    private final ConcurrentMap<File, URIClassLoader> classLoaders;
+
+    private final ScheduledFuture<?> checker;
+
+    private final int queueSize;
+
+    private final ThreadPoolExecutor executor;
+
+    private final ConcurrentMap<String, KnapsackJob> jobs;
 
-    private List<Future<?>> tasks;
+    /**
+     * The states of the jobs of this node, updated in memory only
+     */
+    private final ConcurrentMap<String, KnapsackState> localStates;
+
+    private final AtomicLong sequence;
 
     @Inject
-    public KnapsackService(Settings settings, ClusterService clusterService) {
+    public KnapsackService(Settings settings, ClusterService clusterService, final ThreadPool threadPool) {
         super(settings);
         this.clusterService = clusterService;
-        this.tasks = newArrayList();
-        this.executor = Executors.newSingleThreadExecutor();
+        this.threadPool = threadPool;
+        this.connections = new TransportClientPool(settings.getAsTime(CONNECTIONS_KEEP_ALIVE_SETTING_NAME,
+                TimeValue.timeValueMinutes(5)));
+        this.classLoaders = newConcurrentMap();
+        int concurrency = settings.getAsInt(JOBS_CONCURRENCY_SETTING_NAME, 2);
+        this.queueSize = settings.getAsInt(JOBS_QUEUE_SIZE_SETTING_NAME, 100);
+        this.jobs = newConcurrentMap();
+        this.localStates = newConcurrentMap();
+        this.sequence = new AtomicLong();
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), EsExecutors.daemonThreadFactory(settings, "knapsack"));
+        this.checker = threadPool.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                threadPool.generic().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        connections.evict();
+                    }
+                });
+            }
+        }, settings.getAsTime(CONNECTIONS_CHECK_INTERVAL_SETTING_NAME, TimeValue.timeValueSeconds(30)));
     }
 
     @Override
@@ -71,6 +150,8 @@ public class KnapsackService extends AbstractLifecycleComponent<KnapsackService>
 
     @Override
     protected void doStop() throws ElasticsearchException {
+        checker.cancel(false);
+        connections.close();
         this.executor.shutdownNow();
         try {
             this.executor.awaitTermination(30, TimeUnit.SECONDS);
@@ -81,38 +162,159 @@ public class KnapsackService extends AbstractLifecycleComponent<KnapsackService>
 
     @Override
     protected void doClose() throws ElasticsearchException {
+        for (URIClassLoader classLoader : classLoaders.values()) {
+            try {
+                classLoader.close();
+            } catch (IOException e) {
+                logger.warn("can not close class loader: {}", e.getMessage());
+            }
+        }
+        classLoaders.clear();
+    }
+
+    /**
+     * The pool of connections to remote clusters, shared by push and pull jobs
+     *
+     * @return the connection pool
+     */
+    public TransportClientPool getConnections() {
+        return connections;
+    }
+
+    /**
+     * We have to add Elasticsearch to our classpath, but not the jvm plugins
+     * for starting our TransportClient. The class loader is created once per
+     * lib directory and shared by all jobs, so the jars are opened and indexed
+     * only once. The class loaders are closed with this service.
+     *
+     * @param environment the environment
+     * @return a custom class loader with our dependencies
+     */
+    public ClassLoader getClassLoader(Environment environment) {
+        File lib = new File(environment.homeFile() + "/lib");
+        URIClassLoader classLoader = classLoaders.get(lib);
+        if (classLoader != null) {
+            return classLoader;
+        }
+        List<URI> uris = newArrayList();
+        File[] libs = lib.listFiles();
+        if (libs != null) {
+            for (File file : libs) {
+                if (file.getName().toLowerCase().endsWith(".jar")) {
+                    uris.add(file.toURI());
+                }
+            }
+        }
+        classLoader = new URIClassLoader().addURIs(uris);
+        URIClassLoader existing = classLoaders.putIfAbsent(lib, classLoader);
+        if (existing != null) {
+            try {
+                classLoader.close();
+            } catch (IOException e) {
+                logger.warn("can not close class loader: {}", e.getMessage());
+            }
+            return existing;
+        }
+        return classLoader;
     }
 
+    /**
+     * The imports registered in the cluster settings, without progress
+     *
+     * @param client the client
+     * @return the import states
+     * @throws IOException if the states can not be parsed
+     */
     public List<KnapsackState> getImports(Client client) throws IOException {
         return get(IMPORT_STATE_SETTING_NAME);
     }
 
+    /**
+     * Register an import on this node and in the cluster settings
+     *
+     * @param client the client
+     * @param newImport the import state
+     * @throws IOException if the cluster settings can not be updated
+     */
     public void addImport(Client client, KnapsackState newImport) throws IOException {
+        newImport.setNodeId(clusterService.localNode().id());
+        localStates.put(newImport.id(), newImport);
         add(client, IMPORT_STATE_SETTING_NAME, getImports(client), newImport);
     }
 
     public void removeImport(Client client, KnapsackState targetImport) throws IOException {
-        remove(client, IMPORT_STATE_SETTING_NAME, getImports(client), targetImport);
+        try {
+            remove(client, IMPORT_STATE_SETTING_NAME, getImports(client), targetImport);
+        } finally {
+            localStates.remove(targetImport.id());
+        }
     }
 
-    public void updateImport(Client client, KnapsackState targetImport) throws IOException {
-        update(client, IMPORT_STATE_SETTING_NAME, getImports(client), targetImport);
+    /**
+     * Update the progress of an import. The progress is kept on this node only,
+     * the cluster settings are not updated.
+     *
+     * @param client the client
+     * @param targetImport the import state
+     */
+    public void updateImport(Client client, KnapsackState targetImport) {
+        localStates.replace(targetImport.id(), targetImport);
     }
 
+    /**
+     * The exports registered in the cluster settings, without progress
+     *
+     * @param client the client
+     * @return the export states
+     * @throws IOException if the states can not be parsed
+     */
     public List<KnapsackState> getExports(Client client) throws IOException {
         return get(EXPORT_STATE_SETTING_NAME);
     }
 
+    /**
+     * Register an export on this node and in the cluster settings
+     *
+     * @param client the client
+     * @param newExport the export state
+     * @throws IOException if the cluster settings can not be updated
+     */
     public void addExport(Client client, KnapsackState newExport) throws IOException {
+        newExport.setNodeId(clusterService.localNode().id());
+        localStates.put(newExport.id(), newExport);
         add(client, EXPORT_STATE_SETTING_NAME, getExports(client), newExport);
     }
 
     public void removeExport(Client client, KnapsackState targetExport) throws IOException {
-        remove(client, EXPORT_STATE_SETTING_NAME, getExports(client), targetExport);
+        try {
+            remove(client, EXPORT_STATE_SETTING_NAME, getExports(client), targetExport);
+        } finally {
+            localStates.remove(targetExport.id());
+        }
     }
 
-    public void updateExport(Client client, KnapsackState targetExport) throws IOException {
-        update(client, EXPORT_STATE_SETTING_NAME, getExports(client), targetExport);
+    /**
+     * Update the progress of an export. The progress is kept on this node only,
+     * the cluster settings are not updated.
+     *
+     * @param client the client
+     * @param targetExport the export state
+     */
+    public void updateExport(Client client, KnapsackState targetExport) {
+        localStates.replace(targetExport.id(), targetExport);
+    }
+
+    /**
+     * The states of the jobs on this node, with their current progress
+     *
+     * @return copies of the job states
+     */
+    public List<KnapsackState> getLocalStates() {
+        List<KnapsackState> states = newArrayList();
+        for (KnapsackState state : localStates.values()) {
+            states.add(state.copy());
+        }
+        return states;
     }
 
     private List<KnapsackState> get(String name) throws IOException {
@@ -136,18 +338,6 @@ public class KnapsackService extends AbstractLifecycleComponent<KnapsackService>
         updateClusterSettings(client, name, generateSetting(updatedValues.build()));
     }
 
-    private void update(Client client, String name, List<KnapsackState> values, KnapsackState targetValue) throws IOException {
-        Builder<KnapsackState> updatedValues = ImmutableList.builder();
-        for (KnapsackState value : values) {
-            if (value.equals(targetValue)) {
-                updatedValues.add(targetValue);
-            } else {
-                updatedValues.add(value);
-            }
-        }
-        updateClusterSettings(client, name, generateSetting(updatedValues.build()));
-    }
-
     private String getClusterSetting(String name) {
         return getClusterSettings().get(name, "[]");
     }
@@ -188,38 +378,164 @@ public class KnapsackService extends AbstractLifecycleComponent<KnapsackService>
         return builder.string();
     }
 
-    public void submit(Runnable runnable) {
-        Future<?> f = executor.submit(runnable);
-        tasks.add(f);
+    /**
+     * Submit a knapsack job. The job is queued by the priority of its mode and executed
+     * when one of the job slots of this node is available.
+     *
+     * @param state the state of the job
+     * @param runnable the job
+     * @return the future of the job
+     */
+    public Future<?> submit(KnapsackState state, Runnable runnable) {
+        return submit(state, new KnapsackMetrics(), runnable);
     }
 
-    public int abort() {
-        int size = tasks.size();
-        logger.info("aborting {} tasks", size);
-        for (Future<?> f : tasks) {
-            boolean b = f.cancel(true);
-            if (!b) {
-                logger.error("task {} could not be cancelled", f);
-            }
+    /**
+     * Submit a knapsack job with live metrics. The metrics are served by {@link #getMetrics(String)}
+     * until the job is done.
+     *
+     * @param state the state of the job
+     * @param metrics the metrics of the job
+     * @param runnable the job
+     * @return the future of the job
+     */
+    public Future<?> submit(KnapsackState state, KnapsackMetrics metrics, Runnable runnable) {
+        if (executor.getQueue().size() >= queueSize) {
+            throw new EsRejectedExecutionException("knapsack job queue is full, queue size = " + queueSize);
         }
-        tasks.clear();
-        logger.info("shutdown");
-        executor.shutdown();
+        KnapsackJob job = new KnapsackJob(state, metrics, runnable, getPriority(state.getMode()), sequence.incrementAndGet());
+        jobs.put(job.id, job);
         try {
-            this.executor.awaitTermination(5, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new ElasticsearchException(e.getMessage());
+            executor.execute(job);
+        } catch (RuntimeException e) {
+            jobs.remove(job.id);
+            throw e;
         }
-        logger.info("shutdown now");
-        List<Runnable> runnables = executor.shutdownNow();
-        try {
-            this.executor.awaitTermination(5, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new ElasticsearchException(e.getMessage());
+        return job;
+    }
+
+    /**
+     * Abort all jobs on this node
+     *
+     * @param client the client
+     * @return the number of aborted jobs
+     * @throws IOException if state can not be updated
+     */
+    public int abort(Client client) throws IOException {
+        int size = 0;
+        logger.info("aborting {} jobs", jobs.size());
+        for (KnapsackJob job : jobs.values()) {
+            if (abort(client, job)) {
+                size++;
+            }
         }
-        logger.info("task queue size was {}, setting new executor", runnables.size());
-        this.executor = Executors.newSingleThreadExecutor();
         return size;
     }
 
-}
\ No newline at end of file
+    /**
+     * Abort a single job on this node
+     *
+     * @param client the client
+     * @param id the job ID, see {@link KnapsackState#id()}
+     * @return true if the job was aborted
+     * @throws IOException if state can not be updated
+     */
+    public boolean abort(Client client, String id) throws IOException {
+        KnapsackJob job = jobs.get(id);
+        if (job == null) {
+            logger.warn("job {} not found", id);
+            return false;
+        }
+        return abort(client, job);
+    }
+
+    private boolean abort(Client client, KnapsackJob job) throws IOException {
+        boolean started = job.started;
+        if (!job.cancel(true)) {
+            logger.error("job {} could not be cancelled", job.id);
+            return false;
+        }
+        executor.remove(job);
+        if (!started) {
+            // a queued job never executes its own cleanup
+            if ("import".equals(job.state.getMode()) || "pull".equals(job.state.getMode())) {
+                removeImport(client, job.state);
+            } else {
+                removeExport(client, job.state);
+            }
+        }
+        logger.info("job {} aborted", job.id);
+        return true;
+    }
+
+    /**
+     * The live metrics of a job on this node
+     *
+     * @param id the job ID, see {@link KnapsackState#id()}
+     * @return the metrics, or null if the job is not known on this node
+     */
+    public KnapsackMetrics getMetrics(String id) {
+        KnapsackJob job = jobs.get(id);
+        return job != null ? job.metrics : null;
+    }
+
+    public int getRunningJobs() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueuedJobs() {
+        return executor.getQueue().size();
+    }
+
+    private int getPriority(String mode) {
+        int defaultPriority = "import".equals(mode) || "pull".equals(mode) ? 0 : 1;
+        return settings.getAsInt(JOBS_PRIORITY_SETTING_PREFIX + mode, defaultPriority);
+    }
+
+    /**
+     * A job that is ordered by priority first and by submission second
+     */
+    private class KnapsackJob extends FutureTask<Void> implements Comparable<KnapsackJob> {
+
+        private final String id;
+
+        private final KnapsackState state;
+
+        private final KnapsackMetrics metrics;
+
+        private final int priority;
+
+        private final long seqNo;
+
+        private volatile boolean started;
+
+        KnapsackJob(KnapsackState state, KnapsackMetrics metrics, Runnable runnable, int priority, long seqNo) {
+            super(runnable, null);
+            this.id = state.id();
+            this.state = state;
+            this.metrics = metrics;
+            this.priority = priority;
+            this.seqNo = seqNo;
+        }
+
+        @Override
+        public void run() {
+            started = true;
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            jobs.remove(id, this);
+        }
+
+        @Override
+        public int compareTo(KnapsackJob other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return seqNo < other.seqNo ? -1 : seqNo == other.seqNo ? 0 : 1;
+        }
+    }
+
+}
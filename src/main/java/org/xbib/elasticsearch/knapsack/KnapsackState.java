@@ -31,11 +31,14 @@ import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 import static org.elasticsearch.common.xcontent.XContentParser.Token.END_OBJECT;
 import static org.elasticsearch.common.xcontent.XContentParser.Token.FIELD_NAME;
+import static org.elasticsearch.common.xcontent.XContentParser.Token.START_OBJECT;
 import static org.elasticsearch.common.xcontent.XContentParser.Token.VALUE_NULL;
 
 public class KnapsackState implements Streamable, ToXContent {
@@ -65,6 +68,26 @@ public class KnapsackState implements Streamable, ToXContent {
      */
     private String nodeName;
 
+    /**
+     * The id of the node where the knapsack operation is executed
+     */
+    private String nodeId;
+
+    /**
+     * The progress counters of the knapsack operation, e.g. the number of documents per slice
+     */
+    private final Map<String, Long> progress = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * The throughput of the knapsack operation in documents per second, e.g. per scroll reader
+     */
+    private final Map<String, Double> throughput = new ConcurrentHashMap<String, Double>();
+
+    /**
+     * The live metrics of a running job, only in state responses and never in the cluster settings
+     */
+    private Map<String, Object> metrics;
+
     public KnapsackState() {
     }
 
@@ -114,17 +137,64 @@ public class KnapsackState implements Streamable, ToXContent {
         return nodeName;
     }
 
+    public KnapsackState setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+        return this;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public KnapsackState setProgress(String name, long count) {
+        progress.put(name, count);
+        return this;
+    }
+
+    public Map<String, Long> getProgress() {
+        return progress;
+    }
+
+    public KnapsackState setThroughput(String name, double docsPerSecond) {
+        throughput.put(name, docsPerSecond);
+        return this;
+    }
+
+    public Map<String, Double> getThroughput() {
+        return throughput;
+    }
+
+    public KnapsackState setMetrics(Map<String, Object> metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public Map<String, Object> getMetrics() {
+        return metrics;
+    }
+
     public KnapsackState fromXContent(XContentParser parser) throws IOException {
         DateMathParser dateParser = new DateMathParser(Joda.forPattern("dateOptionalTime"), TimeUnit.MILLISECONDS);
         Long startTimestamp = new Date().getTime();
         Path path = null;
         String address = null;
         String nodeName = null;
+        String nodeId = null;
+        Map<String, Object> progressMap = null;
+        Map<String, Object> throughputMap = null;
         String currentFieldName = null;
         Token token;
         while ((token = parser.nextToken()) != END_OBJECT) {
             if (token == FIELD_NAME) {
                 currentFieldName = parser.currentName();
+            } else if (token == START_OBJECT) {
+                if ("progress".equals(currentFieldName)) {
+                    progressMap = parser.map();
+                } else if ("throughput".equals(currentFieldName)) {
+                    throughputMap = parser.map();
+                } else {
+                    parser.skipChildren();
+                }
             } else if (token.isValue() || token == VALUE_NULL) {
                 switch (currentFieldName) {
                     case "mode":
@@ -142,20 +212,40 @@ public class KnapsackState implements Streamable, ToXContent {
                     case "node_name":
                         nodeName = parser.text();
                         break;
+                    case "node_id":
+                        nodeId = parser.text();
+                        break;
                 }
             }
         }
-        return new KnapsackState()
+        KnapsackState state = new KnapsackState()
                 .setMode(mode)
                 .setTimestamp(new DateTime(startTimestamp))
                 .setPath(path)
                 .setClusterAddress(address)
-                .setNodeName(nodeName);
+                .setNodeName(nodeName)
+                .setNodeId(nodeId);
+        if (progressMap != null) {
+            for (Map.Entry<String, Object> entry : progressMap.entrySet()) {
+                if (entry.getValue() instanceof Number) {
+                    state.setProgress(entry.getKey(), ((Number) entry.getValue()).longValue());
+                }
+            }
+        }
+        if (throughputMap != null) {
+            for (Map.Entry<String, Object> entry : throughputMap.entrySet()) {
+                if (entry.getValue() instanceof Number) {
+                    state.setThroughput(entry.getKey(), ((Number) entry.getValue()).doubleValue());
+                }
+            }
+        }
+        return state;
     }
 
     @Override
     public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
         builder.startObject()
+                .field("id", id())
                 .field("mode", mode);
         if (timestamp != null) {
             builder.field("started", timestamp);
@@ -169,10 +259,49 @@ public class KnapsackState implements Streamable, ToXContent {
         if (nodeName != null) {
             builder.field("node_name", nodeName);
         }
+        if (nodeId != null) {
+            builder.field("node_id", nodeId);
+        }
+        if (!progress.isEmpty()) {
+            builder.startObject("progress");
+            for (Map.Entry<String, Long> entry : progress.entrySet()) {
+                builder.field(entry.getKey(), entry.getValue());
+            }
+            builder.endObject();
+        }
+        if (!throughput.isEmpty()) {
+            builder.startObject("throughput");
+            for (Map.Entry<String, Double> entry : throughput.entrySet()) {
+                builder.field(entry.getKey(), entry.getValue());
+            }
+            builder.endObject();
+        }
+        if (metrics != null) {
+            builder.field("metrics", metrics);
+        }
         builder.endObject();
         return builder;
     }
 
+    /**
+     * A copy of this state, for answering state requests while the job keeps updating its state
+     *
+     * @return the copy
+     */
+    public KnapsackState copy() {
+        KnapsackState state = new KnapsackState()
+                .setMode(mode)
+                .setTimestamp(timestamp)
+                .setPath(path)
+                .setClusterAddress(address)
+                .setNodeName(nodeName)
+                .setNodeId(nodeId)
+                .setMetrics(metrics);
+        state.progress.putAll(progress);
+        state.throughput.putAll(throughput);
+        return state;
+    }
+
     public String id() {
         StringBuilder sb = new StringBuilder();
         sb.append(mode)
@@ -205,20 +334,51 @@ public class KnapsackState implements Streamable, ToXContent {
 
     @Override
     public void readFrom(StreamInput in) throws IOException {
-        mode = in.readString();
-        timestamp = new DateTime(in.readLong());
-        path = Paths.get(URI.create(in.readString()));
-        address = in.readString();
-        nodeName = in.readString();
+        mode = in.readOptionalString();
+        timestamp = in.readBoolean() ? new DateTime(in.readLong()) : null;
+        String s = in.readOptionalString();
+        path = s != null ? Paths.get(URI.create(s)) : null;
+        address = in.readOptionalString();
+        nodeName = in.readOptionalString();
+        progress.clear();
+        int size = in.readVInt();
+        for (int i = 0; i < size; i++) {
+            progress.put(in.readString(), in.readVLong());
+        }
+        throughput.clear();
+        size = in.readVInt();
+        for (int i = 0; i < size; i++) {
+            throughput.put(in.readString(), in.readDouble());
+        }
+        metrics = in.readBoolean() ? in.readMap() : null;
+        nodeId = in.readOptionalString();
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
-        out.writeString(mode);
-        out.writeLong(timestamp.getMillis());
-        out.writeString(path.toUri().toString());
-        out.writeString(address);
-        out.writeString(nodeName);
+        out.writeOptionalString(mode);
+        out.writeBoolean(timestamp != null);
+        if (timestamp != null) {
+            out.writeLong(timestamp.getMillis());
+        }
+        out.writeOptionalString(path != null ? path.toUri().toString() : null);
+        out.writeOptionalString(address);
+        out.writeOptionalString(nodeName);
+        out.writeVInt(progress.size());
+        for (Map.Entry<String, Long> entry : progress.entrySet()) {
+            out.writeString(entry.getKey());
+            out.writeVLong(entry.getValue());
+        }
+        out.writeVInt(throughput.size());
+        for (Map.Entry<String, Double> entry : throughput.entrySet()) {
+            out.writeString(entry.getKey());
+            out.writeDouble(entry.getValue());
+        }
+        out.writeBoolean(metrics != null);
+        if (metrics != null) {
+            out.writeMap(metrics);
+        }
+        out.writeOptionalString(nodeId);
     }
 
     @Override
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.knapsack;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * A JSON file next to an archive, for keeping the progress of a job.
+ *
+ * A sidecar file is written to a temporary file first and then renamed,
+ * so a crash never leaves a broken file behind.
+ */
+public class SidecarFile {
+
+    private final static String TMP_SUFFIX = ".tmp";
+
+    private SidecarFile() {
+    }
+
+    /**
+     * The sidecar file of an archive
+     *
+     * @param archive the archive path
+     * @param suffix the suffix of the sidecar file
+     * @return the sidecar file path
+     */
+    public static Path path(Path archive, String suffix) {
+        return archive.resolveSibling(archive.getFileName() + suffix);
+    }
+
+    /**
+     * The archive of a sidecar file
+     *
+     * @param file the sidecar file path
+     * @param suffix the suffix of the sidecar file
+     * @return the archive path
+     */
+    public static Path archive(Path file, String suffix) {
+        String name = file.getFileName().toString();
+        return file.resolveSibling(name.substring(0, name.length() - suffix.length()));
+    }
+
+    /**
+     * Write a sidecar file atomically
+     *
+     * @param file the sidecar file path
+     * @param builder the content
+     * @throws IOException if the file can not be written
+     */
+    public static void write(Path file, XContentBuilder builder) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + TMP_SUFFIX);
+        OutputStream out = Files.newOutputStream(tmp);
+        try {
+            builder.bytes().writeTo(out);
+        } finally {
+            out.close();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a sidecar file
+     *
+     * @param file the sidecar file path
+     * @return the content, or null if the file does not exist
+     * @throws IOException if the file can not be read
+     */
+    public static Map<String, Object> read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        return XContentHelper.convertToMap(Files.readAllBytes(file), true).v2();
+    }
+}
@@ -29,10 +29,11 @@ import org.elasticsearch.rest.action.support.RestToXContentListener;
 import org.xbib.elasticsearch.action.knapsack.abort.KnapsackAbortAction;
 import org.xbib.elasticsearch.action.knapsack.abort.KnapsackAbortRequest;
 import org.xbib.elasticsearch.action.knapsack.abort.KnapsackAbortResponse;
+import org.xbib.elasticsearch.knapsack.KnapsackParameter;
 
 import static org.elasticsearch.rest.RestRequest.Method.POST;
 
-public class RestKnapsackAbortAction extends BaseRestHandler {
+public class RestKnapsackAbortAction extends BaseRestHandler implements KnapsackParameter {
 
     private final static ESLogger logger = ESLoggerFactory.getLogger(RestKnapsackAbortAction.class.getSimpleName());
 
@@ -47,7 +48,8 @@ public class RestKnapsackAbortAction extends BaseRestHandler {
     @Override
     public void handleRequest(final RestRequest request, final RestChannel channel, final Client client) {
         try {
-            KnapsackAbortRequest abortRequest = new KnapsackAbortRequest();
+            KnapsackAbortRequest abortRequest = new KnapsackAbortRequest()
+                    .setId(request.param(ID_PARAM));
             client.admin().indices().execute(KnapsackAbortAction.INSTANCE, abortRequest,
                     new RestToXContentListener<KnapsackAbortResponse>(channel));
         } catch (Throwable ex) {
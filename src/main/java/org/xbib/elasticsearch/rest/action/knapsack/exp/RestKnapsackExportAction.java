@@ -74,7 +74,15 @@ public class RestKnapsackExportAction extends BaseRestHandler implements Knapsac
                     .withMetadata(request.paramAsBoolean(WITH_METADATA_PARAM, true))
                     .setIndexTypeNames(KnapsackHelper.toMap(request.param(MAP_PARAM), logger))
                     .setSearchRequest(toSearchRequest(request))
-                    .setBytesToTransfer(request.paramAsSize(BYTES_PARAM, ByteSizeValue.parseBytesSizeValue("0")));
+                    .setBytesToTransfer(request.paramAsSize(BYTES_PARAM, ByteSizeValue.parseBytesSizeValue("0")))
+                    .setSlices(request.paramAsInt(SLICES_PARAM, 1))
+                    .setCompact(request.paramAsBoolean(COMPACT_PARAM, false))
+                    .setCompressThreads(request.paramAsInt(COMPRESS_THREADS_PARAM, 1))
+                    .setCompressBlockSize(request.paramAsSize(COMPRESS_BLOCK_SIZE_PARAM, ByteSizeValue.parseBytesSizeValue("0")))
+                    .setResume(request.paramAsBoolean(RESUME_PARAM, false))
+                    .setBase(request.hasParam(BASE_PARAM) ? new File(request.param(BASE_PARAM)).toPath() : null)
+                    .setTimestampField(request.param(TIMESTAMP_FIELD_PARAM))
+                    .setPartitionField(request.param(PARTITION_FIELD_PARAM));
             client.admin().indices().execute(KnapsackExportAction.INSTANCE, exportRequest,
                             new RestToXContentListener<KnapsackExportResponse>(channel));
         } catch (Throwable ex) {
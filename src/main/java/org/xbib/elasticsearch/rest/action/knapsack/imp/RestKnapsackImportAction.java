@@ -20,6 +20,7 @@ import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.rest.BaseRestHandler;
 import org.elasticsearch.rest.BytesRestResponse;
@@ -33,6 +34,7 @@ import org.xbib.elasticsearch.action.knapsack.imp.KnapsackImportRequest;
 import org.xbib.elasticsearch.action.knapsack.imp.KnapsackImportResponse;
 import org.xbib.elasticsearch.knapsack.KnapsackHelper;
 import org.xbib.elasticsearch.knapsack.KnapsackParameter;
+import org.xbib.io.archive.ArchiveSession;
 
 import java.io.File;
 import java.nio.file.Path;
@@ -72,6 +74,26 @@ public class RestKnapsackImportAction extends BaseRestHandler implements Knapsac
                     .setMaxActionsPerBulkRequest(request.paramAsInt(MAX_BULK_ACTIONS_PER_REQUEST_PARAM, 1000))
                     .setMaxBulkConcurrency(request.paramAsInt(MAX_BULK_CONCURRENCY_PARAM,
                             Runtime.getRuntime().availableProcessors() * 2))
+                    .setAdaptiveBulk(request.paramAsBoolean(ADAPTIVE_BULK_PARAM, false))
+                    .setMinActionsPerBulkRequest(request.paramAsInt(MIN_BULK_ACTIONS_PER_REQUEST_PARAM, 10))
+                    .setMinBulkConcurrency(request.paramAsInt(MIN_BULK_CONCURRENCY_PARAM, 1))
+                    .setTargetBulkLatency(request.paramAsTime(TARGET_BULK_LATENCY_PARAM, TimeValue.timeValueSeconds(1)))
+                    .setBulkRetries(request.paramAsInt(BULK_RETRIES_PARAM, 3))
+                    .setBulkRetryBackoff(request.paramAsTime(BULK_RETRY_BACKOFF_PARAM, TimeValue.timeValueMillis(500)))
+                    .setBulkRetryQueueSize(request.paramAsInt(BULK_RETRY_QUEUE_SIZE_PARAM, 10000))
+                    .setDeadLetterPath(request.hasParam(DEAD_LETTER_PATH_PARAM) ?
+                            new File(request.param(DEAD_LETTER_PATH_PARAM)).toPath() : null)
+                    .setBuildThreads(request.paramAsInt(BUILD_THREADS_PARAM, 1))
+                    .setQueueSize(request.paramAsInt(QUEUE_SIZE_PARAM, 1000))
+                    .setMaxEntryMemory(request.paramAsSize(MAX_ENTRY_MEMORY_PARAM,
+                            new ByteSizeValue(ArchiveSession.DEFAULT_MAX_ENTRY_MEMORY)))
+                    .setDecompressThreads(request.paramAsInt(DECOMPRESS_THREADS_PARAM, 1))
+                    .setReadAheadWindow(request.paramAsInt(READ_AHEAD_PARAM, 0))
+                    .setCheckpointInterval(request.paramAsInt(CHECKPOINT_INTERVAL_PARAM, 0))
+                    .setResume(request.paramAsBoolean(RESUME_PARAM, false))
+                    .setParts(request.paramAsBoolean(PARTS_PARAM, false))
+                    .setChain(request.paramAsBoolean(CHAIN_PARAM, false))
+                    .setBulkGrouping(request.param(BULK_GROUPING_PARAM))
                     .withMetadata(request.paramAsBoolean(WITH_METADATA_PARAM, true))
                     .setIndexTypeNames(KnapsackHelper.toMap(request.param(MAP_PARAM), logger));
             // add user-defined settings and mappings
@@ -35,6 +35,8 @@ import org.xbib.elasticsearch.action.knapsack.push.KnapsackPushResponse;
 import org.xbib.elasticsearch.knapsack.KnapsackHelper;
 import org.xbib.elasticsearch.knapsack.KnapsackParameter;
 
+import java.io.File;
+
 import static org.elasticsearch.rest.RestRequest.Method.POST;
 
 /**
@@ -69,6 +71,17 @@ public class RestKnapsackPushAction extends BaseRestHandler implements KnapsackP
                     .setMaxActionsPerBulkRequest(request.paramAsInt(MAX_BULK_ACTIONS_PER_REQUEST_PARAM, 1000))
                     .setMaxBulkConcurrency(request.paramAsInt(MAX_BULK_CONCURRENCY_PARAM,
                             Runtime.getRuntime().availableProcessors() * 2))
+                    .setAdaptiveBulk(request.paramAsBoolean(ADAPTIVE_BULK_PARAM, false))
+                    .setMinActionsPerBulkRequest(request.paramAsInt(MIN_BULK_ACTIONS_PER_REQUEST_PARAM, 10))
+                    .setMinBulkConcurrency(request.paramAsInt(MIN_BULK_CONCURRENCY_PARAM, 1))
+                    .setTargetBulkLatency(request.paramAsTime(TARGET_BULK_LATENCY_PARAM, TimeValue.timeValueSeconds(1)))
+                    .setBulkRetries(request.paramAsInt(BULK_RETRIES_PARAM, 3))
+                    .setBulkRetryBackoff(request.paramAsTime(BULK_RETRY_BACKOFF_PARAM, TimeValue.timeValueMillis(500)))
+                    .setBulkRetryQueueSize(request.paramAsInt(BULK_RETRY_QUEUE_SIZE_PARAM, 10000))
+                    .setDeadLetterPath(request.hasParam(DEAD_LETTER_PATH_PARAM) ?
+                            new File(request.param(DEAD_LETTER_PATH_PARAM)).toPath() : null)
+                    .setSlices(request.paramAsInt(SLICES_PARAM, 1))
+                    .setQueueSize(request.paramAsInt(QUEUE_SIZE_PARAM, 1000))
                     .setTimeout(request.paramAsTime(TIMEOUT_PARAM, TimeValue.timeValueSeconds(30)))
                     .withMetadata(request.paramAsBoolean(WITH_METADATA_PARAM, true))
                     .setIndexTypeNames(KnapsackHelper.toMap(request.param(MAP_PARAM), logger))
@@ -20,6 +20,7 @@ import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.rest.BaseRestHandler;
 import org.elasticsearch.rest.BytesRestResponse;
 import org.elasticsearch.rest.RestChannel;
@@ -48,7 +49,8 @@ public class RestKnapsackStateAction extends BaseRestHandler implements Knapsack
     @Override
     public void handleRequest(final RestRequest request, final RestChannel channel, final Client client) {
         try {
-            KnapsackStateRequest stateRequest = new KnapsackStateRequest();
+            KnapsackStateRequest stateRequest = new KnapsackStateRequest()
+                    .setTimeout(request.paramAsTime(TIMEOUT_PARAM, TimeValue.timeValueSeconds(30)));
             client.admin().indices().execute(KnapsackStateAction.INSTANCE, stateRequest,
                     new RestToXContentListener<KnapsackStateResponse>(channel));
         } catch (Throwable ex) {
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.support.client;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+
+/**
+ * Adapts the number of actions per bulk request, the volume per bulk request and the number
+ * of concurrent bulk requests to the responses of the cluster.
+ *
+ * The control follows the additive increase / multiplicative decrease scheme. Each fast bulk response
+ * raises the actions and the volume by a step, and the concurrency is raised by one after a full
+ * round of fast responses. A response slower than the target latency halves the actions and the volume.
+ * Rejected executions or failures halve all three limits. The limits stay between the given minimum
+ * and maximum values.
+ */
+public class AdaptiveBulkControl {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(AdaptiveBulkControl.class.getSimpleName());
+
+    private final static int MAX_HISTORY = 100;
+
+    private final static int STEPS = 10;
+
+    /**
+     * The estimated size of an action without source, as in bulk requests
+     */
+    private final static long REQUEST_OVERHEAD = 50L;
+
+    private final int minActions;
+
+    private final int maxActions;
+
+    private final long minVolume;
+
+    private final long maxVolume;
+
+    private final int minConcurrency;
+
+    private final int maxConcurrency;
+
+    private final long targetLatency;
+
+    private final int actionsStep;
+
+    private final long volumeStep;
+
+    private final AtomicInteger pendingActions = new AtomicInteger();
+
+    private final AtomicLong pendingVolume = new AtomicLong();
+
+    private final LinkedList<Adjustment> history = new LinkedList<Adjustment>();
+
+    private volatile int actions;
+
+    private volatile long volume;
+
+    private volatile int concurrency;
+
+    private int fastResponses;
+
+    public AdaptiveBulkControl(int minActions, int maxActions,
+                               ByteSizeValue minVolume, ByteSizeValue maxVolume,
+                               int minConcurrency, int maxConcurrency,
+                               TimeValue targetLatency) {
+        this.maxActions = Math.max(1, maxActions);
+        this.minActions = Math.max(1, Math.min(minActions, this.maxActions));
+        this.maxVolume = maxVolume != null ? maxVolume.bytes() : Long.MAX_VALUE;
+        this.minVolume = Math.max(1L, Math.min(minVolume != null ? minVolume.bytes() : this.maxVolume / STEPS,
+                this.maxVolume));
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.minConcurrency = Math.max(1, Math.min(minConcurrency, this.maxConcurrency));
+        this.targetLatency = targetLatency.millis();
+        this.actionsStep = Math.max(1, (this.maxActions - this.minActions) / STEPS);
+        this.volumeStep = this.maxVolume == Long.MAX_VALUE ? 0L :
+                Math.max(1L, (this.maxVolume - this.minVolume) / STEPS);
+        // start low, the limits are raised while the cluster keeps up
+        this.actions = this.minActions;
+        this.volume = this.maxVolume == Long.MAX_VALUE ? Long.MAX_VALUE : this.minVolume;
+        this.concurrency = this.minConcurrency;
+        record("start");
+    }
+
+    public int getActions() {
+        return actions;
+    }
+
+    public long getVolume() {
+        return volume;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public long getTargetLatency() {
+        return targetLatency;
+    }
+
+    /**
+     * The history of the limits, the oldest adjustment first
+     *
+     * @return a copy of the recent adjustments
+     */
+    public List<Adjustment> getHistory() {
+        synchronized (history) {
+            return newArrayList(history);
+        }
+    }
+
+    /**
+     * Count an action that was added to the current bulk request.
+     *
+     * @param sizeInBytes the estimated size of the action
+     * @return true if the current bulk request should be executed now
+     */
+    public boolean add(long sizeInBytes) {
+        int n = pendingActions.incrementAndGet();
+        long v = pendingVolume.addAndGet(sizeInBytes);
+        return n >= actions || v >= volume;
+    }
+
+    /**
+     * Count an action that was added to the current bulk request.
+     *
+     * @param request the index or delete request
+     * @return true if the current bulk request should be executed now
+     */
+    public boolean add(ActionRequest request) {
+        long size = REQUEST_OVERHEAD;
+        if (request instanceof IndexRequest && ((IndexRequest) request).source() != null) {
+            size += ((IndexRequest) request).source().length();
+        }
+        return add(size);
+    }
+
+    /**
+     * Block while the number of bulk requests in flight reaches the current concurrency.
+     *
+     * @param inFlight the number of bulk requests in flight
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void waitForCapacity(AtomicLong inFlight) throws InterruptedException {
+        while (inFlight.get() >= concurrency) {
+            wait(100L);
+        }
+    }
+
+    public void beforeBulk() {
+        pendingActions.set(0);
+        pendingVolume.set(0L);
+    }
+
+    public synchronized void afterBulk(BulkResponse response) {
+        int rejected = 0;
+        for (BulkItemResponse itemResponse : response.getItems()) {
+            if (itemResponse.isFailed() && itemResponse.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                rejected++;
+            }
+        }
+        if (rejected > 0) {
+            decrease(true, "rejected " + rejected);
+        } else if (response.getTookInMillis() > targetLatency) {
+            decrease(false, "slow " + response.getTookInMillis() + "ms");
+        } else {
+            increase();
+        }
+        notifyAll();
+    }
+
+    public synchronized void afterBulk(Throwable failure) {
+        decrease(true, "failure " + failure.getClass().getSimpleName());
+        notifyAll();
+    }
+
+    private void increase() {
+        int oldActions = actions;
+        long oldVolume = volume;
+        int oldConcurrency = concurrency;
+        actions = (int) Math.min((long) actions + actionsStep, maxActions);
+        if (volume != Long.MAX_VALUE) {
+            volume = Math.min(volume + volumeStep, maxVolume);
+        }
+        // one more bulk request in flight after a full round of fast responses
+        if (++fastResponses >= concurrency) {
+            fastResponses = 0;
+            concurrency = Math.min(concurrency + 1, maxConcurrency);
+        }
+        if (actions != oldActions || volume != oldVolume || concurrency != oldConcurrency) {
+            record("fast");
+        }
+    }
+
+    private void decrease(boolean congested, String reason) {
+        fastResponses = 0;
+        actions = Math.max(actions / 2, minActions);
+        if (volume != Long.MAX_VALUE) {
+            volume = Math.max(volume / 2, minVolume);
+        }
+        if (congested) {
+            concurrency = Math.max(concurrency / 2, minConcurrency);
+        }
+        record(reason);
+        logger.info("bulk limits lowered ({}): [actions={}] [volume={}] [concurrency={}]",
+                reason, actions, new ByteSizeValue(volume), concurrency);
+    }
+
+    private void record(String reason) {
+        synchronized (history) {
+            history.add(new Adjustment(System.currentTimeMillis(), actions, volume, concurrency, reason));
+            if (history.size() > MAX_HISTORY) {
+                history.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * The bulk limits chosen at a point in time
+     */
+    public static class Adjustment {
+
+        private final long timestamp;
+
+        private final int actions;
+
+        private final long volume;
+
+        private final int concurrency;
+
+        private final String reason;
+
+        Adjustment(long timestamp, int actions, long volume, int concurrency, String reason) {
+            this.timestamp = timestamp;
+            this.actions = actions;
+            this.volume = volume;
+            this.concurrency = concurrency;
+            this.reason = reason;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public int getActions() {
+            return actions;
+        }
+
+        public long getVolume() {
+            return volume;
+        }
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "[timestamp=" + timestamp + ",actions=" + actions + ",volume=" + volume
+                    + ",concurrency=" + concurrency + ",reason=" + reason + "]";
+        }
+    }
+}
@@ -37,6 +37,11 @@ public abstract class BaseIngestTransportClient extends BaseTransportClient
         return this;
     }
 
+    public Ingest newClient(TransportClientPool.Connection connection) {
+        super.useConnection(connection);
+        return this;
+    }
+
     @Override
     public BaseIngestTransportClient shards(int shards) {
         super.addSetting("index.number_of_shards", shards);
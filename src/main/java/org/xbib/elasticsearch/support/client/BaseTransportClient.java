@@ -54,13 +54,16 @@ public abstract class BaseTransportClient {
 
     protected ConfigHelper configHelper = new ConfigHelper();
 
+    /**
+     * The pooled connection of the client, or null if the client is owned by this instance
+     */
+    private TransportClientPool.Connection connection;
+
     protected void createClient(Settings settings) {
         if (client != null) {
             logger.warn("client is open, closing...");
-            client.close();
-            client.threadPool().shutdown();
+            closeClient();
             logger.warn("client is closed");
-            client = null;
         }
         if (settings != null) {
             logger.info("creating transport client, java version {}, effective settings {}",
@@ -84,6 +87,21 @@ public abstract class BaseTransportClient {
         }
     }
 
+    /**
+     * Use the client of a pooled connection. The connection is released instead of closed at shutdown.
+     *
+     * @param connection the connection
+     */
+    protected void useConnection(TransportClientPool.Connection connection) {
+        if (client != null) {
+            logger.warn("client is open, closing...");
+            closeClient();
+            logger.warn("client is closed");
+        }
+        this.connection = connection;
+        this.client = connection.client;
+    }
+
     public Client client() {
         return client;
     }
@@ -95,14 +113,23 @@ public abstract class BaseTransportClient {
     public synchronized void shutdown() {
         if (client != null) {
             logger.debug("shutdown started");
-            client.close();
-            client.threadPool().shutdown();
-            client = null;
+            closeClient();
             logger.debug("shutdown complete");
         }
         addresses.clear();
     }
 
+    private void closeClient() {
+        if (connection != null) {
+            connection.release();
+            connection = null;
+        } else {
+            client.close();
+            client.threadPool().shutdown();
+        }
+        client = null;
+    }
+
     protected Settings findSettings() {
         ImmutableSettings.Builder settingsBuilder = ImmutableSettings.settingsBuilder();
         settingsBuilder.put("host", "localhost");
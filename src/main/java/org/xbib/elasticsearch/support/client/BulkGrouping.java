@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.support.client;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.routing.IndexRoutingTable;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Maps.newLinkedHashMap;
+
+/**
+ * Groups bulk actions by their target shard, or by the node of the primary of their target shard.
+ *
+ * The target shard is computed by the operation routing of the cluster, from the index, the type,
+ * the id, and the routing of an action, just like the cluster routes the action. A group is handed
+ * out when it is full, so each bulk request only goes to a few shards, instead of being split and sent
+ * to all shards by the coordinating node. Groups that wait longer than the maximum wait time are handed
+ * out on the next action. Actions without an id or for an unknown index are not grouped.
+ */
+public class BulkGrouping {
+
+    /**
+     * The interval for looking for groups waiting too long
+     */
+    private final static long CHECK_MILLIS = 1000L;
+
+    public enum Mode {
+        SHARD, NODE
+    }
+
+    private final ClusterService clusterService;
+
+    private final Mode mode;
+
+    private final long maxWaitMillis;
+
+    private final Map<String, Group> groups = newLinkedHashMap();
+
+    private int size;
+
+    private long lastCheck;
+
+    public BulkGrouping(ClusterService clusterService, String mode, long maxWaitMillis) {
+        this.clusterService = clusterService;
+        try {
+            this.mode = Mode.valueOf(mode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ElasticsearchIllegalArgumentException("unknown bulk grouping: " + mode + ", expected shard or node");
+        }
+        this.maxWaitMillis = maxWaitMillis;
+        this.lastCheck = System.currentTimeMillis();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Add an action to its group. An action that can not be grouped is not added, the caller
+     * submits it in the order of the actions, without forcing a bulk request.
+     *
+     * @param request the action
+     * @param groupSize the number of actions of a full group
+     * @param ready receives the full groups and the groups that waited too long, to be submitted now,
+     *              each as a bulk request of its own
+     * @return true if the action was added to a group, false if it can not be grouped
+     */
+    public synchronized boolean add(ActionRequest request, int groupSize, List<List<ActionRequest>> ready) {
+        long now = System.currentTimeMillis();
+        String key = key(request);
+        if (key != null) {
+            Group group = groups.get(key);
+            if (group == null) {
+                group = new Group(now);
+                groups.put(key, group);
+            }
+            group.actions.add(request);
+            size++;
+            if (group.actions.size() >= groupSize) {
+                groups.remove(key);
+                size -= group.actions.size();
+                ready.add(group.actions);
+            }
+        }
+        expire(now, ready);
+        return key != null;
+    }
+
+    private void expire(long now, List<List<ActionRequest>> ready) {
+        if (now - lastCheck >= CHECK_MILLIS) {
+            lastCheck = now;
+            Iterator<Group> it = groups.values().iterator();
+            while (it.hasNext()) {
+                Group group = it.next();
+                if (now - group.created >= maxWaitMillis) {
+                    it.remove();
+                    size -= group.actions.size();
+                    ready.add(group.actions);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all groups, for flushing
+     *
+     * @return the groups to submit
+     */
+    public synchronized List<List<ActionRequest>> drain() {
+        List<List<ActionRequest>> ready = newArrayList();
+        for (Group group : groups.values()) {
+            ready.add(group.actions);
+        }
+        groups.clear();
+        size = 0;
+        return ready;
+    }
+
+    /**
+     * The number of actions waiting in groups
+     *
+     * @return the number of actions
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * The group key of an action
+     *
+     * @param request the action
+     * @return the key of the target shard or of the node of the primary shard, or null if the action is not grouped
+     */
+    public String key(ActionRequest request) {
+        String index;
+        String type;
+        String id;
+        String routing;
+        if (request instanceof IndexRequest) {
+            IndexRequest indexRequest = (IndexRequest) request;
+            index = indexRequest.index();
+            type = indexRequest.type();
+            id = indexRequest.id();
+            routing = indexRequest.routing();
+        } else if (request instanceof DeleteRequest) {
+            DeleteRequest deleteRequest = (DeleteRequest) request;
+            index = deleteRequest.index();
+            type = deleteRequest.type();
+            id = deleteRequest.id();
+            routing = deleteRequest.routing();
+        } else {
+            return null;
+        }
+        // the cluster picks a shard for generated ids
+        if (index == null || id == null) {
+            return null;
+        }
+        try {
+            ClusterState state = clusterService.state();
+            ShardId shardId = clusterService.operationRouting()
+                    .indexShards(state, index, type, id, routing).shardId();
+            if (mode == Mode.SHARD) {
+                return shardId.getIndex() + "/" + shardId.id();
+            }
+            IndexRoutingTable indexRoutingTable = state.routingTable().index(shardId.getIndex());
+            ShardRouting primary = indexRoutingTable != null ?
+                    indexRoutingTable.shard(shardId.id()).primaryShard() : null;
+            return primary != null && primary.assignedToNode() ? primary.currentNodeId() : null;
+        } catch (ElasticsearchException e) {
+            // a new index or an alias, the cluster routes the action
+            return null;
+        }
+    }
+
+    private static class Group {
+
+        final long created;
+
+        final List<ActionRequest> actions = newArrayList();
+
+        Group(long created) {
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.support.client;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.xbib.io.archive.ArchivePacket;
+import org.xbib.io.archive.ArchiveSession;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+
+/**
+ * A bounded buffer for bulk items which were rejected by the cluster.
+ *
+ * Rejected items are submitted again in separate bulk requests, with an exponential backoff
+ * between the attempts. Items which still fail after the maximum number of attempts, items which
+ * failed for other reasons than rejected execution, and items which do not fit into the buffer
+ * are written to a dead letter archive, if there is one, so they can be imported later.
+ */
+public class BulkRetryQueue implements Closeable {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(BulkRetryQueue.class.getSimpleName());
+
+    private final static long MAX_BACKOFF_MILLIS = 60000L;
+
+    private final Client client;
+
+    private final State state;
+
+    private final int maxAttempts;
+
+    private final long initialBackoff;
+
+    private final int capacity;
+
+    private final int maxActionsPerBulkRequest;
+
+    private final ArchiveSession deadLetters;
+
+    private final DelayQueue<RetryItem> queue = new DelayQueue<RetryItem>();
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Thread worker;
+
+    private volatile boolean closed;
+
+    /**
+     * Guarded by this queue, responses of bulk requests may still arrive after closing
+     */
+    private boolean deadLettersClosed;
+
+    /**
+     * Create a retry queue
+     *
+     * @param client the client for submitting the retries
+     * @param state the state for counting retried and dead letter items
+     * @param maxAttempts the maximum number of attempts, including the first submission
+     * @param initialBackoff the delay before the first retry, doubled for each further retry
+     * @param capacity the maximum number of items waiting for a retry
+     * @param maxActionsPerBulkRequest the maximum number of items per retry bulk request
+     * @param deadLetters an open archive session for items that can not be indexed, or null
+     */
+    public BulkRetryQueue(Client client, State state, int maxAttempts, TimeValue initialBackoff,
+                          int capacity, int maxActionsPerBulkRequest, ArchiveSession deadLetters) {
+        this.client = client;
+        this.state = state;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = Math.max(1L, initialBackoff.millis());
+        this.capacity = capacity;
+        this.maxActionsPerBulkRequest = Math.max(1, maxActionsPerBulkRequest);
+        this.deadLetters = deadLetters;
+        this.worker = EsExecutors.daemonThreadFactory("knapsack-bulk-retry").newThread(new Runnable() {
+            @Override
+            public void run() {
+                retryLoop();
+            }
+        });
+        worker.start();
+    }
+
+    /**
+     * Take the failed items of a bulk response
+     *
+     * @param request the bulk request
+     * @param response the bulk response
+     */
+    public void afterBulk(BulkRequest request, BulkResponse response) {
+        for (BulkItemResponse itemResponse : response.getItems()) {
+            if (itemResponse.isFailed()) {
+                failed(request.requests().get(itemResponse.getItemId()), 1, itemResponse.getFailure());
+            }
+        }
+    }
+
+    /**
+     * Take the items of a bulk request that failed as a whole
+     *
+     * @param request the bulk request
+     * @param failure the failure
+     * @return true if the items were taken for a retry, false if the failure is not a rejection
+     */
+    public boolean afterBulk(BulkRequest request, Throwable failure) {
+        if (!isRejection(failure)) {
+            return false;
+        }
+        for (ActionRequest actionRequest : request.requests()) {
+            retry(new RetryItem(actionRequest, 1), failure.getMessage());
+        }
+        return true;
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Wait until all items have been retried or written to the dead letter archive
+     *
+     * @param maxWait the maximum time to wait
+     * @return true if no items are pending
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean waitForEmpty(TimeValue maxWait) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + maxWait.millis();
+        while (pending.get() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100L);
+        }
+        return pending.get() == 0;
+    }
+
+    /**
+     * Stop retrying. Items that are still waiting are written to the dead letter archive,
+     * and the dead letter archive is closed. The bulk client should wait for the responses
+     * of its bulk requests before, because failed items of later responses are dropped.
+     *
+     * @throws IOException if the dead letter archive can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        // a retry in flight is interrupted and its items are written to the dead letter archive
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // drainTo() would only take the items that are due
+        List<RetryItem> items = newArrayList(queue);
+        queue.clear();
+        for (RetryItem item : items) {
+            pending.decrementAndGet();
+            deadLetter(item.request, "retry queue closed");
+        }
+        synchronized (this) {
+            deadLettersClosed = true;
+            if (deadLetters != null) {
+                deadLetters.close();
+            }
+        }
+    }
+
+    private void failed(ActionRequest request, int attempts, BulkItemResponse.Failure failure) {
+        if (failure.getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+            retry(new RetryItem(request, attempts), failure.getMessage());
+        } else {
+            deadLetter(request, failure.getMessage());
+        }
+    }
+
+    private void retry(RetryItem item, String message) {
+        if (closed || item.attempts >= maxAttempts) {
+            deadLetter(item.request, message);
+            return;
+        }
+        if (pending.incrementAndGet() > capacity) {
+            pending.decrementAndGet();
+            logger.warn("retry queue is full ({} items)", capacity);
+            deadLetter(item.request, message);
+            return;
+        }
+        // 1x, 2x, 4x, ... the initial backoff
+        long backoff = Math.min(initialBackoff << Math.min(item.attempts - 1, 20), MAX_BACKOFF_MILLIS);
+        item.due = System.currentTimeMillis() + backoff;
+        queue.add(item);
+    }
+
+    private void retryLoop() {
+        while (!closed) {
+            List<RetryItem> items = newArrayList();
+            try {
+                RetryItem item = queue.take();
+                items.add(item);
+                queue.drainTo(items, maxActionsPerBulkRequest - 1);
+            } catch (InterruptedException e) {
+                break;
+            }
+            BulkRequest bulkRequest = new BulkRequest();
+            for (RetryItem item : items) {
+                bulkRequest.add(item.request);
+            }
+            try {
+                logger.info("retrying {} bulk items", items.size());
+                BulkResponse response = client.bulk(bulkRequest).actionGet();
+                state.getRetried().inc(items.size());
+                for (BulkItemResponse itemResponse : response.getItems()) {
+                    RetryItem item = items.get(itemResponse.getItemId());
+                    if (itemResponse.isFailed()) {
+                        failed(item.request, item.attempts + 1, itemResponse.getFailure());
+                    } else {
+                        state.getSucceeded().inc();
+                        state.getFailed().dec();
+                    }
+                }
+            } catch (Throwable t) {
+                if (isRejection(t)) {
+                    for (RetryItem item : items) {
+                        retry(new RetryItem(item.request, item.attempts + 1), t.getMessage());
+                    }
+                } else {
+                    logger.error("retry bulk request failed: " + t.getMessage(), t);
+                    for (RetryItem item : items) {
+                        deadLetter(item.request, t.getMessage());
+                    }
+                }
+            } finally {
+                pending.addAndGet(-items.size());
+            }
+        }
+    }
+
+    private synchronized void deadLetter(ActionRequest request, String message) {
+        state.getDeadLettered().inc();
+        if (deadLetters == null || deadLettersClosed || !(request instanceof IndexRequest)) {
+            logger.error("bulk item dropped: {} {}", request, message);
+            return;
+        }
+        IndexRequest indexRequest = (IndexRequest) request;
+        try {
+            writeField(indexRequest, "_source", indexRequest.source());
+            if (indexRequest.routing() != null) {
+                writeField(indexRequest, "_routing", indexRequest.routing());
+            }
+            if (indexRequest.parent() != null) {
+                writeField(indexRequest, "_parent", indexRequest.parent());
+            }
+        } catch (IOException e) {
+            logger.error("can not write dead letter: " + e.getMessage(), e);
+        }
+    }
+
+    private void writeField(IndexRequest indexRequest, String field, Object payload) throws IOException {
+        ArchivePacket packet = new ArchivePacket();
+        packet.meta("index", indexRequest.index());
+        packet.meta("type", indexRequest.type());
+        packet.meta("id", indexRequest.id());
+        packet.meta("field", field);
+        packet.payload(payload);
+        deadLetters.write(packet);
+    }
+
+    private static boolean isRejection(Throwable t) {
+        return ExceptionsHelper.unwrapCause(t) instanceof EsRejectedExecutionException;
+    }
+
+    /**
+     * A bulk item waiting for its next attempt, ordered by the time it is due
+     */
+    private static class RetryItem implements Delayed {
+
+        final ActionRequest request;
+
+        final int attempts;
+
+        long due;
+
+        RetryItem(ActionRequest request, int attempts) {
+            this.request = request;
+            this.attempts = attempts;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            long d = getDelay(TimeUnit.MILLISECONDS) - o.getDelay(TimeUnit.MILLISECONDS);
+            return d < 0 ? -1 : d > 0 ? 1 : 0;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.xbib.io.archive.ArchiveSession;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -86,6 +87,32 @@ public interface Ingest {
      */
     Ingest maxVolumePerBulkRequest(ByteSizeValue maxVolume);
 
+    /**
+     * Adapt the bulk limits to the bulk latency and to rejected executions. The number of actions,
+     * the volume and the concurrency of bulk requests vary between the given minimum values and the
+     * maximum values set for this ingest. The current limits are reported by {@link State#getBulkControl()}.
+     *
+     * @param minActions minimum number of actions per bulk request
+     * @param minVolume minimum volume per bulk request
+     * @param minConcurrentBulkRequests minimum number of concurrent bulk requests
+     * @param targetLatency bulk requests slower than this lower the bulk limits
+     * @return this ingest
+     */
+    Ingest adaptiveBulk(int minActions, ByteSizeValue minVolume, int minConcurrentBulkRequests, TimeValue targetLatency);
+
+    /**
+     * Retry bulk items that were rejected by the cluster. Rejected items are submitted again in separate
+     * bulk requests with exponential backoff. Items that still fail after the maximum number of attempts,
+     * or fail for other reasons, are written to the dead letter archive session, which is closed at shutdown.
+     *
+     * @param maxAttempts the maximum number of attempts per item, including the first one
+     * @param initialBackoff the delay before the first retry, doubled for each further retry
+     * @param capacity the maximum number of items waiting for a retry
+     * @param deadLetters an open archive session for items that are given up, or null for dropping them
+     * @return this ingest
+     */
+    Ingest retryBulkItems(int maxAttempts, TimeValue initialBackoff, int capacity, ArchiveSession deadLetters);
+
     /**
      * Set the flush interval for automatic flushing outstanding ingest requests
      *
@@ -265,6 +292,21 @@ public interface Ingest {
 
     State getState();
 
+    /**
+     * The number of bulk requests that have been submitted but not yet responded
+     *
+     * @return the number of bulk requests in flight
+     */
+    long getPendingBulkRequests();
+
+    /**
+     * Block until fewer bulk requests than the given number are in flight
+     *
+     * @param maxPendingBulkRequests the number of bulk requests in flight
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void waitForPendingBulkRequests(long maxPendingBulkRequests) throws InterruptedException;
+
     boolean hasThrowable();
 
     /**
@@ -40,6 +40,14 @@ public class State {
 
     private final CounterMetric failed = new CounterMetric();
 
+    private final CounterMetric retried = new CounterMetric();
+
+    private final CounterMetric deadLettered = new CounterMetric();
+
+    private final LatencyHistogram bulkLatency = new LatencyHistogram();
+
+    private volatile AdaptiveBulkControl bulkControl;
+
     public MeanMetric getTotalIngest() {
         return totalIngest;
     }
@@ -68,6 +76,48 @@ public class State {
         return failed;
     }
 
+    /**
+     * The number of bulk items that were submitted again after a rejection
+     *
+     * @return the counter
+     */
+    public CounterMetric getRetried() {
+        return retried;
+    }
+
+    /**
+     * The number of bulk items that were given up, and written to a dead letter archive if there is one
+     *
+     * @return the counter
+     */
+    public CounterMetric getDeadLettered() {
+        return deadLettered;
+    }
+
+    /**
+     * The latencies of the bulk responses, as reported by the cluster
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getBulkLatency() {
+        return bulkLatency;
+    }
+
+    public State setBulkControl(AdaptiveBulkControl bulkControl) {
+        this.bulkControl = bulkControl;
+        return this;
+    }
+
+    /**
+     * The adaptive bulk control with the current bulk limits and their history,
+     * or null if the bulk limits are fixed
+     *
+     * @return the bulk control or null
+     */
+    public AdaptiveBulkControl getBulkControl() {
+        return bulkControl;
+    }
+
     public State startBulk(String indexName) {
         indexNames.add(indexName);
         return this;
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.support.client;
+
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Maps.newHashMap;
+
+/**
+ * A pool of transport client connections to remote clusters, keyed by cluster name, host, port, and
+ * the connection settings that differ between jobs, that is sniffing and the timeouts.
+ *
+ * Jobs acquire a connection and release it when they are done. A connection is shared by all jobs that
+ * connect to the same cluster at the same time, and kept open for the next job until it has been idle
+ * for the keep alive time. Connections that have lost all their nodes are not handed out again and are
+ * closed when the last job releases them.
+ */
+public class TransportClientPool {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(TransportClientPool.class.getSimpleName());
+
+    private final long keepAliveMillis;
+
+    private final Map<String, Connection> connections = newHashMap();
+
+    private boolean closed;
+
+    public TransportClientPool(TimeValue keepAlive) {
+        this.keepAliveMillis = keepAlive.millis();
+    }
+
+    /**
+     * The key of the connection for the given client settings. Jobs with other timeouts get a connection
+     * of their own, so a job never runs with the ping timeout of another job.
+     *
+     * @param settings the client settings
+     * @return the key
+     */
+    public static String key(Settings settings) {
+        return settings.get("cluster.name") + "/" + settings.get("host") + ":" + settings.getAsInt("port", 9300)
+                + (settings.getAsBoolean("client.transport.sniff", false) ? "/sniff" : "")
+                + "?timeout=" + settings.get("timeout")
+                + "&ping_timeout=" + settings.get("client.transport.ping_timeout");
+    }
+
+    /**
+     * Acquire a connection. An open connection with connected nodes is reused, otherwise a new
+     * connection is created. Only connections with connected nodes are kept in the pool.
+     *
+     * @param settings the client settings
+     * @return the connection, to be released after use
+     */
+    public Connection acquire(Settings settings) {
+        String key = key(settings);
+        synchronized (this) {
+            Connection connection = lookup(key);
+            if (connection != null) {
+                logger.info("reusing connection {}", key);
+                return connection.acquire();
+            }
+        }
+        // connect without holding the lock, connecting waits for the nodes to answer
+        Connection created = new Connection(this, key, settings);
+        List<Connection> obsolete = newArrayList();
+        try {
+            synchronized (this) {
+                Connection connection = lookup(key);
+                if (connection != null) {
+                    // another job has connected in the meantime
+                    obsolete.add(created);
+                    return connection.acquire();
+                }
+                if (!closed && created.isHealthy()) {
+                    connections.put(key, created);
+                } else {
+                    created.retired = true;
+                }
+                return created.acquire();
+            }
+        } finally {
+            close(obsolete);
+        }
+    }
+
+    /**
+     * Release a connection. A retired or broken connection is closed when it is no longer used.
+     *
+     * @param connection the connection
+     */
+    public void release(Connection connection) {
+        List<Connection> obsolete = newArrayList();
+        synchronized (this) {
+            connection.refs--;
+            connection.lastUsed = System.currentTimeMillis();
+            if (connection.refs <= 0 && (connection.retired || !connection.isHealthy())) {
+                if (connections.get(connection.key) == connection) {
+                    connections.remove(connection.key);
+                }
+                obsolete.add(connection);
+            }
+        }
+        close(obsolete);
+    }
+
+    /**
+     * Check the connections. Idle connections beyond the keep alive time and unused connections without
+     * nodes are closed, connections in use without nodes are retired.
+     */
+    public void evict() {
+        long now = System.currentTimeMillis();
+        List<Connection> obsolete = newArrayList();
+        synchronized (this) {
+            Iterator<Connection> it = connections.values().iterator();
+            while (it.hasNext()) {
+                Connection connection = it.next();
+                boolean healthy = connection.isHealthy();
+                if (connection.refs <= 0 && (!healthy || now - connection.lastUsed >= keepAliveMillis)) {
+                    logger.info("closing {} connection {}", healthy ? "idle" : "broken", connection.key);
+                    it.remove();
+                    obsolete.add(connection);
+                } else if (!healthy) {
+                    logger.warn("connection {} has no connected nodes, retiring", connection.key);
+                    it.remove();
+                    connection.retired = true;
+                }
+            }
+        }
+        close(obsolete);
+    }
+
+    public synchronized int size() {
+        return connections.size();
+    }
+
+    /**
+     * Close all pooled connections. Connections still in use are closed when they are released.
+     */
+    public void close() {
+        List<Connection> obsolete = newArrayList();
+        synchronized (this) {
+            closed = true;
+            for (Connection connection : connections.values()) {
+                connection.retired = true;
+                if (connection.refs <= 0) {
+                    obsolete.add(connection);
+                }
+            }
+            connections.clear();
+        }
+        close(obsolete);
+    }
+
+    private Connection lookup(String key) {
+        assert Thread.holdsLock(this);
+        Connection connection = connections.get(key);
+        if (connection != null && !connection.isHealthy()) {
+            logger.warn("connection {} has no connected nodes, reconnecting", key);
+            connections.remove(key);
+            connection.retired = true;
+            return null;
+        }
+        return connection;
+    }
+
+    private static void close(List<Connection> connections) {
+        for (Connection connection : connections) {
+            try {
+                connection.shutdown();
+            } catch (Exception e) {
+                logger.warn("can not close connection " + connection.key, e);
+            }
+        }
+    }
+
+    /**
+     * A transport client connection of the pool
+     */
+    public static class Connection extends BaseTransportClient {
+
+        private final TransportClientPool pool;
+
+        private final String key;
+
+        private int refs;
+
+        private long lastUsed;
+
+        private boolean retired;
+
+        Connection(TransportClientPool pool, String key, Settings settings) {
+            this.pool = pool;
+            this.key = key;
+            createClient(settings);
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public boolean isHealthy() {
+            return client != null && !client.connectedNodes().isEmpty();
+        }
+
+        /**
+         * Give this connection back to the pool
+         */
+        public void release() {
+            pool.release(this);
+        }
+
+        private Connection acquire() {
+            refs++;
+            lastUsed = System.currentTimeMillis();
+            return this;
+        }
+    }
+}
@@ -51,6 +51,7 @@ public class BulkProcessorHelper {
 
     public static boolean waitFor(BulkProcessor bulkProcessor, TimeValue maxWait) {
         Semaphore semaphore = null;
+        int concurrency = 0;
         boolean acquired = false;
         try {
             Field field = bulkProcessor.getClass().getDeclaredField("semaphore");
@@ -58,13 +59,15 @@ public class BulkProcessorHelper {
                 field.setAccessible(true);
                 Field concurrentField = bulkProcessor.getClass().getDeclaredField("concurrentRequests");
                 concurrentField.setAccessible(true);
-                int concurrency = concurrentField.getInt(bulkProcessor);
-                // concurreny == 1 means there is no concurrency (default start value)
-                if (concurrency > 1) {
+                concurrency = concurrentField.getInt(bulkProcessor);
+                // concurrency == 0 means the bulk requests are executed synchronously
+                if (concurrency > 0) {
                     semaphore = (Semaphore) field.get(bulkProcessor);
+                    // all permits are free when no bulk request is outstanding
                     acquired = semaphore.tryAcquire(concurrency, maxWait.getMillis(), TimeUnit.MILLISECONDS);
-                    return semaphore.availablePermits() == concurrency;
+                    return acquired;
                 }
+                return true;
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
@@ -73,7 +76,7 @@ public class BulkProcessorHelper {
             logger.error(e.getMessage(), e);
         } finally {
             if (semaphore != null && acquired) {
-                semaphore.release();
+                semaphore.release(concurrency);
             }
         }
         return false;
@@ -16,6 +16,7 @@
 package org.xbib.elasticsearch.support.client.bulk;
 
 import org.elasticsearch.ElasticsearchIllegalStateException;
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthStatus;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkProcessor;
@@ -32,10 +33,14 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.xbib.elasticsearch.support.client.AdaptiveBulkControl;
+import org.xbib.elasticsearch.support.client.BulkRetryQueue;
 import org.xbib.elasticsearch.support.client.BaseIngestTransportClient;
 import org.xbib.elasticsearch.support.client.ClientHelper;
 import org.xbib.elasticsearch.support.client.Ingest;
 import org.xbib.elasticsearch.support.client.State;
+import org.xbib.elasticsearch.support.client.TransportClientPool;
+import org.xbib.io.archive.ArchiveSession;
 
 import java.io.IOException;
 import java.util.Map;
@@ -62,6 +67,28 @@ public class BulkTransportClient extends BaseIngestTransportClient implements In
 
     private TimeValue flushInterval = TimeValue.timeValueSeconds(30);
 
+    private boolean adaptiveBulk = false;
+
+    private int minActionsPerBulkRequest;
+
+    private ByteSizeValue minVolumePerBulkRequest;
+
+    private int minConcurrentBulkRequests;
+
+    private TimeValue targetBulkLatency;
+
+    private AdaptiveBulkControl bulkControl;
+
+    private int maxRetryAttempts = 1;
+
+    private TimeValue retryBackoff;
+
+    private int retryCapacity;
+
+    private ArchiveSession deadLetters;
+
+    private BulkRetryQueue retryQueue;
+
     /**
      * The concurrent requests
      */
@@ -102,6 +129,27 @@ public class BulkTransportClient extends BaseIngestTransportClient implements In
         return this;
     }
 
+    @Override
+    public BulkTransportClient adaptiveBulk(int minActions, ByteSizeValue minVolume, int minConcurrentBulkRequests,
+                                        TimeValue targetLatency) {
+        this.adaptiveBulk = true;
+        this.minActionsPerBulkRequest = minActions;
+        this.minVolumePerBulkRequest = minVolume;
+        this.minConcurrentBulkRequests = minConcurrentBulkRequests;
+        this.targetBulkLatency = targetLatency;
+        return this;
+    }
+
+    @Override
+    public BulkTransportClient retryBulkItems(int maxAttempts, TimeValue initialBackoff, int capacity,
+                                              ArchiveSession deadLetters) {
+        this.maxRetryAttempts = maxAttempts;
+        this.retryBackoff = initialBackoff;
+        this.retryCapacity = capacity;
+        this.deadLetters = deadLetters;
+        return this;
+    }
+
     @Override
     public BulkTransportClient flushIngestInterval(TimeValue flushInterval) {
         this.flushInterval = flushInterval;
@@ -120,12 +168,31 @@ public class BulkTransportClient extends BaseIngestTransportClient implements In
     @Override
     public BulkTransportClient newClient(Settings settings) {
         super.newClient(settings);
+        return init();
+    }
+
+    /**
+     * Create a bulk client on a pooled connection, the connection is released at shutdown
+     *
+     * @param connection the connection
+     * @return this bulk client
+     */
+    @Override
+    public BulkTransportClient newClient(TransportClientPool.Connection connection) {
+        super.newClient(connection);
+        return init();
+    }
+
+    private BulkTransportClient init() {
         resetSettings();
         this.state = new State();
         BulkProcessor.Listener listener = new BulkProcessor.Listener() {
             @Override
             public void beforeBulk(long executionId, BulkRequest request) {
                 long l = concurrentRequestCounter.getAndIncrement();
+                if (bulkControl != null) {
+                    bulkControl.beforeBulk();
+                }
                 if (state != null) {
                     int n = request.numberOfActions();
                     state.getSubmitted().inc(n);
@@ -143,10 +210,14 @@ public class BulkTransportClient extends BaseIngestTransportClient implements In
 
             @Override
             public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
-                long l = concurrentRequestCounter.decrementAndGet();
+                long l = bulkResponded();
+                if (bulkControl != null) {
+                    bulkControl.afterBulk(response);
+                }
                 if (state != null) {
                     state.getSucceeded().inc(response.getItems().length);
                     state.getTotalIngest().inc(response.getTookInMillis());
+                    state.getBulkLatency().record(response.getTookInMillis());
                 }
                 int n = 0;
                 for (BulkItemResponse itemResponse : response.getItems()) {
@@ -167,6 +238,9 @@ public class BulkTransportClient extends BaseIngestTransportClient implements In
                 if (n > 0) {
                     logger.error("bulk [{}] failed with {} failed items, failure message = {}",
                             executionId, n, response.buildFailureMessage());
+                    if (retryQueue != null) {
+                        retryQueue.afterBulk(request, response);
+                    }
                 } else {
                     state.getCurrentIngestNumDocs().dec(response.getItems().length);
                 }
@@ -174,12 +248,29 @@ public class BulkTransportClient extends BaseIngestTransportClient implements In
 
             @Override
             public void afterBulk(long executionId, BulkRequest requst, Throwable failure) {
-                concurrentRequestCounter.decrementAndGet();
+                bulkResponded();
+                if (bulkControl != null) {
+                    bulkControl.afterBulk(failure);
+                }
+                if (retryQueue != null && retryQueue.afterBulk(requst, failure)) {
+                    logger.warn("bulk [{}] rejected, {} items will be retried", executionId, requst.numberOfActions());
+                    return;
+                }
                 throwable = failure;
                 closed = true;
                 logger.error("bulk [" + executionId + "] error", failure);
             }
         };
+        if (adaptiveBulk) {
+            this.bulkControl = new AdaptiveBulkControl(minActionsPerBulkRequest, maxActionsPerBulkRequest,
+                    minVolumePerBulkRequest, maxVolumePerBulkRequest, minConcurrentBulkRequests, maxConcurrentBulkRequests,
+                    targetBulkLatency);
+            state.setBulkControl(bulkControl);
+        }
+        if (maxRetryAttempts > 1 || deadLetters != null) {
+            this.retryQueue = new BulkRetryQueue(client, state, maxRetryAttempts, retryBackoff, retryCapacity,
+                    maxActionsPerBulkRequest, deadLetters);
+        }
         BulkProcessor.Builder builder = BulkProcessor.builder(client, listener)
                 .setBulkActions(maxActionsPerBulkRequest)
                 .setConcurrentRequests(maxConcurrentBulkRequests)
@@ -268,7 +359,7 @@ public class BulkTransportClient extends BaseIngestTransportClient implements In
         }
         try {
             state.getCurrentIngest().inc();
-            bulkProcessor.add(new IndexRequest(index).type(type).id(id).create(false).source(source));
+            add(new IndexRequest(index).type(type).id(id).create(false).source(source));
         } catch (Exception e) {
             throwable = e;
             closed = true;
@@ -286,7 +377,7 @@ public class BulkTransportClient extends BaseIngestTransportClient implements In
         }
         try {
             state.getCurrentIngest().inc();
-            bulkProcessor.add(indexRequest);
+            add(indexRequest);
         } catch (Exception e) {
             throwable = e;
             closed = true;
@@ -304,7 +395,7 @@ public class BulkTransportClient extends BaseIngestTransportClient implements In
         }
         try {
             state.getCurrentIngest().inc();
-            bulkProcessor.add(new DeleteRequest(index).type(type).id(id));
+            add(new DeleteRequest(index).type(type).id(id));
         } catch (Exception e) {
             throwable = e;
             closed = true;
@@ -322,7 +413,7 @@ public class BulkTransportClient extends BaseIngestTransportClient implements In
         }
         try {
             state.getCurrentIngest().inc();
-            bulkProcessor.add(deleteRequest);
+            add(deleteRequest);
         } catch (Exception e) {
             throwable = e;
             closed = true;
@@ -333,6 +424,28 @@ public class BulkTransportClient extends BaseIngestTransportClient implements In
         return this;
     }
 
+    private void add(ActionRequest request) throws InterruptedException {
+        if (bulkControl == null) {
+            bulkProcessor.add(request);
+            return;
+        }
+        bulkControl.waitForCapacity(concurrentRequestCounter);
+        bulkProcessor.add(request);
+        if (bulkControl.add(request)) {
+            bulkProcessor.flush();
+        }
+    }
+
+    private void closeRetryQueue() {
+        if (retryQueue != null) {
+            try {
+                retryQueue.close();
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+            retryQueue = null;
+        }
+    }
 
     @Override
     public synchronized BulkTransportClient flushIngest() {
@@ -359,6 +472,9 @@ public class BulkTransportClient extends BaseIngestTransportClient implements In
             return this;
         }
         BulkProcessorHelper.waitFor(bulkProcessor, maxWaitTime);
+        if (retryQueue != null && !retryQueue.waitForEmpty(maxWaitTime)) {
+            logger.warn("{} bulk items still waiting for retry", retryQueue.getPending());
+        }
         return this;
     }
 
@@ -381,6 +497,7 @@ public class BulkTransportClient extends BaseIngestTransportClient implements In
     @Override
     public synchronized void shutdown() {
         if (closed) {
+            closeRetryQueue();
             super.shutdown();
             throw new ElasticsearchIllegalStateException("client is closed");
         }
@@ -392,7 +509,10 @@ public class BulkTransportClient extends BaseIngestTransportClient implements In
             if (bulkProcessor != null) {
                 logger.info("closing bulk processor...");
                 bulkProcessor.close();
+                // the failed items of the last responses still go to the retry queue
+                BulkProcessorHelper.waitFor(bulkProcessor, TimeValue.timeValueSeconds(60));
             }
+            closeRetryQueue();
             if (state.indices() != null && !state.indices().isEmpty()) {
                 logger.info("stopping bulk mode for indices {}...", state.indices());
                 for (String index : ImmutableSet.copyOf(state.indices())) {
@@ -411,6 +531,31 @@ public class BulkTransportClient extends BaseIngestTransportClient implements In
         return state;
     }
 
+    @Override
+    public long getPendingBulkRequests() {
+        return concurrentRequestCounter.get();
+    }
+
+    @Override
+    public void waitForPendingBulkRequests(long maxPendingBulkRequests) throws InterruptedException {
+        synchronized (concurrentRequestCounter) {
+            while (concurrentRequestCounter.get() >= maxPendingBulkRequests) {
+                concurrentRequestCounter.wait();
+            }
+        }
+    }
+
+    /**
+     * Count a response and wake up the threads waiting for fewer bulk requests in flight
+     */
+    private long bulkResponded() {
+        synchronized (concurrentRequestCounter) {
+            long l = concurrentRequestCounter.decrementAndGet();
+            concurrentRequestCounter.notifyAll();
+            return l;
+        }
+    }
+
     @Override
     public boolean hasThrowable() {
         return throwable != null;
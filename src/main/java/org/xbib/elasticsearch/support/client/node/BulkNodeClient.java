@@ -16,6 +16,7 @@
 package org.xbib.elasticsearch.support.client.node;
 
 import org.elasticsearch.ElasticsearchIllegalStateException;
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthStatus;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequestBuilder;
@@ -34,14 +35,20 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.xbib.elasticsearch.support.client.AdaptiveBulkControl;
+import org.xbib.elasticsearch.support.client.BulkGrouping;
+import org.xbib.elasticsearch.support.client.BulkRetryQueue;
 import org.xbib.elasticsearch.support.client.ClientHelper;
 import org.xbib.elasticsearch.support.client.ConfigHelper;
 import org.xbib.elasticsearch.support.client.Ingest;
 import org.xbib.elasticsearch.support.client.State;
+import org.xbib.io.archive.ArchiveSession;
 import org.xbib.elasticsearch.support.client.bulk.BulkProcessorHelper;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -60,6 +67,30 @@ public class BulkNodeClient implements Ingest {
 
     private TimeValue flushInterval = TimeValue.timeValueSeconds(30);
 
+    private boolean adaptiveBulk = false;
+
+    private int minActionsPerBulkRequest;
+
+    private ByteSizeValue minVolumePerBulkRequest;
+
+    private int minConcurrentBulkRequests;
+
+    private TimeValue targetBulkLatency;
+
+    private AdaptiveBulkControl bulkControl;
+
+    private int maxRetryAttempts = 1;
+
+    private TimeValue retryBackoff;
+
+    private int retryCapacity;
+
+    private ArchiveSession deadLetters;
+
+    private BulkRetryQueue retryQueue;
+
+    private BulkGrouping grouping;
+
     private final ConfigHelper configHelper = new ConfigHelper();
 
     private final AtomicLong concurrentRequestCounter = new AtomicLong(0L);
@@ -110,6 +141,38 @@ public class BulkNodeClient implements Ingest {
         return this;
     }
 
+    @Override
+    public BulkNodeClient adaptiveBulk(int minActions, ByteSizeValue minVolume, int minConcurrentBulkRequests,
+                                       TimeValue targetLatency) {
+        this.adaptiveBulk = true;
+        this.minActionsPerBulkRequest = minActions;
+        this.minVolumePerBulkRequest = minVolume;
+        this.minConcurrentBulkRequests = minConcurrentBulkRequests;
+        this.targetBulkLatency = targetLatency;
+        return this;
+    }
+
+    @Override
+    public BulkNodeClient retryBulkItems(int maxAttempts, TimeValue initialBackoff, int capacity,
+                                         ArchiveSession deadLetters) {
+        this.maxRetryAttempts = maxAttempts;
+        this.retryBackoff = initialBackoff;
+        this.retryCapacity = capacity;
+        this.deadLetters = deadLetters;
+        return this;
+    }
+
+    /**
+     * Group the actions by target shard or by primary node before they are added to the bulk requests
+     *
+     * @param grouping the grouping, or null for bulk requests in the order of the actions
+     * @return this client
+     */
+    public BulkNodeClient bulkGrouping(BulkGrouping grouping) {
+        this.grouping = grouping;
+        return this;
+    }
+
     @Override
     public BulkNodeClient flushIngestInterval(TimeValue flushInterval) {
         this.flushInterval = flushInterval;
@@ -134,6 +197,9 @@ public class BulkNodeClient implements Ingest {
             @Override
             public void beforeBulk(long executionId, BulkRequest request) {
                 long l = concurrentRequestCounter.getAndIncrement();
+                if (bulkControl != null) {
+                    bulkControl.beforeBulk();
+                }
                 int n = request.numberOfActions();
                 state.getSubmitted().inc(n);
                 state.getCurrentIngestNumDocs().inc(n);
@@ -149,10 +215,14 @@ public class BulkNodeClient implements Ingest {
 
             @Override
             public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
-                long l = concurrentRequestCounter.decrementAndGet();
+                long l = bulkResponded();
+                if (bulkControl != null) {
+                    bulkControl.afterBulk(response);
+                }
                 state.getSucceeded().inc(response.getItems().length);
                 state.getFailed().inc(0);
                 state.getTotalIngest().inc(response.getTookInMillis());
+                state.getBulkLatency().record(response.getTookInMillis());
                 int n = 0;
                 for (BulkItemResponse itemResponse : response.getItems()) {
                     if (itemResponse.isFailed()) {
@@ -172,6 +242,9 @@ public class BulkNodeClient implements Ingest {
                 if (n > 0) {
                     logger.error("bulk [{}] failed with {} failed items, failure message = {}",
                             executionId, n, response.buildFailureMessage());
+                    if (retryQueue != null) {
+                        retryQueue.afterBulk(request, response);
+                    }
                 } else {
                     state.getCurrentIngestNumDocs().dec(response.getItems().length);
                 }
@@ -179,12 +252,29 @@ public class BulkNodeClient implements Ingest {
 
             @Override
             public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
-                concurrentRequestCounter.decrementAndGet();
+                bulkResponded();
+                if (bulkControl != null) {
+                    bulkControl.afterBulk(failure);
+                }
+                if (retryQueue != null && retryQueue.afterBulk(request, failure)) {
+                    logger.warn("bulk [{}] rejected, {} items will be retried", executionId, request.numberOfActions());
+                    return;
+                }
                 throwable = failure;
                 closed = true;
                 logger.error("after bulk [" + executionId + "] error", failure);
             }
         };
+        if (adaptiveBulk) {
+            this.bulkControl = new AdaptiveBulkControl(minActionsPerBulkRequest, maxActionsPerBulkRequest,
+                    minVolumePerBulkRequest, maxVolume, minConcurrentBulkRequests, maxConcurrentBulkRequests,
+                    targetBulkLatency);
+            state.setBulkControl(bulkControl);
+        }
+        if (maxRetryAttempts > 1 || deadLetters != null) {
+            this.retryQueue = new BulkRetryQueue(client, state, maxRetryAttempts, retryBackoff, retryCapacity,
+                    maxActionsPerBulkRequest, deadLetters);
+        }
         BulkProcessor.Builder builder = BulkProcessor.builder(client, listener)
                 .setBulkActions(maxActionsPerBulkRequest)  // off-by-one
                 .setConcurrentRequests(maxConcurrentBulkRequests)
@@ -242,7 +332,7 @@ public class BulkNodeClient implements Ingest {
             if (state != null) {
                 state.getCurrentIngest().inc();
             }
-            bulkProcessor.add(new IndexRequest(index).type(type).id(id).create(false).source(source));
+            add(new IndexRequest(index).type(type).id(id).create(false).source(source));
         } catch (Exception e) {
             throwable = e;
             closed = true;
@@ -264,7 +354,7 @@ public class BulkNodeClient implements Ingest {
             if (state != null) {
                 state.getCurrentIngest().inc();
             }
-            bulkProcessor.add(indexRequest);
+            add(indexRequest);
         } catch (Exception e) {
             throwable = e;
             closed = true;
@@ -286,7 +376,7 @@ public class BulkNodeClient implements Ingest {
             if (state != null) {
                 state.getCurrentIngest().inc();
             }
-            bulkProcessor.add(new DeleteRequest(index).type(type).id(id));
+            add(new DeleteRequest(index).type(type).id(id));
         } catch (Exception e) {
             throwable = e;
             closed = true;
@@ -308,7 +398,7 @@ public class BulkNodeClient implements Ingest {
             if (state != null) {
                 state.getCurrentIngest().inc();
             }
-            bulkProcessor.add(deleteRequest);
+            add(deleteRequest);
         } catch (Exception e) {
             throwable = e;
             closed = true;
@@ -320,12 +410,81 @@ public class BulkNodeClient implements Ingest {
         }
         return this;
     }
+
+    private void add(ActionRequest request) throws InterruptedException {
+        if (grouping == null) {
+            submit(request);
+            return;
+        }
+        // a group must not be interleaved with the actions of another group
+        synchronized (grouping) {
+            int groupSize = bulkControl != null ? bulkControl.getActions() : maxActionsPerBulkRequest;
+            List<List<ActionRequest>> ready = new ArrayList<List<ActionRequest>>();
+            if (!grouping.add(request, groupSize, ready)) {
+                // not grouped, sent with the next bulk request of the bulk processor
+                submit(request);
+            }
+            for (List<ActionRequest> group : ready) {
+                submit(group);
+            }
+        }
+    }
+
+    private void drainGroups() throws InterruptedException {
+        if (grouping == null) {
+            return;
+        }
+        synchronized (grouping) {
+            for (List<ActionRequest> group : grouping.drain()) {
+                submit(group);
+            }
+        }
+    }
+
+    /**
+     * Submit a group of actions as a bulk request of its own
+     */
+    private void submit(List<ActionRequest> group) throws InterruptedException {
+        for (ActionRequest request : group) {
+            submit(request);
+        }
+        bulkProcessor.flush();
+    }
+
+    private void submit(ActionRequest request) throws InterruptedException {
+        if (bulkControl == null) {
+            bulkProcessor.add(request);
+            return;
+        }
+        bulkControl.waitForCapacity(concurrentRequestCounter);
+        bulkProcessor.add(request);
+        if (bulkControl.add(request)) {
+            bulkProcessor.flush();
+        }
+    }
+
+    private void closeRetryQueue() {
+        if (retryQueue != null) {
+            try {
+                retryQueue.close();
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+            retryQueue = null;
+        }
+    }
+
     @Override
     public BulkNodeClient flushIngest() {
         if (closed) {
             throw new ElasticsearchIllegalStateException("client is closed");
         }
         logger.info("flushing bulk processor");
+        try {
+            drainGroups();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         BulkProcessorHelper.flush(bulkProcessor);
         return this;
     }
@@ -336,6 +495,9 @@ public class BulkNodeClient implements Ingest {
             throw new ElasticsearchIllegalStateException("client is closed");
         }
         BulkProcessorHelper.waitFor(bulkProcessor, maxWaitTime);
+        if (retryQueue != null && !retryQueue.waitForEmpty(maxWaitTime)) {
+            logger.warn("{} bulk items still waiting for retry", retryQueue.getPending());
+        }
         return this;
     }
 
@@ -396,9 +558,15 @@ public class BulkNodeClient implements Ingest {
     public synchronized void shutdown() {
         try {
             if (bulkProcessor != null) {
+                if (!closed) {
+                    drainGroups();
+                }
                 logger.info("closing bulk processor...");
                 bulkProcessor.close();
+                // the failed items of the last responses still go to the retry queue
+                BulkProcessorHelper.waitFor(bulkProcessor, TimeValue.timeValueSeconds(60));
             }
+            closeRetryQueue();
             if (state != null && state.indices() != null && !state.indices().isEmpty()) {
                 logger.info("stopping bulk mode for indices {}...", state.indices());
                 for (String index : ImmutableSet.copyOf(state.indices())) {
@@ -487,6 +655,31 @@ public class BulkNodeClient implements Ingest {
         return this;
     }
 
+    @Override
+    public long getPendingBulkRequests() {
+        return concurrentRequestCounter.get();
+    }
+
+    @Override
+    public void waitForPendingBulkRequests(long maxPendingBulkRequests) throws InterruptedException {
+        synchronized (concurrentRequestCounter) {
+            while (concurrentRequestCounter.get() >= maxPendingBulkRequests) {
+                concurrentRequestCounter.wait();
+            }
+        }
+    }
+
+    /**
+     * Count a response and wake up the threads waiting for fewer bulk requests in flight
+     */
+    private long bulkResponded() {
+        synchronized (concurrentRequestCounter) {
+            long l = concurrentRequestCounter.decrementAndGet();
+            concurrentRequestCounter.notifyAll();
+            return l;
+        }
+    }
+
     @Override
     public boolean hasThrowable() {
         return throwable != null;
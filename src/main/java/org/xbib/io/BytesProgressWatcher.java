@@ -15,8 +15,10 @@
  */
 package org.xbib.io;
 
-import java.util.Map;
-import java.util.TreeMap;
+import org.elasticsearch.common.util.concurrent.jsr166e.LongAdder;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Utility class that tracks the number of bytes transferred from a source, and
@@ -25,6 +27,10 @@ import java.util.TreeMap;
  * bytes that have been transferred in the current session and the time this has
  * taken, and the number of bytes and time taken overal (eg for transfers that
  * have been restarted).
+ *
+ * The watcher is updated by many threads without locking. The byte counts are striped
+ * counters, and the recent history is a ring of per-second buckets which are replaced
+ * by compare-and-set when a new second begins.
  */
 public class BytesProgressWatcher {
 
@@ -34,23 +40,26 @@ public class BytesProgressWatcher {
      */
     public static final int SECONDS_OF_HISTORY = 5;
 
-    private boolean isStarted = false;
+    /**
+     * The number of buckets in the history ring, a power of two larger than the history
+     */
+    private static final int RING_SIZE = 8;
 
-    private long bytesToTransfer = 0;
+    private final AtomicBoolean isStarted = new AtomicBoolean();
 
-    private long startTimeAllTransfersMS = -1;
+    private final long bytesToTransfer;
 
-    private long totalBytesInAllTransfers = 0;
+    private volatile long startTimeAllTransfersMS = -1;
 
-    private long startTimeCurrentTransferMS = -1;
+    private final LongAdder totalBytesInAllTransfers = new LongAdder();
 
-    private long totalBytesInCurrentTransfer = 0;
+    private volatile long startTimeCurrentTransferMS = -1;
 
-    private long endTimeCurrentTransferMS = -1;
+    private final LongAdder totalBytesInCurrentTransfer = new LongAdder();
 
-    private Map<Long,Long> historyOfBytesBySecond = new TreeMap<Long,Long>();
+    private volatile long endTimeCurrentTransferMS = -1;
 
-    private long earliestHistorySecond = Long.MAX_VALUE;
+    private final AtomicReferenceArray<Bucket> historyOfBytesBySecond = new AtomicReferenceArray<Bucket>(RING_SIZE);
 
     /**
      * Construct a watcher for a transfer that will involve a given number of
@@ -61,13 +70,16 @@ public class BytesProgressWatcher {
      */
     public BytesProgressWatcher(long bytesToTransfer) {
         this.bytesToTransfer = bytesToTransfer;
+        for (int i = 0; i < RING_SIZE; i++) {
+            historyOfBytesBySecond.set(i, new Bucket(-1L));
+        }
     }
 
     /**
      * @return the count of bytes that will be transferred by the object watched
      * by this class.
      */
-    public synchronized long getBytesToTransfer() {
+    public long getBytesToTransfer() {
         return bytesToTransfer;
     }
 
@@ -83,8 +95,8 @@ public class BytesProgressWatcher {
             startTimeAllTransfersMS = startTimeCurrentTransferMS;
         }
         endTimeCurrentTransferMS = -1;
-        totalBytesInCurrentTransfer = 0;
-        isStarted = true;
+        totalBytesInCurrentTransfer.reset();
+        isStarted.set(true);
     }
 
     /**
@@ -92,56 +104,59 @@ public class BytesProgressWatcher {
      *
      * @param byteCount the number of bytes that have been transferred.
      */
-    public synchronized void updateBytesTransferred(long byteCount) {
+    public void updateBytesTransferred(long byteCount) {
         // Start the monitor when we are notified of the first bytes transferred.
-        if (!isStarted) {
-            resetWatcher();
+        if (!isStarted.get()) {
+            start();
         }
 
         // Store the total byte count for the current transfer, and for all transfers.
-        totalBytesInCurrentTransfer += byteCount;
-        totalBytesInAllTransfers += byteCount;
+        totalBytesInCurrentTransfer.add(byteCount);
+        totalBytesInAllTransfers.add(byteCount);
+
+        long now = System.currentTimeMillis();
 
         // Recognise when all the expected bytes have been transferred and mark the end time.
-        if (totalBytesInCurrentTransfer >= bytesToTransfer) {
-            endTimeCurrentTransferMS = System.currentTimeMillis();
+        // Once marked, the end time follows the updates, and the sum is no longer needed.
+        long endTime = endTimeCurrentTransferMS;
+        if (endTime != -1 || totalBytesInCurrentTransfer.sum() >= bytesToTransfer) {
+            if (endTime != now) {
+                endTimeCurrentTransferMS = now;
+            }
         }
 
         // Keep historical records of the byte counts transferred in a given second.
-        Long currentSecond = System.currentTimeMillis() / 1000;
-        Long bytesInSecond = historyOfBytesBySecond.get(currentSecond);
-        if (bytesInSecond != null) {
-            historyOfBytesBySecond.put(currentSecond, byteCount + bytesInSecond);
-        } else {
-            historyOfBytesBySecond.put(currentSecond, byteCount);
-        }
-
-        // Remember the earliest second value for which we have historical info.
-        if (currentSecond < earliestHistorySecond) {
-            earliestHistorySecond = currentSecond;
+        // The bucket of a second replaces the bucket from RING_SIZE seconds before.
+        long currentSecond = now / 1000;
+        int slot = (int) (currentSecond & (RING_SIZE - 1));
+        Bucket bucket = historyOfBytesBySecond.get(slot);
+        if (bucket.second != currentSecond) {
+            Bucket newBucket = new Bucket(currentSecond);
+            bucket = historyOfBytesBySecond.compareAndSet(slot, bucket, newBucket) ?
+                    newBucket : historyOfBytesBySecond.get(slot);
         }
+        bucket.bytes.add(byteCount);
+    }
 
-        // Remove any history records we are no longer interested in.
-        long removeHistoryBeforeSecond = currentSecond - SECONDS_OF_HISTORY;
-        for (long sec = earliestHistorySecond; sec < removeHistoryBeforeSecond; sec++) {
-            historyOfBytesBySecond.remove(sec);
+    private synchronized void start() {
+        if (!isStarted.get()) {
+            resetWatcher();
         }
-        earliestHistorySecond = removeHistoryBeforeSecond;
     }
 
     /**
      * @return the number of bytes that have so far been transferred in the most
      * recent transfer session.
      */
-    public synchronized long getBytesTransferred() {
-        return totalBytesInCurrentTransfer;
+    public long getBytesTransferred() {
+        return totalBytesInCurrentTransfer.sum();
     }
 
     /**
      * @return the number of bytes that are remaining to be transferred.
      */
-    public synchronized long getBytesRemaining() {
-        return bytesToTransfer - totalBytesInCurrentTransfer;
+    public long getBytesRemaining() {
+        return bytesToTransfer - totalBytesInCurrentTransfer.sum();
     }
 
     /**
@@ -149,11 +164,11 @@ public class BytesProgressWatcher {
      * transfer to completed, based on the number of bytes remaining to transfer
      * and the overall bytes/second rate.
      */
-    public synchronized long getRemainingTime() {
+    public long getRemainingTime() {
         BytesProgressWatcher[] progressWatchers = new BytesProgressWatcher[1];
         progressWatchers[0] = this;
 
-        long bytesRemaining = bytesToTransfer - totalBytesInCurrentTransfer;
+        long bytesRemaining = bytesToTransfer - totalBytesInCurrentTransfer.sum();
         double remainingSecs =
                 (double) bytesRemaining / calculateOverallBytesPerSecond(progressWatchers);
         return Math.round(remainingSecs);
@@ -164,20 +179,20 @@ public class BytesProgressWatcher {
      * for the last
      * {@link #SECONDS_OF_HISTORY} seconds before the current time.
      */
-    public synchronized double getRecentByteRatePerSecond() {
-        if (!isStarted) {
+    public double getRecentByteRatePerSecond() {
+        if (!isStarted.get()) {
             return 0;
         }
 
         long currentSecond = System.currentTimeMillis() / 1000;
         long startSecond = 1 + (currentSecond - SECONDS_OF_HISTORY);
-        long endSecond = (endTimeCurrentTransferMS != -1
-                ? endTimeCurrentTransferMS / 1000
+        long endTime = endTimeCurrentTransferMS;
+        long endSecond = (endTime != -1
+                ? endTime / 1000
                 : currentSecond);
 
         if (currentSecond - SECONDS_OF_HISTORY > endSecond) {
             // This item finished too long ago, ignore it now.
-            historyOfBytesBySecond.clear();
             return 0;
         }
 
@@ -186,9 +201,9 @@ public class BytesProgressWatcher {
         long numberOfSecondsInHistory = 0;
         for (long sec = startSecond; sec <= endSecond; sec++) {
             numberOfSecondsInHistory++;
-            Long bytesInSecond = historyOfBytesBySecond.get(sec);
-            if (bytesInSecond != null) {
-                sumOfBytes += bytesInSecond;
+            Bucket bucket = historyOfBytesBySecond.get((int) (sec & (RING_SIZE - 1)));
+            if (bucket.second == sec) {
+                sumOfBytes += bucket.bytes.sum();
             }
         }
         return (numberOfSecondsInHistory == 0 ? 0 : (double) sumOfBytes / numberOfSecondsInHistory);
@@ -200,13 +215,14 @@ public class BytesProgressWatcher {
      * time taken for the transfer if it is complete, or 0 if the transfer has
      * not yet started.
      */
-    public synchronized long getElapsedTimeMS() {
-        if (!isStarted) {
+    public long getElapsedTimeMS() {
+        if (!isStarted.get()) {
             return 0;
         }
-        if (endTimeCurrentTransferMS != -1) {
+        long endTime = endTimeCurrentTransferMS;
+        if (endTime != -1) {
             // Transfer is complete, report the time it took.
-            return endTimeCurrentTransferMS - startTimeCurrentTransferMS;
+            return endTime - startTimeCurrentTransferMS;
         } else {
             return System.currentTimeMillis() - startTimeCurrentTransferMS;
         }
@@ -216,19 +232,19 @@ public class BytesProgressWatcher {
      * @return the number of bytes that have been transferred over all sessions,
      * including any sessions that have been restarted.
      */
-    public synchronized long getTotalBytesInAllTransfers() {
-        return totalBytesInAllTransfers;
+    public long getTotalBytesInAllTransfers() {
+        return totalBytesInAllTransfers.sum();
     }
 
-    protected synchronized boolean isStarted() {
-        return isStarted;
+    protected boolean isStarted() {
+        return isStarted.get();
     }
 
     /**
      * @return the time (in milliseconds) when the first bytes were transferred,
      * regardless of how many times the transfer was reset.
      */
-    public synchronized long getHistoricStartTimeMS() {
+    public long getHistoricStartTimeMS() {
         return startTimeAllTransfersMS;
     }
 
@@ -327,4 +343,18 @@ public class BytesProgressWatcher {
         }
         return Math.round(sumOfRates);
     }
-}
\ No newline at end of file
+
+    /**
+     * The bytes transferred in a second
+     */
+    private static class Bucket {
+
+        final long second;
+
+        final LongAdder bytes = new LongAdder();
+
+        Bucket(long second) {
+            this.second = second;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A document in the compact archive layout. The compact layout stores a document in a single
+ * archive entry with the field name {@link #FIELD}, instead of one entry per field.
+ *
+ * The entry starts with the magic bytes 'K' 'D', the layout version, and the length of the binary header
+ * as four byte integer. The header holds the number of metadata fields as variable-length integer,
+ * and the field names and values as strings. The rest of the entry is the document source.
+ */
+public class ArchiveDocument {
+
+    /**
+     * The field name of compact document entries
+     */
+    public final static String FIELD = "_doc";
+
+    public final static int VERSION = 1;
+
+    private final static byte[] MAGIC = new byte[] { 'K', 'D' };
+
+    private final static int PREFIX_LENGTH = MAGIC.length + 1 + 4;
+
+    private final Map<String, String> fields;
+
+    private final BytesReference source;
+
+    public ArchiveDocument(Map<String, String> fields, BytesReference source) {
+        this.fields = fields;
+        this.source = source;
+    }
+
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    public BytesReference getSource() {
+        return source;
+    }
+
+    public BytesReference encode() throws IOException {
+        BytesStreamOutput header = new BytesStreamOutput();
+        header.writeVInt(fields.size());
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            header.writeString(field.getKey());
+            header.writeString(field.getValue());
+        }
+        BytesStreamOutput out = new BytesStreamOutput(PREFIX_LENGTH + header.size()
+                + (source != null ? source.length() : 0));
+        out.writeBytes(MAGIC);
+        out.writeByte((byte) VERSION);
+        out.writeInt(header.size());
+        header.bytes().writeTo(out);
+        if (source != null) {
+            source.writeTo(out);
+        }
+        return out.bytes();
+    }
+
+    public static boolean isDocument(BytesReference bytes) {
+        return bytes != null && bytes.length() >= PREFIX_LENGTH
+                && bytes.get(0) == MAGIC[0] && bytes.get(1) == MAGIC[1];
+    }
+
+    public static ArchiveDocument decode(BytesReference bytes) throws IOException {
+        if (!isDocument(bytes)) {
+            throw new IOException("not a compact archive document");
+        }
+        StreamInput in = bytes.slice(MAGIC.length, bytes.length() - MAGIC.length).streamInput();
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported compact archive document version " + version);
+        }
+        int headerLength = in.readInt();
+        if (headerLength < 0 || PREFIX_LENGTH + headerLength > bytes.length()) {
+            throw new IOException("corrupt compact archive document, header length " + headerLength);
+        }
+        StreamInput header = bytes.slice(PREFIX_LENGTH, headerLength).streamInput();
+        int size = header.readVInt();
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        for (int i = 0; i < size; i++) {
+            fields.put(header.readString(), header.readString());
+        }
+        int offset = PREFIX_LENGTH + headerLength;
+        return new ArchiveDocument(fields, bytes.slice(offset, bytes.length() - offset));
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.Streams;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The payload of an archive entry which was too large to be kept in memory
+ * and has been spilled to a temporary file.
+ */
+public class ArchiveEntryFile {
+
+    private final File file;
+
+    private final long length;
+
+    public ArchiveEntryFile(File file, long length) {
+        this.file = file;
+        this.length = length;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Open a stream on the spilled entry, the caller must close it.
+     *
+     * @return the input stream
+     * @throws IOException if the file can not be opened
+     */
+    public InputStream newInputStream() throws IOException {
+        if (!file.exists()) {
+            throw new FileNotFoundException("spilled archive entry no longer exists: " + file.getAbsolutePath());
+        }
+        return new BufferedInputStream(new FileInputStream(file));
+    }
+
+    /**
+     * Read the spilled entry into memory.
+     *
+     * @return the bytes
+     * @throws IOException if the file can not be read or is too large for a byte array
+     */
+    public BytesReference bytes() throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("archive entry too large to read into memory: " + length + " bytes");
+        }
+        byte[] b = new byte[(int) length];
+        InputStream in = newInputStream();
+        try {
+            int num = Streams.readFully(in, b, 0, b.length);
+            return new BytesArray(b, 0, num);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Remove the temporary file.
+     */
+    public void delete() {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file.getAbsolutePath() + " (" + length + " bytes)";
+    }
+}
@@ -15,8 +15,13 @@
  */
 package org.xbib.io.archive;
 
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.xbib.io.Packet;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -66,4 +71,95 @@ public class ArchivePacket implements Packet<Object> {
         return payload;
     }
 
+    /**
+     * Return the payload as bytes. Byte payloads are returned as they are, without copy,
+     * spilled payloads are read from their file, and all other payloads are encoded in UTF-8.
+     *
+     * @return the payload bytes or null if there is no payload
+     * @throws IOException if a spilled payload can not be read
+     */
+    public BytesReference payloadAsBytes() throws IOException {
+        if (payload == null) {
+            return null;
+        }
+        if (payload instanceof BytesReference) {
+            return (BytesReference) payload;
+        }
+        if (payload instanceof ArchiveEntryFile) {
+            return ((ArchiveEntryFile) payload).bytes();
+        }
+        if (payload instanceof byte[]) {
+            return new BytesArray((byte[]) payload);
+        }
+        return new BytesArray(payload.toString().getBytes(UTF8));
+    }
+
+    /**
+     * Return the payload as string. Byte payloads are decoded from UTF-8.
+     *
+     * @return the payload string or null if there is no payload
+     * @throws IOException if a spilled payload can not be read
+     */
+    public String payloadAsString() throws IOException {
+        if (payload == null) {
+            return null;
+        }
+        if (payload instanceof String) {
+            return (String) payload;
+        }
+        if (payload instanceof BytesReference || payload instanceof ArchiveEntryFile || payload instanceof byte[]) {
+            return payloadAsBytes().toUtf8();
+        }
+        return payload.toString();
+    }
+
+    /**
+     * Return the payload as stream, without reading spilled payloads into memory.
+     *
+     * @return the payload stream or null if there is no payload
+     * @throws IOException if a spilled payload can not be opened
+     */
+    public InputStream payloadAsStream() throws IOException {
+        if (payload instanceof ArchiveEntryFile) {
+            return ((ArchiveEntryFile) payload).newInputStream();
+        }
+        BytesReference bytes = payloadAsBytes();
+        return bytes != null ? bytes.streamInput() : null;
+    }
+
+    /**
+     * The length of the payload in bytes, as far as it is known without conversion.
+     *
+     * @return the payload length, 0 if there is no payload, or -1 if unknown
+     */
+    public long payloadLength() {
+        if (payload == null) {
+            return 0L;
+        }
+        if (payload instanceof BytesReference) {
+            return ((BytesReference) payload).length();
+        }
+        if (payload instanceof ArchiveEntryFile) {
+            return ((ArchiveEntryFile) payload).length();
+        }
+        if (payload instanceof byte[]) {
+            return ((byte[]) payload).length;
+        }
+        if (payload instanceof CharSequence) {
+            return ((CharSequence) payload).length() == 0 ? 0L : -1L;
+        }
+        return -1L;
+    }
+
+    /**
+     * Release resources held by the payload, i.e. remove the temporary file of a spilled payload.
+     */
+    public void release() {
+        if (payload instanceof ArchiveEntryFile) {
+            ((ArchiveEntryFile) payload).delete();
+        }
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
 }
@@ -64,6 +64,21 @@ public class ArchiveService {
         throw new IllegalArgumentException("no archive session implementation found for path " + path);
     }
 
+    /**
+     * Check if there is an archive session implementation for a path
+     *
+     * @param path the path
+     * @return true if the path has the suffix of an archive format
+     */
+    public static boolean isArchive(Path path) {
+        for (String archiverName : getCodecs()) {
+            if (canOpen(archiverName, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static boolean canOpen(String suffix, Path path) {
         String pathStr = path.toString();
         if (pathStr.endsWith("." + suffix.toLowerCase()) || pathStr.endsWith("." + suffix.toUpperCase())) {
@@ -15,24 +15,35 @@
  */
 package org.xbib.io.archive;
 
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.xbib.io.Packet;
 import org.xbib.io.Session;
+import org.xbib.io.compress.CompressCodec;
 import org.xbib.io.compress.CompressCodecService;
+import org.xbib.io.compress.ParallelCompressCodec;
+import org.xbib.io.compress.ParallelDecompressCodec;
 import org.xbib.io.BytesProgressWatcher;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.util.Date;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.concurrent.atomic.AtomicLong;
@@ -48,6 +59,10 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
 
     private final static ArchiveService archiveService = ArchiveService.getInstance();
 
+    public final static long DEFAULT_MAX_ENTRY_MEMORY = 64L * 1024L * 1024L;
+
+    private final static int CHUNK_SIZE = 64 * 1024;
+
     private boolean isOpen;
 
     private EnumSet<Mode> mode;
@@ -66,8 +81,32 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
 
     private AtomicLong archiveCounter = new AtomicLong();
 
+    private final List<Path> finishedParts = new ArrayList<Path>();
+
     private boolean uriEncoded;
 
+    private long maxEntryMemory = DEFAULT_MAX_ENTRY_MEMORY;
+
+    private File spillDirectory;
+
+    private int compressThreads = 1;
+
+    private int compressBlockSize = 0;
+
+    private int decompressThreads = 1;
+
+    private int readAheadWindow = 0;
+
+    /**
+     * The channel of the current archive file, for counting the archive bytes, or null
+     */
+    private volatile FileChannel channel;
+
+    /**
+     * The archive bytes of the closed archive files, or -1 if the archive bytes can not be counted
+     */
+    private volatile long archiveBytes;
+
     protected ArchiveSession(BytesProgressWatcher watcher) {
         this.watcher = watcher;
         this.packetCounter = 0L;
@@ -80,8 +119,123 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
         return watcher;
     }
 
+    /**
+     * Set the maximum number of bytes of an archive entry that are read into memory. Larger entries
+     * are spilled to a temporary file and the packet payload is an {@link ArchiveEntryFile}.
+     *
+     * @param maxEntryMemory the maximum entry size in memory
+     * @return this session
+     */
+    public ArchiveSession<I, O> setMaxEntryMemory(long maxEntryMemory) {
+        this.maxEntryMemory = Math.min(maxEntryMemory, Integer.MAX_VALUE - 8);
+        return this;
+    }
+
+    public long getMaxEntryMemory() {
+        return maxEntryMemory;
+    }
+
+    /**
+     * Set the directory for spilled archive entries, the default is the system temporary directory.
+     *
+     * @param spillDirectory the directory
+     * @return this session
+     */
+    public ArchiveSession<I, O> setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    /**
+     * Set the number of threads for compressing the archive, if the compression codec
+     * supports parallel encoding. The default is one thread.
+     *
+     * @param compressThreads the number of threads
+     * @return this session
+     */
+    public ArchiveSession<I, O> setCompressThreads(int compressThreads) {
+        this.compressThreads = compressThreads;
+        return this;
+    }
+
+    /**
+     * Set the number of uncompressed bytes a thread compresses at once, when compressing
+     * on several threads. The default is the block size of the compression codec.
+     *
+     * @param compressBlockSize the block size, or 0 for the default
+     * @return this session
+     */
+    public ArchiveSession<I, O> setCompressBlockSize(int compressBlockSize) {
+        this.compressBlockSize = compressBlockSize;
+        return this;
+    }
+
+    /**
+     * Set the number of threads for decompressing the archive, if the compression codec
+     * supports parallel decoding. The default is one thread.
+     *
+     * @param decompressThreads the number of threads
+     * @return this session
+     */
+    public ArchiveSession<I, O> setDecompressThreads(int decompressThreads) {
+        this.decompressThreads = decompressThreads;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of compressed blocks that are decoded ahead of the reader
+     * when decompressing in parallel. This bounds the memory use. The default of zero
+     * means twice the number of decompression threads.
+     *
+     * @param readAheadWindow the number of blocks
+     * @return this session
+     */
+    public ArchiveSession<I, O> setReadAheadWindow(int readAheadWindow) {
+        this.readAheadWindow = readAheadWindow;
+        return this;
+    }
+
+    /**
+     * The number of bytes read from or written to the archive files so far, after compression.
+     * The number is taken from the file position without locking the session, so it may lag behind.
+     *
+     * @return the number of archive bytes, or -1 if the archive is decompressed in parallel or the
+     * input was repositioned, and the file position is not known
+     */
+    public long getArchiveBytes() {
+        FileChannel c = channel;
+        long bytes = archiveBytes;
+        if (c == null || bytes < 0L) {
+            return bytes;
+        }
+        try {
+            return bytes + c.position();
+        } catch (IOException e) {
+            // closed in the meantime, the closed archive bytes are up to date
+            return archiveBytes;
+        }
+    }
+
     public abstract String getName();
 
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * The archive files of this session, the parts which were finished when the archive was split
+     * and the current archive file.
+     *
+     * @return the archive parts in the order they were written
+     */
+    public synchronized List<Path> getArchiveParts() {
+        List<Path> parts = new ArrayList<Path>(finishedParts);
+        if (path != null) {
+            parts.add(path);
+        }
+        return parts;
+    }
+
     @Override
     public synchronized void open(EnumSet<Mode> mode, Path path, File file) throws IOException {
         if (isOpen) {
@@ -117,22 +271,31 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
     @SuppressWarnings("unchecked")
     private I createArchiveInputStream() throws IOException {
         I archiveIn;
-        FileInputStream in;
-        if (file.isFile() && file.canRead()) {
-            in = new FileInputStream(file);
-        } else {
+        if (!file.isFile() || !file.canRead()) {
             throw new FileNotFoundException("can't open for input, check existence or access rights: " + path);
         }
         String pathStr = path.toString();
         Set<String> streamCodecs = CompressCodecService.getCodecs();
         for (String codec : streamCodecs) {
             if (pathStr.endsWith("." + codec)) {
-                archiveIn = (I) archiveService.getCodec(getName()).createArchiveInputStream(codecService.getCodec(codec).decode(in));
+                CompressCodec compressCodec = codecService.getCodec(codec);
+                InputStream decoded;
+                if (decompressThreads > 1 && compressCodec instanceof ParallelDecompressCodec) {
+                    decoded = ((ParallelDecompressCodec) compressCodec).parallelDecode(file, decompressThreads, readAheadWindow);
+                    archiveBytes = -1L;
+                } else {
+                    FileInputStream fileIn = new FileInputStream(file);
+                    channel = fileIn.getChannel();
+                    decoded = compressCodec.decode(fileIn);
+                }
+                archiveIn = (I) archiveService.getCodec(getName()).createArchiveInputStream(decoded);
                 archiveIn.setWatcher(watcher);
                 return archiveIn;
             }
         }
-        archiveIn = (I) archiveService.getCodec(getName()).createArchiveInputStream(in);
+        FileInputStream fileIn = new FileInputStream(file);
+        channel = fileIn.getChannel();
+        archiveIn = (I) archiveService.getCodec(getName()).createArchiveInputStream(fileIn);
         archiveIn.setWatcher(watcher);
         return archiveIn;
     }
@@ -143,6 +306,7 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
         FileOutputStream out;
         if (!file.exists() || file.length() == 0 || overwrite) {
             out = new FileOutputStream(file);
+            channel = out.getChannel();
         } else {
             throw new FileNotFoundException("can't open for output, check existence or access rights: " + file.getAbsolutePath());
         }
@@ -150,7 +314,11 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
         Set<String> streamCodecs = CompressCodecService.getCodecs();
         for (String codec : streamCodecs) {
             if (pathStr.endsWith("." + codec)) {
-                archiveOut = (O) archiveService.getCodec(getName()).createArchiveOutputStream(codecService.getCodec(codec).encode(out));
+                CompressCodec compressCodec = codecService.getCodec(codec);
+                OutputStream encoded = compressThreads > 1 && compressCodec instanceof ParallelCompressCodec ?
+                        ((ParallelCompressCodec) compressCodec).parallelEncode(out, compressThreads, compressBlockSize) :
+                        compressCodec.encode(out);
+                archiveOut = (O) archiveService.getCodec(getName()).createArchiveOutputStream(encoded);
                 archiveOut.setWatcher(watcher);
                 return archiveOut;
             }
@@ -181,21 +349,125 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
         String name = entry.getName();
         packet.meta("name", name);
         decodeArchiveEntryName(packet, name);
-        int size = (int)entry.getEntrySize();
-        if (size >= 0) {
-            byte[] b = new byte[size]; // naive but fast, heap may explode
-            int num = in.read(b, 0, size); // fill byte array from stream
-            packet.payload(new String(b));
+        long size = entry.getEntrySize();
+        if (size >= 0 && size <= maxEntryMemory) {
+            byte[] b = new byte[(int) size];
+            int num = Streams.readFully(in, b, 0, b.length); // fill byte array from stream
+            packet.payload(new BytesArray(b, 0, num));
         } else {
-            // slow copy, unknown size (zip deflate method)
-            ByteArrayOutputStream b = new ByteArrayOutputStream();
-            Streams.copy(in, b);
-            packet.payload(new String(b.toByteArray()));
+            // large entry or unknown size (zip deflate method)
+            packet.payload(readEntry());
         }
         packetCounter++;
         return packet;
     }
 
+    /**
+     * Skip archive entries without reading their payloads, for example to resume an interrupted import.
+     * If nothing has been read yet and the archive format allows it, the session seeks to the nearest
+     * position before the entry, and steps over the remaining entries.
+     *
+     * @param entries the number of entries to skip
+     * @return the number of entries skipped, less than requested if the archive ends before
+     * @throws IOException if the entries can not be skipped
+     */
+    public synchronized long skipEntries(long entries) throws IOException {
+        if (!isOpen()) {
+            throw new IOException("not open");
+        }
+        if (in == null) {
+            throw new IOException("no input stream found");
+        }
+        // seeking is relative to the start of the archive
+        long skipped = entries > 0 && packetCounter == 0L ? seekEntries(entries) : 0L;
+        // stepping to the next entry skips the payload of the current entry
+        while (skipped < entries && in.getNextEntry() != null) {
+            skipped++;
+        }
+        packetCounter += skipped;
+        return skipped;
+    }
+
+    /**
+     * Position the input stream before an entry without stepping over the entries before it.
+     * The default is to not seek at all.
+     *
+     * @param entries the number of entries to skip
+     * @return the number of entries skipped by seeking, at most the given number
+     * @throws IOException if seeking fails
+     */
+    protected long seekEntries(long entries) throws IOException {
+        return 0L;
+    }
+
+    protected File getFile() {
+        return file;
+    }
+
+    protected I getInputStream() {
+        return in;
+    }
+
+    /**
+     * Replace the input stream, the old input stream is closed
+     *
+     * @param in the new input stream
+     * @throws IOException if the old input stream can not be closed
+     */
+    protected void setInputStream(I in) throws IOException {
+        if (this.in != null) {
+            this.in.close();
+        }
+        // the position of the new input stream is not known
+        channel = null;
+        archiveBytes = -1L;
+        in.setWatcher(watcher);
+        this.in = in;
+    }
+
+    /**
+     * Read the current entry in chunks into memory until the maximum entry memory is exceeded,
+     * then spill the entry to a temporary file.
+     *
+     * @return the entry bytes, or the spilled entry file
+     * @throws IOException if the entry can not be read or spilled
+     */
+    private Object readEntry() throws IOException {
+        BytesStreamOutput buffer = new BytesStreamOutput();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int num;
+        while ((num = in.read(chunk, 0, chunk.length)) != -1) {
+            if (buffer.size() + num > maxEntryMemory) {
+                return spillEntry(buffer.bytes(), chunk, num);
+            }
+            buffer.write(chunk, 0, num);
+        }
+        return buffer.bytes();
+    }
+
+    private ArchiveEntryFile spillEntry(BytesReference head, byte[] chunk, int num) throws IOException {
+        // the consumer of the packet removes the file by releasing the packet
+        File spillFile = File.createTempFile("knapsack-", ".entry", spillDirectory);
+        long length = head.length();
+        OutputStream spill = new BufferedOutputStream(new FileOutputStream(spillFile));
+        try {
+            head.writeTo(spill);
+            do {
+                spill.write(chunk, 0, num);
+                length += num;
+            } while ((num = in.read(chunk, 0, chunk.length)) != -1);
+        } catch (IOException e) {
+            spill.close();
+            if (!spillFile.delete()) {
+                logger.warn("can not delete spill file {}", spillFile);
+            }
+            throw e;
+        }
+        spill.close();
+        logger.debug("spilled archive entry of {} bytes to {}", length, spillFile);
+        return new ArchiveEntryFile(spillFile, length);
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public synchronized void write(ArchivePacket packet) throws IOException {
@@ -208,14 +480,31 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
         if (packet == null || packet.payload() == null) {
             throw new IOException("no payload to write for entry");
         }
-        byte[] buf = packet.payload().toString().getBytes();
         String name = encodeArchiveEntryName(packet);
         ArchiveEntry entry = out.newArchiveEntry();
         entry.setName(name);
         entry.setLastModified(new Date());
-        entry.setEntrySize(buf.length);
-        out.putArchiveEntry(entry);
-        out.write(buf);
+        if (packet.payload() instanceof ArchiveEntryFile) {
+            // copy spilled entries without reading them into memory
+            ArchiveEntryFile entryFile = (ArchiveEntryFile) packet.payload();
+            entry.setEntrySize(entryFile.length());
+            out.putArchiveEntry(entry);
+            InputStream entryIn = entryFile.newInputStream();
+            try {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                int num;
+                while ((num = entryIn.read(chunk, 0, chunk.length)) != -1) {
+                    out.write(chunk, 0, num);
+                }
+            } finally {
+                entryIn.close();
+            }
+        } else {
+            BytesReference bytes = packet.payloadAsBytes();
+            entry.setEntrySize(bytes.length());
+            out.putArchiveEntry(entry);
+            bytes.writeTo(out);
+        }
         out.closeArchiveEntry();
         packetCounter++;
         if (watcher.getBytesToTransfer() != 0 && watcher.getBytesTransferred() > watcher.getBytesToTransfer()) {
@@ -231,12 +520,20 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
         if (!isOpen) {
             return;
         }
+        FileChannel c = channel;
+        long bytes = in != null && c != null ? c.position() : 0L;
         if (out != null) {
             out.close();
+            // the compressed output is complete after closing
+            bytes = file.length();
         }
         if (in != null) {
             in.close();
         }
+        if (c != null && archiveBytes >= 0L) {
+            archiveBytes += bytes;
+        }
+        channel = null;
         this.isOpen = false;
     }
 
@@ -257,6 +554,7 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
      */
     private void switchToNextArchive() throws IOException {
         close();
+        finishedParts.add(path);
         String filename = file.getName();
         String prefix = Long.toString(archiveCounter.get()) + ".";
         if (filename.startsWith(prefix)) {
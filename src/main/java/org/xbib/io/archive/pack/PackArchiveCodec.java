@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive.pack;
+
+import org.xbib.io.archive.ArchiveCodec;
+import org.xbib.io.BytesProgressWatcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The codec for the block-packed knapsack archive format
+ */
+public class PackArchiveCodec implements ArchiveCodec<PackSession, PackArchiveInputStream, PackArchiveOutputStream> {
+
+    protected final static String NAME = "pack";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public PackSession newSession(BytesProgressWatcher watcher) {
+        return new PackSession(watcher);
+    }
+
+    @Override
+    public PackArchiveInputStream createArchiveInputStream(InputStream in) throws IOException {
+        return new PackArchiveInputStream(in);
+    }
+
+    @Override
+    public PackArchiveOutputStream createArchiveOutputStream(OutputStream out) throws IOException {
+        return new PackArchiveOutputStream(out);
+    }
+
+}
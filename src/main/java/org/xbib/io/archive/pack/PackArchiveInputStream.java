@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive.pack;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.xbib.io.archive.ArchiveInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads entries from the block-packed archive format. The next blocks are read ahead
+ * and decompressed on a pool of threads.
+ */
+public class PackArchiveInputStream extends ArchiveInputStream<PackArchiveEntry> implements PackConstants {
+
+    private final DataInputStream in;
+
+    private final int threads;
+
+    private final ExecutorService executor;
+
+    private final LinkedList<Future<Block>> pending = new LinkedList<Future<Block>>();
+
+    private boolean endOfBlocks;
+
+    private StreamInput block;
+
+    private int blockEntries;
+
+    private long entryRemaining;
+
+    public PackArchiveInputStream(InputStream in) throws IOException {
+        this(in, DEFAULT_THREADS, true);
+    }
+
+    public PackArchiveInputStream(InputStream in, int threads) throws IOException {
+        this(in, threads, true);
+    }
+
+    private PackArchiveInputStream(InputStream in, int threads, boolean readHeader) throws IOException {
+        this.in = new DataInputStream(in);
+        this.threads = Math.max(1, threads);
+        this.executor = Executors.newFixedThreadPool(this.threads, EsExecutors.daemonThreadFactory("knapsack-unpack"));
+        if (readHeader) {
+            readHeader(this.in);
+        }
+    }
+
+    /**
+     * Open a pack archive file for reading from a block offset, as found in the {@link PackIndex}.
+     *
+     * @param file the pack archive file
+     * @param offset the block offset
+     * @return the archive input stream
+     * @throws IOException if the file can not be opened or is not a pack archive
+     */
+    public static PackArchiveInputStream open(File file, long offset) throws IOException {
+        FileInputStream fileIn = new FileInputStream(file);
+        try {
+            readHeader(new DataInputStream(fileIn));
+            fileIn.getChannel().position(offset);
+        } catch (IOException e) {
+            fileIn.close();
+            throw e;
+        }
+        return new PackArchiveInputStream(new BufferedInputStream(fileIn), DEFAULT_THREADS, false);
+    }
+
+    private static void readHeader(DataInputStream in) throws IOException {
+        byte[] magic = new byte[HEADER_MAGIC.length];
+        in.readFully(magic);
+        for (int i = 0; i < magic.length; i++) {
+            if (magic[i] != HEADER_MAGIC[i]) {
+                throw new IOException("not a pack archive");
+            }
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported pack archive version " + version);
+        }
+    }
+
+    @Override
+    public PackArchiveEntry getNextEntry() throws IOException {
+        if (entryRemaining > 0) {
+            skip(entryRemaining);
+        }
+        while (blockEntries == 0) {
+            fill();
+            if (pending.isEmpty()) {
+                return null;
+            }
+            Block b = take(pending.removeFirst());
+            block = new BytesArray(b.data).streamInput();
+            blockEntries = b.entries;
+        }
+        PackArchiveEntry entry = new PackArchiveEntry();
+        entry.setName(block.readString());
+        entry.setEntrySize(block.readVLong());
+        entryRemaining = entry.getEntrySize();
+        blockEntries--;
+        return entry;
+    }
+
+    @Override
+    public int read(byte[] buffer, int start, int length) throws IOException {
+        if (entryRemaining <= 0) {
+            return -1;
+        }
+        int num = block.read(buffer, start, (int) Math.min(length, entryRemaining));
+        if (num > 0) {
+            entryRemaining -= num;
+        }
+        return num;
+    }
+
+    @Override
+    public long skip(long value) throws IOException {
+        long num = block.skip(Math.min(value, entryRemaining));
+        entryRemaining -= num;
+        return num;
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        in.close();
+    }
+
+    /**
+     * Read compressed blocks ahead and submit them for decompression
+     */
+    private void fill() throws IOException {
+        while (!endOfBlocks && pending.size() < 2 * threads) {
+            int marker = in.read();
+            if (marker == -1 || marker == INDEX_MARKER) {
+                endOfBlocks = true;
+                break;
+            }
+            if (marker != BLOCK_MARKER) {
+                throw new IOException("corrupt pack archive, unexpected block marker " + marker);
+            }
+            int compressedLength = in.readInt();
+            final int length = in.readInt();
+            final int entries = in.readInt();
+            final byte[] compressed = new byte[compressedLength];
+            try {
+                in.readFully(compressed);
+            } catch (EOFException e) {
+                throw new IOException("corrupt pack archive, truncated block", e);
+            }
+            pending.add(executor.submit(new Callable<Block>() {
+                @Override
+                public Block call() throws Exception {
+                    return new Block(decompress(compressed, length), entries);
+                }
+            }));
+        }
+    }
+
+    private static Block take(Future<Block> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while decompressing block");
+        } catch (ExecutionException e) {
+            throw new IOException("block decompression failed", e.getCause());
+        }
+    }
+
+    private static byte[] decompress(byte[] compressed, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] b = new byte[length];
+            int num = 0;
+            while (num < length) {
+                int n = inflater.inflate(b, num, length - num);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                num += n;
+            }
+            if (num != length) {
+                throw new IOException("corrupt pack archive, block length " + num + " != " + length);
+            }
+            return b;
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt pack archive", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static class Block {
+
+        final byte[] data;
+
+        final int entries;
+
+        Block(byte[] data, int entries) {
+            this.data = data;
+            this.entries = entries;
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive.pack;
+
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.xbib.io.archive.ArchiveOutputStream;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+/**
+ * Writes entries into blocks of the block-packed archive format. Full blocks are compressed
+ * on a pool of threads and written in order.
+ */
+public class PackArchiveOutputStream extends ArchiveOutputStream<PackArchiveEntry> implements PackConstants {
+
+    private final DataOutputStream out;
+
+    private final int blockSize;
+
+    private final int threads;
+
+    private final ExecutorService executor;
+
+    private final LinkedList<Future<Block>> pending = new LinkedList<Future<Block>>();
+
+    private final PackIndex index = new PackIndex();
+
+    private BytesStreamOutput block;
+
+    private int blockEntries;
+
+    private long entryRemaining;
+
+    private long position;
+
+    private boolean finished;
+
+    public PackArchiveOutputStream(OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE, DEFAULT_THREADS);
+    }
+
+    public PackArchiveOutputStream(OutputStream out, int blockSize, int threads) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.blockSize = blockSize;
+        this.threads = Math.max(1, threads);
+        this.executor = Executors.newFixedThreadPool(this.threads, EsExecutors.daemonThreadFactory("knapsack-pack"));
+        this.block = new BytesStreamOutput(blockSize);
+        this.out.write(HEADER_MAGIC);
+        this.out.writeByte(VERSION);
+        this.position = HEADER_MAGIC.length + 1;
+    }
+
+    @Override
+    public PackArchiveEntry newArchiveEntry() {
+        return new PackArchiveEntry();
+    }
+
+    @Override
+    public void putArchiveEntry(PackArchiveEntry entry) throws IOException {
+        if (finished) {
+            throw new IOException("stream has already been finished");
+        }
+        if (entry.getEntrySize() < 0) {
+            throw new IOException("entry size is required: " + entry.getName());
+        }
+        block.writeString(entry.getName());
+        block.writeVLong(entry.getEntrySize());
+        entryRemaining = entry.getEntrySize();
+    }
+
+    @Override
+    public void write(byte[] buf, int offset, int size) throws IOException {
+        if (size > entryRemaining) {
+            throw new IOException("entry data exceeds entry size");
+        }
+        block.write(buf, offset, size);
+        entryRemaining -= size;
+        getWatcher().updateBytesTransferred(size);
+    }
+
+    @Override
+    public void closeArchiveEntry() throws IOException {
+        if (entryRemaining != 0) {
+            throw new IOException("entry data is " + entryRemaining + " bytes shorter than entry size");
+        }
+        blockEntries++;
+        if (block.size() >= blockSize) {
+            flushBlock();
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            if (blockEntries > 0) {
+                flushBlock();
+            }
+            while (!pending.isEmpty()) {
+                writeBlock(pending.removeFirst());
+            }
+            index.writeTo(out, position);
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+    private void flushBlock() throws IOException {
+        final byte[] data = block.bytes().toBytes();
+        final int entries = blockEntries;
+        pending.add(executor.submit(new Callable<Block>() {
+            @Override
+            public Block call() throws Exception {
+                return new Block(compress(data, entries), entries);
+            }
+        }));
+        block = new BytesStreamOutput(blockSize);
+        blockEntries = 0;
+        // write completed blocks, wait if too many blocks are in flight
+        while (!pending.isEmpty() && (pending.getFirst().isDone() || pending.size() > 2 * threads)) {
+            writeBlock(pending.removeFirst());
+        }
+    }
+
+    private void writeBlock(Future<Block> future) throws IOException {
+        Block b;
+        try {
+            b = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while compressing block");
+        } catch (ExecutionException e) {
+            throw new IOException("block compression failed", e.getCause());
+        }
+        index.add(position, b.entries);
+        out.write(b.data);
+        position += b.data.length;
+    }
+
+    private static byte[] compress(byte[] data, int entries) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            BytesStreamOutput compressed = new BytesStreamOutput(data.length / 2 + BLOCK_HEADER_LENGTH);
+            DataOutputStream header = new DataOutputStream(compressed);
+            header.writeByte(BLOCK_MARKER);
+            header.writeInt(0); // compressed length, patched below
+            header.writeInt(data.length);
+            header.writeInt(entries);
+            byte[] buf = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                compressed.write(buf, 0, n);
+            }
+            byte[] b = compressed.bytes().toBytes();
+            int length = b.length - BLOCK_HEADER_LENGTH;
+            b[1] = (byte) (length >>> 24);
+            b[2] = (byte) (length >>> 16);
+            b[3] = (byte) (length >>> 8);
+            b[4] = (byte) length;
+            return b;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static class Block {
+
+        final byte[] data;
+
+        final int entries;
+
+        Block(byte[] data, int entries) {
+            this.data = data;
+            this.entries = entries;
+        }
+    }
+
+}
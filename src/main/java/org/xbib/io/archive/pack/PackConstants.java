@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive.pack;
+
+/**
+ * This interface contains the definitions of the block-packed archive format.
+ * <p/>
+ * A pack archive starts with the header magic and the format version. It is followed by blocks.
+ * Each block starts with the block marker, the compressed length, the uncompressed length, and the
+ * number of entries, followed by the deflate compressed entries. An entry is the entry name as string,
+ * the data length as variable-length integer, and the data.
+ * The archive ends with the block index: the index marker, the number of blocks, the offset and number
+ * of entries of each block, the offset of the index, and the trailer magic.
+ */
+public interface PackConstants {
+
+    /**
+     * The magic bytes at the start of a pack archive
+     */
+    byte[] HEADER_MAGIC = new byte[] { 'K', 'N', 'P', 'K' };
+
+    /**
+     * The magic bytes at the end of a pack archive
+     */
+    byte[] TRAILER_MAGIC = new byte[] { 'K', 'N', 'P', 'X' };
+
+    /**
+     * The format version
+     */
+    int VERSION = 1;
+
+    /**
+     * The marker byte of a block
+     */
+    byte BLOCK_MARKER = 'B';
+
+    /**
+     * The marker byte of the block index
+     */
+    byte INDEX_MARKER = 'X';
+
+    /**
+     * The length of the block header: marker, compressed length, uncompressed length, number of entries
+     */
+    int BLOCK_HEADER_LENGTH = 13;
+
+    /**
+     * The length of the trailer: index offset and trailer magic
+     */
+    int TRAILER_LENGTH = 12;
+
+    /**
+     * The default uncompressed size of a block
+     */
+    int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * The default number of threads for compressing and decompressing blocks
+     */
+    int DEFAULT_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive.pack;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The block index at the end of a pack archive. It records the offset and the number of entries
+ * of each block, so readers can start at any block with {@link PackArchiveInputStream#open(File, long)}.
+ */
+public class PackIndex implements PackConstants {
+
+    private final List<Long> offsets = new ArrayList<Long>();
+
+    private final List<Integer> entries = new ArrayList<Integer>();
+
+    public PackIndex add(long offset, int entries) {
+        this.offsets.add(offset);
+        this.entries.add(entries);
+        return this;
+    }
+
+    public int size() {
+        return offsets.size();
+    }
+
+    public long getOffset(int block) {
+        return offsets.get(block);
+    }
+
+    public int getEntries(int block) {
+        return entries.get(block);
+    }
+
+    public long getTotalEntries() {
+        long total = 0L;
+        for (Integer n : entries) {
+            total += n;
+        }
+        return total;
+    }
+
+    void writeTo(DataOutputStream out, long indexOffset) throws IOException {
+        out.writeByte(INDEX_MARKER);
+        out.writeInt(offsets.size());
+        for (int i = 0; i < offsets.size(); i++) {
+            out.writeLong(offsets.get(i));
+            out.writeInt(entries.get(i));
+        }
+        out.writeLong(indexOffset);
+        out.write(TRAILER_MAGIC);
+    }
+
+    /**
+     * Read the block index of an uncompressed pack archive file.
+     *
+     * @param file the pack archive file
+     * @return the block index
+     * @throws IOException if the file is not a complete pack archive
+     */
+    public static PackIndex read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < HEADER_MAGIC.length + 1 + TRAILER_LENGTH) {
+                throw new IOException("not a pack archive: " + file);
+            }
+            raf.seek(raf.length() - TRAILER_LENGTH);
+            long indexOffset = raf.readLong();
+            byte[] magic = new byte[TRAILER_MAGIC.length];
+            raf.readFully(magic);
+            for (int i = 0; i < magic.length; i++) {
+                if (magic[i] != TRAILER_MAGIC[i]) {
+                    throw new IOException("no block index found, pack archive is incomplete: " + file);
+                }
+            }
+            raf.seek(indexOffset);
+            if (raf.readByte() != INDEX_MARKER) {
+                throw new IOException("corrupt block index in pack archive: " + file);
+            }
+            PackIndex index = new PackIndex();
+            int size = raf.readInt();
+            for (int i = 0; i < size; i++) {
+                index.add(raf.readLong(), raf.readInt());
+            }
+            return index;
+        } finally {
+            raf.close();
+        }
+    }
+
+}
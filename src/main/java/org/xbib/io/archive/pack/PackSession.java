@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive.pack;
+
+import org.xbib.io.archive.ArchiveSession;
+import org.xbib.io.BytesProgressWatcher;
+
+import java.io.IOException;
+
+public class PackSession extends ArchiveSession {
+
+    protected PackSession(BytesProgressWatcher watcher) {
+        super(watcher);
+    }
+
+    @Override
+    public String getName() {
+        return PackArchiveCodec.NAME;
+    }
+
+    /**
+     * Seek to the block that contains the entry, using the block index at the end of the archive.
+     * Only uncompressed pack archives have a block index that can be read.
+     */
+    @Override
+    protected long seekEntries(long entries) throws IOException {
+        if (!getPath().toString().endsWith("." + PackArchiveCodec.NAME)) {
+            return 0L;
+        }
+        PackIndex index = PackIndex.read(getFile());
+        long skipped = 0L;
+        int block = 0;
+        while (block < index.size() - 1 && skipped + index.getEntries(block) <= entries) {
+            skipped += index.getEntries(block);
+            block++;
+        }
+        if (block == 0) {
+            return 0L;
+        }
+        setInputStream(PackArchiveInputStream.open(getFile(), index.getOffset(block)));
+        return skipped;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compress codec which can encode with several threads
+ */
+public interface ParallelCompressCodec<I extends InputStream, O extends OutputStream> extends CompressCodec<I, O> {
+
+    /**
+     * Create an encoding output stream that compresses on a number of threads
+     *
+     * @param out the output stream
+     * @param threads the number of compression threads
+     * @param blockSize the number of uncompressed bytes compressed by a thread at once,
+     *                  or 0 for the default block size of the codec
+     * @return the encoding output stream
+     * @throws IOException if the stream can not be created
+     */
+    O parallelEncode(OutputStream out, int threads, int blockSize) throws IOException;
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.compress;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A compress codec which can decode a file with several threads
+ */
+public interface ParallelDecompressCodec {
+
+    /**
+     * Create a decoding input stream that decompresses a file on a number of threads
+     *
+     * @param file the compressed file
+     * @param threads the number of decompression threads
+     * @param window the maximum number of compressed blocks that are decoded ahead of the reader
+     * @return the decoding input stream
+     * @throws IOException if the stream can not be created
+     */
+    InputStream parallelDecode(File file, int threads, int window) throws IOException;
+}
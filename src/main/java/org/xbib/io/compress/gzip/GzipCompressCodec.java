@@ -15,7 +15,7 @@
  */
 package org.xbib.io.compress.gzip;
 
-import org.xbib.io.compress.CompressCodec;
+import org.xbib.io.compress.ParallelCompressCodec;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -23,7 +23,7 @@ import java.io.OutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
-public class GzipCompressCodec implements CompressCodec<GZIPInputStream, GZIPOutputStream> {
+public class GzipCompressCodec implements ParallelCompressCodec<GZIPInputStream, OutputStream> {
 
     @Override
     public String getName() {
@@ -41,12 +41,19 @@ public class GzipCompressCodec implements CompressCodec<GZIPInputStream, GZIPOut
     }
 
     @Override
-    public GZIPOutputStream encode(OutputStream out) throws IOException {
+    public OutputStream encode(OutputStream out) throws IOException {
         return new GZIPOutputStream(out);
     }
 
     @Override
-    public GZIPOutputStream encode(OutputStream out, int bufsize) throws IOException {
+    public OutputStream encode(OutputStream out, int bufsize) throws IOException {
         return new GZIPOutputStream(out, bufsize);
     }
+
+    @Override
+    public OutputStream parallelEncode(OutputStream out, int threads, int blockSize) throws IOException {
+        return threads > 1 ? new ParallelGZIPOutputStream(out,
+                blockSize > 0 ? blockSize : ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE, threads) :
+                new GZIPOutputStream(out);
+    }
 }
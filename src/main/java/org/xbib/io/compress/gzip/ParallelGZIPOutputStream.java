@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.compress.gzip;
+
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip output stream that compresses blocks of the input on a pool of threads, like pigz.
+ * <p/>
+ * Each block is deflated on its own, with the last 32 KB of the previous block as preset dictionary,
+ * and ends with a sync flush, so the compressed blocks can be concatenated into a single deflate stream.
+ * The result is a standard gzip stream which can be read by any gzip decoder.
+ */
+public class ParallelGZIPOutputStream extends FilterOutputStream {
+
+    private final static int GZIP_MAGIC = 0x8b1f;
+
+    private final static int DICTIONARY_SIZE = 32 * 1024;
+
+    public final static int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private final int blockSize;
+
+    private final int threads;
+
+    private final ExecutorService executor;
+
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+
+    private final CRC32 crc = new CRC32();
+
+    private final byte[] oneByte = new byte[1];
+
+    private byte[] block;
+
+    private int blockLength;
+
+    private byte[] dictionary;
+
+    private long size;
+
+    private boolean closed;
+
+    public ParallelGZIPOutputStream(OutputStream out, int threads) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE, threads);
+    }
+
+    public ParallelGZIPOutputStream(OutputStream out, int blockSize, int threads) throws IOException {
+        super(out);
+        this.blockSize = Math.max(DICTIONARY_SIZE, blockSize);
+        this.threads = Math.max(1, threads);
+        this.executor = Executors.newFixedThreadPool(this.threads, EsExecutors.daemonThreadFactory("knapsack-gzip"));
+        this.block = new byte[this.blockSize];
+        writeHeader();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        oneByte[0] = (byte) b;
+        write(oneByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        crc.update(b, off, len);
+        size += len;
+        while (len > 0) {
+            int n = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+            if (blockLength == blockSize) {
+                submit(false);
+            }
+        }
+    }
+
+    /**
+     * Writes all compressed blocks that are complete. Buffered input is not flushed, because
+     * that would produce small blocks.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty() && pending.getFirst().isDone()) {
+            out.write(take(pending.removeFirst()));
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            submit(true);
+            while (!pending.isEmpty()) {
+                out.write(take(pending.removeFirst()));
+            }
+            writeTrailer();
+            out.flush();
+        } finally {
+            closed = true;
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+
+    private void submit(final boolean last) throws IOException {
+        final byte[] input = block;
+        final int length = blockLength;
+        final byte[] dict = dictionary;
+        pending.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return deflate(input, length, dict, last);
+            }
+        }));
+        if (!last) {
+            dictionary = Arrays.copyOfRange(input, length - DICTIONARY_SIZE, length);
+            block = new byte[blockSize];
+            blockLength = 0;
+        }
+        // write completed blocks, wait if too many blocks are in flight
+        while (!pending.isEmpty() && (pending.getFirst().isDone() || pending.size() > 2 * threads)) {
+            out.write(take(pending.removeFirst()));
+        }
+    }
+
+    private static byte[] deflate(byte[] input, int length, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input, 0, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buf = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buf);
+                    out.write(buf, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    out.write(buf, 0, n);
+                } while (n == buf.length || !deflater.needsInput());
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] take(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while compressing block");
+        } catch (ExecutionException e) {
+            throw new IOException("block compression failed", e.getCause());
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        out.write(new byte[] {
+                (byte) GZIP_MAGIC,        // magic number (short)
+                (byte) (GZIP_MAGIC >> 8), // magic number (short)
+                Deflater.DEFLATED,        // compression method
+                0,                        // flags
+                0, 0, 0, 0,               // modification time
+                0,                        // extra flags
+                0                         // operating system
+        });
+    }
+
+    private void writeTrailer() throws IOException {
+        writeInt((int) crc.getValue());
+        writeInt((int) size); // size of input modulo 2^32
+    }
+
+    private void writeInt(int i) throws IOException {
+        out.write(i & 0xff);
+        out.write((i >> 8) & 0xff);
+        out.write((i >> 16) & 0xff);
+        out.write((i >> 24) & 0xff);
+    }
+
+}
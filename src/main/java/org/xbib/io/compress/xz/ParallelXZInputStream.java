@@ -0,0 +1,227 @@
+package org.xbib.io.compress.xz;
+
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.xbib.io.compress.xz.check.Check;
+import org.xbib.io.compress.xz.index.BlockInfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decompresses a seekable .xz file with several threads.
+ * <p/>
+ * The Block locations are taken from the Index of the file, see {@link SeekableXZInputStream}.
+ * The compressed Blocks are read in file order and decoded on a thread pool,
+ * the uncompressed Blocks are returned in order.
+ * <p/>
+ * At most <code>window</code> Blocks are decoded ahead of the reader, so the memory use
+ * is bounded by about <code>window</code> times the size of the largest Block.
+ * <p/>
+ * Files with a single Block, like the output of {@link XZOutputStream}, or with Blocks
+ * too large for a byte array, are decoded sequentially.
+ */
+public class ParallelXZInputStream extends InputStream {
+
+    private final static int MAX_BLOCK_SIZE = Integer.MAX_VALUE - 8;
+
+    private SeekableInputStream in;
+
+    private final SeekableXZInputStream sequential;
+
+    private final List<BlockInfo> blockInfos;
+
+    private final int window;
+
+    private final ExecutorService executor;
+
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+
+    private int nextBlock = 0;
+
+    private byte[] block = new byte[0];
+
+    private int blockPos = 0;
+
+    private IOException exception = null;
+
+    public ParallelXZInputStream(SeekableInputStream in, int threads) throws IOException {
+        this(in, threads, 2 * threads);
+    }
+
+    /**
+     * Creates a new parallel decoder.
+     *
+     * @param in      the seekable input, it is closed when this stream is closed
+     * @param threads the number of decoder threads
+     * @param window  the maximum number of Blocks which are decoded ahead of the reader,
+     *                zero for twice the number of threads
+     * @throws IOException if the file is not a valid .xz file
+     */
+    public ParallelXZInputStream(SeekableInputStream in, int threads, int window) throws IOException {
+        this.in = in;
+        SeekableXZInputStream xz = new SeekableXZInputStream(in);
+        List<BlockInfo> infos = xz.getBlockInfos();
+        if (infos.size() < 2 || threads < 2 || xz.getLargestBlockSize() > MAX_BLOCK_SIZE) {
+            this.sequential = xz;
+            this.blockInfos = null;
+            this.window = 0;
+            this.executor = null;
+        } else {
+            this.sequential = null;
+            this.blockInfos = infos;
+            this.window = window > 0 ? window : 2 * threads;
+            this.executor = Executors.newFixedThreadPool(threads, EsExecutors.daemonThreadFactory("knapsack-unxz"));
+        }
+    }
+
+    /**
+     * Returns true if the Blocks are decoded on several threads.
+     */
+    public boolean isParallel() {
+        return sequential == null;
+    }
+
+    public int read() throws IOException {
+        byte[] buf = new byte[1];
+        return read(buf, 0, 1) == -1 ? -1 : (buf[0] & 0xFF);
+    }
+
+    public int read(byte[] buf, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len < 0 || off + len > buf.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (in == null) {
+            throw new XZIOException("Stream closed");
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        if (sequential != null) {
+            return sequential.read(buf, off, len);
+        }
+        try {
+            while (blockPos == block.length) {
+                if (!nextBlock()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, block.length - blockPos);
+            System.arraycopy(block, blockPos, buf, off, n);
+            blockPos += n;
+            return n;
+        } catch (IOException e) {
+            exception = e;
+            throw e;
+        }
+    }
+
+    public int available() throws IOException {
+        if (in == null) {
+            throw new XZIOException("Stream closed");
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        return sequential != null ? sequential.available() : block.length - blockPos;
+    }
+
+    public void close() throws IOException {
+        if (in != null) {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            pending.clear();
+            block = null;
+            try {
+                in.close();
+            } finally {
+                in = null;
+            }
+        }
+    }
+
+    private boolean nextBlock() throws IOException {
+        submitBlocks();
+        if (pending.isEmpty()) {
+            return false;
+        }
+        Future<byte[]> future = pending.removeFirst();
+        try {
+            block = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while decoding XZ Block");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new XZIOException("decoding XZ Block failed: " + e.getCause());
+        }
+        blockPos = 0;
+        submitBlocks();
+        return true;
+    }
+
+    /**
+     * Reads compressed Blocks and submits them for decoding until the read-ahead window is full.
+     */
+    private void submitBlocks() throws IOException {
+        while (pending.size() < window && nextBlock < blockInfos.size()) {
+            final BlockInfo info = blockInfos.get(nextBlock++);
+            // the Block Padding follows the Unpadded Size up to a multiple of four bytes
+            long compressedSize = (info.unpaddedSize + 3) & ~3;
+            if (compressedSize > MAX_BLOCK_SIZE) {
+                throw new UnsupportedOptionsException("XZ Block is too big: " + compressedSize + " bytes");
+            }
+            final byte[] compressed = new byte[(int) compressedSize];
+            in.seek(info.compressedOffset);
+            try {
+                new DataInputStream(in).readFully(compressed);
+            } catch (EOFException e) {
+                throw new CorruptedInputException();
+            }
+            pending.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return decodeBlock(compressed, info);
+                }
+            }));
+        }
+    }
+
+    private static byte[] decodeBlock(byte[] compressed, BlockInfo info) throws IOException {
+        BlockInputStream blockDecoder;
+        try {
+            blockDecoder = new BlockInputStream(new ByteArrayInputStream(compressed),
+                    Check.getInstance(info.streamFlags.checkType), -1,
+                    info.unpaddedSize, info.uncompressedSize);
+        } catch (IndexIndicatorException e) {
+            throw new CorruptedInputException();
+        }
+        byte[] uncompressed = new byte[(int) info.uncompressedSize];
+        try {
+            new DataInputStream(blockDecoder).readFully(uncompressed);
+        } catch (EOFException e) {
+            throw new CorruptedInputException();
+        }
+        // reading the end of the Block verifies the sizes and the check
+        if (blockDecoder.read() != -1) {
+            throw new CorruptedInputException();
+        }
+        return uncompressed;
+    }
+}
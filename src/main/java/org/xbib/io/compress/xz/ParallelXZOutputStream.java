@@ -0,0 +1,278 @@
+package org.xbib.io.compress.xz;
+
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.xbib.io.compress.xz.check.Check;
+import org.xbib.io.compress.xz.common.EncoderUtil;
+import org.xbib.io.compress.xz.index.IndexEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compresses into the .xz file format with several threads.
+ * <p/>
+ * The input is cut into independent XZ Blocks of a fixed uncompressed size. The Blocks are
+ * encoded with LZMA2 on a thread pool and written in order, followed by the Index of all Blocks.
+ * Because the Index records every Block, the result can be read with {@link SeekableXZInputStream}.
+ * <p/>
+ * The dictionary size is limited to the Block size, a larger dictionary can not be used
+ * by independent Blocks.
+ * <p/>
+ * Blocks are only cut at the Block size and at {@link #finish()}. Flushing does not end a Block,
+ * because archive writers flush after every record, which would cut the input into many small
+ * Blocks that compress badly.
+ */
+public class ParallelXZOutputStream extends FinishableOutputStream {
+
+    /**
+     * The default uncompressed size of a Block
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 4 << 20;
+
+    private OutputStream out;
+
+    private final LZMA2Options options;
+
+    private final int checkType;
+
+    private final int blockSize;
+
+    private final int threads;
+
+    private final ExecutorService executor;
+
+    private final LinkedList<Future<EncodedBlock>> pending = new LinkedList<Future<EncodedBlock>>();
+
+    private final IndexEncoder index = new IndexEncoder();
+
+    private byte[] block;
+
+    private int blockLength;
+
+    private IOException exception = null;
+
+    private boolean finished = false;
+
+    public ParallelXZOutputStream(OutputStream out, LZMA2Options options, int threads) throws IOException {
+        this(out, options, XZ.CHECK_CRC64, DEFAULT_BLOCK_SIZE, threads);
+    }
+
+    public ParallelXZOutputStream(OutputStream out, LZMA2Options options, int checkType,
+                                  int blockSize, int threads) throws IOException {
+        this.out = out;
+        this.options = (LZMA2Options) options.clone();
+        if (this.options.getDictSize() > blockSize) {
+            this.options.setDictSize(Math.max(LZMA2Options.DICT_SIZE_MIN, blockSize));
+        }
+        this.checkType = checkType;
+        this.blockSize = blockSize;
+        this.threads = Math.max(1, threads);
+        this.executor = Executors.newFixedThreadPool(this.threads, EsExecutors.daemonThreadFactory("knapsack-xz"));
+        this.block = new byte[blockSize];
+        // fail early on unsupported check types
+        Check.getInstance(checkType);
+        encodeStreamHeader();
+    }
+
+    public void write(int b) throws IOException {
+        byte[] buf = new byte[]{(byte) b};
+        write(buf, 0, 1);
+    }
+
+    public void write(byte[] buf, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len < 0 || off + len > buf.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        if (finished) {
+            throw new XZIOException("Stream finished or closed");
+        }
+        try {
+            while (len > 0) {
+                int n = Math.min(len, blockSize - blockLength);
+                System.arraycopy(buf, off, block, blockLength, n);
+                blockLength += n;
+                off += n;
+                len -= n;
+                if (blockLength == blockSize) {
+                    endBlock();
+                }
+            }
+        } catch (IOException e) {
+            exception = e;
+            throw e;
+        }
+    }
+
+    /**
+     * Ends the current Block and submits it for encoding. Encoded Blocks are written
+     * as they become ready, in order.
+     *
+     * @throws IOException if writing fails
+     */
+    public void endBlock() throws IOException {
+        if (exception != null) {
+            throw exception;
+        }
+        if (finished) {
+            throw new XZIOException("Stream finished or closed");
+        }
+        if (blockLength == 0) {
+            return;
+        }
+        final byte[] data = block;
+        final int length = blockLength;
+        pending.add(executor.submit(new Callable<EncodedBlock>() {
+            @Override
+            public EncodedBlock call() throws Exception {
+                return encodeBlock(data, length);
+            }
+        }));
+        block = new byte[blockSize];
+        blockLength = 0;
+        while (!pending.isEmpty() && (pending.getFirst().isDone() || pending.size() > threads)) {
+            writeBlock(pending.removeFirst());
+        }
+    }
+
+    /**
+     * Writes the Blocks that are already encoded and flushes the output. The current Block
+     * is not ended, so the bytes of the current Block are not written yet.
+     *
+     * @throws IOException if writing fails
+     */
+    public void flush() throws IOException {
+        if (exception != null) {
+            throw exception;
+        }
+        if (finished) {
+            throw new XZIOException("Stream finished or closed");
+        }
+        try {
+            while (!pending.isEmpty() && pending.getFirst().isDone()) {
+                writeBlock(pending.removeFirst());
+            }
+            out.flush();
+        } catch (IOException e) {
+            exception = e;
+            throw e;
+        }
+    }
+
+    public void finish() throws IOException {
+        if (!finished) {
+            try {
+                endBlock();
+                while (!pending.isEmpty()) {
+                    writeBlock(pending.removeFirst());
+                }
+                index.encode(out);
+                encodeStreamFooter();
+            } catch (IOException e) {
+                exception = e;
+                throw e;
+            }
+            finished = true;
+            executor.shutdown();
+        }
+    }
+
+    public void close() throws IOException {
+        if (out != null) {
+            try {
+                finish();
+            } catch (IOException e) {
+                // remembered in exception
+            }
+            executor.shutdownNow();
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = e;
+                }
+            }
+            out = null;
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private EncodedBlock encodeBlock(byte[] data, int length) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(length / 2 + 64);
+        BlockOutputStream blockEncoder = new BlockOutputStream(buffer,
+                new FilterEncoder[] { options.getFilterEncoder() }, Check.getInstance(checkType));
+        blockEncoder.write(data, 0, length);
+        blockEncoder.finish();
+        return new EncodedBlock(buffer.toByteArray(), blockEncoder.getUnpaddedSize(),
+                blockEncoder.getUncompressedSize());
+    }
+
+    private void writeBlock(Future<EncodedBlock> future) throws IOException {
+        EncodedBlock encodedBlock;
+        try {
+            encodedBlock = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while encoding XZ Block");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new XZIOException("encoding XZ Block failed: " + e.getCause());
+        }
+        out.write(encodedBlock.data);
+        index.add(encodedBlock.unpaddedSize, encodedBlock.uncompressedSize);
+    }
+
+    private void encodeStreamFlags(byte[] buf, int off) {
+        buf[off] = 0x00;
+        buf[off + 1] = (byte) checkType;
+    }
+
+    private void encodeStreamHeader() throws IOException {
+        out.write(XZ.HEADER_MAGIC);
+        byte[] buf = new byte[2];
+        encodeStreamFlags(buf, 0);
+        out.write(buf);
+        EncoderUtil.writeCRC32(out, buf);
+    }
+
+    private void encodeStreamFooter() throws IOException {
+        byte[] buf = new byte[6];
+        long backwardSize = index.getIndexSize() / 4 - 1;
+        for (int i = 0; i < 4; ++i) {
+            buf[i] = (byte) (backwardSize >>> (i * 8));
+        }
+        encodeStreamFlags(buf, 4);
+        EncoderUtil.writeCRC32(out, buf);
+        out.write(buf);
+        out.write(XZ.FOOTER_MAGIC);
+    }
+
+    private static class EncodedBlock {
+
+        final byte[] data;
+
+        final long unpaddedSize;
+
+        final long uncompressedSize;
+
+        EncodedBlock(byte[] data, long unpaddedSize, long uncompressedSize) {
+            this.data = data;
+            this.unpaddedSize = unpaddedSize;
+            this.uncompressedSize = uncompressedSize;
+        }
+    }
+}
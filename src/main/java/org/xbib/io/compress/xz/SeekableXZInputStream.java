@@ -12,6 +12,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Decompresses a .xz file in random access mode.
@@ -358,6 +359,31 @@ public class SeekableXZInputStream extends SeekableInputStream {
         return largestBlockSize;
     }
 
+    /**
+     * Gets the locations of all XZ Blocks in the file, in file order.
+     * The compressed offsets are relative to the beginning of the file,
+     * the uncompressed offsets to the beginning of the uncompressed data.
+     * This doesn't change the read position of this stream.
+     */
+    public List<BlockInfo> getBlockInfos() {
+        List<BlockInfo> blockInfos = new ArrayList<BlockInfo>();
+        long uncompressedSum = 0;
+        long compressedSum = 0;
+        // the Streams were added from the end of the file
+        for (int i = streams.size() - 1; i >= 0; --i) {
+            IndexDecoder streamIndex = streams.get(i);
+            for (int record = 0; record < streamIndex.getRecordCount(); ++record) {
+                BlockInfo info = streamIndex.getBlockInfo(record);
+                info.compressedOffset += compressedSum;
+                info.uncompressedOffset += uncompressedSum;
+                blockInfos.add(info);
+            }
+            uncompressedSum += streamIndex.getUncompressedSize();
+            compressedSum += streamIndex.getStreamAndPaddingSize();
+        }
+        return blockInfos;
+    }
+
     /**
      * Decompresses the next byte from this input stream.
      *
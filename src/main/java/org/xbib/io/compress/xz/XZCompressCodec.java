@@ -1,13 +1,16 @@
 
 package org.xbib.io.compress.xz;
 
-import org.xbib.io.compress.CompressCodec;
+import org.xbib.io.compress.ParallelCompressCodec;
+import org.xbib.io.compress.ParallelDecompressCodec;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
-public class XZCompressCodec implements CompressCodec<XZInputStream, XZOutputStream> {
+public class XZCompressCodec implements ParallelCompressCodec<XZInputStream, FinishableOutputStream>,
+        ParallelDecompressCodec {
 
     @Override
     public String getName() {
@@ -25,12 +28,24 @@ public class XZCompressCodec implements CompressCodec<XZInputStream, XZOutputStr
     }
 
     @Override
-    public XZOutputStream encode(OutputStream out) throws IOException {
+    public FinishableOutputStream encode(OutputStream out) throws IOException {
         return new XZOutputStream(out, new LZMA2Options());
     }
 
     @Override
-    public XZOutputStream encode(OutputStream out, int bufsize) throws IOException {
+    public FinishableOutputStream encode(OutputStream out, int bufsize) throws IOException {
         return new XZOutputStream(out, new LZMA2Options()); // ignore bufsize
     }
+
+    @Override
+    public FinishableOutputStream parallelEncode(OutputStream out, int threads, int blockSize) throws IOException {
+        return threads > 1 ? new ParallelXZOutputStream(out, new LZMA2Options(), XZ.CHECK_CRC64,
+                blockSize > 0 ? blockSize : ParallelXZOutputStream.DEFAULT_BLOCK_SIZE, threads) :
+                new XZOutputStream(out, new LZMA2Options());
+    }
+
+    @Override
+    public InputStream parallelDecode(File file, int threads, int window) throws IOException {
+        return new ParallelXZInputStream(new SeekableFileInputStream(file), threads, window);
+    }
 }
@@ -168,6 +168,33 @@ public class IndexDecoder extends IndexBase {
         return largestBlockSize;
     }
 
+    public int getRecordCount() {
+        return (int) recordCount;
+    }
+
+    /**
+     * Returns the location of a Block without changing the position of
+     * {@link #getNext()}. The offsets are relative to the beginning of this Stream.
+     *
+     * @param record the number of the Block in this Stream
+     * @return a new BlockInfo
+     */
+    public BlockInfo getBlockInfo(int record) {
+        BlockInfo blockInfo = new BlockInfo();
+        blockInfo.streamFlags = info.streamFlags;
+        if (record == 0) {
+            blockInfo.compressedOffset = 0;
+            blockInfo.uncompressedOffset = 0;
+        } else {
+            blockInfo.compressedOffset = (unpadded[record - 1] + 3) & ~3;
+            blockInfo.uncompressedOffset = uncompressed[record - 1];
+        }
+        blockInfo.unpaddedSize = unpadded[record] - blockInfo.compressedOffset;
+        blockInfo.uncompressedSize = uncompressed[record] - blockInfo.uncompressedOffset;
+        blockInfo.compressedOffset += DecoderUtil.STREAM_HEADER_SIZE;
+        return blockInfo;
+    }
+
     public boolean hasNext() {
         return pos + 1 < recordCount;
     }
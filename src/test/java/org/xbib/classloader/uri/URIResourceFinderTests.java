@@ -0,0 +1,100 @@
+package org.xbib.classloader.uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbib.classloader.ResourceHandle;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class URIResourceFinderTests {
+
+    private File dir;
+
+    private URIResourceFinder finder;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("finder").toFile();
+        File one = jar("one.jar", "a/b/One.txt", "shared/x.txt");
+        File two = jar("two.jar", "a/c/Two.txt", "shared/x.txt");
+        File classes = new File(dir, "classes");
+        assertTrue(new File(classes, "a/b").mkdirs());
+        Files.write(new File(classes, "a/b/Three.txt").toPath(), "classes".getBytes("UTF-8"));
+        finder = new URIResourceFinder();
+        finder.add(Arrays.asList(one.toURI(), classes.toURI(), two.toURI()));
+    }
+
+    @After
+    public void tearDown() {
+        finder.destroy();
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        ResourceHandle handle = finder.getResource("a/b/One.txt");
+        assertNotNull(handle);
+        assertEquals("one.jar", new String(handle.getBytes(), "UTF-8"));
+        assertNotNull(finder.getResource("a/c/Two.txt"));
+        assertNotNull(finder.getResource("a/b/Three.txt"));
+        assertNull(finder.getResource("a/b/Two.txt"));
+        assertNull(finder.getResource("nothing/here.txt"));
+        assertNotNull(finder.findResource("a/"));
+    }
+
+    @Test
+    public void testClassPathOrder() throws IOException {
+        ResourceHandle handle = finder.getResource("shared/x.txt");
+        assertEquals("one.jar", new String(handle.getBytes(), "UTF-8"));
+        Enumeration<URL> urls = finder.findResources("shared/x.txt");
+        assertTrue(urls.nextElement().toString().contains("one.jar"));
+        assertTrue(urls.nextElement().toString().contains("two.jar"));
+        assertFalse(urls.hasMoreElements());
+    }
+
+    @Test
+    public void testWatchedFile() throws IOException {
+        File late = new File(dir, "late.jar");
+        finder.add(Collections.singletonList(late.toURI()));
+        assertNull(finder.getResource("late/Late.txt"));
+        jar("late.jar", "late/Late.txt");
+        assertNotNull(finder.getResource("late/Late.txt"));
+    }
+
+    @Test
+    public void testDestroy() {
+        finder.destroy();
+        assertNull(finder.getResource("a/b/One.txt"));
+        assertFalse(finder.findResources("shared/x.txt").hasMoreElements());
+    }
+
+    private File jar(String name, String... entries) throws IOException {
+        File file = new File(dir, name);
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        try {
+            for (String entry : entries) {
+                out.putNextEntry(new JarEntry(entry));
+                out.write(name.getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
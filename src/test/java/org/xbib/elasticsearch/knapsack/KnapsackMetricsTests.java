@@ -0,0 +1,65 @@
+package org.xbib.elasticsearch.knapsack;
+
+import org.junit.Test;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.archive.ArchivePacket;
+import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.ArchiveSession;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KnapsackMetricsTests {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSnapshot() throws Exception {
+        File file = File.createTempFile("metrics-", ".tar.gz");
+        Path path = file.toPath();
+        try {
+            ArchiveSession session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+            session.open(EnumSet.of(Session.Mode.OVERWRITE, Session.Mode.NONE), path, file);
+            BlockingQueue<String> queue = new ArrayBlockingQueue<String>(10);
+            queue.add("a");
+            KnapsackMetrics metrics = new KnapsackMetrics()
+                    .addSession(session)
+                    .addQueue("test", queue)
+                    .addTotalDocs(200L);
+            for (int i = 0; i < 100; i++) {
+                ArchivePacket packet = new ArchivePacket();
+                packet.meta("index", "index1");
+                packet.meta("type", "test1");
+                packet.meta("id", Integer.toString(i));
+                packet.meta("field", "_source");
+                packet.payload("{\"content\":\"Hello World " + i + "\"}");
+                session.write(packet);
+            }
+            metrics.addDocs(100L);
+            metrics.getScrollLatency().record(5L);
+            Thread.sleep(1100L);
+            Map<String, Object> snapshot = metrics.snapshot();
+            assertEquals(100L, snapshot.get("docs"));
+            assertEquals(200L, snapshot.get("total_docs"));
+            assertTrue((Double) snapshot.get("docs_per_second") > 0.0);
+            assertTrue((Long) snapshot.get("eta_millis") > 0L);
+            assertTrue((Long) snapshot.get("bytes") > 0L);
+            assertEquals(1, ((Map<String, Object>) snapshot.get("queues")).get("test"));
+            assertEquals(1L, ((Map<String, Object>) snapshot.get("scroll")).get("requests"));
+            assertFalse(snapshot.containsKey("bulk"));
+            session.close();
+            snapshot = metrics.snapshot();
+            assertEquals(file.length(), snapshot.get("archive_bytes"));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.xbib.elasticsearch.knapsack;
+
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KnapsackServiceTests {
+
+    private ThreadPool threadPool;
+
+    @Before
+    public void setUp() {
+        threadPool = new ThreadPool(ImmutableSettings.settingsBuilder().put("name", "knapsack-test").build(), null);
+    }
+
+    @After
+    public void tearDown() {
+        threadPool.shutdownNow();
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        KnapsackService knapsack = newKnapsackService();
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            Runnable blocking = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            knapsack.submit(newState("export", 0), blocking);
+            waitForRunning(knapsack);
+            knapsack.submit(newState("export", 1), blocking);
+            knapsack.submit(newState("export", 2), blocking);
+            assertEquals(2, knapsack.getQueuedJobs());
+            try {
+                knapsack.submit(newState("export", 3), blocking);
+                fail("job was not rejected");
+            } catch (EsRejectedExecutionException e) {
+                // expected
+            }
+            assertEquals(2, knapsack.getQueuedJobs());
+        } finally {
+            latch.countDown();
+            knapsack.stop();
+            knapsack.close();
+        }
+    }
+
+    @Test
+    public void testPriority() throws Exception {
+        KnapsackService knapsack = newKnapsackService();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<String> executed = Collections.synchronizedList(Lists.<String>newArrayList());
+        try {
+            knapsack.submit(newState("export", 0), new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            waitForRunning(knapsack);
+            Future<?> export = knapsack.submit(newState("export", 1), record(executed, "export"));
+            Future<?> imp = knapsack.submit(newState("import", 2), record(executed, "import"));
+            latch.countDown();
+            export.get(10, TimeUnit.SECONDS);
+            imp.get(10, TimeUnit.SECONDS);
+            // imports go first, they hold up the writes of a cluster
+            assertEquals(newArrayList("import", "export"), executed);
+        } finally {
+            latch.countDown();
+            knapsack.stop();
+            knapsack.close();
+        }
+    }
+
+    private KnapsackService newKnapsackService() {
+        // the scheduler does not use the cluster
+        KnapsackService knapsack = new KnapsackService(ImmutableSettings.settingsBuilder()
+                .put(KnapsackService.JOBS_CONCURRENCY_SETTING_NAME, 1)
+                .put(KnapsackService.JOBS_QUEUE_SIZE_SETTING_NAME, 2)
+                .build(),
+                null, threadPool);
+        knapsack.start();
+        return knapsack;
+    }
+
+    private static KnapsackState newState(String mode, int i) {
+        return new KnapsackState().setMode(mode).setNodeName("job" + i);
+    }
+
+    private static Runnable record(final List<String> executed, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                executed.add(name);
+            }
+        };
+    }
+
+    private static void waitForRunning(KnapsackService knapsack) throws InterruptedException {
+        for (int i = 0; i < 100 && knapsack.getRunningJobs() == 0; i++) {
+            Thread.sleep(10L);
+        }
+        assertTrue(knapsack.getRunningJobs() > 0);
+    }
+}
@@ -0,0 +1,62 @@
+package org.xbib.elasticsearch.knapsack;
+
+import org.elasticsearch.common.io.stream.BytesStreamInput;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.joda.time.DateTime;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.elasticsearch.common.collect.Maps.newHashMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class KnapsackStateTests {
+
+    @Test
+    public void testStreamable() throws Exception {
+        Map<String, Object> metrics = newHashMap();
+        metrics.put("docs", 10L);
+        KnapsackState state = new KnapsackState()
+                .setMode("import")
+                .setTimestamp(new DateTime())
+                .setPath(new File("test.tar.gz").toPath().toAbsolutePath())
+                .setNodeName("1")
+                .setNodeId("abc")
+                .setProgress("slice0", 10L)
+                .setThroughput("slice0", 1.5)
+                .setMetrics(metrics);
+        KnapsackState copy = roundTrip(state);
+        assertEquals(state.id(), copy.id());
+        assertNull(copy.getClusterAddress());
+        assertEquals("abc", copy.getNodeId());
+        assertEquals(10L, (long) copy.getProgress().get("slice0"));
+        assertEquals(1.5, copy.getThroughput().get("slice0"), 0.0);
+        assertEquals(10L, ((Number) copy.getMetrics().get("docs")).longValue());
+        copy = roundTrip(new KnapsackState().setMode("push"));
+        assertNull(copy.getPath());
+        assertNull(copy.getTimestamp());
+        assertNull(copy.getMetrics());
+    }
+
+    @Test
+    public void testCopy() {
+        KnapsackState state = new KnapsackState()
+                .setMode("export")
+                .setTimestamp(new DateTime())
+                .setProgress("slice0", 10L);
+        KnapsackState copy = state.copy();
+        state.setProgress("slice0", 20L);
+        assertEquals(state.id(), copy.id());
+        assertEquals(10L, (long) copy.getProgress().get("slice0"));
+    }
+
+    private static KnapsackState roundTrip(KnapsackState state) throws Exception {
+        BytesStreamOutput out = new BytesStreamOutput();
+        state.writeTo(out);
+        KnapsackState copy = new KnapsackState();
+        copy.readFrom(new BytesStreamInput(out.bytes()));
+        return copy;
+    }
+}
@@ -2,24 +2,48 @@ package org.xbib.elasticsearch.plugin;
 
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
+import org.xbib.classloader.uri.URIResourceFinderTests;
+import org.xbib.elasticsearch.knapsack.KnapsackMetricsTests;
+import org.xbib.elasticsearch.knapsack.KnapsackServiceTests;
+import org.xbib.elasticsearch.knapsack.KnapsackStateTests;
 import org.xbib.elasticsearch.plugin.knapsack.KnapsackExportTests;
 import org.xbib.elasticsearch.plugin.knapsack.KnapsackImportTests;
+import org.xbib.elasticsearch.plugin.knapsack.KnapsackPullTests;
+import org.xbib.elasticsearch.plugin.knapsack.KnapsackPushTests;
 import org.xbib.elasticsearch.plugin.knapsack.KnapsackSimpleTests;
 import org.xbib.elasticsearch.plugin.knapsack.KnapsackSplitTests;
 import org.xbib.elasticsearch.plugin.knapsack.cpio.KnapsackCpioTests;
+import org.xbib.elasticsearch.plugin.knapsack.pack.KnapsackPackTests;
 import org.xbib.elasticsearch.plugin.knapsack.tar.KnapsackTarTests;
 import org.xbib.elasticsearch.plugin.knapsack.zip.KnapsackZipTests;
+import org.xbib.elasticsearch.support.client.AdaptiveBulkControlTests;
+import org.xbib.elasticsearch.support.client.BulkGroupingTests;
+import org.xbib.elasticsearch.support.client.BulkRetryQueueTests;
+import org.xbib.elasticsearch.support.client.LatencyHistogramTests;
+import org.xbib.elasticsearch.support.client.TransportClientPoolTests;
 
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
         KnapsackSimpleTests.class,
+        KnapsackServiceTests.class,
         KnapsackExportTests.class,
         KnapsackImportTests.class,
+        KnapsackPushTests.class,
+        KnapsackPullTests.class,
         KnapsackTarTests.class,
         KnapsackZipTests.class,
         KnapsackCpioTests.class,
-        KnapsackSplitTests.class
+        KnapsackPackTests.class,
+        KnapsackSplitTests.class,
+        AdaptiveBulkControlTests.class,
+        BulkRetryQueueTests.class,
+        LatencyHistogramTests.class,
+        KnapsackMetricsTests.class,
+        KnapsackStateTests.class,
+        URIResourceFinderTests.class,
+        TransportClientPoolTests.class,
+        BulkGroupingTests.class
 })
 public class KnapsackTestSuite {
 
@@ -78,6 +78,10 @@ public abstract class AbstractNodeTestHelper {
         return clients.get(id);
     }
 
+    public Node node(String id) {
+        return nodes.get(id);
+    }
+
     public void closeAllNodes() {
         for (Client client : clients.values()) {
             client.close();
@@ -0,0 +1,44 @@
+package org.xbib.elasticsearch.plugin.helper;
+
+import org.junit.Before;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.elasticsearch.common.settings.ImmutableSettings.settingsBuilder;
+
+/**
+ * Nodes with a home directory, for jobs which connect to a cluster with a transport client.
+ * The transport client is created with the jars of the lib directory of the home directory,
+ * so the jars of the test class path are linked into it.
+ */
+public abstract class AbstractTransportClientTestHelper extends AbstractNodeTestHelper {
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        Path home = Files.createTempDirectory("knapsack-home-");
+        Path lib = Files.createDirectory(home.resolve("lib"));
+        // the test class path may be isolated in a class loader of its own
+        for (ClassLoader cl = getClass().getClassLoader(); cl != null; cl = cl.getParent()) {
+            if (!(cl instanceof URLClassLoader)) {
+                continue;
+            }
+            for (URL url : ((URLClassLoader) cl).getURLs()) {
+                Path jar = new File(url.toURI()).toPath();
+                Path link = lib.resolve(jar.getFileName());
+                if (jar.toString().endsWith(".jar") && Files.isRegularFile(jar) && !Files.exists(link)) {
+                    Files.createSymbolicLink(link, jar.toAbsolutePath());
+                }
+            }
+        }
+        defaultSettings = settingsBuilder()
+                .put(defaultSettings)
+                .put("path.home", home.toAbsolutePath().toString())
+                .build();
+        super.setUp();
+    }
+}
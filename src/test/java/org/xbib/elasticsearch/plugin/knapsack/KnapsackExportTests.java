@@ -1,7 +1,9 @@
 package org.xbib.elasticsearch.plugin.knapsack;
 
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.settings.ImmutableSettings;
 import org.junit.Test;
+import org.xbib.elasticsearch.action.knapsack.exp.ExportManifest;
 import org.xbib.elasticsearch.action.knapsack.exp.KnapsackExportRequestBuilder;
 import org.xbib.elasticsearch.action.knapsack.exp.KnapsackExportResponse;
 import org.xbib.elasticsearch.action.knapsack.state.KnapsackStateRequestBuilder;
@@ -12,11 +14,16 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class KnapsackExportTests extends AbstractNodeTestHelper {
 
@@ -33,15 +40,174 @@ public class KnapsackExportTests extends AbstractNodeTestHelper {
             logger.error(knapsackExportResponse.getReason());
         }
         assertTrue(knapsackExportResponse.isRunning());
-        KnapsackStateRequestBuilder knapsackStateRequestBuilder =
-               new KnapsackStateRequestBuilder(client("2").admin().indices());
-        KnapsackStateResponse knapsackStateResponse = knapsackStateRequestBuilder.execute().actionGet();
-        assertTrue(knapsackStateResponse.isExportActive(exportPath));
-        Thread.sleep(1000L);
+        assertEquals(exportPath, knapsackExportResponse.getState().getPath());
+        // the export of a single document may be done before the state is asked for, so wait for the end
+        assertFalse(waitForExport(exportPath));
         BufferedReader reader = new BufferedReader(new FileReader(exportFile));
         assertEquals("{\"index\":{\"_index\":\"index1\",\"_type\":\"test1\",\"_id\":\"doc1\"}", reader.readLine());
         assertEquals("{\"content\":\"Hello World\"}", reader.readLine());
         reader.close();
     }
 
+    @Test
+    public void testResumeSlicedExport() throws Exception {
+        File exportFile = File.createTempFile("resume-export-", ".tar");
+        Path exportPath = Paths.get(URI.create("file:" + exportFile.getAbsolutePath()));
+        client("1").admin().indices().prepareCreate("index1")
+                .setSettings(ImmutableSettings.settingsBuilder().put("index.number_of_shards", 2).build())
+                .execute().actionGet();
+        for (int i = 0; i < 10; i++) {
+            client("1").index(new IndexRequest().index("index1").type("test1").id("doc" + i)
+                    .source("content", "Hello World " + i)).actionGet();
+        }
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        KnapsackExportResponse knapsackExportResponse = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setIndex("index1")
+                .setPath(exportPath)
+                .setOverwriteAllowed(true)
+                .setSlices(2)
+                .execute().actionGet();
+        assertTrue(knapsackExportResponse.isRunning());
+        Thread.sleep(2000L);
+        Path manifestPath = ExportManifest.manifestPath(exportPath);
+        ExportManifest manifest = ExportManifest.load(manifestPath);
+        assertTrue(manifest.isCompleted());
+        assertTrue(manifest.isMetadataCompleted());
+        long count = manifest.getUnit("slice0").getCount() + manifest.getUnit("slice1").getCount();
+        assertEquals(10L, count);
+        // simulate an export which was interrupted in the second slice
+        Path slice1 = manifest.getUnit("slice1").getParts().get(0);
+        Files.delete(slice1);
+        manifest.update("slice1", 0L, manifest.getUnit("slice1").getParts(), false)
+                .setCompleted(false)
+                .save();
+        // an export sliced by shards is not resumed by partitions
+        knapsackExportResponse = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setIndex("index1")
+                .setPath(exportPath)
+                .setSlices(2)
+                .setPartitionField("content")
+                .setResume(true)
+                .execute().actionGet();
+        assertFalse(knapsackExportResponse.isRunning());
+        Path slice0 = manifest.getUnit("slice0").getParts().get(0);
+        long slice0Modified = Files.getLastModifiedTime(slice0).toMillis();
+        knapsackExportResponse = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setIndex("index1")
+                .setPath(exportPath)
+                .setSlices(2)
+                .setResume(true)
+                .execute().actionGet();
+        assertTrue(knapsackExportResponse.isRunning());
+        Thread.sleep(2000L);
+        manifest = ExportManifest.load(manifestPath);
+        assertTrue(manifest.isCompleted());
+        assertTrue(Files.exists(slice1));
+        assertEquals(slice0Modified, Files.getLastModifiedTime(slice0).toMillis());
+        assertEquals(count, manifest.getUnit("slice0").getCount() + manifest.getUnit("slice1").getCount());
+        // a complete export is not resumed
+        knapsackExportResponse = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setIndex("index1")
+                .setPath(exportPath)
+                .setSlices(2)
+                .setResume(true)
+                .execute().actionGet();
+        assertFalse(knapsackExportResponse.isRunning());
+        // without a checkpoint, an existing archive is not written over
+        Files.delete(manifestPath);
+        long length = Files.size(exportPath);
+        try {
+            new KnapsackExportRequestBuilder(client("1").admin().indices())
+                    .setIndex("index1")
+                    .setPath(exportPath)
+                    .setSlices(2)
+                    .setResume(true)
+                    .execute().actionGet();
+            fail("existing archive was written over");
+        } catch (Exception e) {
+            // expected
+        }
+        assertEquals(length, Files.size(exportPath));
+    }
+
+    @Test
+    public void testPartitionedExport() throws Exception {
+        File exportFile = File.createTempFile("partition-export-", ".tar");
+        Path exportPath = Paths.get(URI.create("file:" + exportFile.getAbsolutePath()));
+        for (int i = 0; i < 100; i++) {
+            client("1").index(new IndexRequest().index("index1").type("test1").id("doc" + i)
+                    .source("content", "Hello World " + i, "created", String.format("2014-01-%02dT12:00:00Z", 1 + i % 28)))
+                    .actionGet();
+        }
+        for (int i = 100; i < 110; i++) {
+            client("1").index(new IndexRequest().index("index1").type("test1").id("doc" + i)
+                    .source("content", "Hello World " + i)).actionGet();
+        }
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        KnapsackExportResponse knapsackExportResponse = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setIndex("index1")
+                .setPath(exportPath)
+                .setOverwriteAllowed(true)
+                .setSlices(4)
+                .setPartitionField("created")
+                .execute().actionGet();
+        assertTrue(knapsackExportResponse.isRunning());
+        Thread.sleep(2000L);
+        ExportManifest manifest = ExportManifest.load(ExportManifest.manifestPath(exportPath));
+        assertTrue(manifest.isCompleted());
+        assertEquals("created", manifest.getPartitionField());
+        List<Double> bounds = manifest.getPartitionBounds();
+        assertFalse(bounds.isEmpty());
+        long count = 0L;
+        for (int i = 0; i <= bounds.size(); i++) {
+            long partition = manifest.getUnit("partition" + i).getCount();
+            assertTrue(partition > 0L);
+            count += partition;
+        }
+        assertEquals(100L, count);
+        assertEquals(10L, manifest.getUnit("partition_missing").getCount());
+        // a partitioned export is not resumed by shard slices
+        manifest.update("partition0", 0L, manifest.getUnit("partition0").getParts(), false)
+                .setCompleted(false)
+                .save();
+        knapsackExportResponse = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setIndex("index1")
+                .setPath(exportPath)
+                .setSlices(4)
+                .setResume(true)
+                .execute().actionGet();
+        assertFalse(knapsackExportResponse.isRunning());
+        // a document with more than one value would be exported by more than one partition
+        client("1").index(new IndexRequest().index("index1").type("test1").id("doc110")
+                .source("content", "Hello World 110", "created",
+                        Arrays.asList("2014-01-01T12:00:00Z", "2014-01-28T12:00:00Z")))
+                .actionGet();
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        knapsackExportResponse = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setIndex("index1")
+                .setPath(exportPath)
+                .setOverwriteAllowed(true)
+                .setSlices(4)
+                .setPartitionField("created")
+                .execute().actionGet();
+        assertFalse(knapsackExportResponse.isRunning());
+    }
+
+    /**
+     * Wait until an export is no longer reported by the nodes
+     *
+     * @param exportPath the path of the export
+     * @return true if the export is still active after waiting
+     */
+    private boolean waitForExport(Path exportPath) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            KnapsackStateResponse knapsackStateResponse = new KnapsackStateRequestBuilder(client("2").admin().indices())
+                    .execute().actionGet();
+            if (!knapsackStateResponse.isExportActive(exportPath)) {
+                return false;
+            }
+            Thread.sleep(100L);
+        }
+        return true;
+    }
 }
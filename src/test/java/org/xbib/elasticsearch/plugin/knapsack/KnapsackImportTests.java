@@ -4,13 +4,19 @@ import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.junit.Test;
+import org.xbib.elasticsearch.action.knapsack.exp.ExportManifest;
 import org.xbib.elasticsearch.action.knapsack.exp.KnapsackExportRequestBuilder;
 import org.xbib.elasticsearch.action.knapsack.exp.KnapsackExportResponse;
+import org.xbib.elasticsearch.action.knapsack.imp.ImportCheckpoint;
 import org.xbib.elasticsearch.action.knapsack.imp.KnapsackImportRequestBuilder;
 import org.xbib.elasticsearch.action.knapsack.imp.KnapsackImportResponse;
 import org.xbib.elasticsearch.action.knapsack.state.KnapsackStateRequestBuilder;
 import org.xbib.elasticsearch.action.knapsack.state.KnapsackStateResponse;
 import org.xbib.elasticsearch.plugin.helper.AbstractNodeTestHelper;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.ArchiveSession;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -18,8 +24,11 @@ import java.io.FileReader;
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.EnumSet;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 public class KnapsackImportTests extends AbstractNodeTestHelper {
@@ -60,4 +69,234 @@ public class KnapsackImportTests extends AbstractNodeTestHelper {
         assertEquals(1L, count);
     }
 
+    @Test
+    public void testAdaptiveBulkImport() throws Exception {
+        File exportFile = File.createTempFile("adaptive-import-", ".tar");
+        Path exportPath = Paths.get(URI.create("file:" + exportFile.getAbsolutePath()));
+        for (int i = 0; i < 100; i++) {
+            client("1").index(new IndexRequest().index("index1").type("test1").id("doc" + i)
+                    .source("content", "Hello World " + i)).actionGet();
+        }
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        KnapsackExportRequestBuilder requestBuilder = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setOverwriteAllowed(true);
+        KnapsackExportResponse knapsackExportResponse = requestBuilder.execute().actionGet();
+        assertTrue(knapsackExportResponse.isRunning());
+        Thread.sleep(1000L);
+        client("1").admin().indices().delete(new DeleteIndexRequest("index1")).actionGet();
+        KnapsackImportRequestBuilder knapsackImportRequestBuilder = new KnapsackImportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setMaxActionsPerBulkRequest(50)
+                .setMaxBulkConcurrency(4)
+                .setAdaptiveBulk(true)
+                .setMinActionsPerBulkRequest(5)
+                .setMinBulkConcurrency(1);
+        KnapsackImportResponse knapsackImportResponse = knapsackImportRequestBuilder.execute().actionGet();
+        if (!knapsackImportResponse.isRunning()) {
+            logger.error(knapsackImportResponse.getReason());
+        }
+        assertTrue(knapsackImportResponse.isRunning());
+        Thread.sleep(2000L);
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        long count = client("1").prepareCount("index1").setQuery(QueryBuilders.matchAllQuery()).execute().actionGet().getCount();
+        assertEquals(100L, count);
+    }
+
+    @Test
+    public void testPipelinedImport() throws Exception {
+        File exportFile = File.createTempFile("pipelined-import-", ".tar");
+        Path exportPath = Paths.get(URI.create("file:" + exportFile.getAbsolutePath()));
+        for (int i = 0; i < 200; i++) {
+            client("1").index(new IndexRequest().index("index1").type("test1").id("doc" + i)
+                    .source("content", "Hello World " + i)).actionGet();
+        }
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        KnapsackExportResponse knapsackExportResponse = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setOverwriteAllowed(true)
+                .execute().actionGet();
+        assertTrue(knapsackExportResponse.isRunning());
+        Thread.sleep(1000L);
+        client("1").admin().indices().delete(new DeleteIndexRequest("index1")).actionGet();
+        // several builders wait for a single bulk request in flight
+        KnapsackImportResponse knapsackImportResponse = new KnapsackImportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setBuildThreads(4)
+                .setMaxActionsPerBulkRequest(10)
+                .setMaxBulkConcurrency(1)
+                .execute().actionGet();
+        assertTrue(knapsackImportResponse.isRunning());
+        Thread.sleep(3000L);
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        long count = client("1").prepareCount("index1").setQuery(QueryBuilders.matchAllQuery()).execute().actionGet().getCount();
+        assertEquals(200L, count);
+        assertEquals("Hello World 123",
+                client("1").prepareGet("index1", "test1", "doc123").execute().actionGet().getSource().get("content"));
+    }
+
+    @Test
+    public void testBulkGroupingImport() throws Exception {
+        File exportFile = File.createTempFile("grouping-import-", ".tar");
+        Path exportPath = Paths.get(URI.create("file:" + exportFile.getAbsolutePath()));
+        for (int i = 0; i < 100; i++) {
+            client("1").index(new IndexRequest().index("index1").type("test1").id("doc" + i)
+                    .source("content", "Hello World " + i)).actionGet();
+        }
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        KnapsackExportResponse knapsackExportResponse = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setOverwriteAllowed(true)
+                .execute().actionGet();
+        assertTrue(knapsackExportResponse.isRunning());
+        Thread.sleep(1000L);
+        client("1").admin().indices().delete(new DeleteIndexRequest("index1")).actionGet();
+        KnapsackImportResponse knapsackImportResponse = new KnapsackImportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setMaxActionsPerBulkRequest(10)
+                .setBulkGrouping("shard")
+                .execute().actionGet();
+        if (!knapsackImportResponse.isRunning()) {
+            logger.error(knapsackImportResponse.getReason());
+        }
+        assertTrue(knapsackImportResponse.isRunning());
+        Thread.sleep(2000L);
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        long count = client("1").prepareCount("index1").setQuery(QueryBuilders.matchAllQuery()).execute().actionGet().getCount();
+        assertEquals(100L, count);
+    }
+
+    @Test
+    public void testResumeImport() throws Exception {
+        File exportFile = File.createTempFile("resume-import-", ".tar");
+        Path exportPath = Paths.get(URI.create("file:" + exportFile.getAbsolutePath()));
+        for (int i = 0; i < 100; i++) {
+            client("1").index(new IndexRequest().index("index1").type("test1").id("doc" + i)
+                    .source("content", "Hello World " + i)).actionGet();
+        }
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        KnapsackExportResponse knapsackExportResponse = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setOverwriteAllowed(true)
+                .execute().actionGet();
+        assertTrue(knapsackExportResponse.isRunning());
+        Thread.sleep(1000L);
+        client("1").admin().indices().delete(new DeleteIndexRequest("index1")).actionGet();
+        // import with a checkpoint after each bulk response
+        KnapsackImportResponse knapsackImportResponse = new KnapsackImportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setMaxActionsPerBulkRequest(10)
+                .setCheckpointInterval(1)
+                .execute().actionGet();
+        assertTrue(knapsackImportResponse.isRunning());
+        Thread.sleep(2000L);
+        Path checkpointPath = ImportCheckpoint.checkpointPath(exportPath);
+        ImportCheckpoint checkpoint = ImportCheckpoint.load(checkpointPath);
+        assertNotNull(checkpoint);
+        assertTrue(checkpoint.isCompleted());
+        assertEquals(100L, checkpoint.getDocuments());
+        // pretend the import stopped before the last 30 documents
+        long entries = countEntries(exportPath, exportFile);
+        new ImportCheckpoint(checkpointPath)
+                .setPart(exportPath)
+                .setEntries(entries - 30)
+                .setDocuments(70L)
+                .save();
+        client("1").admin().indices().delete(new DeleteIndexRequest("index1")).actionGet();
+        knapsackImportResponse = new KnapsackImportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setResume(true)
+                .execute().actionGet();
+        assertTrue(knapsackImportResponse.isRunning());
+        Thread.sleep(2000L);
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        long count = client("1").prepareCount("index1").setQuery(QueryBuilders.matchAllQuery()).execute().actionGet().getCount();
+        assertEquals(30L, count);
+        checkpoint = ImportCheckpoint.load(checkpointPath);
+        assertTrue(checkpoint.isCompleted());
+        assertEquals(100L, checkpoint.getDocuments());
+        // a complete import is not resumed again
+        knapsackImportResponse = new KnapsackImportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setResume(true)
+                .execute().actionGet();
+        assertFalse(knapsackImportResponse.isRunning());
+    }
+
+    private long countEntries(Path path, File file) throws Exception {
+        ArchiveSession session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+        session.open(EnumSet.of(Session.Mode.READ, Session.Mode.NONE), path, file);
+        try {
+            long entries = 0L;
+            while (session.read() != null) {
+                entries++;
+            }
+            return entries;
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testDeltaImport() throws Exception {
+        File fullFile = File.createTempFile("full-import-", ".tar");
+        Path fullPath = Paths.get(URI.create("file:" + fullFile.getAbsolutePath()));
+        File deltaFile = File.createTempFile("delta-import-", ".tar");
+        Path deltaPath = Paths.get(URI.create("file:" + deltaFile.getAbsolutePath()));
+        for (int i = 0; i < 50; i++) {
+            client("1").index(new IndexRequest().index("index1").type("test1").id("doc" + i)
+                    .source("content", "Hello World " + i, "ts", 1000L + i)).actionGet();
+        }
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        KnapsackExportResponse knapsackExportResponse = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setPath(fullPath)
+                .setTimestampField("ts")
+                .setOverwriteAllowed(true)
+                .execute().actionGet();
+        assertTrue(knapsackExportResponse.isRunning());
+        Thread.sleep(1000L);
+        ExportManifest full = ExportManifest.load(ExportManifest.manifestPath(fullPath));
+        assertNotNull(full);
+        assertTrue(full.isCompleted());
+        assertEquals(Long.valueOf(1049L), full.getWatermarks().get("index1"));
+        // update a document and add new documents
+        for (int i = 40; i < 60; i++) {
+            client("1").index(new IndexRequest().index("index1").type("test1").id("doc" + i)
+                    .source("content", "Hello Delta " + i, "ts", 2000L + i)).actionGet();
+        }
+        // written after the watermark was taken, in the same millisecond
+        client("1").index(new IndexRequest().index("index1").type("test1").id("doc60")
+                .source("content", "Hello World 60", "ts", 1049L)).actionGet();
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        knapsackExportResponse = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setPath(deltaPath)
+                .setBase(fullPath)
+                .setOverwriteAllowed(true)
+                .execute().actionGet();
+        assertTrue(knapsackExportResponse.isRunning());
+        Thread.sleep(1000L);
+        ExportManifest delta = ExportManifest.load(ExportManifest.manifestPath(deltaPath));
+        assertNotNull(delta);
+        assertTrue(delta.isCompleted());
+        assertEquals(Long.valueOf(2059L), delta.getWatermarks().get("index1"));
+        assertEquals(21L, delta.getUnit(ExportManifest.EXPORT_UNIT).getCount());
+        assertEquals(2, ExportManifest.chain(deltaPath).size());
+        client("1").admin().indices().delete(new DeleteIndexRequest("index1")).actionGet();
+        KnapsackImportResponse knapsackImportResponse = new KnapsackImportRequestBuilder(client("1").admin().indices())
+                .setPath(deltaPath)
+                .setChain(true)
+                .execute().actionGet();
+        if (!knapsackImportResponse.isRunning()) {
+            logger.error(knapsackImportResponse.getReason());
+        }
+        assertTrue(knapsackImportResponse.isRunning());
+        Thread.sleep(2000L);
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        long count = client("1").prepareCount("index1").setQuery(QueryBuilders.matchAllQuery()).execute().actionGet().getCount();
+        assertEquals(61L, count);
+        assertTrue(client("1").prepareGet("index1", "test1", "doc60").execute().actionGet().isExists());
+        count = client("1").prepareCount("index1").setQuery(QueryBuilders.matchQuery("content", "Delta")).execute().actionGet().getCount();
+        assertEquals(20L, count);
+    }
+
 }
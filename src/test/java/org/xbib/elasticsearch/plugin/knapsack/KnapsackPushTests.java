@@ -0,0 +1,74 @@
+package org.xbib.elasticsearch.plugin.knapsack;
+
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.indices.IndexMissingException;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.knapsack.push.KnapsackPushRequestBuilder;
+import org.xbib.elasticsearch.action.knapsack.push.KnapsackPushResponse;
+import org.xbib.elasticsearch.plugin.helper.AbstractTransportClientTestHelper;
+
+import java.util.Map;
+
+import static org.elasticsearch.common.collect.Maps.newHashMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KnapsackPushTests extends AbstractTransportClientTestHelper {
+
+    @Test
+    public void testPush() throws Exception {
+        createIndex(1, 20);
+        Map<String, Object> indexTypeNames = newHashMap();
+        indexTypeNames.put("index1", "index2");
+        KnapsackPushResponse knapsackPushResponse = new KnapsackPushRequestBuilder(client("1").admin().indices())
+                .setIndex("index1")
+                .setIndexTypeNames(indexTypeNames)
+                .setTimeout(TimeValue.timeValueSeconds(5))
+                .execute().actionGet();
+        assertTrue(knapsackPushResponse.isRunning());
+        assertEquals(20L, waitForCount("index2", 20L));
+    }
+
+    @Test
+    public void testSlicedPush() throws Exception {
+        createIndex(3, 100);
+        Map<String, Object> indexTypeNames = newHashMap();
+        indexTypeNames.put("index1", "index2");
+        KnapsackPushResponse knapsackPushResponse = new KnapsackPushRequestBuilder(client("1").admin().indices())
+                .setIndex("index1")
+                .setIndexTypeNames(indexTypeNames)
+                .setTimeout(TimeValue.timeValueSeconds(5))
+                .setSlices(3)
+                .setQueueSize(10)
+                .execute().actionGet();
+        assertTrue(knapsackPushResponse.isRunning());
+        assertEquals(100L, waitForCount("index2", 100L));
+    }
+
+    private void createIndex(int shards, int docs) {
+        client("1").admin().indices().prepareCreate("index1")
+                .setSettings(ImmutableSettings.settingsBuilder().put("index.number_of_shards", shards).build())
+                .execute().actionGet();
+        for (int i = 0; i < docs; i++) {
+            client("1").index(new IndexRequest().index("index1").type("test1").id("doc" + i)
+                    .source("content", "Hello World " + i)).actionGet();
+        }
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+    }
+
+    private long waitForCount(String index, long expected) throws InterruptedException {
+        long count = 0L;
+        for (int i = 0; i < 30 && count < expected; i++) {
+            Thread.sleep(500L);
+            try {
+                client("1").admin().indices().prepareRefresh(index).execute().actionGet();
+                count = client("1").prepareCount(index).execute().actionGet().getCount();
+            } catch (IndexMissingException e) {
+                // not created yet
+            }
+        }
+        return count;
+    }
+}
@@ -1,6 +1,7 @@
 package org.xbib.elasticsearch.plugin.knapsack;
 
 import org.junit.Test;
+import org.xbib.elasticsearch.action.knapsack.exp.ExportManifest;
 import org.xbib.elasticsearch.action.knapsack.exp.KnapsackExportRequestBuilder;
 import org.xbib.elasticsearch.action.knapsack.exp.KnapsackExportResponse;
 import org.xbib.elasticsearch.action.knapsack.imp.KnapsackImportRequestBuilder;
@@ -14,8 +15,10 @@ public class KnapsackSimpleTests extends AbstractNodeTestHelper {
         KnapsackExportRequestBuilder requestBuilder =
                 new KnapsackExportRequestBuilder(client("1").admin().indices());
         KnapsackExportResponse knapsackExportResponse = requestBuilder.execute().actionGet();
+        Thread.sleep(1000L);
         // delete for other test
         knapsackExportResponse.getState().getPath().toFile().delete();
+        ExportManifest.manifestPath(knapsackExportResponse.getState().getPath()).toFile().delete();
     }
 
     @Test
@@ -29,5 +32,6 @@ public class KnapsackSimpleTests extends AbstractNodeTestHelper {
         KnapsackImportResponse knapsackImportResponse = knapsackImportRequestBuilder.execute().actionGet();
         // delete for other test
         knapsackImportResponse.getState().getPath().toFile().delete();
+        ExportManifest.manifestPath(knapsackImportResponse.getState().getPath()).toFile().delete();
     }
 }
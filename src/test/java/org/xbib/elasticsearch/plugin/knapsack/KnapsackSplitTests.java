@@ -2,6 +2,7 @@ package org.xbib.elasticsearch.plugin.knapsack;
 
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.junit.Test;
@@ -11,12 +12,14 @@ import org.xbib.elasticsearch.action.knapsack.imp.KnapsackImportRequestBuilder;
 import org.xbib.elasticsearch.action.knapsack.imp.KnapsackImportResponse;
 import org.xbib.elasticsearch.action.knapsack.state.KnapsackStateRequestBuilder;
 import org.xbib.elasticsearch.action.knapsack.state.KnapsackStateResponse;
+import org.xbib.elasticsearch.knapsack.KnapsackHelper;
 import org.xbib.elasticsearch.plugin.helper.AbstractNodeTestHelper;
 
 import java.io.File;
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -53,4 +56,48 @@ public class KnapsackSplitTests extends AbstractNodeTestHelper {
         long count = client("1").prepareCount("index1").setQuery(QueryBuilders.matchAllQuery()).execute().actionGet().getCount();
         assertEquals(10L, count);
     }
+
+    @Test
+    public void testImportParts() throws Exception {
+        File exportFile = File.createTempFile("split-parts-", ".tar");
+        Path exportPath = Paths.get(URI.create("file:" + exportFile.getAbsolutePath()));
+        client("1").admin().indices().prepareCreate("index1")
+                .setSettings(ImmutableSettings.settingsBuilder().put("index.number_of_shards", 3))
+                .execute().actionGet();
+        for (int i = 0; i < 100; i++) {
+            client("1").index(new IndexRequest().index("index1").type("test1").id("doc" + i)
+                    .source("content", "Hello World " + i)).actionGet();
+        }
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        KnapsackExportResponse knapsackExportResponse = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setOverwriteAllowed(true)
+                .withMetadata(true)
+                .setBytesToTransfer(ByteSizeValue.parseBytesSizeValue("1k"))
+                .execute().actionGet();
+        assertTrue(knapsackExportResponse.isRunning());
+        Thread.sleep(2000L);
+        List<Path> parts = KnapsackHelper.findArchiveParts(exportPath, true);
+        assertTrue(parts.size() > 1);
+        assertEquals(exportPath, parts.get(0));
+        // a glob finds the same parts
+        Path glob = exportPath.resolveSibling("*" + exportPath.getFileName());
+        assertEquals(parts, KnapsackHelper.findArchiveParts(glob, false));
+        client("1").admin().indices().delete(new DeleteIndexRequest("index1")).actionGet();
+        KnapsackImportResponse knapsackImportResponse = new KnapsackImportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setParts(true)
+                .withMetadata(true)
+                .setMaxActionsPerBulkRequest(10)
+                .execute().actionGet();
+        assertTrue(knapsackImportResponse.isRunning());
+        Thread.sleep(3000L);
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        long count = client("1").prepareCount("index1").setQuery(QueryBuilders.matchAllQuery()).execute().actionGet().getCount();
+        assertEquals(100L, count);
+        // the settings were applied before the documents of the other parts arrived
+        String shards = client("1").admin().indices().prepareGetSettings("index1").execute().actionGet()
+                .getSetting("index1", "index.number_of_shards");
+        assertEquals("3", shards);
+    }
 }
@@ -0,0 +1,111 @@
+package org.xbib.elasticsearch.plugin.knapsack.pack;
+
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.knapsack.exp.KnapsackExportRequestBuilder;
+import org.xbib.elasticsearch.action.knapsack.exp.KnapsackExportResponse;
+import org.xbib.elasticsearch.action.knapsack.imp.KnapsackImportRequestBuilder;
+import org.xbib.elasticsearch.action.knapsack.imp.KnapsackImportResponse;
+import org.xbib.elasticsearch.plugin.helper.AbstractNodeTestHelper;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.archive.ArchivePacket;
+import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.ArchiveSession;
+import org.xbib.io.archive.pack.PackArchiveEntry;
+import org.xbib.io.archive.pack.PackArchiveInputStream;
+import org.xbib.io.archive.pack.PackArchiveOutputStream;
+import org.xbib.io.archive.pack.PackIndex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KnapsackPackTests extends AbstractNodeTestHelper {
+
+    @Test
+    public void testPack() throws Exception {
+        File exportFile = File.createTempFile("knapsack-pack-", ".pack");
+        Path exportPath = Paths.get(URI.create("file:" + exportFile.getAbsolutePath()));
+        BulkRequestBuilder bulkRequestBuilder = client("1").prepareBulk().setRefresh(true);
+        for (int i = 0; i < 100; i++) {
+            bulkRequestBuilder.add(new IndexRequest().index("index1").type("test1").id("doc" + i).source("content", "Hello World " + i));
+        }
+        bulkRequestBuilder.execute().actionGet();
+        KnapsackExportRequestBuilder requestBuilder = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setOverwriteAllowed(true);
+        KnapsackExportResponse knapsackExportResponse = requestBuilder.execute().actionGet();
+        if (!knapsackExportResponse.isRunning()) {
+            logger.error(knapsackExportResponse.getReason());
+        }
+        assertTrue(knapsackExportResponse.isRunning());
+        Thread.sleep(2000L);
+        // the block index counts all entries
+        PackIndex index = PackIndex.read(exportFile);
+        assertTrue(index.size() > 0);
+        assertEquals(100L, index.getTotalEntries());
+        // random access to the first block
+        PackArchiveInputStream in = PackArchiveInputStream.open(exportFile, index.getOffset(0));
+        PackArchiveEntry entry = in.getNextEntry();
+        assertTrue(entry.getName().startsWith("index1"));
+        in.close();
+        // delete index
+        client("1").admin().indices().delete(new DeleteIndexRequest("index1")).actionGet();
+        KnapsackImportRequestBuilder knapsackImportRequestBuilder = new KnapsackImportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath);
+        KnapsackImportResponse knapsackImportResponse = knapsackImportRequestBuilder.execute().actionGet();
+        if (!knapsackImportResponse.isRunning()) {
+            logger.error(knapsackImportResponse.getReason());
+        }
+        assertTrue(knapsackImportResponse.isRunning());
+        Thread.sleep(2000L);
+        // count
+        long count = client("1").prepareCount("index1").setQuery(QueryBuilders.matchAllQuery()).execute().actionGet().getCount();
+        assertEquals(100L, count);
+    }
+
+    @Test
+    public void testSkipEntries() throws Exception {
+        File packFile = File.createTempFile("knapsack-skip-", ".pack");
+        Path packPath = Paths.get(URI.create("file:" + packFile.getAbsolutePath()));
+        // small blocks, so skipping seeks over blocks
+        PackArchiveOutputStream out = new PackArchiveOutputStream(new FileOutputStream(packFile), 256, 2);
+        out.setWatcher(new BytesProgressWatcher(0L));
+        for (int i = 0; i < 100; i++) {
+            byte[] b = ("{\"content\":\"Hello World " + i + "\"}").getBytes("UTF-8");
+            PackArchiveEntry entry = out.newArchiveEntry();
+            entry.setName("index1/test1/doc" + i + "/_source");
+            entry.setEntrySize(b.length);
+            out.putArchiveEntry(entry);
+            out.write(b, 0, b.length);
+            out.closeArchiveEntry();
+        }
+        out.close();
+        assertTrue(PackIndex.read(packFile).size() > 1);
+        ArchiveSession session = ArchiveService.newSession(packPath, new BytesProgressWatcher(0L));
+        session.open(EnumSet.of(Session.Mode.READ, Session.Mode.NONE), packPath, packFile);
+        try {
+            assertEquals(75L, session.skipEntries(75L));
+            ArchivePacket packet = (ArchivePacket) session.read();
+            assertEquals("doc75", packet.meta().get("id"));
+            assertEquals(20L, session.skipEntries(20L));
+            packet = (ArchivePacket) session.read();
+            assertEquals("doc96", packet.meta().get("id"));
+            assertEquals(3L, session.skipEntries(10L));
+        } finally {
+            session.close();
+            packFile.delete();
+        }
+    }
+
+}
@@ -1,7 +1,9 @@
 package org.xbib.elasticsearch.plugin.knapsack.tar;
 
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.junit.Test;
 import org.xbib.elasticsearch.action.knapsack.exp.KnapsackExportRequestBuilder;
@@ -13,6 +15,7 @@ import org.xbib.elasticsearch.action.knapsack.state.KnapsackStateResponse;
 import org.xbib.elasticsearch.plugin.helper.AbstractNodeTestHelper;
 
 import java.io.File;
+import java.io.FilenameFilter;
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -88,6 +91,40 @@ public class KnapsackTarTests extends AbstractNodeTestHelper {
         assertEquals(1L, count);
     }
 
+    @Test
+    public void testTarGzParallel() throws Exception {
+        File exportFile = File.createTempFile("knapsack-tar-", ".tar.gz");
+        Path exportPath = Paths.get(URI.create("file:" + exportFile.getAbsolutePath()));
+        client("1").index(new IndexRequest().index("index1").type("test1").id("doc1").source("content","Hello World").refresh(true)).actionGet();
+        KnapsackExportRequestBuilder requestBuilder = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setCompressThreads(2)
+                .setOverwriteAllowed(true);
+        KnapsackExportResponse knapsackExportResponse = requestBuilder.execute().actionGet();
+        if (!knapsackExportResponse.isRunning()) {
+            logger.error(knapsackExportResponse.getReason());
+        }
+        assertTrue(knapsackExportResponse.isRunning());
+        KnapsackStateRequestBuilder knapsackStateRequestBuilder =
+                new KnapsackStateRequestBuilder(client("2").admin().indices());
+        KnapsackStateResponse knapsackStateResponse = knapsackStateRequestBuilder.execute().actionGet();
+        knapsackStateResponse.isExportActive(exportPath);
+        Thread.sleep(1000L);
+        // delete index
+        client("1").admin().indices().delete(new DeleteIndexRequest("index1")).actionGet();
+        KnapsackImportRequestBuilder knapsackImportRequestBuilder = new KnapsackImportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath);
+        KnapsackImportResponse knapsackImportResponse = knapsackImportRequestBuilder.execute().actionGet();
+        if (!knapsackImportResponse.isRunning()) {
+            logger.error(knapsackImportResponse.getReason());
+        }
+        assertTrue(knapsackImportResponse.isRunning());
+        Thread.sleep(1000L);
+        // count
+        long count = client("1").prepareCount("index1").setQuery(QueryBuilders.matchAllQuery()).execute().actionGet().getCount();
+        assertEquals(1L, count);
+    }
+
     @Test
     public void testTarBz2() throws Exception {
         File exportFile = File.createTempFile("knapsack-tar-", ".tar.bz2");
@@ -154,4 +191,123 @@ public class KnapsackTarTests extends AbstractNodeTestHelper {
         assertEquals(1L, count);
     }
 
+    @Test
+    public void testTarXzParallel() throws Exception {
+        File exportFile = File.createTempFile("knapsack-tar-", ".tar.xz");
+        Path exportPath = Paths.get(URI.create("file:" + exportFile.getAbsolutePath()));
+        client("1").index(new IndexRequest().index("index1").type("test1").id("doc1").source("content","Hello World").refresh(true)).actionGet();
+        KnapsackExportRequestBuilder requestBuilder = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setCompressThreads(2)
+                .setCompressBlockSize(ByteSizeValue.parseBytesSizeValue("64kb"))
+                .setOverwriteAllowed(true);
+        KnapsackExportResponse knapsackExportResponse = requestBuilder.execute().actionGet();
+        if (!knapsackExportResponse.isRunning()) {
+            logger.error(knapsackExportResponse.getReason());
+        }
+        assertTrue(knapsackExportResponse.isRunning());
+        KnapsackStateRequestBuilder knapsackStateRequestBuilder =
+                new KnapsackStateRequestBuilder(client("2").admin().indices());
+        KnapsackStateResponse knapsackStateResponse = knapsackStateRequestBuilder.execute().actionGet();
+        knapsackStateResponse.isExportActive(exportPath);
+        Thread.sleep(1000L);
+        // delete index
+        client("1").admin().indices().delete(new DeleteIndexRequest("index1")).actionGet();
+        KnapsackImportRequestBuilder knapsackImportRequestBuilder = new KnapsackImportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setDecompressThreads(2)
+                .setReadAheadWindow(2);
+        KnapsackImportResponse knapsackImportResponse = knapsackImportRequestBuilder.execute().actionGet();
+        if (!knapsackImportResponse.isRunning()) {
+            logger.error(knapsackImportResponse.getReason());
+        }
+        assertTrue(knapsackImportResponse.isRunning());
+        Thread.sleep(1000L);
+        // count
+        long count = client("1").prepareCount("index1").setQuery(QueryBuilders.matchAllQuery()).execute().actionGet().getCount();
+        assertEquals(1L, count);
+    }
+
+    @Test
+    public void testTarSpillLargeEntry() throws Exception {
+        File exportFile = File.createTempFile("knapsack-tar-spill-", ".tar");
+        Path exportPath = Paths.get(URI.create("file:" + exportFile.getAbsolutePath()));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("Hello World ");
+        }
+        String content = sb.toString();
+        client("1").index(new IndexRequest().index("index1").type("test1").id("doc1").source("content", content).refresh(true)).actionGet();
+        KnapsackExportRequestBuilder requestBuilder = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setOverwriteAllowed(true);
+        KnapsackExportResponse knapsackExportResponse = requestBuilder.execute().actionGet();
+        if (!knapsackExportResponse.isRunning()) {
+            logger.error(knapsackExportResponse.getReason());
+        }
+        assertTrue(knapsackExportResponse.isRunning());
+        Thread.sleep(1000L);
+        // delete index
+        client("1").admin().indices().delete(new DeleteIndexRequest("index1")).actionGet();
+        // the document source is larger than the entry memory and must be spilled to disk
+        int spillFiles = countSpillFiles();
+        KnapsackImportRequestBuilder knapsackImportRequestBuilder = new KnapsackImportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setMaxEntryMemory(new ByteSizeValue(1024));
+        KnapsackImportResponse knapsackImportResponse = knapsackImportRequestBuilder.execute().actionGet();
+        if (!knapsackImportResponse.isRunning()) {
+            logger.error(knapsackImportResponse.getReason());
+        }
+        assertTrue(knapsackImportResponse.isRunning());
+        Thread.sleep(1000L);
+        GetResponse getResponse = client("1").prepareGet("index1", "test1", "doc1").execute().actionGet();
+        assertTrue(getResponse.isExists());
+        assertEquals(content, getResponse.getSource().get("content"));
+        // the spill files are removed after the import
+        assertEquals(spillFiles, countSpillFiles());
+    }
+
+    private static int countSpillFiles() {
+        File[] files = new File(System.getProperty("java.io.tmpdir")).listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("knapsack-") && name.endsWith(".entry");
+            }
+        });
+        return files != null ? files.length : 0;
+    }
+
+    @Test
+    public void testTarCompact() throws Exception {
+        File exportFile = File.createTempFile("knapsack-tar-compact-", ".tar");
+        Path exportPath = Paths.get(URI.create("file:" + exportFile.getAbsolutePath()));
+        client("1").index(new IndexRequest().index("index1").type("test1").id("doc1").source("content","Hello World").refresh(true)).actionGet();
+        client("1").index(new IndexRequest().index("index1").type("test1").id("doc2").source("content","Hello Knapsack").refresh(true)).actionGet();
+        KnapsackExportRequestBuilder requestBuilder = new KnapsackExportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath)
+                .setCompact(true)
+                .setOverwriteAllowed(true);
+        KnapsackExportResponse knapsackExportResponse = requestBuilder.execute().actionGet();
+        if (!knapsackExportResponse.isRunning()) {
+            logger.error(knapsackExportResponse.getReason());
+        }
+        assertTrue(knapsackExportResponse.isRunning());
+        Thread.sleep(1000L);
+        // delete index
+        client("1").admin().indices().delete(new DeleteIndexRequest("index1")).actionGet();
+        KnapsackImportRequestBuilder knapsackImportRequestBuilder = new KnapsackImportRequestBuilder(client("1").admin().indices())
+                .setPath(exportPath);
+        KnapsackImportResponse knapsackImportResponse = knapsackImportRequestBuilder.execute().actionGet();
+        if (!knapsackImportResponse.isRunning()) {
+            logger.error(knapsackImportResponse.getReason());
+        }
+        assertTrue(knapsackImportResponse.isRunning());
+        Thread.sleep(1000L);
+        // count
+        long count = client("1").prepareCount("index1").setQuery(QueryBuilders.matchAllQuery()).execute().actionGet().getCount();
+        assertEquals(2L, count);
+        GetResponse getResponse = client("1").prepareGet("index1", "test1", "doc2").execute().actionGet();
+        assertEquals("Hello Knapsack", getResponse.getSource().get("content"));
+    }
+
 }
@@ -0,0 +1,78 @@
+package org.xbib.elasticsearch.support.client;
+
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveBulkControlTests {
+
+    private AdaptiveBulkControl newControl() {
+        return new AdaptiveBulkControl(10, 100,
+                new ByteSizeValue(1, ByteSizeUnit.MB), new ByteSizeValue(10, ByteSizeUnit.MB),
+                1, 4, TimeValue.timeValueMillis(500));
+    }
+
+    @Test
+    public void testIncrease() {
+        AdaptiveBulkControl control = newControl();
+        assertEquals(10, control.getActions());
+        assertEquals(1, control.getConcurrency());
+        for (int i = 0; i < 50; i++) {
+            control.afterBulk(response(100L, false));
+        }
+        assertEquals(100, control.getActions());
+        assertEquals(new ByteSizeValue(10, ByteSizeUnit.MB).bytes(), control.getVolume());
+        assertEquals(4, control.getConcurrency());
+        assertTrue(control.getHistory().size() > 1);
+        assertEquals("start", control.getHistory().get(0).getReason());
+    }
+
+    @Test
+    public void testDecrease() {
+        AdaptiveBulkControl control = newControl();
+        for (int i = 0; i < 50; i++) {
+            control.afterBulk(response(100L, false));
+        }
+        control.afterBulk(response(1000L, false));
+        assertEquals(50, control.getActions());
+        assertEquals(4, control.getConcurrency());
+        control.afterBulk(response(100L, true));
+        assertEquals(25, control.getActions());
+        assertEquals(2, control.getConcurrency());
+        control.afterBulk(new EsRejectedExecutionException("rejected"));
+        control.afterBulk(new EsRejectedExecutionException("rejected"));
+        assertEquals(10, control.getActions());
+        assertEquals(1, control.getConcurrency());
+    }
+
+    @Test
+    public void testAdd() {
+        AdaptiveBulkControl control = newControl();
+        for (int i = 0; i < 9; i++) {
+            assertFalse(control.add(100L));
+        }
+        assertTrue(control.add(100L));
+        control.beforeBulk();
+        assertTrue(control.add(2 * 1024 * 1024));
+    }
+
+    private static BulkResponse response(long tookInMillis, boolean rejected) {
+        BulkItemResponse[] items = new BulkItemResponse[2];
+        items[0] = new BulkItemResponse(0, "index", new IndexResponse("index", "type", "1", 1L, true));
+        items[1] = rejected ?
+                new BulkItemResponse(1, "index", new BulkItemResponse.Failure("index", "type", "2",
+                        "EsRejectedExecutionException[rejected]", RestStatus.TOO_MANY_REQUESTS)) :
+                new BulkItemResponse(1, "index", new IndexResponse("index", "type", "2", 1L, true));
+        return new BulkResponse(items, tookInMillis);
+    }
+}
@@ -0,0 +1,94 @@
+package org.xbib.elasticsearch.support.client;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.node.internal.InternalNode;
+import org.elasticsearch.search.SearchHit;
+import org.junit.Test;
+import org.xbib.elasticsearch.plugin.helper.AbstractNodeTestHelper;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.collect.Sets.newHashSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BulkGroupingTests extends AbstractNodeTestHelper {
+
+    @Test
+    public void testGroupByShard() throws Exception {
+        client("1").admin().indices().prepareCreate("index1")
+                .setSettings(ImmutableSettings.settingsBuilder().put("index.number_of_shards", 3).build())
+                .execute().actionGet();
+        client("1").admin().cluster().prepareHealth("index1").setWaitForYellowStatus().execute().actionGet();
+        BulkGrouping grouping = new BulkGrouping(clusterService(), "shard", 60000L);
+        List<List<ActionRequest>> ready = newArrayList();
+        for (int i = 0; i < 30; i++) {
+            IndexRequest indexRequest = new IndexRequest("index1", "test1", "doc" + i).source("content", "Hello " + i);
+            assertTrue(grouping.add(indexRequest, 100, ready));
+            client("1").index(indexRequest).actionGet();
+        }
+        // generated ids are not grouped
+        assertFalse(grouping.add(new IndexRequest("index1", "test1").source("content", "Hello"), 100, ready));
+        assertTrue(ready.isEmpty());
+        assertEquals(30, grouping.size());
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        List<List<ActionRequest>> groups = grouping.drain();
+        assertEquals(3, groups.size());
+        assertEquals(0, grouping.size());
+        for (List<ActionRequest> group : groups) {
+            String key = grouping.key(group.get(0));
+            SearchResponse searchResponse = client("1").prepareSearch("index1")
+                    .setQuery(QueryBuilders.matchAllQuery())
+                    .setPreference("_shards:" + key.substring(key.indexOf('/') + 1))
+                    .setSize(100)
+                    .execute().actionGet();
+            Set<String> ids = newHashSet();
+            for (SearchHit hit : searchResponse.getHits()) {
+                ids.add(hit.getId());
+            }
+            assertEquals(group.size(), ids.size());
+            for (ActionRequest request : group) {
+                assertTrue(ids.contains(((IndexRequest) request).id()));
+            }
+        }
+    }
+
+    @Test
+    public void testFullGroup() throws Exception {
+        client("1").admin().indices().prepareCreate("index1")
+                .setSettings(ImmutableSettings.settingsBuilder().put("index.number_of_shards", 1).build())
+                .execute().actionGet();
+        client("1").admin().cluster().prepareHealth("index1").setWaitForYellowStatus().execute().actionGet();
+        BulkGrouping grouping = new BulkGrouping(clusterService(), "node", 60000L);
+        List<List<ActionRequest>> groups = newArrayList();
+        for (int i = 0; i < 9; i++) {
+            assertTrue(grouping.add(new IndexRequest("index1", "test1", "doc" + i), 10, groups));
+            assertTrue(groups.isEmpty());
+        }
+        assertTrue(grouping.add(new IndexRequest("index1", "test1", "doc9"), 10, groups));
+        assertEquals(1, groups.size());
+        assertEquals(10, groups.get(0).size());
+        assertEquals(0, grouping.size());
+        // an index which does not exist yet is routed by the cluster
+        assertNull(grouping.key(new IndexRequest("index2", "test1", "doc0")));
+    }
+
+    @Test(expected = ElasticsearchIllegalArgumentException.class)
+    public void testUnknownMode() {
+        new BulkGrouping(clusterService(), "index", 60000L);
+    }
+
+    private ClusterService clusterService() {
+        return ((InternalNode) node("1")).injector().getInstance(ClusterService.class);
+    }
+}
@@ -0,0 +1,106 @@
+package org.xbib.elasticsearch.support.client;
+
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+import org.xbib.elasticsearch.knapsack.KnapsackHelper;
+import org.xbib.elasticsearch.plugin.helper.AbstractNodeTestHelper;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.archive.ArchivePacket;
+import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.ArchiveSession;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BulkRetryQueueTests extends AbstractNodeTestHelper {
+
+    @Test
+    public void testRetryRejected() throws Exception {
+        State state = new State();
+        BulkRetryQueue queue = new BulkRetryQueue(client("1"), state, 3, TimeValue.timeValueMillis(10),
+                100, 10, null);
+        try {
+            BulkRequest request = new BulkRequest()
+                    .add(new IndexRequest("index1", "test1", "1").source("content", "one"))
+                    .add(new IndexRequest("index1", "test1", "2").source("content", "two"));
+            queue.afterBulk(request, response(RestStatus.TOO_MANY_REQUESTS));
+            assertTrue(queue.waitForEmpty(TimeValue.timeValueSeconds(10)));
+            assertEquals(1L, state.getRetried().count());
+            assertEquals(0L, state.getDeadLettered().count());
+            assertTrue(client("1").prepareGet("index1", "test1", "2").execute().actionGet().isExists());
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test
+    public void testDeadLetter() throws Exception {
+        File file = File.createTempFile("deadletter-", ".tar");
+        Path path = file.toPath();
+        ArchiveSession deadLetters = KnapsackHelper.openDeadLetters(path);
+        State state = new State();
+        BulkRetryQueue queue = new BulkRetryQueue(client("1"), state, 3, TimeValue.timeValueMillis(10),
+                100, 10, deadLetters);
+        BulkRequest request = new BulkRequest()
+                .add(new IndexRequest("index1", "test1", "1").source("content", "one"))
+                .add(new IndexRequest("index1", "test1", "2").source("content", "two"));
+        queue.afterBulk(request, response(RestStatus.BAD_REQUEST));
+        queue.close();
+        assertEquals(0L, state.getRetried().count());
+        assertEquals(1L, state.getDeadLettered().count());
+        ArchiveSession session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+        session.open(EnumSet.of(Session.Mode.READ, Session.Mode.NONE), path, file);
+        try {
+            ArchivePacket packet = (ArchivePacket) session.read();
+            assertNotNull(packet);
+            assertEquals("2", packet.meta().get("id"));
+            assertEquals("_source", packet.meta().get("field"));
+            assertEquals("{\"content\":\"two\"}", packet.payloadAsString());
+            assertNull(session.read());
+        } finally {
+            session.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testResponseAfterClose() throws Exception {
+        File file = File.createTempFile("deadletter-", ".tar");
+        Path path = file.toPath();
+        State state = new State();
+        BulkRetryQueue queue = new BulkRetryQueue(client("1"), state, 3, TimeValue.timeValueMillis(10),
+                100, 10, KnapsackHelper.openDeadLetters(path));
+        queue.close();
+        long length = file.length();
+        // a late response must not write to the closed dead letter archive
+        BulkRequest request = new BulkRequest()
+                .add(new IndexRequest("index1", "test1", "1").source("content", "one"))
+                .add(new IndexRequest("index1", "test1", "2").source("content", "two"));
+        queue.afterBulk(request, response(RestStatus.TOO_MANY_REQUESTS));
+        assertEquals(0, queue.getPending());
+        assertEquals(1L, state.getDeadLettered().count());
+        assertEquals(length, file.length());
+        file.delete();
+    }
+
+    private static BulkResponse response(RestStatus status) {
+        BulkItemResponse[] items = new BulkItemResponse[2];
+        items[0] = new BulkItemResponse(0, "index", new IndexResponse("index1", "test1", "1", 1L, true));
+        items[1] = new BulkItemResponse(1, "index", new BulkItemResponse.Failure("index1", "test1", "2",
+                "failed", status));
+        return new BulkResponse(items, 10L);
+    }
+}
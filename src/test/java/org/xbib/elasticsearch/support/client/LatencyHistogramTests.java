@@ -0,0 +1,46 @@
+package org.xbib.elasticsearch.support.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTests {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0L, histogram.count());
+        assertEquals(0L, histogram.percentile(99.0));
+        assertEquals(0.0, histogram.mean(), 0.0);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000L, histogram.count());
+        assertEquals(1000L, histogram.max());
+        assertEquals(500.5, histogram.mean(), 0.001);
+        long p50 = histogram.percentile(50.0);
+        assertTrue("p50=" + p50, p50 >= 500L && p50 <= 500L * 9 / 8);
+        long p99 = histogram.percentile(99.0);
+        assertTrue("p99=" + p99, p99 >= 990L && p99 <= 1000L);
+        assertEquals(1L, histogram.percentile(0.0));
+        assertEquals(1000L, histogram.percentile(100.0));
+    }
+
+    @Test
+    public void testBuckets() {
+        for (long value = 0L; value < 1L << 20; value += 7L) {
+            long upper = LatencyHistogram.upperBound(LatencyHistogram.bucket(value));
+            assertTrue(value + " > " + upper, value <= upper);
+            assertTrue(value + " << " + upper, upper <= Math.max(value, 15L) * 9 / 8 + 1);
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        assertTrue(histogram.percentile(50.0) > 1L << 40);
+    }
+}
@@ -0,0 +1,107 @@
+package org.xbib.elasticsearch.support.client;
+
+import org.elasticsearch.action.admin.cluster.node.info.NodesInfoRequest;
+import org.elasticsearch.action.admin.cluster.node.info.NodesInfoResponse;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Test;
+import org.xbib.elasticsearch.plugin.helper.AbstractNodeTestHelper;
+
+import static org.elasticsearch.common.settings.ImmutableSettings.settingsBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TransportClientPoolTests extends AbstractNodeTestHelper {
+
+    @Test
+    public void testShareAndEvict() {
+        TransportClientPool pool = new TransportClientPool(TimeValue.timeValueMinutes(5));
+        Settings settings = clientSettings();
+        TransportClientPool.Connection first = pool.acquire(settings);
+        TransportClientPool.Connection second = pool.acquire(settings);
+        assertSame(first, second);
+        assertTrue(first.isHealthy());
+        assertEquals(1, pool.size());
+        first.release();
+        second.release();
+        // kept open for the next job
+        pool.evict();
+        assertEquals(1, pool.size());
+        assertTrue(first.isHealthy());
+        pool.close();
+        assertEquals(0, pool.size());
+        assertNull(first.client());
+    }
+
+    @Test
+    public void testKeyIncludesTimeouts() {
+        Settings settings = settingsBuilder()
+                .put("cluster.name", "remote")
+                .put("host", "localhost")
+                .put("port", 9300)
+                .put("timeout", "30s")
+                .put("client.transport.ping_timeout", "30s")
+                .build();
+        assertEquals(TransportClientPool.key(settings), TransportClientPool.key(settingsBuilder()
+                .put(settings).build()));
+        assertNotEquals(TransportClientPool.key(settings), TransportClientPool.key(settingsBuilder()
+                .put(settings).put("client.transport.ping_timeout", "5s").build()));
+        assertNotEquals(TransportClientPool.key(settings), TransportClientPool.key(settingsBuilder()
+                .put(settings).put("timeout", "5s").build()));
+    }
+
+    @Test
+    public void testIdleEviction() {
+        TransportClientPool pool = new TransportClientPool(TimeValue.timeValueMillis(0));
+        TransportClientPool.Connection connection = pool.acquire(clientSettings());
+        pool.evict();
+        // in use, not evicted
+        assertEquals(1, pool.size());
+        connection.release();
+        pool.evict();
+        assertEquals(0, pool.size());
+        assertNull(connection.client());
+        TransportClientPool.Connection next = pool.acquire(clientSettings());
+        assertNotSame(connection, next);
+        next.release();
+        pool.close();
+    }
+
+    @Test
+    public void testBrokenConnectionIsNotPooled() {
+        TransportClientPool pool = new TransportClientPool(TimeValue.timeValueMinutes(5));
+        TransportClientPool.Connection connection = pool.acquire(settingsBuilder()
+                .put("cluster.name", "nowhere")
+                .put("host", "localhost")
+                .put("port", 1)
+                .put("timeout", "100ms")
+                .put("plugins.load_classpath_plugins", false)
+                .build());
+        assertFalse(connection.isHealthy());
+        assertEquals(0, pool.size());
+        connection.release();
+        assertNull(connection.client());
+        pool.close();
+    }
+
+    private Settings clientSettings() {
+        NodesInfoResponse response = client("1").admin().cluster()
+                .nodesInfo(new NodesInfoRequest("_local").transport(true)).actionGet();
+        InetSocketTransportAddress address = (InetSocketTransportAddress) response.iterator().next()
+                .getTransport().getAddress().publishAddress();
+        return settingsBuilder()
+                .put("cluster.name", response.getClusterName().value())
+                .put("host", address.address().getAddress().getHostAddress())
+                .put("port", address.address().getPort())
+                .put("timeout", "1s")
+                .put("client.transport.ignore_cluster_name", true)
+                .put("plugins.load_classpath_plugins", false) // no knapsack plugin in the transport client
+                .build();
+    }
+}
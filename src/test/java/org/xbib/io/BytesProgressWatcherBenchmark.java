@@ -0,0 +1,104 @@
+package org.xbib.io;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the update throughput of {@link BytesProgressWatcher} with concurrent updaters,
+ * compared to a watcher that updates its counters and history under a lock.
+ *
+ * Run with <code>java -cp target/classes:target/test-classes:... org.xbib.io.BytesProgressWatcherBenchmark [seconds]</code>
+ */
+public class BytesProgressWatcherBenchmark {
+
+    private final static int[] THREADS = new int[] { 1, 2, 4, 8, 16, 32 };
+
+    public static void main(String[] args) throws InterruptedException {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) * 1000L : 2000L;
+        System.out.println("threads  locked (updates/s)  lock-free (updates/s)");
+        for (int threads : THREADS) {
+            // warm up both variants before measuring
+            measure(new LockedUpdater(), threads, millis / 4);
+            measure(new LockFreeUpdater(), threads, millis / 4);
+            long locked = measure(new LockedUpdater(), threads, millis);
+            long lockFree = measure(new LockFreeUpdater(), threads, millis);
+            System.out.println(String.format("%7d  %19d  %21d", threads, locked, lockFree));
+        }
+    }
+
+    private static long measure(final Updater updater, int threads, long millis) throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong updates = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+                public void run() {
+                    long n = 0L;
+                    while (running.get()) {
+                        updater.update(512L);
+                        n++;
+                    }
+                    updates.addAndGet(n);
+                    done.countDown();
+                }
+            }.start();
+        }
+        Thread.sleep(millis);
+        running.set(false);
+        done.await();
+        return updates.get() * 1000L / millis;
+    }
+
+    interface Updater {
+        void update(long bytes);
+    }
+
+    static class LockFreeUpdater implements Updater {
+
+        private final BytesProgressWatcher watcher = new BytesProgressWatcher(0L);
+
+        @Override
+        public void update(long bytes) {
+            watcher.updateBytesTransferred(bytes);
+        }
+    }
+
+    /**
+     * The update path of the watcher before the counters were striped
+     */
+    static class LockedUpdater implements Updater {
+
+        private long totalBytesInCurrentTransfer;
+
+        private long totalBytesInAllTransfers;
+
+        private long endTimeCurrentTransferMS = -1;
+
+        private final Map<Long, Long> historyOfBytesBySecond = new TreeMap<Long, Long>();
+
+        private long earliestHistorySecond = Long.MAX_VALUE;
+
+        @Override
+        public synchronized void update(long byteCount) {
+            totalBytesInCurrentTransfer += byteCount;
+            totalBytesInAllTransfers += byteCount;
+            if (totalBytesInCurrentTransfer >= 0L) {
+                endTimeCurrentTransferMS = System.currentTimeMillis();
+            }
+            Long currentSecond = System.currentTimeMillis() / 1000;
+            Long bytesInSecond = historyOfBytesBySecond.get(currentSecond);
+            historyOfBytesBySecond.put(currentSecond, bytesInSecond != null ? byteCount + bytesInSecond : byteCount);
+            if (currentSecond < earliestHistorySecond) {
+                earliestHistorySecond = currentSecond;
+            }
+            long removeHistoryBeforeSecond = currentSecond - BytesProgressWatcher.SECONDS_OF_HISTORY;
+            for (long sec = earliestHistorySecond; sec < removeHistoryBeforeSecond; sec++) {
+                historyOfBytesBySecond.remove(sec);
+            }
+            earliestHistorySecond = removeHistoryBeforeSecond;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.xbib.io;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BytesProgressWatcherTests {
+
+    @Test
+    public void testConcurrentUpdates() throws InterruptedException {
+        final BytesProgressWatcher watcher = new BytesProgressWatcher(0L);
+        final int threads = 8;
+        final int updates = 100000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+                public void run() {
+                    for (int j = 0; j < updates; j++) {
+                        watcher.updateBytesTransferred(1L);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        assertEquals((long) threads * updates, watcher.getBytesTransferred());
+        assertEquals((long) threads * updates, watcher.getTotalBytesInAllTransfers());
+        double rate = watcher.getRecentByteRatePerSecond();
+        assertTrue(rate > 0d);
+        assertTrue(rate <= threads * updates);
+    }
+
+    @Test
+    public void testRemaining() {
+        BytesProgressWatcher watcher = new BytesProgressWatcher(1000L);
+        assertEquals(0d, watcher.getRecentByteRatePerSecond(), 0d);
+        assertEquals(0L, watcher.getElapsedTimeMS());
+        watcher.updateBytesTransferred(500L);
+        assertEquals(500L, watcher.getBytesRemaining());
+        assertTrue(watcher.getRemainingTime() >= 0L);
+        assertTrue(watcher.getRecentByteRatePerSecond() > 0d);
+        watcher.updateBytesTransferred(500L);
+        assertEquals(0L, watcher.getBytesRemaining());
+        assertEquals(0L, watcher.getRemainingTime());
+    }
+
+    @Test
+    public void testReset() {
+        BytesProgressWatcher watcher = new BytesProgressWatcher(100L);
+        watcher.updateBytesTransferred(150L);
+        watcher.resetWatcher();
+        assertEquals(0L, watcher.getBytesTransferred());
+        assertEquals(150L, watcher.getTotalBytesInAllTransfers());
+        watcher.updateBytesTransferred(50L);
+        assertEquals(50L, watcher.getBytesTransferred());
+        assertEquals(200L, watcher.getTotalBytesInAllTransfers());
+    }
+}
@@ -0,0 +1,65 @@
+package org.xbib.io.archive;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ArchivePacketTests {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testNoPayload() throws Exception {
+        ArchivePacket packet = new ArchivePacket();
+        assertNull(packet.payloadAsBytes());
+        assertNull(packet.payloadAsString());
+        assertNull(packet.payloadAsStream());
+    }
+
+    @Test
+    public void testStringPayload() throws Exception {
+        ArchivePacket packet = new ArchivePacket().payload("Jörg");
+        assertEquals("Jörg", packet.payloadAsString());
+        assertArrayEquals("Jörg".getBytes(UTF8), packet.payloadAsBytes().toBytes());
+    }
+
+    @Test
+    public void testBytesPayload() throws Exception {
+        BytesReference bytes = new BytesArray("Jörg".getBytes(UTF8));
+        ArchivePacket packet = new ArchivePacket().payload(bytes);
+        // byte payloads are not copied
+        assertSame(bytes, packet.payloadAsBytes());
+        assertEquals("Jörg", packet.payloadAsString());
+        packet = new ArchivePacket().payload("Jörg".getBytes(UTF8));
+        assertEquals("Jörg", packet.payloadAsString());
+        assertEquals(5, packet.payloadAsBytes().length());
+    }
+
+    @Test
+    public void testSpilledPayload() throws Exception {
+        File file = File.createTempFile("knapsack-", ".entry");
+        try {
+            byte[] b = "{\"content\":\"Jörg\"}".getBytes(UTF8);
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(b);
+            } finally {
+                out.close();
+            }
+            ArchivePacket packet = new ArchivePacket().payload(new ArchiveEntryFile(file, b.length));
+            assertArrayEquals(b, packet.payloadAsBytes().toBytes());
+            assertEquals("{\"content\":\"Jörg\"}", packet.payloadAsString());
+        } finally {
+            file.delete();
+        }
+    }
+}
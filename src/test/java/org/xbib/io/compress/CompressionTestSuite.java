@@ -2,6 +2,8 @@ package org.xbib.io.compress;
 
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
+import org.xbib.io.BytesProgressWatcherTests;
+import org.xbib.io.archive.ArchivePacketTests;
 import org.xbib.io.compress.bzip2.BZip2BitInputStreamTests;
 import org.xbib.io.compress.bzip2.BZip2BitOutputStreamTests;
 import org.xbib.io.compress.bzip2.BZip2BlockDecompressorTests;
@@ -10,10 +12,14 @@ import org.xbib.io.compress.bzip2.BZip2HuffmanStageDecoderTests;
 import org.xbib.io.compress.bzip2.BZip2OutputStreamTests;
 import org.xbib.io.compress.bzip2.SimpleBZip2Tests;
 import org.xbib.io.compress.bzip2.HuffmanAllocatorTests;
+import org.xbib.io.compress.gzip.ParallelGZIPOutputStreamTests;
+import org.xbib.io.compress.xz.ParallelXZInputStreamTests;
+import org.xbib.io.compress.xz.ParallelXZOutputStreamTests;
 
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+        ArchivePacketTests.class,
         BZip2BitInputStreamTests.class,
         BZip2BitOutputStreamTests.class,
         BZip2BlockDecompressorTests.class,
@@ -21,7 +27,11 @@ import org.xbib.io.compress.bzip2.HuffmanAllocatorTests;
         BZip2HuffmanStageDecoderTests.class,
         BZip2OutputStreamTests.class,
         HuffmanAllocatorTests.class,
-        SimpleBZip2Tests.class
+        SimpleBZip2Tests.class,
+        ParallelGZIPOutputStreamTests.class,
+        ParallelXZOutputStreamTests.class,
+        ParallelXZInputStreamTests.class,
+        BytesProgressWatcherTests.class
 })
 public class CompressionTestSuite {
 
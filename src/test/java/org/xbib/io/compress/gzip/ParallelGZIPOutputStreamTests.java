@@ -0,0 +1,63 @@
+package org.xbib.io.compress.gzip;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelGZIPOutputStreamTests {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        // text-like data over several blocks, with a partial last block
+        Random random = new Random(42L);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 5 * ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE + 1234) {
+            sb.append("{\"content\":\"Hello World ").append(random.nextInt(1000)).append("\"}\n");
+        }
+        byte[] data = sb.toString().getBytes("UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelGZIPOutputStream zOut = new ParallelGZIPOutputStream(out, 4);
+        zOut.write(data, 0, 1000);
+        zOut.write(data, 1000, data.length - 1000);
+        zOut.close();
+        assertTrue(out.size() < data.length);
+        assertArrayEquals(data, gunzip(out.toByteArray()));
+    }
+
+    @Test
+    public void testRandomData() throws IOException {
+        byte[] data = new byte[3 * ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE];
+        new Random(42L).nextBytes(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelGZIPOutputStream zOut = new ParallelGZIPOutputStream(out, 2);
+        zOut.write(data);
+        zOut.close();
+        assertArrayEquals(data, gunzip(out.toByteArray()));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ParallelGZIPOutputStream(out, 2).close();
+        assertArrayEquals(new byte[0], gunzip(out.toByteArray()));
+    }
+
+    private static byte[] gunzip(byte[] b) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(b));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,92 @@
+package org.xbib.io.compress.xz;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelXZInputStreamTests {
+
+    private final static int BLOCK_SIZE = 64 * 1024;
+
+    @Test
+    public void testParallel() throws IOException {
+        byte[] data = createData(7 * BLOCK_SIZE + 4321);
+        File file = File.createTempFile("parallel-xz-", ".xz");
+        ParallelXZOutputStream xzOut = new ParallelXZOutputStream(new FileOutputStream(file), new LZMA2Options(1),
+                XZ.CHECK_CRC64, BLOCK_SIZE, 2);
+        xzOut.write(data);
+        xzOut.close();
+        for (int window : new int[] { 1, 2, 5, 0 }) {
+            ParallelXZInputStream in = new ParallelXZInputStream(new SeekableFileInputStream(file), 3, window);
+            assertTrue(in.isParallel());
+            assertArrayEquals(data, readFully(in));
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testSingleBlock() throws IOException {
+        byte[] data = createData(3 * BLOCK_SIZE);
+        File file = File.createTempFile("parallel-xz-", ".xz");
+        OutputStream out = new XZOutputStream(new FileOutputStream(file), new LZMA2Options(1));
+        out.write(data);
+        out.close();
+        ParallelXZInputStream in = new ParallelXZInputStream(new SeekableFileInputStream(file), 3);
+        assertFalse(in.isParallel());
+        assertArrayEquals(data, readFully(in));
+        file.delete();
+    }
+
+    @Test
+    public void testConcatenatedStreams() throws IOException {
+        byte[] data = createData(5 * BLOCK_SIZE);
+        File file = File.createTempFile("parallel-xz-", ".xz");
+        FileOutputStream out = new FileOutputStream(file);
+        ParallelXZOutputStream first = new ParallelXZOutputStream(out, new LZMA2Options(1),
+                XZ.CHECK_CRC32, BLOCK_SIZE, 2);
+        first.write(data, 0, 2 * BLOCK_SIZE + 17);
+        first.finish();
+        ParallelXZOutputStream second = new ParallelXZOutputStream(out, new LZMA2Options(1),
+                XZ.CHECK_SHA256, BLOCK_SIZE, 2);
+        second.write(data, 2 * BLOCK_SIZE + 17, data.length - 2 * BLOCK_SIZE - 17);
+        second.close();
+        SeekableXZInputStream seekable = new SeekableXZInputStream(new SeekableFileInputStream(file));
+        assertEquals(6, seekable.getBlockInfos().size());
+        seekable.close();
+        ParallelXZInputStream in = new ParallelXZInputStream(new SeekableFileInputStream(file), 2, 3);
+        assertTrue(in.isParallel());
+        assertArrayEquals(data, readFully(in));
+        file.delete();
+    }
+
+    private static byte[] createData(int length) {
+        Random random = new Random(42L);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < length) {
+            sb.append("{\"content\":\"Hello World ").append(random.nextInt(1000)).append("\"}\n");
+        }
+        return sb.substring(0, length).getBytes();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,102 @@
+package org.xbib.io.compress.xz;
+
+import org.junit.Test;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.archive.tar.TarArchiveEntry;
+import org.xbib.io.archive.tar.TarArchiveOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelXZOutputStreamTests {
+
+    private final static int BLOCK_SIZE = 64 * 1024;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] data = createData(5 * BLOCK_SIZE + 1234);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelXZOutputStream xzOut = new ParallelXZOutputStream(out, new LZMA2Options(1), XZ.CHECK_CRC64,
+                BLOCK_SIZE, 3);
+        xzOut.write(data, 0, 1000);
+        xzOut.write(data, 1000, data.length - 1000);
+        xzOut.close();
+        assertArrayEquals(data, readFully(new XZInputStream(new ByteArrayInputStream(out.toByteArray()))));
+    }
+
+    @Test
+    public void testSeekable() throws IOException {
+        byte[] data = createData(4 * BLOCK_SIZE);
+        File file = File.createTempFile("parallel-xz-", ".xz");
+        ParallelXZOutputStream xzOut = new ParallelXZOutputStream(new FileOutputStream(file), new LZMA2Options(1),
+                XZ.CHECK_CRC32, BLOCK_SIZE, 2);
+        xzOut.write(data);
+        xzOut.close();
+        SeekableXZInputStream in = new SeekableXZInputStream(new SeekableFileInputStream(file));
+        assertEquals(data.length, in.length());
+        assertEquals(BLOCK_SIZE, in.getLargestBlockSize());
+        in.seek(2 * BLOCK_SIZE + 10);
+        assertEquals(data[2 * BLOCK_SIZE + 10], (byte) in.read());
+        in.close();
+        file.delete();
+    }
+
+    @Test
+    public void testTarArchive() throws IOException {
+        byte[] data = createData(1024);
+        File file = File.createTempFile("parallel-xz-", ".tar.xz");
+        TarArchiveOutputStream tarOut = new TarArchiveOutputStream(new ParallelXZOutputStream(
+                new FileOutputStream(file), new LZMA2Options(1), XZ.CHECK_CRC64, BLOCK_SIZE, 2));
+        tarOut.setWatcher(new BytesProgressWatcher(0L));
+        for (int i = 0; i < 200; i++) {
+            TarArchiveEntry entry = new TarArchiveEntry("doc" + i);
+            entry.setEntrySize(data.length);
+            tarOut.putArchiveEntry(entry);
+            tarOut.write(data);
+            tarOut.closeArchiveEntry();
+        }
+        tarOut.close();
+        SeekableXZInputStream in = new SeekableXZInputStream(new SeekableFileInputStream(file));
+        // the tar records flush the stream, but the Blocks are only cut at the Block size
+        assertTrue(in.length() > 4 * BLOCK_SIZE);
+        assertEquals((in.length() + BLOCK_SIZE - 1) / BLOCK_SIZE, in.getBlockInfos().size());
+        in.close();
+        file.delete();
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ParallelXZOutputStream(out, new LZMA2Options(), 2).close();
+        assertArrayEquals(new byte[0], readFully(new XZInputStream(new ByteArrayInputStream(out.toByteArray()))));
+    }
+
+    private static byte[] createData(int length) {
+        Random random = new Random(42L);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < length) {
+            sb.append("{\"content\":\"Hello World ").append(random.nextInt(1000)).append("\"}\n");
+        }
+        return sb.substring(0, length).getBytes();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}